@@ -0,0 +1,163 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+//builds the inputs for each benchmark. everything is derived from a fixed seed so runs stay comparable between versions
+public class BenchmarkWorkloads {
+    private static final long SEED = 0x5eedL;
+
+    public static PreprocessingContext newContext(Path unit) throws CompilerException {
+        return new PreprocessingContext(unit, LocalDateTime.of(2000, 1, 1, 0, 0), true, false);
+    }
+
+    //a large file of ordinary C with no directives, for measuring the tokenizer on its own
+    public static String flatSource(int lines) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; ++i) {
+            switch (random.nextInt(6)) {
+                case 0 -> sb.append("int value_").append(i).append(" = ").append(random.nextInt(100000)).append(" * (other_").append(i % 17).append(" + 0x1f);\n");
+                case 1 -> sb.append("    if (ptr->field_").append(i % 11).append(" >= limit && count <<= 2) { total += 1.5e-3; }\n");
+                case 2 -> sb.append("const char* message_").append(i).append(" = \"line ").append(i).append(" says \\\"hello\\\"\\n\";\n");
+                case 3 -> sb.append("    buffer[index++] = 'x'; // trailing comment ").append(i).append('\n');
+                case 4 -> sb.append("/* block comment ").append(i).append(" */ return call_").append(i % 23).append("(a, b, c);\n");
+                default -> sb.append("    for (j = 0; j != ").append(random.nextInt(64)).append("; ++j) { sum ^= table[j] | mask; }\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    //chains of object-like macros, with function-like macros that expand into them every few definitions
+    public static String macroDefinitions(int macroCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#define OBJ_0 1\n");
+        for (int i = 1; i < macroCount; ++i) {
+            if (i % 4 == 0) {
+                sb.append("#define FN_").append(i).append("(a, b) ((a) + (b) * OBJ_").append(i - 1).append(")\n");
+            } else {
+                sb.append("#define OBJ_").append(i).append(" (OBJ_").append(i - 1).append(" + ").append(i).append(")\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    public static String macroUses(int macroCount, int uses) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < uses; ++i) {
+            int target = random.nextInt(macroCount);
+            if (target % 4 == 0 && target != 0) {
+                sb.append("FN_").append(target).append("(x, OBJ_").append(target - 1).append(") ; ");
+            } else {
+                sb.append("OBJ_").append(target).append(" ; ");
+            }
+        }
+        return sb.append('\n').toString();
+    }
+
+    //constant expressions of the sort found in #if conditions, already tokenized.
+    //PreprocessorConstExpr currently only copes with a single operator per expression, so that's all these use
+    public static List<List<PreprocessingToken>> constantExpressions(int count, PreprocessingContext context) throws CompilerException {
+        String[] operators = {"==", "!=", "<", ">", "&&", "||", "&", "|", "<<", "%"};
+        Random random = new Random(SEED);
+        List<List<PreprocessingToken>> expressions = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            String expression = switch (random.nextInt(4)) {
+                case 0 -> "!" + random.nextInt(2);
+                case 1 -> "0x" + Integer.toHexString(random.nextInt(256)) + " == " + random.nextInt(256);
+                default -> (1 + random.nextInt(100)) + " " + operators[random.nextInt(operators.length)] + " " + (1 + random.nextInt(8));
+            };
+            List<PreprocessingToken> tokens = Tokenizer.tokenize(expression + "\n", context);
+            tokens.removeLast(); //newline
+            expressions.add(tokens);
+        }
+        return expressions;
+    }
+
+    //a file made of #if/#elif/#else ladders, each picking one of several branches
+    public static String ifLadders(int ladders, int rungs) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder();
+        sb.append("#define SELECTOR ").append(random.nextInt(rungs + 1)).append('\n');
+        for (int i = 0; i < ladders; ++i) {
+            sb.append("#if SELECTOR == 0\n");
+            sb.append("int ladder_").append(i).append(" = 0;\n");
+            for (int j = 1; j < rungs; ++j) {
+                sb.append("#elif SELECTOR == ").append(j).append('\n');
+                sb.append("int ladder_").append(i).append(" = ").append(j).append(";\n");
+            }
+            sb.append("#else\n");
+            sb.append("int ladder_").append(i).append(" = -1;\n");
+            sb.append("#endif\n");
+        }
+        return sb.toString();
+    }
+
+    //mostly directives: #ifdef/#else/#endif blocks, with #define and #undef around ordinary code.
+    //half of the features are defined, so both branches get taken
+    public static String directiveBlocks(int blocks) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i += 2) {
+            sb.append("#define FEATURE_").append(i).append('\n');
+        }
+        for (int i = 0; i < blocks; ++i) {
+            sb.append("#ifdef FEATURE_").append(i % 8).append('\n');
+            sb.append("int feature_").append(i).append(" = 1;\n");
+            sb.append("#else\n");
+            sb.append("int feature_").append(i).append(" = 0;\n");
+            sb.append("#endif\n");
+            sb.append("#define LOCAL_").append(i).append(" (").append(i).append(")\n");
+            sb.append("int use_").append(i).append(" = LOCAL_").append(i).append(" + call(a, b, \"#endif\");\n");
+            sb.append("#undef LOCAL_").append(i).append('\n');
+        }
+        return sb.toString();
+    }
+
+    //writes a tree of guarded headers: each header at depth d includes `width` headers at depth d + 1.
+    //returns the source file that includes the root headers
+    public static Path includeGraph(Path directory, int depth, int width) throws IOException {
+        Path includeDir = Files.createDirectories(directory.resolve("include"));
+        writeHeaders(includeDir, "h", depth, width);
+
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < width; ++i) {
+            source.append("#include \"h_").append(i).append(".h\"\n");
+        }
+        source.append("int main() { return 0; }\n");
+
+        Path unit = directory.resolve("unit.c");
+        Files.writeString(unit, source.toString());
+        return unit;
+    }
+
+    private static void writeHeaders(Path includeDir, String prefix, int depth, int width) throws IOException {
+        if (depth == 0) {
+            return;
+        }
+
+        for (int i = 0; i < width; ++i) {
+            String name = prefix + "_" + i;
+            String guard = name.toUpperCase() + "_H";
+
+            StringBuilder header = new StringBuilder();
+            header.append("#ifndef ").append(guard).append('\n');
+            header.append("#define ").append(guard).append('\n');
+            if (depth > 1) {
+                for (int j = 0; j < width; ++j) {
+                    header.append("#include \"").append(name).append('_').append(j).append(".h\"\n");
+                }
+            }
+            header.append("int ").append(name).append("_function(int a, int b);\n");
+            header.append("#endif\n");
+
+            Files.writeString(includeDir.resolve(name + ".h"), header.toString());
+            writeHeaders(includeDir, name, depth - 1, width);
+        }
+    }
+}
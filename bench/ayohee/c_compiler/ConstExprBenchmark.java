@@ -0,0 +1,51 @@
+package ayohee.c_compiler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstExprBenchmark {
+    @Param({"16"})
+    public int rungs;
+
+    private PreprocessingContext context;
+    private List<List<PreprocessingToken>> expressions;
+    private String ladders;
+
+    @Setup
+    public void setup() throws CompilerException {
+        context = BenchmarkWorkloads.newContext(Path.of("ladders.c"));
+        context.fileDeeper(Path.of("ladders.c"));
+        expressions = BenchmarkWorkloads.constantExpressions(100, context);
+        ladders = BenchmarkWorkloads.ifLadders(50, rungs);
+    }
+
+    //PreprocessorConstExpr on its own, over already tokenized and expanded conditions
+    @Benchmark
+    public int evaluate() throws CompilerException {
+        int trueCount = 0;
+        for (List<PreprocessingToken> expression : expressions) {
+            PreprocessorConstExpr constExpr = new PreprocessorConstExpr(expression, context);
+            if (constExpr.evaluate(context).is("1")) {
+                ++trueCount;
+            }
+        }
+        return trueCount;
+    }
+
+    //whole #if/#elif/#else ladders, including finding each clause and removing the unused ones
+    @Benchmark
+    public List<PreprocessingToken> ladders() throws CompilerException {
+        PreprocessingContext unitContext = BenchmarkWorkloads.newContext(Path.of("ladders.c"));
+        return Preprocessor.preprocessString(Path.of("ladders.c"), ladders, new ArrayList<>(), unitContext);
+    }
+}
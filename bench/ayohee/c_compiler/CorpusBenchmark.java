@@ -0,0 +1,64 @@
+package ayohee.c_compiler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//preprocesses a whole generated corpus, unit by unit, the way Main does. the same seed and parameters passed to
+//WorkloadGenerator's main produce the identical corpus on disk for profiling full Main runs
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CorpusBenchmark {
+    @Param({"1"})
+    public long seed;
+
+    @Param({"16"})
+    public int units;
+
+    @Param({"1.0", "0.5"})
+    public double guardRatio;
+
+    private Path directory;
+    private List<Path> sourceFiles;
+    private List<Path> includePaths;
+    private Path ctxPath;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("corpus-benchmark");
+        WorkloadGenerator generator = new WorkloadGenerator(seed).units(units).guardRatio(guardRatio);
+        generator.generate(directory);
+
+        sourceFiles = generator.sourceFiles(directory);
+        includePaths = List.of(directory.resolve("include"));
+        ctxPath = directory.resolve("FLAGS.h");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        PreprocessingCache.clear();
+        OutputDirectory.delete(directory);
+    }
+
+    @Benchmark
+    public int preprocessCorpus() throws CompilerException, IOException {
+        String flags = Files.readString(ctxPath);
+
+        int tokenCount = 0;
+        for (Path sourceFile : sourceFiles) {
+            PreprocessingContext context = BenchmarkWorkloads.newContext(sourceFile);
+            Preprocessor.preprocessString(ctxPath, flags, new ArrayList<>(), context);
+            tokenCount += Preprocessor.preprocessString(sourceFile, Files.readString(sourceFile), includePaths, context).size();
+        }
+        return tokenCount;
+    }
+}
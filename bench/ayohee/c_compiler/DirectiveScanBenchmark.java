@@ -0,0 +1,66 @@
+package ayohee.c_compiler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectiveScanBenchmark {
+    @Param({"200", "2000"})
+    public int blocks;
+
+    private String source;
+    private List<PreprocessingToken> tokens;
+
+    @Setup
+    public void setup() throws CompilerException {
+        source = BenchmarkWorkloads.directiveBlocks(blocks);
+        PreprocessingContext context = BenchmarkWorkloads.newContext(Path.of("directives.c"));
+        context.fileDeeper(Path.of("directives.c"));
+        tokens = Tokenizer.tokenize(source, context);
+    }
+
+    //the checks handleToken and findNearestIfClauseNewline make on every token, as they were made before tokens had a Kind
+    @Benchmark
+    public int scanBySpelling() {
+        int clauses = 0;
+        for (int i = 0; i + 1 < tokens.size(); ++i) {
+            if (tokens.get(i).is("#") && (i == 0 || tokens.get(i - 1).is(PreprocessingToken.TokenType.NEWLINE))) {
+                PreprocessingToken directive = tokens.get(i + 1);
+                if (directive.is("elif") || directive.is("else") || directive.is("endif")) {
+                    ++clauses;
+                }
+            }
+        }
+        return clauses;
+    }
+
+    @Benchmark
+    public int scanByKind() {
+        int clauses = 0;
+        for (int i = 0; i + 1 < tokens.size(); ++i) {
+            if (tokens.get(i).is(PreprocessingToken.Kind.HASH) && (i == 0 || tokens.get(i - 1).is(PreprocessingToken.TokenType.NEWLINE))) {
+                PreprocessingToken directive = tokens.get(i + 1);
+                if (directive.is(PreprocessingToken.Kind.ELIF) || directive.is(PreprocessingToken.Kind.ELSE) || directive.is(PreprocessingToken.Kind.ENDIF)) {
+                    ++clauses;
+                }
+            }
+        }
+        return clauses;
+    }
+
+    //everything executeDirectives does with the same file, for comparing between versions
+    @Benchmark
+    public List<PreprocessingToken> preprocess() throws CompilerException {
+        PreprocessingContext context = BenchmarkWorkloads.newContext(Path.of("directives.c"));
+        return Preprocessor.preprocessString(Path.of("directives.c"), source, new ArrayList<>(), context);
+    }
+}
@@ -0,0 +1,56 @@
+package ayohee.c_compiler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncludeBenchmark {
+    //deep: a long chain of nested headers. wide: many headers, each included from a single level
+    @Param({"deep", "wide"})
+    public String shape;
+
+    //whether header tokens are kept between units, as they are within a build or in server mode
+    @Param({"true", "false"})
+    public boolean cachedHeaders;
+
+    private Path directory;
+    private Path unit;
+    private String unitSource;
+    private List<Path> includePaths;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("include-benchmark");
+        unit = shape.equals("deep")
+                ? BenchmarkWorkloads.includeGraph(directory, 24, 1)
+                : BenchmarkWorkloads.includeGraph(directory, 2, 24);
+        unitSource = Files.readString(unit);
+        includePaths = List.of(directory.resolve("include"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        PreprocessingCache.clear();
+        OutputDirectory.delete(directory);
+    }
+
+    @Benchmark
+    public List<PreprocessingToken> includeGraph() throws CompilerException {
+        if (!cachedHeaders) {
+            PreprocessingCache.clear();
+        }
+
+        PreprocessingContext context = BenchmarkWorkloads.newContext(unit);
+        return Preprocessor.preprocessString(unit, unitSource, includePaths, context);
+    }
+}
@@ -0,0 +1,43 @@
+package ayohee.c_compiler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MacroExpansionBenchmark {
+    @Param({"32", "256"})
+    public int macros;
+
+    @Param({"100"})
+    public int uses;
+
+    private PreprocessingContext context;
+    private List<PreprocessingToken> usage;
+
+    @Setup
+    public void setup() throws CompilerException {
+        Path header = Path.of("macros.h");
+        context = BenchmarkWorkloads.newContext(header);
+        Preprocessor.preprocessString(header, BenchmarkWorkloads.macroDefinitions(macros), new ArrayList<>(), context);
+
+        context.fileDeeper(Path.of("uses.c"));
+        usage = Tokenizer.tokenize(BenchmarkWorkloads.macroUses(macros, uses), context);
+    }
+
+    //doReplacement rewrites the list in place, so each invocation works on a fresh copy
+    @Benchmark
+    public List<PreprocessingToken> doReplacement() throws CompilerException {
+        List<PreprocessingToken> tokens = new ArrayList<>(usage);
+        context.doReplacement(tokens, 0, false);
+        return tokens;
+    }
+}
@@ -0,0 +1,33 @@
+package ayohee.c_compiler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+    @Param({"1000", "20000"})
+    public int lines;
+
+    private String source;
+    private PreprocessingContext context;
+
+    @Setup
+    public void setup() throws CompilerException {
+        source = BenchmarkWorkloads.flatSource(lines);
+        context = BenchmarkWorkloads.newContext(Path.of("flat.c"));
+        context.fileDeeper(Path.of("flat.c"));
+    }
+
+    @Benchmark
+    public List<PreprocessingToken> tokenize() throws CompilerException {
+        return Tokenizer.tokenize(source, context);
+    }
+}
@@ -0,0 +1,277 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+//writes a synthetic tree of .c/.h files for scale testing the preprocessor. the same parameters and seed always
+//produce the same files, so Main runs and benchmark runs over a corpus are comparable between versions.
+//
+//layout: <out>/src/*.c, <out>/include/*.h and a context file at <out>/FLAGS.h. compile it with
+//  Main -p -s <out>/src -i <out>/include --context <out>/FLAGS.h
+public class WorkloadGenerator {
+    private final long seed;
+    private int units = 16;
+    private int includeDepth = 3;
+    private int fanOut = 3;
+    private int headersPerLevel = 8;
+    private double guardRatio = 1.0;
+    private int macroCount = 64;
+    private int macroNesting = 3;
+    private double ifDensity = 0.05;
+    private int linesPerFile = 200;
+
+    private Random random;
+    private int configMacros;
+
+    public WorkloadGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path out = Path.of("generated").toAbsolutePath();
+        long seed = 1;
+        List<String> settings = new ArrayList<>();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-o", "--output" -> out = Path.of(args[i + 1]).toAbsolutePath();
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                default -> {
+                    settings.add(args[i]);
+                    settings.add(args[i + 1]);
+                }
+            }
+        }
+
+        WorkloadGenerator generator = new WorkloadGenerator(seed);
+        for (int i = 0; i < settings.size(); i += 2) {
+            String value = settings.get(i + 1);
+            switch (settings.get(i)) {
+                case "--units" -> generator.units(Integer.parseInt(value));
+                case "--include-depth" -> generator.includeDepth(Integer.parseInt(value));
+                case "--fan-out" -> generator.fanOut(Integer.parseInt(value));
+                case "--headers-per-level" -> generator.headersPerLevel(Integer.parseInt(value));
+                case "--guard-ratio" -> generator.guardRatio(Double.parseDouble(value));
+                case "--macros" -> generator.macroCount(Integer.parseInt(value));
+                case "--macro-nesting" -> generator.macroNesting(Integer.parseInt(value));
+                case "--if-density" -> generator.ifDensity(Double.parseDouble(value));
+                case "--lines" -> generator.linesPerFile(Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("Unknown workload generator option: " + settings.get(i));
+            }
+        }
+
+        generator.generate(out);
+        System.out.println("Generated workload in " + out);
+    }
+
+    public WorkloadGenerator units(int units) {
+        this.units = requireAtLeast("units", units, 1);
+        return this;
+    }
+    public WorkloadGenerator includeDepth(int includeDepth) {
+        //each unit is one file deep already, and PreprocessingContext stops at 32
+        this.includeDepth = requireAtMost("include depth", requireAtLeast("include depth", includeDepth, 0), 30);
+        return this;
+    }
+    public WorkloadGenerator fanOut(int fanOut) {
+        this.fanOut = requireAtLeast("fan-out", fanOut, 0);
+        return this;
+    }
+    public WorkloadGenerator headersPerLevel(int headersPerLevel) {
+        this.headersPerLevel = requireAtLeast("headers per level", headersPerLevel, 1);
+        return this;
+    }
+    public WorkloadGenerator guardRatio(double guardRatio) {
+        this.guardRatio = requireFraction("guard ratio", guardRatio);
+        return this;
+    }
+    public WorkloadGenerator macroCount(int macroCount) {
+        this.macroCount = requireAtLeast("macro count", macroCount, 0);
+        return this;
+    }
+    public WorkloadGenerator macroNesting(int macroNesting) {
+        //every level of nesting is another rescan, and doReplacement gives up after 16 of them
+        this.macroNesting = requireAtMost("macro nesting", requireAtLeast("macro nesting", macroNesting, 0), 12);
+        return this;
+    }
+    public WorkloadGenerator ifDensity(double ifDensity) {
+        this.ifDensity = requireFraction("if density", ifDensity);
+        return this;
+    }
+    public WorkloadGenerator linesPerFile(int linesPerFile) {
+        this.linesPerFile = requireAtLeast("lines per file", linesPerFile, 1);
+        return this;
+    }
+
+    public void generate(Path out) throws IOException {
+        random = new Random(seed);
+        configMacros = Math.max(1, macroCount / 8);
+
+        Path sourceDir = Files.createDirectories(out.resolve("src"));
+        Path includeDir = Files.createDirectories(out.resolve("include"));
+
+        Files.writeString(out.resolve("FLAGS.h"), contextFile());
+        Files.writeString(includeDir.resolve("macros.h"), macroHeader());
+        for (int level = 0; level < includeDepth; ++level) {
+            for (int h = 0; h < headersPerLevel; ++h) {
+                Files.writeString(includeDir.resolve(headerName(level, h)), header(level, h));
+            }
+        }
+        for (int u = 0; u < units; ++u) {
+            Files.writeString(sourceDir.resolve(String.format("unit_%04d.c", u)), unit(u));
+        }
+    }
+
+    public List<Path> sourceFiles(Path out) {
+        List<Path> sourceFiles = new ArrayList<>();
+        for (int u = 0; u < units; ++u) {
+            sourceFiles.add(out.resolve("src").resolve(String.format("unit_%04d.c", u)));
+        }
+        return sourceFiles;
+    }
+
+    //configuration macros for #if conditions to test against, the way a real FLAGS.h would be used
+    private String contextFile() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < configMacros; ++i) {
+            sb.append("#define CONFIG_").append(i).append(' ').append(random.nextInt(4)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    //object-like constants, plus a chain of function-like macros where each level expands into two uses of the one below
+    private String macroHeader() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#ifndef MACROS_H\n#define MACROS_H\n");
+        for (int i = 0; i < macroCount; ++i) {
+            sb.append("#define CONSTANT_").append(i).append(' ').append(random.nextInt(1 << 16)).append('\n');
+        }
+        sb.append("#define NEST_0(a, b) ((a) + (b))\n");
+        for (int i = 1; i <= macroNesting; ++i) {
+            sb.append("#define NEST_").append(i).append("(a, b) NEST_").append(i - 1).append("(NEST_").append(i - 1).append("(a, b), (b))\n");
+        }
+        sb.append("#endif\n");
+        return sb.toString();
+    }
+
+    private String header(int level, int index) {
+        String name = String.format("L%d_H%d", level, index);
+        boolean guarded = random.nextDouble() < guardRatio;
+
+        StringBuilder sb = new StringBuilder();
+        if (guarded) {
+            sb.append("#ifndef ").append(name).append("_H\n");
+            sb.append("#define ").append(name).append("_H\n");
+        }
+        sb.append("#include \"macros.h\"\n");
+        if (level + 1 < includeDepth) {
+            for (int i = 0; i < fanOut; ++i) {
+                sb.append("#include \"").append(headerName(level + 1, random.nextInt(headersPerLevel))).append("\"\n");
+            }
+        }
+
+        //conditional blocks nested inside an include guard aren't matched up properly yet,
+        //so headers only ever contain declarations and definitions
+        int declarations = Math.max(1, linesPerFile / 4);
+        for (int i = 0; i < declarations; ++i) {
+            if (random.nextInt(4) == 0) {
+                sb.append("#define ").append(name).append("_VALUE_").append(i).append(' ').append(macroUse()).append('\n');
+            } else {
+                sb.append("int ").append(name.toLowerCase()).append("_function_").append(i).append("(int a, const char* b);\n");
+            }
+        }
+
+        if (guarded) {
+            sb.append("#endif\n");
+        }
+        return sb.toString();
+    }
+
+    private String unit(int index) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#include \"macros.h\"\n");
+        if (includeDepth > 0) {
+            for (int i = 0; i < fanOut; ++i) {
+                sb.append("#include \"").append(headerName(0, random.nextInt(headersPerLevel))).append("\"\n");
+            }
+        }
+
+        sb.append("\nint unit_").append(index).append("_entry(int x) {\n");
+        sb.append("    int total = 0;\n");
+        for (int line = 0; line < linesPerFile; ++line) {
+            if (random.nextDouble() < ifDensity) {
+                conditionalBlock(sb, line);
+            } else {
+                statement(sb, line);
+            }
+        }
+        sb.append("    return total;\n}\n");
+        return sb.toString();
+    }
+
+    //#if conditions only use one operator each, as that's all PreprocessorConstExpr handles for now
+    private void conditionalBlock(StringBuilder sb, int line) {
+        int config = random.nextInt(configMacros);
+        switch (random.nextInt(3)) {
+            case 0 -> sb.append("#if CONFIG_").append(config).append(" == ").append(random.nextInt(4)).append('\n');
+            case 1 -> sb.append("#ifdef CONFIG_").append(random.nextInt(configMacros * 2)).append('\n');
+            default -> sb.append("#ifndef CONFIG_").append(random.nextInt(configMacros * 2)).append('\n');
+        }
+        statement(sb, line);
+        if (random.nextBoolean()) {
+            sb.append("#elif CONFIG_").append(config).append(" > ").append(random.nextInt(4)).append('\n');
+            statement(sb, line);
+        }
+        if (random.nextBoolean()) {
+            sb.append("#else\n");
+            statement(sb, line);
+        }
+        sb.append("#endif\n");
+    }
+
+    private void statement(StringBuilder sb, int line) {
+        switch (random.nextInt(4)) {
+            case 0 -> sb.append("    total += ").append(macroUse()).append(";\n");
+            case 1 -> sb.append("    const char* label_").append(line).append(" = \"line ").append(line).append(" of a generated unit\";\n");
+            case 2 -> sb.append("    if (x > ").append(random.nextInt(1000)).append(") { total ^= x << 2; } // generated\n");
+            default -> sb.append("    total = total * 31 + ").append(random.nextInt(100)).append(";\n");
+        }
+    }
+
+    private String macroUse() {
+        if (macroCount == 0 || random.nextInt(3) == 0) {
+            return "NEST_" + random.nextInt(macroNesting + 1) + "(x, " + random.nextInt(100) + ")";
+        }
+        return "CONSTANT_" + random.nextInt(macroCount);
+    }
+
+    private static String headerName(int level, int index) {
+        return String.format("l%d_h%d.h", level, index);
+    }
+
+    private static int requireAtLeast(String name, int value, int minimum) {
+        if (value < minimum) {
+            throw new IllegalArgumentException("Workload " + name + " must be at least " + minimum + ", got " + value);
+        }
+        return value;
+    }
+
+    //out of range settings are rejected rather than clamped, so that a corpus is always exactly the one asked for
+    private static int requireAtMost(String name, int value, int maximum) {
+        if (value > maximum) {
+            throw new IllegalArgumentException("Workload " + name + " must be at most " + maximum + ", got " + value);
+        }
+        return value;
+    }
+
+    private static double requireFraction(String name, double value) {
+        if (!(value >= 0.0 && value <= 1.0)) {
+            throw new IllegalArgumentException("Workload " + name + " must be between 0 and 1, got " + value);
+        }
+        return value;
+    }
+}
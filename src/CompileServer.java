@@ -0,0 +1,123 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//keeps a JVM (and the preprocessor's header/context caches) alive between builds.
+//requests are the working directory plus the usual Main arguments, and are handled one at a time.
+//the reply is the build's output as length-prefixed chunks, then -1 and the exit code
+public class CompileServer {
+    static int serve(Path socketPath) {
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(socketPath); //left behind by a server that didn't shut down cleanly
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socketPath);
+                } catch (IOException ignored) {
+                }
+            }));
+
+            System.out.println("Compile server listening on " + socketPath);
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    handleRequest(client);
+                } catch (IOException e) {
+                    System.out.println("Lost connection to client: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to start compile server on " + socketPath);
+            return -1;
+        }
+    }
+
+    private static void handleRequest(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+
+        Path workingDir = Path.of(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; ++i) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream serverOut = System.out;
+        InputStream serverIn = System.in;
+        PrintStream clientOut = new PrintStream(new ChunkedOutputStream(out), true, StandardCharsets.UTF_8);
+        System.setOut(clientOut);
+        System.setIn(InputStream.nullInputStream()); //there's nobody to answer prompts. -y is needed for anything that asks
+
+        int exitCode;
+        try {
+            exitCode = Main.run(args, workingDir);
+        } catch (Throwable e) { //even running out of stack or memory only fails this client's build, not the server
+            e.printStackTrace(clientOut);
+            exitCode = 1;
+        } finally {
+            clientOut.flush();
+            System.setOut(serverOut);
+            System.setIn(serverIn);
+        }
+
+        out.writeInt(-1);
+        out.writeInt(exitCode);
+        out.flush();
+        serverOut.println("Handled build in " + workingDir + " (exit code " + exitCode + ")");
+    }
+
+    static int forward(Path socketPath, String[] args) {
+        try (SocketChannel server = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(server)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(server)));
+
+            out.writeUTF(Path.of("").toAbsolutePath().toString());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            for (int length = in.readInt(); length >= 0; length = in.readInt()) {
+                System.out.write(in.readNBytes(length));
+                System.out.flush();
+            }
+            return in.readInt();
+        } catch (IOException e) {
+            System.out.println("Unable to reach compile server at " + socketPath);
+            return -1;
+        }
+    }
+
+    private static class ChunkedOutputStream extends OutputStream {
+        private final DataOutputStream out;
+
+        public ChunkedOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -3,18 +3,28 @@ import ayohee.c_compiler.*;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class Main {
     public static void main(String[] args) throws CompilerException {
+        if (args.length >= 2 && args[0].equals("--server")) {
+            System.exit(CompileServer.serve(Path.of(args[1]).toAbsolutePath()));
+        }
+        if (args.length >= 2 && args[0].equals("--connect")) {
+            System.exit(CompileServer.forward(Path.of(args[1]).toAbsolutePath(), Arrays.copyOfRange(args, 2, args.length)));
+        }
+
+        System.exit(run(args, Path.of("").toAbsolutePath()));
+    }
+
+    //relative paths in args are resolved against workingDir, so that the compile server can run builds on behalf of other directories
+    static int run(String[] args, Path workingDir) throws CompilerException {
         if (args.length == 0){
             System.out.println("Java C Compiler: No arguments supplied. Use -h or --help for more information.");
-            System.exit(-1);
+            return -1;
         }
 
         //command line flags
@@ -24,24 +34,35 @@ public class Main {
         boolean yesMode = false;
         boolean verbose = false;
         boolean cleanup = true;
+        boolean streaming = false;
+        boolean emitAsm = false;
+        boolean incrementalLink = false;
+        boolean lto = false;
 
         //command line arguments
         ArrayList<Path> includePaths = new ArrayList<>();
         ArrayList<Path> libraryPaths = new ArrayList<>();
         ArrayList<Path> sourcePaths = new ArrayList<>();
-        Path linkerOutputName = Path.of("main").toAbsolutePath();
-        Path ppOutputPath = Path.of("out_pp/").toAbsolutePath();
-        Path asmOutputPath = Path.of("out_asm/").toAbsolutePath();
-        Path objOutputPath = Path.of("out_obj/").toAbsolutePath();
-        Path ctxPath = Path.of("FLAGS.h").toAbsolutePath();
+        ArrayList<String> ignorePatterns = new ArrayList<>();
+        Path linkerOutputName = workingDir.resolve("main");
+        Path ppOutputPath = workingDir.resolve("out_pp/");
+        Path asmOutputPath = workingDir.resolve("out_asm/");
+        Path objOutputPath = workingDir.resolve("out_obj/");
+        Path ctxPath = workingDir.resolve("FLAGS.h");
+        Path metricsPath = null;
+        Path tracePath = null;
+        int macroStatsCount = 0;
+        int includeStatsCount = 0;
+        Path cachePath = null;
+        Path remoteCachePath = null;
+        long cacheSizeMB = 1024;
 
         //parse command line arguments
         for (int i = 0; i < args.length; i++){
             switch (args[i]){
                 case "-h", "--help":
                     showHelp();
-                    System.exit(0);
-                    break;
+                    return 0;
 
                 case "-v", "--verbose":
                     verbose = true;
@@ -70,6 +91,30 @@ public class Main {
                 case "-nc", "--no-cleanup":
                     cleanup = false;
                     break;
+
+                case "--streaming":
+                    streaming = true;
+                    break;
+
+                case "-S", "--emit-asm":
+                    emitAsm = true;
+                    break;
+
+                case "--incremental":
+                    incrementalLink = true;
+                    break;
+
+                case "-flto", "--lto":
+                    lto = true;
+                    break;
+
+                case "--macro-stats":
+                    macroStatsCount = 20; //may be overridden by a following count
+                    break;
+
+                case "--include-stats":
+                    includeStatsCount = 20;
+                    break;
             }
 
             //if we're on the last argument, don't process arguments that expect another argument to follow
@@ -77,51 +122,67 @@ public class Main {
                 break;
             }
             switch (args[i]){
-                case "-s", "--source" -> sourcePaths.add(Path.of(args[i + 1]).toAbsolutePath());
-                case "-i", "--include" -> includePaths.add(Path.of(args[i + 1]).toAbsolutePath());
-                case "-l", "--library" -> libraryPaths.add(Path.of(args[i + 1]).toAbsolutePath());
-                case "-po", "--preprocessor-output" -> ppOutputPath = Path.of(args[i + 1]).toAbsolutePath();
-                case "-co", "--compiler-output" -> asmOutputPath = Path.of(args[i + 1]).toAbsolutePath();
-                case "-ao", "--assembler-output" -> objOutputPath = Path.of(args[i + 1]).toAbsolutePath();
-                case "-o", "-lo", "--linker-output" -> linkerOutputName = Path.of(args[i + 1]).toAbsolutePath();
-                case "--context" -> ctxPath = Path.of(args[i + 1]).toAbsolutePath();
+                case "-s", "--source" -> sourcePaths.add(workingDir.resolve(args[i + 1]));
+                case "-x", "--ignore" -> ignorePatterns.add(args[i + 1]);
+                case "-i", "--include" -> includePaths.add(workingDir.resolve(args[i + 1]));
+                case "-l", "--library" -> libraryPaths.add(workingDir.resolve(args[i + 1]));
+                case "-po", "--preprocessor-output" -> ppOutputPath = workingDir.resolve(args[i + 1]);
+                case "-co", "--compiler-output" -> asmOutputPath = workingDir.resolve(args[i + 1]);
+                case "-ao", "--assembler-output" -> objOutputPath = workingDir.resolve(args[i + 1]);
+                case "-o", "-lo", "--linker-output" -> linkerOutputName = workingDir.resolve(args[i + 1]);
+                case "--context" -> ctxPath = workingDir.resolve(args[i + 1]);
+                case "--metrics" -> metricsPath = workingDir.resolve(args[i + 1]);
+                case "--trace" -> tracePath = workingDir.resolve(args[i + 1]);
+                case "--macro-stats" -> {
+                    if (args[i + 1].matches("[0-9]+")) {
+                        macroStatsCount = Integer.parseInt(args[i + 1]);
+                    }
+                }
+                case "--cache-dir" -> cachePath = workingDir.resolve(args[i + 1]);
+                case "--remote-cache-dir" -> remoteCachePath = workingDir.resolve(args[i + 1]);
+                case "--cache-size" -> {
+                    try {
+                        cacheSizeMB = Long.parseLong(args[i + 1]);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid cache size (expected a number of megabytes): " + args[i + 1]);
+                        return -1;
+                    }
+                }
+                case "--include-stats" -> {
+                    if (args[i + 1].matches("[0-9]+")) {
+                        includeStatsCount = Integer.parseInt(args[i + 1]);
+                    }
+                }
             }
         }
 
+        //link time optimisation needs the IR in the assembler's output, and code is only generated at link time, so
+        //there's no assembler source to write
+        lto &= assemble;
+        emitAsm &= !lto;
+
         System.out.println("Verbose mode: " + (verbose ? "enabled" : "disabled"));
         if (verbose) {
             System.out.println("Yes mode: " + (yesMode ? "enabled" : "disabled"));
             System.out.println("Will compile: " + (compile ? "yes" : "no"));
             System.out.println("Will assemble: " + (assemble ? "yes" : "no"));
-            System.out.println("Will link: " + (link ? "yes" : "no"));
+            System.out.println("Will link: " + (link ? "yes" : "no") + (lto ? " (with link time optimisation)" : ""));
+            System.out.println("Will write assembler source: " + (compile && (!assemble || emitAsm) ? "yes" : "no"));
             System.out.println("Will clean up intermediary files: " + (cleanup ? "yes" : "no") + "\n");
         }
 
 
-        //search through each source directory and store each .c file found
-        ArrayList<Path> sourceFiles = new ArrayList<>();
-        for (Path path : sourcePaths){
-            try{
-                System.out.println("Searching " + path.toString() + " for source files...");
-                sourceFiles.addAll(detectFiles(path, ".*[.]c"));   //*.c files in this directory or any subdirectory
-            }
-            catch (IOException e){
-                System.out.println("Failed to detect source files in " + path);
-            }
-        }
-        if (sourceFiles.isEmpty()) {
+        //search through each source directory for .c files in the background. preprocessing picks them up as they're found
+        SourceDiscovery sources = new SourceDiscovery(sourcePaths, ignorePatterns, verbose);
+        sources.start();
+        if (!sources.hasNext()) {
             System.out.println("No source files detected to compile.");
-            System.exit(1);
+            return 1;
         }
 
         if (verbose){
-            System.out.println("Detected source files: ");
-            for (Path path : sourceFiles){
-                System.out.println("\t" + path.toString());
-            }
-
             if (assemble) {
-                System.out.println("\nDetected include paths: ");
+                System.out.println("Detected include paths: ");
                 for (Path path : includePaths) {
                     System.out.println("\t" + path.toString());
                 }
@@ -139,9 +200,9 @@ public class Main {
             }
 
             System.out.println("\nPreprocessor output directory: " + ppOutputPath);
-            System.out.println("Compiler output directory: " + (compile ? asmOutputPath : "Disabled"));
+            System.out.println("Compiler output directory: " + (compile && (!assemble || emitAsm) ? asmOutputPath : "Disabled"));
             System.out.println("Assembler output directory: " + (assemble ? objOutputPath : "Disabled"));
-            System.out.println("Linker output path: " + (link ? linkerOutputName : "Disabled") + "\n");
+            System.out.println("Linker output path: " + (link ? linkerOutputName + (incrementalLink ? " (incremental)" : "") : "Disabled") + "\n");
         }
 
 
@@ -150,65 +211,79 @@ public class Main {
         String msg = "Preprocessing will delete all files and directories in " + ppOutputPath + ". Are you sure? (y/n)";
         List<Path> ppuFiles;
         if(cleanup || confirmUserIntent(msg, yesMode)) {
-            refreshPath(ppOutputPath, "Unable to refresh preprocessor output path at " + ppOutputPath);
-            ppuFiles = Preprocessor.preprocess(sourceFiles, includePaths, ctxPath, ppOutputPath, yesMode, verbose);
+            if (!refreshPath(ppOutputPath, "Unable to refresh preprocessor output path at " + ppOutputPath)) {
+                return -1;
+            }
+            Instrumentation instrumentation = new Instrumentation(metricsPath != null, tracePath != null, macroStatsCount > 0, includeStatsCount > 0);
+            ppuFiles = Preprocessor.preprocess(sources, includePaths, ctxPath, ppOutputPath, yesMode, verbose, streaming, openOutputCache(cachePath, remoteCachePath, cacheSizeMB), instrumentation);
             System.out.println("\nPreprocessing successfully finished.");
+            writeReports(instrumentation, metricsPath, tracePath, macroStatsCount, includeStatsCount);
         } else {
             System.out.println("Preprocessing aborted");
-            System.exit(1);
-            return;
+            return 1;
         }
 
-        //compile to assembly
-        //COMPILATION
+        //compile, and assemble as each unit's machine code is ready. assembler source is only written when it's the
+        //final output, or when asked for alongside the objects
+        //COMPILATION AND ASSEMBLING
         if (compile) {
-            msg = "Compilation will delete all files and directories in " + asmOutputPath + ". Are you sure? (y/n)";
-            if(cleanup || confirmUserIntent(msg, yesMode)){
-                refreshPath(asmOutputPath, "Unable to refresh compiler output path at " + asmOutputPath);
-            } else {
-                System.out.println("Compilation aborted");
-                System.exit(1);
+            boolean writeAsm = !assemble || emitAsm;
+            if (writeAsm) {
+                msg = "Compilation will delete all files and directories in " + asmOutputPath + ". Are you sure? (y/n)";
+                if(cleanup || confirmUserIntent(msg, yesMode)){
+                    if (!refreshPath(asmOutputPath, "Unable to refresh compiler output path at " + asmOutputPath)) {
+                        return -1;
+                    }
+                } else {
+                    System.out.println("Compilation aborted");
+                    return 1;
+                }
+            }
+            if (assemble) {
+                //delete and recreate output directory
+                msg = "Assembling will delete all files and directories in " + objOutputPath + ". Are you sure? (y/n)";
+                if(cleanup || confirmUserIntent(msg, yesMode)){
+                    if (!refreshPath(objOutputPath, "Unable to refresh assembler output path at " + objOutputPath)) {
+                        return -1;
+                    }
+                }
+                else{
+                    System.out.println("Assembling aborted");
+                    return 1;
+                }
             }
 
-            //TODO respect return code
-            Compiler.compile(ppuFiles, asmOutputPath, verbose, yesMode);
-            System.out.println("Compilation successfully finished.");
-        }
-
-        //optionally assemble and link
-        //ASSEMBLING
-        if (compile && assemble) {
-            //delete and recreate output directory
-            msg = "Assembling will delete all files and directories in " + objOutputPath + ". Are you sure? (y/n)";
-            if(cleanup || confirmUserIntent(msg, yesMode)){
-                refreshPath(objOutputPath, "Unable to refresh assembler output path at " + objOutputPath);
+            if (!Compiler.compile(ppuFiles, writeAsm ? asmOutputPath : null, assemble ? objOutputPath : null, lto, verbose, yesMode)) {
+                System.out.println("\nCompilation failed.");
+                return 1;
             }
-            else{
-                System.out.println("Assembling aborted");
-                System.exit(1);
+            System.out.println("Compilation successfully finished.");
+            if (assemble) {
+                System.out.println("Assembling successfully finished.");
             }
-
-            //TODO respect return code
-            Assembler.assemble(asmOutputPath, objOutputPath, verbose, yesMode);
-            System.out.println("Assembling successfully finished.");
         }
 
         //LINKING
         if (compile && assemble && link) {
-            //TODO respect return code
-            Linker.link(objOutputPath, libraryPaths, linkerOutputName, verbose, yesMode);
+            if (!Linker.link(objOutputPath, libraryPaths, linkerOutputName, incrementalLink, verbose, yesMode)) {
+                System.out.println("\nLinkage failed.");
+                return 1;
+            }
             System.out.println("Linkage successfully finished.");
         }
 
 
         //CLEANUP
         if (cleanup) {
-            deletePath(ppOutputPath, "Failed to delete preprocessor output");
-            deletePath(asmOutputPath, "Failed to delete compiler output");
-            deletePath(objOutputPath, "Failed to delete assembler output");
+            boolean deleted = deletePath(ppOutputPath, "Failed to delete preprocessor output")
+                    && deletePath(asmOutputPath, "Failed to delete compiler output")
+                    && deletePath(objOutputPath, "Failed to delete assembler output");
+            if (!deleted) {
+                return -1;
+            }
         }
 
-        System.exit(0);
+        return 0;
     }
 
     private static void showHelp() {
@@ -216,37 +291,65 @@ public class Main {
         System.out.println("Help message not written yet :/");
     }
 
-    private static void refreshPath(Path path, String failMsg) {
+    private static OutputCache openOutputCache(Path cachePath, Path remoteCachePath, long cacheSizeMB) {
+        if (cachePath == null) {
+            return OutputCache.DISABLED;
+        }
+
         try {
-            Runtime.getRuntime().exec(new String[] {"rm", "-r", path.toString()});
-            Runtime.getRuntime().exec(new String[] {"mkdir", path.toString()});
+            CacheBackend local = new DirectoryCacheBackend(cachePath, cacheSizeMB * 1024 * 1024);
+            CacheBackend remote = remoteCachePath == null ? null : new DirectoryCacheBackend(remoteCachePath, DirectoryCacheBackend.UNLIMITED);
+            return new OutputCache(local, remote);
+        } catch (IOException e) {
+            System.out.println("Unable to open preprocessor output cache, continuing without it: " + e.getMessage());
+            return OutputCache.DISABLED;
         }
-        catch (IOException e){
-            System.out.println(failMsg);
-            System.exit(-1);
+    }
+
+    private static void writeReports(Instrumentation instrumentation, Path metricsPath, Path tracePath, int macroStatsCount, int includeStatsCount) {
+        if (macroStatsCount > 0) {
+            instrumentation.getMacroStatistics().printTop(macroStatsCount);
+        }
+        if (includeStatsCount > 0) {
+            instrumentation.getIncludeStatistics().printTop(includeStatsCount);
+        }
+        if (metricsPath != null) {
+            try {
+                instrumentation.writeMetricsReport(metricsPath);
+                System.out.println("Preprocessing metrics written to " + metricsPath);
+            } catch (IOException e) {
+                System.out.println("Failed to write preprocessing metrics to " + metricsPath);
+            }
+        }
+        if (tracePath != null) {
+            try {
+                instrumentation.getTrace().write(tracePath);
+                System.out.println("Preprocessing trace written to " + tracePath);
+            } catch (IOException e) {
+                System.out.println("Failed to write preprocessing trace to " + tracePath);
+            }
         }
     }
 
-    private static void deletePath(Path path, String failMsg) {
+    private static boolean refreshPath(Path path, String failMsg) {
         try {
-            Runtime.getRuntime().exec(new String[] {"rm", "-r", path.toString()});
+            OutputDirectory.refresh(path);
+            return true;
         }
         catch (IOException e){
             System.out.println(failMsg);
-            System.exit(-1);
+            return false;
         }
     }
 
-    private static ArrayList<Path> detectFiles(Path path, String regex) throws IOException {
-        if (!Files.exists(path)){
-            System.out.println("Attempted to detect files in " + path + " but it does not exist");
-            return new ArrayList<>();
+    private static boolean deletePath(Path path, String failMsg) {
+        try {
+            OutputDirectory.delete(path);
+            return true;
         }
-
-        try (Stream<Path> walk = Files.walk(path)) {
-            return walk.filter(Files::isRegularFile)
-                    .filter((s) -> s.toString().matches(regex))
-                    .collect(Collectors.toCollection(ArrayList::new));
+        catch (IOException e){
+            System.out.println(failMsg);
+            return false;
         }
     }
 
@@ -261,7 +364,13 @@ public class Main {
 
         System.out.println(message);
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
-            return reader.readLine().charAt(0) == 'y';
+            String line = reader.readLine();
+            if (line == null || line.isEmpty()) {
+                //no input available, e.g. when running through the compile server - default to safe option
+                System.out.println("Unable to confirm user intent. Defaulting to: " + safeOption);
+                return safeOption;
+            }
+            return line.charAt(0) == 'y';
         }
         catch (IOException e){
             //unable to read from System.in. very weird - default to safe option
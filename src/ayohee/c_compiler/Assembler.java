@@ -1,9 +1,14 @@
 package ayohee.c_compiler;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
+//the integrated assembler: a unit's machine code is encoded straight into a relocatable object, rather than being
+//written out as assembler source to be read back in
 public class Assembler {
-    public static void assemble(Path asmOutputPath, Path objOutputPath, boolean verbose, boolean yesMode) {
-        //TODO this
+    public static ElfObject assemble(X86Module module, Path objFile) throws IOException {
+        ElfObject object = X86Encoder.encode(module);
+        object.write(objFile);
+        return object;
     }
 }
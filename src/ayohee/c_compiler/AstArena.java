@@ -0,0 +1,243 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//the syntax tree of one unit. nodes are indices into parallel primitive arrays rather than objects, so a tree of any size
+//is a handful of arrays to the garbage collector, and throwing a whole unit away is resetting a count.
+//arenas are handed from unit to unit, so once they've grown to fit the larger units parsing barely allocates at all.
+//children are linked through next, so a node's operands are its a/b/c/d fields and a list is its first element
+public final class AstArena {
+    public enum NodeKind {
+        NONE,
+
+        //declarations. a is the name, d holds the STORAGE_ flags
+        FUNCTION,       //b: first PARAMETER, c: body or NONE for a prototype
+        VARIABLE,       //b: initializer or NONE
+        PARAMETER,
+        TYPEDEF,        //only ever found through scopes, never in the tree
+        ENUM_CONSTANT,  //a, b: value. also only found through scopes
+
+        //statements
+        COMPOUND,       //a: first statement
+        DECLARATION,    //a: first VARIABLE
+        EXPRESSION_STATEMENT, //a: expression
+        IF,             //a: condition, b: then, c: else or NONE
+        WHILE,          //a: condition, b: body
+        DO_WHILE,       //a: body, b: condition
+        FOR,            //a: init statement or NONE, b: condition or NONE, c: step or NONE, d: body
+        SWITCH,         //a: expression, b: body
+        CASE,           //a, b: value, c: statement
+        DEFAULT,        //a: statement
+        LABEL,          //a: name, b: statement
+        GOTO,           //a: name
+        RETURN,         //a: expression or NONE
+        BREAK,
+        CONTINUE,
+        EMPTY,
+
+        //expressions. every expression has a type
+        INT_CONSTANT,   //a, b: value
+        STRING,         //a: contents, without the terminating zero
+        IDENTIFIER,     //a: name, b: the declaration it refers to
+        UNARY,          //d: operator, a: operand. for -, ~ and !
+        ADDRESS_OF,     //a: operand
+        DEREFERENCE,    //a: operand
+        PRE_INCREMENT, PRE_DECREMENT, POST_INCREMENT, POST_DECREMENT, //a: operand, b: step
+        BINARY,         //d: operator, a: left, b: right. includes && and ||
+        ASSIGN,         //d: operator, = or a compound assignment, a: target, b: value
+        CONDITIONAL,    //a: condition, b: if true, c: if false
+        COMMA,          //a: left, b: right
+        CALL,           //a: callee, b: first argument
+        MEMBER,         //a: struct operand, b: offset
+        CAST,           //a: operand
+        INIT_LIST       //a: first element
+    }
+
+    public static final int NONE = 0;
+
+    public static final int STORAGE_STATIC = 1;
+    public static final int STORAGE_EXTERN = 2;
+    public static final int STORAGE_INLINE = 4;
+    public static final int STORAGE_FILE_SCOPE = 8;
+
+    private static final NodeKind[] KINDS = NodeKind.values();
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int RETAINED_CAPACITY = 1 << 20; //beyond this, a reset gives the memory back rather than keeping it for the next unit
+
+    private byte[] kind;
+    private int[] type;
+    private int[] a;
+    private int[] b;
+    private int[] c;
+    private int[] d;
+    private int[] next;
+    private int[] line;
+    private int[] file;
+    private int count;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+    private final List<CType> types = new ArrayList<>();
+    private final Map<CType, Integer> typeIndices = new HashMap<>();
+
+    public AstArena() {
+        allocate(INITIAL_CAPACITY);
+        reset();
+    }
+
+    private void allocate(int capacity) {
+        kind = new byte[capacity];
+        type = new int[capacity];
+        a = new int[capacity];
+        b = new int[capacity];
+        c = new int[capacity];
+        d = new int[capacity];
+        next = new int[capacity];
+        line = new int[capacity];
+        file = new int[capacity];
+    }
+
+    //drops every node of the unit at once
+    public void reset() {
+        if (kind.length > RETAINED_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        }
+        count = 1; //node 0 is NONE, so that an unset field never points at a real node
+        strings.clear();
+        stringIndices.clear();
+        types.clear();
+        typeIndices.clear();
+        types.add(null);
+    }
+
+    public int add(NodeKind nodeKind, CType nodeType, int nodeA, int nodeB, int nodeC, int nodeD, int nodeFile, int nodeLine) {
+        if (count == kind.length) {
+            grow();
+        }
+        int n = count++;
+        kind[n] = (byte) nodeKind.ordinal();
+        type[n] = internType(nodeType);
+        a[n] = nodeA;
+        b[n] = nodeB;
+        c[n] = nodeC;
+        d[n] = nodeD;
+        next[n] = NONE;
+        file[n] = nodeFile;
+        line[n] = nodeLine;
+        return n;
+    }
+
+    private void grow() {
+        int capacity = kind.length * 2;
+        kind = Arrays.copyOf(kind, capacity);
+        type = Arrays.copyOf(type, capacity);
+        a = Arrays.copyOf(a, capacity);
+        b = Arrays.copyOf(b, capacity);
+        c = Arrays.copyOf(c, capacity);
+        d = Arrays.copyOf(d, capacity);
+        next = Arrays.copyOf(next, capacity);
+        line = Arrays.copyOf(line, capacity);
+        file = Arrays.copyOf(file, capacity);
+    }
+
+    public int intern(String s) {
+        Integer index = stringIndices.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndices.put(s, index);
+        }
+        return index;
+    }
+
+    private int internType(CType t) {
+        if (t == null) {
+            return 0;
+        }
+        Integer index = typeIndices.get(t);
+        if (index == null) {
+            index = types.size();
+            types.add(t);
+            typeIndices.put(t, index);
+        }
+        return index;
+    }
+
+
+    public NodeKind kind(int n) {
+        return KINDS[kind[n]];
+    }
+    public boolean is(int n, NodeKind nodeKind) {
+        return kind[n] == nodeKind.ordinal();
+    }
+    public CType type(int n) {
+        return types.get(type[n]);
+    }
+    public void setType(int n, CType t) {
+        type[n] = internType(t);
+    }
+    public int a(int n) {
+        return a[n];
+    }
+    public int b(int n) {
+        return b[n];
+    }
+    public int c(int n) {
+        return c[n];
+    }
+    public int d(int n) {
+        return d[n];
+    }
+    public void setB(int n, int value) {
+        b[n] = value;
+    }
+    public void setC(int n, int value) {
+        c[n] = value;
+    }
+    public void setD(int n, int value) {
+        d[n] = value;
+    }
+    public int next(int n) {
+        return next[n];
+    }
+    public void setNext(int n, int value) {
+        next[n] = value;
+    }
+    public int file(int n) {
+        return file[n];
+    }
+    public int line(int n) {
+        return line[n];
+    }
+
+    public String string(int index) {
+        return strings.get(index);
+    }
+    public String name(int n) {
+        return strings.get(a[n]);
+    }
+
+    //INT_CONSTANT, ENUM_CONSTANT and CASE values are split over a and b
+    public long value(int n) {
+        return ((long) b[n] << 32) | (a[n] & 0xFFFFFFFFL);
+    }
+    public static int low(long value) {
+        return (int) value;
+    }
+    public static int high(long value) {
+        return (int) (value >>> 32);
+    }
+
+    public int size() {
+        return count - 1;
+    }
+
+    //the node arrays only, which are what grows with the size of the unit
+    public long capacityBytes() {
+        return (long) kind.length * (1 + 8 * Integer.BYTES);
+    }
+}
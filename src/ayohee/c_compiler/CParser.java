@@ -0,0 +1,1746 @@
+package ayohee.c_compiler;
+
+import ayohee.c_compiler.AstArena.NodeKind;
+import ayohee.c_compiler.PreprocessingToken.Kind;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//the front end: parses one preprocessed unit into an AstArena. the type of every expression and the declaration every
+//identifier refers to are worked out while parsing, and implicit conversions are made explicit as CAST nodes,
+//so the stages after this never look anything up by name or need to know C's conversion rules.
+//floating point, bit-fields and whole-struct values aren't supported yet
+public class CParser {
+    private enum Keyword {
+        AUTO, BREAK, CASE, CHAR, CONST, CONTINUE, DEFAULT, DO, DOUBLE, ELSE, ENUM, EXTERN, FLOAT, FOR, GOTO, IF, INLINE,
+        INT, LONG, REGISTER, RESTRICT, RETURN, SHORT, SIGNED, SIZEOF, STATIC, STRUCT, SWITCH, TYPEDEF, UNION, UNSIGNED,
+        VOID, VOLATILE, WHILE;
+
+        private static final Map<String, Keyword> BY_SPELLING = new HashMap<>();
+        static {
+            for (Keyword keyword : values()) {
+                BY_SPELLING.put(keyword.name().toLowerCase(), keyword);
+            }
+            BY_SPELLING.put("__inline", INLINE);
+            BY_SPELLING.put("__restrict", RESTRICT);
+            BY_SPELLING.put("__const", CONST);
+            BY_SPELLING.put("__volatile__", VOLATILE);
+        }
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final PreprocessingToken END_OF_FILE = new PreprocessingToken(PreprocessingToken.TokenType.OTHER, "end of file");
+
+    private final AstArena arena;
+    private final Path unit;
+    private final List<String> warnings;
+
+    //the unit's tokens, with newlines and line markers taken out and where each one came from kept alongside
+    private PreprocessingToken[] tokens;
+    private Kind[] punctuators;
+    private Keyword[] keywords;
+    private int[] lines;
+    private int[] files;
+    private int count;
+    private int pos = 0;
+
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+    private final List<Map<String, CType>> tagScopes = new ArrayList<>();
+
+    //state of the function being parsed
+    private CType returnType;
+    private int loopDepth;
+    private int switchDepth;
+    private final Set<String> labels = new HashSet<>();
+    private final Map<String, Integer> gotos = new HashMap<>(); //label name to the GOTO node, for the error if it's never defined
+
+    private CParser(AstArena arena, Path unit, List<String> warnings) {
+        this.arena = arena;
+        this.unit = unit;
+        this.warnings = warnings;
+    }
+
+    //returns the first top level declaration, the rest following through next. warnings are added to the given list
+    public static int parse(List<PreprocessingToken> unitTokens, Path unit, AstArena arena, List<String> warnings) throws CompilerException {
+        CParser parser = new CParser(arena, unit, warnings);
+        parser.load(unitTokens);
+        return parser.parseUnit();
+    }
+
+    private void load(List<PreprocessingToken> unitTokens) {
+        int capacity = unitTokens.size() + 1;
+        tokens = new PreprocessingToken[capacity];
+        punctuators = new Kind[capacity];
+        keywords = new Keyword[capacity];
+        lines = new int[capacity];
+        files = new int[capacity];
+
+        int line = 1;
+        int file = arena.intern(unit.toString());
+        boolean atLineStart = true;
+        for (int i = 0; i < unitTokens.size(); ++i) {
+            PreprocessingToken token = unitTokens.get(i);
+            if (token.is(PreprocessingToken.TokenType.NEWLINE)) {
+                ++line;
+                atLineStart = true;
+                continue;
+            }
+
+            boolean isPunctuator = token.is(PreprocessingToken.TokenType.OPERATOR_PUNCTUATOR);
+            if (atLineStart && isPunctuator && token.is(Kind.HASH)) {
+                //a line marker, "# line 12 "file"" or gcc's "# 12 "file"". anything else after a # is ignored
+                int j = i + 1;
+                if (j < unitTokens.size() && unitTokens.get(j).is(Kind.LINE)) {
+                    ++j;
+                }
+                if (j < unitTokens.size() && unitTokens.get(j).is(PreprocessingToken.TokenType.PP_NUMBER)) {
+                    try {
+                        line = Integer.parseInt(unitTokens.get(j).toString()) - 1; //the newline ending the marker counts it back up
+                    } catch (NumberFormatException ignored) {
+                    }
+                    if (j + 1 < unitTokens.size() && unitTokens.get(j + 1).is(PreprocessingToken.TokenType.STRING_LIT)) {
+                        file = arena.intern(unitTokens.get(j + 1).unescapedString());
+                    }
+                }
+                while (i + 1 < unitTokens.size() && !unitTokens.get(i + 1).is(PreprocessingToken.TokenType.NEWLINE)) {
+                    ++i;
+                }
+                continue;
+            }
+            atLineStart = false;
+
+            Kind punctuator = Kind.NONE;
+            Keyword keyword = null;
+            if (isPunctuator && token.is(Kind.SIZEOF)) {
+                keyword = Keyword.SIZEOF;
+            } else if (isPunctuator && token.is(Kind.DEFINED)) {
+                token = new PreprocessingToken(PreprocessingToken.TokenType.IDENTIFIER, "defined"); //only special to the preprocessor
+            } else if (isPunctuator) {
+                punctuator = token.getKind();
+            } else if (isIdentifierToken(token)) {
+                keyword = Keyword.BY_SPELLING.get(token.toString());
+            }
+
+            tokens[count] = token;
+            punctuators[count] = punctuator;
+            keywords[count] = keyword;
+            lines[count] = line;
+            files[count] = file;
+            ++count;
+        }
+
+        tokens[count] = END_OF_FILE;
+        punctuators[count] = Kind.NONE;
+        lines[count] = line;
+        files[count] = file;
+    }
+
+    private static boolean isIdentifierToken(PreprocessingToken token) {
+        return token.is(PreprocessingToken.TokenType.IDENTIFIER) || token.is(PreprocessingToken.TokenType.FUNCTIONLIKE_MACRO_DEFINITION);
+    }
+
+
+    //DECLARATIONS
+    private int parseUnit() throws CompilerException {
+        pushScope();
+        int head = AstArena.NONE;
+        int tail = AstArena.NONE;
+        while (pos < count) {
+            int first = parseDeclaration(true);
+            for (int n = first; n != AstArena.NONE; ) {
+                int following = arena.next(n);
+                if (head == AstArena.NONE) {
+                    head = n;
+                } else {
+                    arena.setNext(tail, n);
+                }
+                tail = n;
+                arena.setNext(n, AstArena.NONE);
+                n = following;
+            }
+        }
+        popScope();
+        return head;
+    }
+
+    private record Specifiers(CType type, int storage, boolean isTypedef) {}
+
+    private record Declarator(String name, CType type, int params, int file, int line) {}
+
+    //a declaration, returning the FUNCTION and VARIABLE nodes it declared as a list. typedefs and prototypes inside
+    //functions only go into scope
+    private int parseDeclaration(boolean fileScope) throws CompilerException {
+        if (acceptPunctuator(Kind.SEMICOLON)) {
+            return AstArena.NONE;
+        }
+
+        Specifiers specifiers = parseSpecifiers(true);
+        if (acceptPunctuator(Kind.SEMICOLON)) {
+            return AstArena.NONE; //just declares a struct or enum
+        }
+
+        int head = AstArena.NONE;
+        int tail = AstArena.NONE;
+        boolean first = true;
+        while (true) {
+            Declarator declarator = parseDeclarator(specifiers.type, false);
+            int storage = specifiers.storage | (fileScope ? AstArena.STORAGE_FILE_SCOPE : 0);
+            int node;
+            if (specifiers.isTypedef) {
+                declare(declarator.name, arena.add(NodeKind.TYPEDEF, declarator.type, arena.intern(declarator.name), 0, 0, 0, declarator.file, declarator.line), declarator);
+                node = AstArena.NONE;
+            } else if (declarator.type.isFunction()) {
+                if (first && fileScope && isPunctuator(Kind.LEFT_BRACE)) {
+                    return parseFunctionDefinition(declarator, storage);
+                }
+                node = declareFunction(declarator, storage);
+                node = fileScope ? node : AstArena.NONE;
+            } else {
+                node = parseVariable(declarator, storage, fileScope);
+            }
+
+            if (node != AstArena.NONE) {
+                if (head == AstArena.NONE) {
+                    head = node;
+                } else {
+                    arena.setNext(tail, node);
+                }
+                tail = node;
+            }
+
+            first = false;
+            if (!acceptPunctuator(Kind.COMMA)) {
+                break;
+            }
+        }
+        expectPunctuator(Kind.SEMICOLON, "; after declaration");
+        return head;
+    }
+
+    //functions are always declared at file scope, even by a prototype inside a function
+    private int declareFunction(Declarator declarator, int storage) throws CompilerException {
+        int node = arena.add(NodeKind.FUNCTION, declarator.type, arena.intern(declarator.name), declarator.params, AstArena.NONE,
+                storage | AstArena.STORAGE_FILE_SCOPE, declarator.file, declarator.line);
+        Integer previous = scopes.getFirst().get(declarator.name);
+        if (previous != null && !arena.is(previous, NodeKind.FUNCTION)) {
+            throw error(declarator.file, declarator.line, declarator.name + " redeclared as a different kind of symbol");
+        }
+        if (previous != null && !arena.type(previous).isCompatible(declarator.type)) {
+            throw error(declarator.file, declarator.line, "Conflicting types for " + declarator.name);
+        }
+        if (previous != null && (arena.d(previous) & AstArena.STORAGE_STATIC) != 0) {
+            arena.setD(node, arena.d(node) | AstArena.STORAGE_STATIC); //static sticks to later declarations
+        }
+        scopes.getFirst().put(declarator.name, node);
+        if (scopes.size() > 1) {
+            scopes.getLast().put(declarator.name, node);
+        }
+        return node;
+    }
+
+    private int parseFunctionDefinition(Declarator declarator, int storage) throws CompilerException {
+        Integer previous = scopes.getFirst().get(declarator.name);
+        if (previous != null && arena.is(previous, NodeKind.FUNCTION) && arena.c(previous) != AstArena.NONE) {
+            throw error(declarator.file, declarator.line, "Redefinition of " + declarator.name);
+        }
+        int function = declareFunction(declarator, storage);
+
+        returnType = declarator.type.getBase();
+        if (returnType.isStruct() || returnType.isArray()) {
+            throw error(declarator.file, declarator.line, "Returning " + returnType + " by value isn't supported yet");
+        }
+        labels.clear();
+        gotos.clear();
+
+        pushScope();
+        for (int param = declarator.params; param != AstArena.NONE; param = arena.next(param)) {
+            String name = arena.name(param);
+            if (name.isEmpty()) {
+                throw error(arena.file(param), arena.line(param), "Parameter name omitted in the definition of " + declarator.name);
+            }
+            declare(name, param, new Declarator(name, arena.type(param), AstArena.NONE, arena.file(param), arena.line(param)));
+        }
+        arena.setC(function, parseCompound());
+        popScope();
+
+        for (Map.Entry<String, Integer> entry : gotos.entrySet()) {
+            if (!labels.contains(entry.getKey())) {
+                int node = entry.getValue();
+                throw error(arena.file(node), arena.line(node), "Label " + entry.getKey() + " used but not defined");
+            }
+        }
+        return function;
+    }
+
+    private int parseVariable(Declarator declarator, int storage, boolean fileScope) throws CompilerException {
+        CType type = declarator.type;
+        if (type.isVoid()) {
+            throw error(declarator.file, declarator.line, "Variable " + declarator.name + " declared void");
+        }
+
+        int node = arena.add(NodeKind.VARIABLE, type, arena.intern(declarator.name), AstArena.NONE, AstArena.NONE, storage, declarator.file, declarator.line);
+        if (fileScope || (storage & AstArena.STORAGE_EXTERN) != 0) {
+            Integer previous = scopes.getFirst().get(declarator.name);
+            if (previous != null && (!arena.is(previous, NodeKind.VARIABLE) || !arena.type(previous).isCompatible(type))) {
+                throw error(declarator.file, declarator.line, "Conflicting types for " + declarator.name);
+            }
+        }
+        declare(declarator.name, node, declarator);
+
+        if (acceptPunctuator(Kind.ASSIGN)) {
+            if ((storage & AstArena.STORAGE_EXTERN) != 0 && !fileScope) {
+                throw error(declarator.file, declarator.line, "Extern variable " + declarator.name + " can't be initialised here");
+            }
+            int initializer = parseInitializer(type);
+            if (type.isArray() && type.getLength() < 0) {
+                type = type.getBase().arrayOf(initializedLength(initializer));
+                arena.setType(node, type);
+            }
+            arena.setB(node, initializer);
+        }
+
+        if (!type.isComplete() && (storage & AstArena.STORAGE_EXTERN) == 0) {
+            if (!fileScope || !type.isArray()) {
+                throw error(declarator.file, declarator.line, "Storage size of " + declarator.name + " isn't known");
+            }
+            type = type.getBase().arrayOf(1); //a tentative definition of an array of unknown size has one element
+            arena.setType(node, type);
+        }
+        if (fileScope && arena.b(node) != AstArena.NONE) {
+            checkConstantInitializer(arena.b(node));
+        }
+        return node;
+    }
+
+    private long initializedLength(int initializer) {
+        if (arena.is(initializer, NodeKind.STRING)) {
+            return literalBytes(arena.string(arena.a(initializer))).length + 1;
+        }
+        long length = 0;
+        for (int element = arena.a(initializer); element != AstArena.NONE; element = arena.next(element)) {
+            ++length;
+        }
+        return length;
+    }
+
+    //an initializer for the given type. lists are matched up with the elements and members they initialise, so that every
+    //leaf is already converted to the type it initialises. a STRING initialising a char array stays a STRING
+    private int parseInitializer(CType type) throws CompilerException {
+        int file = files[pos];
+        int line = lines[pos];
+        if (type.isArray() && type.getBase().getKind() == CType.Kind.CHAR) {
+            boolean braced = isPunctuator(Kind.LEFT_BRACE) && tokens[pos + 1].is(PreprocessingToken.TokenType.STRING_LIT);
+            if (braced || tokens[pos].is(PreprocessingToken.TokenType.STRING_LIT)) {
+                if (braced) {
+                    ++pos;
+                }
+                int string = parsePrimary();
+                if (braced) {
+                    acceptPunctuator(Kind.COMMA);
+                    expectPunctuator(Kind.RIGHT_BRACE, "} after initializer");
+                }
+                long length = literalBytes(arena.string(arena.a(string))).length;
+                if (type.getLength() >= 0 && length > type.getLength()) {
+                    throw error(file, line, "Initializer string is too long for " + type);
+                }
+                return string;
+            }
+        }
+
+        if (type.isArray() || type.isStruct()) {
+            expectPunctuator(Kind.LEFT_BRACE, "{ to start the initializer of " + type);
+            int head = AstArena.NONE;
+            int tail = AstArena.NONE;
+            int index = 0;
+            while (!isPunctuator(Kind.RIGHT_BRACE)) {
+                if (isPunctuator(Kind.DOT) || isPunctuator(Kind.LEFT_BRACKET)) {
+                    throw error(files[pos], lines[pos], "Designated initializers aren't supported yet");
+                }
+                CType elementType;
+                if (type.isArray()) {
+                    if (type.getLength() >= 0 && index >= type.getLength()) {
+                        throw error(files[pos], lines[pos], "Too many elements in the initializer of " + type);
+                    }
+                    elementType = type.getBase();
+                } else {
+                    elementType = structMemberType(type, index);
+                    if (elementType == null) {
+                        throw error(files[pos], lines[pos], "Too many elements in the initializer of " + type);
+                    }
+                }
+                int element = parseInitializer(elementType);
+                if (head == AstArena.NONE) {
+                    head = element;
+                } else {
+                    arena.setNext(tail, element);
+                }
+                tail = element;
+                ++index;
+                if (!acceptPunctuator(Kind.COMMA)) {
+                    break;
+                }
+            }
+            expectPunctuator(Kind.RIGHT_BRACE, "} after initializer");
+            return arena.add(NodeKind.INIT_LIST, type, head, 0, 0, 0, file, line);
+        }
+
+        if (acceptPunctuator(Kind.LEFT_BRACE)) {
+            int value = parseInitializer(type); //a scalar in braces
+            acceptPunctuator(Kind.COMMA);
+            expectPunctuator(Kind.RIGHT_BRACE, "} after initializer");
+            return value;
+        }
+        return convertForAssignment(parseAssignment(), type, "initialization");
+    }
+
+    private static CType structMemberType(CType struct, int index) {
+        List<CType.Member> members = struct.getMembers();
+        return index < members.size() ? members.get(index).type() : null;
+    }
+
+    private void checkConstantInitializer(int initializer) throws CompilerException {
+        if (arena.is(initializer, NodeKind.INIT_LIST)) {
+            for (int element = arena.a(initializer); element != AstArena.NONE; element = arena.next(element)) {
+                checkConstantInitializer(element);
+            }
+            return;
+        }
+        if (!isAddressConstant(initializer)) {
+            evaluateConstant(initializer); //throws if it isn't one
+        }
+    }
+
+    //a string literal, or the address of something with static storage, optionally plus or minus a constant
+    private boolean isAddressConstant(int node) {
+        return switch (arena.kind(node)) {
+            case STRING -> true;
+            case CAST -> arena.type(node).isPointer() && (isAddressConstant(arena.a(node)) || isStaticObject(arena.a(node)));
+            case ADDRESS_OF -> isStaticObject(arena.a(node));
+            case IDENTIFIER -> isStaticObject(node) && (arena.type(node).isArray() || arena.type(node).isFunction());
+            case BINARY -> (arena.d(node) == Kind.PLUS.ordinal() || arena.d(node) == Kind.MINUS.ordinal())
+                    && isAddressConstant(arena.a(node)) && isConstant(arena.b(node));
+            default -> false;
+        };
+    }
+
+    private boolean isStaticObject(int node) {
+        if (!arena.is(node, NodeKind.IDENTIFIER)) {
+            return false;
+        }
+        int declaration = arena.b(node);
+        return arena.is(declaration, NodeKind.FUNCTION)
+                || (arena.is(declaration, NodeKind.VARIABLE) && (arena.d(declaration) & (AstArena.STORAGE_FILE_SCOPE | AstArena.STORAGE_STATIC | AstArena.STORAGE_EXTERN)) != 0);
+    }
+
+    private boolean isConstant(int node) {
+        try {
+            evaluateConstant(node);
+            return true;
+        } catch (CompilerException e) {
+            return false;
+        }
+    }
+
+    private Specifiers parseSpecifiers(boolean allowStorage) throws CompilerException {
+        int file = files[pos];
+        int line = lines[pos];
+        int storage = 0;
+        boolean isTypedef = false;
+        CType named = null;
+        int voids = 0, chars = 0, shorts = 0, ints = 0, longs = 0, signeds = 0, unsigneds = 0;
+
+        loop:
+        while (true) {
+            Keyword keyword = keywords[pos];
+            if (keyword == null) {
+                if (named == null && voids + chars + shorts + ints + longs + signeds + unsigneds == 0 && isTypedefName(pos)) {
+                    named = arena.type(lookupOrNull(tokens[pos].toString()));
+                    ++pos;
+                    continue;
+                }
+                break;
+            }
+
+            switch (keyword) {
+                case TYPEDEF, EXTERN, STATIC, AUTO, REGISTER, INLINE -> {
+                    if (!allowStorage) {
+                        throw error(files[pos], lines[pos], "Storage class not allowed here");
+                    }
+                    switch (keyword) {
+                        case TYPEDEF -> isTypedef = true;
+                        case EXTERN -> storage |= AstArena.STORAGE_EXTERN;
+                        case STATIC -> storage |= AstArena.STORAGE_STATIC;
+                        case INLINE -> storage |= AstArena.STORAGE_INLINE;
+                    }
+                    ++pos;
+                }
+                case CONST, VOLATILE, RESTRICT -> ++pos;
+                case VOID -> { ++voids; ++pos; }
+                case CHAR -> { ++chars; ++pos; }
+                case SHORT -> { ++shorts; ++pos; }
+                case INT -> { ++ints; ++pos; }
+                case LONG -> { ++longs; ++pos; }
+                case SIGNED -> { ++signeds; ++pos; }
+                case UNSIGNED -> { ++unsigneds; ++pos; }
+                case STRUCT, UNION -> {
+                    if (named != null) {
+                        throw error(files[pos], lines[pos], "More than one type in declaration");
+                    }
+                    named = parseStructSpecifier();
+                }
+                case ENUM -> {
+                    if (named != null) {
+                        throw error(files[pos], lines[pos], "More than one type in declaration");
+                    }
+                    named = parseEnumSpecifier();
+                }
+                case FLOAT, DOUBLE -> throw error(files[pos], lines[pos], "Floating point types aren't supported yet");
+                default -> {
+                    break loop;
+                }
+            }
+        }
+
+        int basic = voids + chars + shorts + ints + longs + signeds + unsigneds;
+        CType type;
+        if (named != null) {
+            if (basic != 0) {
+                throw error(file, line, "More than one type in declaration");
+            }
+            type = named;
+        } else if (basic == 0) {
+            throw error(file, line, "Expected a type, found " + tokens[pos]);
+        } else if (signeds + unsigneds > 1 || voids + chars + shorts > 1 || longs > 2 || ints > 1
+                || (voids + chars + shorts > 0 && longs > 0) || (voids > 0 && basic > 1)) {
+            throw error(file, line, "Invalid combination of type specifiers");
+        } else if (voids > 0) {
+            type = CType.VOID;
+        } else if (chars > 0) {
+            type = unsigneds > 0 ? CType.UCHAR : CType.CHAR;
+        } else if (shorts > 0) {
+            type = unsigneds > 0 ? CType.USHORT : CType.SHORT;
+        } else if (longs > 0) {
+            type = unsigneds > 0 ? CType.ULONG : CType.LONG;
+        } else {
+            type = unsigneds > 0 ? CType.UINT : CType.INT;
+        }
+        return new Specifiers(type, storage, isTypedef);
+    }
+
+    private CType parseStructSpecifier() throws CompilerException {
+        boolean isUnion = keywords[pos] == Keyword.UNION;
+        ++pos;
+        String tag = null;
+        if (isIdentifier(pos)) {
+            tag = tokens[pos++].toString();
+        }
+
+        if (!isPunctuator(Kind.LEFT_BRACE)) {
+            if (tag == null) {
+                throw error(files[pos], lines[pos], "Expected a struct tag or member list");
+            }
+            CType existing = lookupTag(tag);
+            if (existing != null) {
+                return existing;
+            }
+            CType declared = CType.struct(tag);
+            tagScopes.getLast().put(tag, declared);
+            return declared;
+        }
+
+        CType type = tag == null ? null : tagScopes.getLast().get(tag);
+        if (type == null || type.isComplete()) {
+            if (type != null) {
+                throw error(files[pos], lines[pos], "Redefinition of struct " + tag);
+            }
+            type = CType.struct(tag);
+            if (tag != null) {
+                tagScopes.getLast().put(tag, type);
+            }
+        }
+
+        ++pos;
+        List<CType.Member> members = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        while (!acceptPunctuator(Kind.RIGHT_BRACE)) {
+            Specifiers specifiers = parseSpecifiers(false);
+            do {
+                Declarator declarator = parseDeclarator(specifiers.type, false);
+                if (isPunctuator(Kind.COLON)) {
+                    throw error(files[pos], lines[pos], "Bit-fields aren't supported yet");
+                }
+                if (!declarator.type.isComplete()) {
+                    throw error(declarator.file, declarator.line, "Member " + declarator.name + " has incomplete type " + declarator.type);
+                }
+                if (!names.add(declarator.name)) {
+                    throw error(declarator.file, declarator.line, "Duplicate member " + declarator.name);
+                }
+                members.add(new CType.Member(declarator.name, declarator.type, 0));
+            } while (acceptPunctuator(Kind.COMMA));
+            expectPunctuator(Kind.SEMICOLON, "; after struct member");
+        }
+        type.completeStruct(members, isUnion);
+        return type;
+    }
+
+    private CType parseEnumSpecifier() throws CompilerException {
+        ++pos;
+        if (isIdentifier(pos)) {
+            ++pos; //enums are all just int, so the tag doesn't matter
+        }
+        if (!acceptPunctuator(Kind.LEFT_BRACE)) {
+            return CType.INT;
+        }
+
+        long value = 0;
+        while (!isPunctuator(Kind.RIGHT_BRACE)) {
+            int file = files[pos];
+            int line = lines[pos];
+            String name = expectIdentifier("enumerator name");
+            if (acceptPunctuator(Kind.ASSIGN)) {
+                value = evaluateConstant(parseConditional());
+            }
+            int constant = arena.add(NodeKind.ENUM_CONSTANT, CType.INT, AstArena.low(value), AstArena.high(value), 0, 0, file, line);
+            declare(name, constant, new Declarator(name, CType.INT, AstArena.NONE, file, line));
+            ++value;
+            if (!acceptPunctuator(Kind.COMMA)) {
+                break;
+            }
+        }
+        expectPunctuator(Kind.RIGHT_BRACE, "} after enumerators");
+        return CType.INT;
+    }
+
+    //a declarator for the given base type. an abstract one, as in casts and prototypes, may leave the name out
+    private Declarator parseDeclarator(CType base, boolean isAbstract) throws CompilerException {
+        int file = files[pos];
+        int line = lines[pos];
+        while (acceptPunctuator(Kind.STAR)) {
+            base = base.pointerTo();
+            while (keywords[pos] == Keyword.CONST || keywords[pos] == Keyword.VOLATILE || keywords[pos] == Keyword.RESTRICT) {
+                ++pos;
+            }
+        }
+
+        if (isPunctuator(Kind.LEFT_PAREN) && isNestedDeclarator(pos + 1)) {
+            //the suffixes after the parentheses apply first, so skip ahead to parse them, then come back for the inside
+            int start = pos + 1;
+            pos = matchingParen(pos) + 1;
+            ParsedSuffixes suffixes = parseSuffixes(base);
+            int end = pos;
+            pos = start;
+            Declarator inner = parseDeclarator(suffixes.type, isAbstract);
+            expectPunctuator(Kind.RIGHT_PAREN, ") after declarator");
+            pos = end;
+            return new Declarator(inner.name, inner.type, inner.params != AstArena.NONE ? inner.params : suffixes.params, inner.file, inner.line);
+        }
+
+        String name = "";
+        if (isIdentifier(pos)) {
+            file = files[pos];
+            line = lines[pos];
+            name = tokens[pos++].toString();
+        } else if (!isAbstract) {
+            throw error(files[pos], lines[pos], "Expected a name in declaration, found " + tokens[pos]);
+        }
+        ParsedSuffixes suffixes = parseSuffixes(base);
+        return new Declarator(name, suffixes.type, suffixes.params, file, line);
+    }
+
+    //whether a ( in a declarator starts a nested declarator, rather than a parameter list
+    private boolean isNestedDeclarator(int p) {
+        if (punctuators[p] == Kind.STAR || punctuators[p] == Kind.LEFT_PAREN || punctuators[p] == Kind.LEFT_BRACKET) {
+            return true;
+        }
+        return isIdentifier(p) && !isTypedefName(p);
+    }
+
+    private int matchingParen(int p) throws CompilerException {
+        int depth = 0;
+        for (int i = p; i < count; ++i) {
+            if (punctuators[i] == Kind.LEFT_PAREN) {
+                ++depth;
+            } else if (punctuators[i] == Kind.RIGHT_PAREN && --depth == 0) {
+                return i;
+            }
+        }
+        throw error(files[p], lines[p], "Unmatched (");
+    }
+
+    private record ParsedSuffixes(CType type, int params) {}
+
+    private ParsedSuffixes parseSuffixes(CType base) throws CompilerException {
+        if (acceptPunctuator(Kind.LEFT_BRACKET)) {
+            long length = -1;
+            if (!isPunctuator(Kind.RIGHT_BRACKET)) {
+                int file = files[pos];
+                int line = lines[pos];
+                length = evaluateConstant(parseAssignment());
+                if (length < 0) {
+                    throw error(file, line, "Array size is negative");
+                }
+            }
+            expectPunctuator(Kind.RIGHT_BRACKET, "] after array size");
+            ParsedSuffixes element = parseSuffixes(base);
+            if (element.type.isFunction() || !element.type.isComplete()) {
+                throw error(files[pos], lines[pos], "Array of " + element.type);
+            }
+            return new ParsedSuffixes(element.type.arrayOf(length), AstArena.NONE);
+        }
+
+        if (acceptPunctuator(Kind.LEFT_PAREN)) {
+            List<CType> paramTypes = new ArrayList<>();
+            boolean variadic = false;
+            int head = AstArena.NONE;
+            int tail = AstArena.NONE;
+            if (isPunctuator(Kind.RIGHT_PAREN)) {
+                variadic = true; //no prototype
+            } else if (keywords[pos] == Keyword.VOID && punctuators[pos + 1] == Kind.RIGHT_PAREN) {
+                ++pos;
+            } else {
+                pushScope(); //so that a parameter's name doesn't hide anything while the rest are parsed
+                do {
+                    if (acceptPunctuator(Kind.ELLIPSIS)) {
+                        variadic = true;
+                        break;
+                    }
+                    Specifiers specifiers = parseSpecifiers(true);
+                    Declarator declarator = parseDeclarator(specifiers.type, true);
+                    CType type = declarator.type.decay();
+                    if (type.isVoid()) {
+                        throw error(declarator.file, declarator.line, "Parameter has type void");
+                    }
+                    if (type.isStruct()) {
+                        throw error(declarator.file, declarator.line, "Passing structs by value isn't supported yet");
+                    }
+                    paramTypes.add(type);
+                    int param = arena.add(NodeKind.PARAMETER, type, arena.intern(declarator.name), 0, 0, 0, declarator.file, declarator.line);
+                    if (head == AstArena.NONE) {
+                        head = param;
+                    } else {
+                        arena.setNext(tail, param);
+                    }
+                    tail = param;
+                } while (acceptPunctuator(Kind.COMMA));
+                popScope();
+            }
+            expectPunctuator(Kind.RIGHT_PAREN, ") after parameters");
+
+            ParsedSuffixes result = parseSuffixes(base);
+            if (result.type.isFunction() || result.type.isArray()) {
+                throw error(files[pos], lines[pos], "Function returning " + result.type);
+            }
+            return new ParsedSuffixes(CType.function(result.type, paramTypes, variadic), head);
+        }
+
+        return new ParsedSuffixes(base, AstArena.NONE);
+    }
+
+    private CType parseTypeName() throws CompilerException {
+        Specifiers specifiers = parseSpecifiers(false);
+        Declarator declarator = parseDeclarator(specifiers.type, true);
+        if (!declarator.name.isEmpty()) {
+            throw error(declarator.file, declarator.line, "Unexpected name " + declarator.name + " in type");
+        }
+        return declarator.type;
+    }
+
+    private boolean isTypeStart(int p) {
+        Keyword keyword = keywords[p];
+        if (keyword != null) {
+            return switch (keyword) {
+                case TYPEDEF, EXTERN, STATIC, AUTO, REGISTER, INLINE, CONST, VOLATILE, RESTRICT,
+                     VOID, CHAR, SHORT, INT, LONG, SIGNED, UNSIGNED, STRUCT, UNION, ENUM, FLOAT, DOUBLE -> true;
+                default -> false;
+            };
+        }
+        return isTypedefName(p);
+    }
+
+    private boolean isTypedefName(int p) {
+        if (!isIdentifier(p)) {
+            return false;
+        }
+        Integer declaration = lookupOrNull(tokens[p].toString());
+        return declaration != null && arena.is(declaration, NodeKind.TYPEDEF);
+    }
+
+
+    //STATEMENTS
+    private int parseCompound() throws CompilerException {
+        int file = files[pos];
+        int line = lines[pos];
+        expectPunctuator(Kind.LEFT_BRACE, "{");
+        pushScope();
+        int head = AstArena.NONE;
+        int tail = AstArena.NONE;
+        while (!acceptPunctuator(Kind.RIGHT_BRACE)) {
+            if (pos >= count) {
+                throw error(file, line, "Unterminated block");
+            }
+            int item;
+            if (isTypeStart(pos) && punctuators[pos + 1] != Kind.COLON) {
+                int itemFile = files[pos];
+                int itemLine = lines[pos];
+                int variables = parseDeclaration(false);
+                item = variables == AstArena.NONE ? AstArena.NONE : arena.add(NodeKind.DECLARATION, null, variables, 0, 0, 0, itemFile, itemLine);
+            } else {
+                item = parseStatement();
+            }
+            if (item == AstArena.NONE) {
+                continue;
+            }
+            if (head == AstArena.NONE) {
+                head = item;
+            } else {
+                arena.setNext(tail, item);
+            }
+            tail = item;
+        }
+        popScope();
+        return arena.add(NodeKind.COMPOUND, null, head, 0, 0, 0, file, line);
+    }
+
+    private int parseStatement() throws CompilerException {
+        int file = files[pos];
+        int line = lines[pos];
+        if (isPunctuator(Kind.LEFT_BRACE)) {
+            return parseCompound();
+        }
+        if (acceptPunctuator(Kind.SEMICOLON)) {
+            return arena.add(NodeKind.EMPTY, null, 0, 0, 0, 0, file, line);
+        }
+        if (isIdentifier(pos) && punctuators[pos + 1] == Kind.COLON) {
+            String name = tokens[pos].toString();
+            pos += 2;
+            if (!labels.add(name)) {
+                throw error(file, line, "Duplicate label " + name);
+            }
+            return arena.add(NodeKind.LABEL, null, arena.intern(name), parseStatement(), 0, 0, file, line);
+        }
+
+        Keyword keyword = keywords[pos];
+        if (keyword == null) {
+            int expression = parseExpression();
+            expectPunctuator(Kind.SEMICOLON, "; after expression");
+            return arena.add(NodeKind.EXPRESSION_STATEMENT, null, expression, 0, 0, 0, file, line);
+        }
+
+        ++pos;
+        switch (keyword) {
+            case IF -> {
+                int condition = parseParenthesisedCondition();
+                int then = parseStatement();
+                int otherwise = AstArena.NONE;
+                if (keywords[pos] == Keyword.ELSE) {
+                    ++pos;
+                    otherwise = parseStatement();
+                }
+                return arena.add(NodeKind.IF, null, condition, then, otherwise, 0, file, line);
+            }
+            case WHILE -> {
+                int condition = parseParenthesisedCondition();
+                int body = parseLoopBody();
+                return arena.add(NodeKind.WHILE, null, condition, body, 0, 0, file, line);
+            }
+            case DO -> {
+                int body = parseLoopBody();
+                if (keywords[pos] != Keyword.WHILE) {
+                    throw error(files[pos], lines[pos], "Expected while after do body");
+                }
+                ++pos;
+                int condition = parseParenthesisedCondition();
+                expectPunctuator(Kind.SEMICOLON, "; after do-while");
+                return arena.add(NodeKind.DO_WHILE, null, body, condition, 0, 0, file, line);
+            }
+            case FOR -> {
+                expectPunctuator(Kind.LEFT_PAREN, "( after for");
+                pushScope();
+                int init = AstArena.NONE;
+                if (isTypeStart(pos)) {
+                    int variables = parseDeclaration(false);
+                    if (variables != AstArena.NONE) {
+                        init = arena.add(NodeKind.DECLARATION, null, variables, 0, 0, 0, file, line);
+                    }
+                } else if (!acceptPunctuator(Kind.SEMICOLON)) {
+                    init = arena.add(NodeKind.EXPRESSION_STATEMENT, null, parseExpression(), 0, 0, 0, file, line);
+                    expectPunctuator(Kind.SEMICOLON, "; after for initializer");
+                }
+                int condition = AstArena.NONE;
+                if (!isPunctuator(Kind.SEMICOLON)) {
+                    condition = checkScalar(parseExpression(), "for condition");
+                }
+                expectPunctuator(Kind.SEMICOLON, "; after for condition");
+                int step = AstArena.NONE;
+                if (!isPunctuator(Kind.RIGHT_PAREN)) {
+                    step = parseExpression();
+                }
+                expectPunctuator(Kind.RIGHT_PAREN, ") after for clauses");
+                int body = parseLoopBody();
+                popScope();
+                return arena.add(NodeKind.FOR, null, init, condition, step, body, file, line);
+            }
+            case SWITCH -> {
+                expectPunctuator(Kind.LEFT_PAREN, "( after switch");
+                int expression = parseExpression();
+                CType type = arena.type(expression);
+                if (!type.isInteger()) {
+                    throw error(file, line, "Switch on " + type);
+                }
+                expression = convert(expression, type.promote());
+                expectPunctuator(Kind.RIGHT_PAREN, ") after switch expression");
+                ++switchDepth;
+                int body = parseStatement();
+                --switchDepth;
+                return arena.add(NodeKind.SWITCH, null, expression, body, 0, 0, file, line);
+            }
+            case CASE -> {
+                if (switchDepth == 0) {
+                    throw error(file, line, "case outside of switch");
+                }
+                long value = evaluateConstant(parseConditional());
+                expectPunctuator(Kind.COLON, ": after case");
+                return arena.add(NodeKind.CASE, null, AstArena.low(value), AstArena.high(value), parseStatement(), 0, file, line);
+            }
+            case DEFAULT -> {
+                if (switchDepth == 0) {
+                    throw error(file, line, "default outside of switch");
+                }
+                expectPunctuator(Kind.COLON, ": after default");
+                return arena.add(NodeKind.DEFAULT, null, parseStatement(), 0, 0, 0, file, line);
+            }
+            case RETURN -> {
+                int value = AstArena.NONE;
+                if (!isPunctuator(Kind.SEMICOLON)) {
+                    value = parseExpression();
+                    if (returnType.isVoid()) {
+                        if (!arena.type(value).isVoid()) {
+                            throw error(file, line, "Returning a value from a void function");
+                        }
+                    } else {
+                        value = convertForAssignment(value, returnType, "return");
+                    }
+                } else if (!returnType.isVoid()) {
+                    warnings.add(location(file, line) + ": return without a value in a function returning " + returnType);
+                }
+                expectPunctuator(Kind.SEMICOLON, "; after return");
+                return arena.add(NodeKind.RETURN, null, value, 0, 0, 0, file, line);
+            }
+            case BREAK -> {
+                if (loopDepth == 0 && switchDepth == 0) {
+                    throw error(file, line, "break outside of a loop or switch");
+                }
+                expectPunctuator(Kind.SEMICOLON, "; after break");
+                return arena.add(NodeKind.BREAK, null, 0, 0, 0, 0, file, line);
+            }
+            case CONTINUE -> {
+                if (loopDepth == 0) {
+                    throw error(file, line, "continue outside of a loop");
+                }
+                expectPunctuator(Kind.SEMICOLON, "; after continue");
+                return arena.add(NodeKind.CONTINUE, null, 0, 0, 0, 0, file, line);
+            }
+            case GOTO -> {
+                String label = expectIdentifier("label after goto");
+                expectPunctuator(Kind.SEMICOLON, "; after goto");
+                int node = arena.add(NodeKind.GOTO, null, arena.intern(label), 0, 0, 0, file, line);
+                gotos.putIfAbsent(label, node);
+                return node;
+            }
+            default -> {
+                --pos;
+                int expression = parseExpression();
+                expectPunctuator(Kind.SEMICOLON, "; after expression");
+                return arena.add(NodeKind.EXPRESSION_STATEMENT, null, expression, 0, 0, 0, file, line);
+            }
+        }
+    }
+
+    private int parseParenthesisedCondition() throws CompilerException {
+        expectPunctuator(Kind.LEFT_PAREN, "( before condition");
+        int condition = checkScalar(parseExpression(), "condition");
+        expectPunctuator(Kind.RIGHT_PAREN, ") after condition");
+        return condition;
+    }
+
+    private int parseLoopBody() throws CompilerException {
+        ++loopDepth;
+        int body = parseStatement();
+        --loopDepth;
+        return body;
+    }
+
+
+    //EXPRESSIONS
+    private int parseExpression() throws CompilerException {
+        int left = parseAssignment();
+        while (isPunctuator(Kind.COMMA)) {
+            int file = files[pos];
+            int line = lines[pos++];
+            int right = parseAssignment();
+            left = arena.add(NodeKind.COMMA, arena.type(right).decay(), left, right, 0, 0, file, line);
+        }
+        return left;
+    }
+
+    private int parseAssignment() throws CompilerException {
+        int target = parseConditional();
+        Kind operator = punctuators[pos];
+        switch (operator) {
+            case ASSIGN, MULTIPLY_ASSIGN, DIVIDE_ASSIGN, MODULO_ASSIGN, ADD_ASSIGN, SUBTRACT_ASSIGN,
+                 LEFT_SHIFT_ASSIGN, RIGHT_SHIFT_ASSIGN, AND_ASSIGN, XOR_ASSIGN, OR_ASSIGN -> {
+            }
+            default -> {
+                return target;
+            }
+        }
+
+        int file = files[pos];
+        int line = lines[pos++];
+        checkModifiableLvalue(target, file, line);
+        CType type = arena.type(target);
+        int value = parseAssignment();
+        if (operator == Kind.ASSIGN) {
+            value = convertForAssignment(value, type, "assignment");
+        } else {
+            //the value is combined with the target by the binary operator, then converted back to the target's type
+            Kind binary = compoundOperator(operator);
+            CType valueType = arena.type(value).decay();
+            if (type.isPointer() && (binary == Kind.PLUS || binary == Kind.MINUS)) {
+                if (!valueType.isInteger()) {
+                    throw error(file, line, "Invalid operands to " + operator.getSpelling() + ": " + type + " and " + valueType);
+                }
+                value = convert(value, CType.LONG);
+            } else {
+                if (!type.isInteger() || !valueType.isInteger()) {
+                    throw error(file, line, "Invalid operands to " + operator.getSpelling() + ": " + type + " and " + valueType);
+                }
+                if (binary != Kind.LEFT_SHIFT && binary != Kind.RIGHT_SHIFT) {
+                    value = convert(value, CType.common(type, valueType));
+                } else {
+                    value = convert(value, valueType.promote());
+                }
+            }
+        }
+        return arena.add(NodeKind.ASSIGN, type, target, value, 0, operator.ordinal(), file, line);
+    }
+
+    static Kind compoundOperator(Kind assignment) {
+        return switch (assignment) {
+            case MULTIPLY_ASSIGN -> Kind.STAR;
+            case DIVIDE_ASSIGN -> Kind.SLASH;
+            case MODULO_ASSIGN -> Kind.PERCENT;
+            case ADD_ASSIGN -> Kind.PLUS;
+            case SUBTRACT_ASSIGN -> Kind.MINUS;
+            case LEFT_SHIFT_ASSIGN -> Kind.LEFT_SHIFT;
+            case RIGHT_SHIFT_ASSIGN -> Kind.RIGHT_SHIFT;
+            case AND_ASSIGN -> Kind.AMPERSAND;
+            case XOR_ASSIGN -> Kind.CARET;
+            case OR_ASSIGN -> Kind.PIPE;
+            default -> Kind.NONE;
+        };
+    }
+
+    private int parseConditional() throws CompilerException {
+        int condition = parseBinary(1);
+        if (!isPunctuator(Kind.QUESTION)) {
+            return condition;
+        }
+
+        int file = files[pos];
+        int line = lines[pos++];
+        checkScalar(condition, "condition");
+        int ifTrue = parseExpression();
+        expectPunctuator(Kind.COLON, ": in conditional expression");
+        int ifFalse = parseConditional();
+
+        CType trueType = arena.type(ifTrue).decay();
+        CType falseType = arena.type(ifFalse).decay();
+        CType type;
+        if (trueType.isInteger() && falseType.isInteger()) {
+            type = CType.common(trueType, falseType);
+        } else if (trueType.isVoid() && falseType.isVoid()) {
+            type = CType.VOID;
+        } else if (trueType.isPointer() && isNullPointerConstant(ifFalse)) {
+            type = trueType;
+        } else if (falseType.isPointer() && isNullPointerConstant(ifTrue)) {
+            type = falseType;
+        } else if (trueType.isPointer() && falseType.isPointer() && trueType.isCompatible(falseType)) {
+            type = trueType.getBase().isVoid() ? falseType : trueType;
+        } else {
+            throw error(file, line, "Mismatched types in conditional expression: " + trueType + " and " + falseType);
+        }
+        if (!type.isVoid()) {
+            ifTrue = convert(ifTrue, type);
+            ifFalse = convert(ifFalse, type);
+        }
+        return arena.add(NodeKind.CONDITIONAL, type, condition, ifTrue, ifFalse, 0, file, line);
+    }
+
+    private static int precedence(Kind operator) {
+        return switch (operator) {
+            case LOGICAL_OR -> 1;
+            case LOGICAL_AND -> 2;
+            case PIPE -> 3;
+            case CARET -> 4;
+            case AMPERSAND -> 5;
+            case EQUAL, NOT_EQUAL -> 6;
+            case LESS, GREATER, LESS_EQUAL, GREATER_EQUAL -> 7;
+            case LEFT_SHIFT, RIGHT_SHIFT -> 8;
+            case PLUS, MINUS -> 9;
+            case STAR, SLASH, PERCENT -> 10;
+            default -> 0;
+        };
+    }
+
+    //precedence climbing, as every binary operator in C is left associative
+    private int parseBinary(int minPrecedence) throws CompilerException {
+        int left = parseCast();
+        while (true) {
+            Kind operator = punctuators[pos];
+            int precedence = precedence(operator);
+            if (precedence < minPrecedence || precedence == 0) {
+                return left;
+            }
+            int file = files[pos];
+            int line = lines[pos++];
+            int right = parseBinary(precedence + 1);
+            left = makeBinary(operator, left, right, file, line);
+        }
+    }
+
+    private int makeBinary(Kind operator, int left, int right, int file, int line) throws CompilerException {
+        CType leftType = arena.type(left).decay();
+        CType rightType = arena.type(right).decay();
+        String invalid = "Invalid operands to " + operator.getSpelling() + ": " + leftType + " and " + rightType;
+
+        switch (operator) {
+            case LOGICAL_AND, LOGICAL_OR -> {
+                if (!leftType.isScalar() || !rightType.isScalar()) {
+                    throw error(file, line, invalid);
+                }
+                return arena.add(NodeKind.BINARY, CType.INT, left, right, 0, operator.ordinal(), file, line);
+            }
+            case EQUAL, NOT_EQUAL, LESS, GREATER, LESS_EQUAL, GREATER_EQUAL -> {
+                if (leftType.isInteger() && rightType.isInteger()) {
+                    CType common = CType.common(leftType, rightType);
+                    left = convert(left, common);
+                    right = convert(right, common);
+                } else if (leftType.isPointer() && rightType.isPointer()) {
+                    if (!leftType.isCompatible(rightType)) {
+                        warnings.add(location(file, line) + ": comparison of distinct pointer types " + leftType + " and " + rightType);
+                    }
+                } else if (leftType.isPointer() && rightType.isInteger()) {
+                    right = convert(right, leftType);
+                } else if (leftType.isInteger() && rightType.isPointer()) {
+                    left = convert(left, rightType);
+                } else {
+                    throw error(file, line, invalid);
+                }
+                return arena.add(NodeKind.BINARY, CType.INT, left, right, 0, operator.ordinal(), file, line);
+            }
+            case PLUS, MINUS -> {
+                if (leftType.isInteger() && rightType.isInteger()) {
+                    break;
+                }
+                if (operator == Kind.PLUS && leftType.isInteger() && rightType.isPointer()) {
+                    //pointers always go on the left
+                    int swap = left;
+                    left = right;
+                    right = swap;
+                    CType swapType = leftType;
+                    leftType = rightType;
+                    rightType = swapType;
+                }
+                if (leftType.isPointer() && rightType.isInteger()) {
+                    checkPointerArithmetic(leftType, file, line);
+                    return arena.add(NodeKind.BINARY, leftType, left, convert(right, CType.LONG), 0, operator.ordinal(), file, line);
+                }
+                if (operator == Kind.MINUS && leftType.isPointer() && rightType.isPointer() && leftType.isCompatible(rightType)) {
+                    checkPointerArithmetic(leftType, file, line);
+                    return arena.add(NodeKind.BINARY, CType.LONG, left, right, 0, operator.ordinal(), file, line);
+                }
+                throw error(file, line, invalid);
+            }
+            case LEFT_SHIFT, RIGHT_SHIFT -> {
+                if (!leftType.isInteger() || !rightType.isInteger()) {
+                    throw error(file, line, invalid);
+                }
+                CType type = leftType.promote();
+                return arena.add(NodeKind.BINARY, type, convert(left, type), convert(right, rightType.promote()), 0, operator.ordinal(), file, line);
+            }
+        }
+
+        if (!leftType.isInteger() || !rightType.isInteger()) {
+            throw error(file, line, invalid);
+        }
+        CType type = CType.common(leftType, rightType);
+        return arena.add(NodeKind.BINARY, type, convert(left, type), convert(right, type), 0, operator.ordinal(), file, line);
+    }
+
+    private void checkPointerArithmetic(CType pointer, int file, int line) throws CompilerException {
+        CType pointee = pointer.getBase();
+        if (!pointee.isComplete() && !pointee.isVoid()) {
+            throw error(file, line, "Arithmetic on a pointer to incomplete type " + pointee);
+        }
+    }
+
+    private int parseCast() throws CompilerException {
+        if (isPunctuator(Kind.LEFT_PAREN) && isTypeStart(pos + 1)) {
+            int file = files[pos];
+            int line = lines[pos++];
+            CType type = parseTypeName();
+            expectPunctuator(Kind.RIGHT_PAREN, ") after type in cast");
+            if (isPunctuator(Kind.LEFT_BRACE)) {
+                throw error(file, line, "Compound literals aren't supported yet");
+            }
+            int operand = parseCast();
+            CType from = arena.type(operand).decay();
+            if (!type.isVoid() && (!type.isScalar() || !from.isScalar())) {
+                throw error(file, line, "Can't cast " + from + " to " + type);
+            }
+            return arena.add(NodeKind.CAST, type, operand, 0, 0, 0, file, line);
+        }
+        return parseUnary();
+    }
+
+    private int parseUnary() throws CompilerException {
+        int file = files[pos];
+        int line = lines[pos];
+        if (keywords[pos] == Keyword.SIZEOF) {
+            ++pos;
+            CType type;
+            if (isPunctuator(Kind.LEFT_PAREN) && isTypeStart(pos + 1)) {
+                ++pos;
+                type = parseTypeName();
+                expectPunctuator(Kind.RIGHT_PAREN, ") after type in sizeof");
+            } else {
+                type = arena.type(parseUnary());
+            }
+            if (!type.isComplete()) {
+                throw error(file, line, "sizeof applied to incomplete type " + type);
+            }
+            return constant(type.size(), CType.ULONG, file, line);
+        }
+
+        Kind operator = punctuators[pos];
+        switch (operator) {
+            case INCREMENT, DECREMENT -> {
+                ++pos;
+                int operand = parseUnary();
+                return makeIncrement(operator == Kind.INCREMENT ? NodeKind.PRE_INCREMENT : NodeKind.PRE_DECREMENT, operand, file, line);
+            }
+            case AMPERSAND -> {
+                ++pos;
+                int operand = parseCast();
+                CType type = arena.type(operand);
+                if (!type.isFunction() && !isLvalue(operand) && !arena.is(operand, NodeKind.STRING)) {
+                    throw error(file, line, "Can't take the address of an rvalue");
+                }
+                return arena.add(NodeKind.ADDRESS_OF, type.pointerTo(), operand, 0, 0, 0, file, line);
+            }
+            case STAR -> {
+                ++pos;
+                return makeDereference(parseCast(), file, line);
+            }
+            case PLUS, MINUS, TILDE -> {
+                ++pos;
+                int operand = parseCast();
+                CType type = arena.type(operand).decay();
+                if (!type.isInteger()) {
+                    throw error(file, line, "Invalid operand to unary " + operator.getSpelling() + ": " + type);
+                }
+                operand = convert(operand, type.promote());
+                if (operator == Kind.PLUS) {
+                    return operand;
+                }
+                return arena.add(NodeKind.UNARY, type.promote(), operand, 0, 0, operator.ordinal(), file, line);
+            }
+            case EXCLAMATION -> {
+                ++pos;
+                int operand = checkScalar(parseCast(), "operand of !");
+                return arena.add(NodeKind.UNARY, CType.INT, operand, 0, 0, operator.ordinal(), file, line);
+            }
+        }
+        return parsePostfix();
+    }
+
+    private int makeDereference(int operand, int file, int line) throws CompilerException {
+        CType type = arena.type(operand).decay();
+        if (!type.isPointer()) {
+            throw error(file, line, "Dereferencing " + type + ", which isn't a pointer");
+        }
+        if (type.getBase().isVoid()) {
+            throw error(file, line, "Dereferencing a void pointer");
+        }
+        return arena.add(NodeKind.DEREFERENCE, type.getBase(), operand, 0, 0, 0, file, line);
+    }
+
+    private int makeIncrement(NodeKind kind, int operand, int file, int line) throws CompilerException {
+        checkModifiableLvalue(operand, file, line);
+        CType type = arena.type(operand);
+        if (type.isPointer()) {
+            checkPointerArithmetic(type, file, line);
+        } else if (!type.isInteger()) {
+            throw error(file, line, "Can't increment or decrement " + type);
+        }
+        return arena.add(kind, type, operand, 0, 0, 0, file, line);
+    }
+
+    private int parsePostfix() throws CompilerException {
+        int expression = parsePrimary();
+        while (true) {
+            int file = files[pos];
+            int line = lines[pos];
+            switch (punctuators[pos]) {
+                case LEFT_BRACKET -> {
+                    ++pos;
+                    int index = parseExpression();
+                    expectPunctuator(Kind.RIGHT_BRACKET, "] after index");
+                    expression = makeDereference(makeBinary(Kind.PLUS, expression, index, file, line), file, line);
+                }
+                case LEFT_PAREN -> {
+                    ++pos;
+                    expression = parseCall(expression, file, line);
+                }
+                case DOT, ARROW -> {
+                    boolean arrow = punctuators[pos] == Kind.ARROW;
+                    ++pos;
+                    String member = expectIdentifier("member name");
+                    if (arrow) {
+                        expression = makeDereference(expression, file, line);
+                    }
+                    CType type = arena.type(expression);
+                    if (!type.isStruct()) {
+                        throw error(file, line, "Member access on " + type + ", which isn't a struct");
+                    }
+                    if (!type.isComplete()) {
+                        throw error(file, line, "Member access on incomplete type " + type);
+                    }
+                    if (!isLvalue(expression)) {
+                        throw error(file, line, "Member access on a struct value isn't supported yet");
+                    }
+                    CType.Member found = type.getMember(member);
+                    if (found == null) {
+                        throw error(file, line, type + " has no member named " + member);
+                    }
+                    expression = arena.add(NodeKind.MEMBER, found.type(), expression, (int) found.offset(), 0, 0, file, line);
+                }
+                case INCREMENT, DECREMENT -> {
+                    NodeKind kind = punctuators[pos] == Kind.INCREMENT ? NodeKind.POST_INCREMENT : NodeKind.POST_DECREMENT;
+                    ++pos;
+                    expression = makeIncrement(kind, expression, file, line);
+                }
+                default -> {
+                    return expression;
+                }
+            }
+        }
+    }
+
+    private int parseCall(int callee, int file, int line) throws CompilerException {
+        CType calleeType = arena.type(callee).decay();
+        if (!calleeType.isPointer() || !calleeType.getBase().isFunction()) {
+            throw error(file, line, "Calling " + calleeType + ", which isn't a function");
+        }
+        CType function = calleeType.getBase();
+        if (function.getBase().isStruct()) {
+            throw error(file, line, "Returning structs by value isn't supported yet");
+        }
+
+        List<CType> params = function.getParams();
+        int head = AstArena.NONE;
+        int tail = AstArena.NONE;
+        int index = 0;
+        if (!isPunctuator(Kind.RIGHT_PAREN)) {
+            do {
+                int argument = parseAssignment();
+                if (index < params.size()) {
+                    argument = convertForAssignment(argument, params.get(index), "argument " + (index + 1));
+                } else if (!function.isVariadic()) {
+                    throw error(file, line, "Too many arguments in call");
+                } else {
+                    CType type = arena.type(argument).decay();
+                    if (type.isStruct()) {
+                        throw error(file, line, "Passing structs by value isn't supported yet");
+                    }
+                    argument = convert(argument, type.promote()); //default argument promotions
+                }
+                if (head == AstArena.NONE) {
+                    head = argument;
+                } else {
+                    arena.setNext(tail, argument);
+                }
+                tail = argument;
+                ++index;
+            } while (acceptPunctuator(Kind.COMMA));
+        }
+        expectPunctuator(Kind.RIGHT_PAREN, ") after arguments");
+        if (index < params.size()) {
+            throw error(file, line, "Too few arguments in call");
+        }
+        return arena.add(NodeKind.CALL, function.getBase(), callee, head, 0, 0, file, line);
+    }
+
+    private int parsePrimary() throws CompilerException {
+        int file = files[pos];
+        int line = lines[pos];
+        PreprocessingToken token = tokens[pos];
+
+        if (acceptPunctuator(Kind.LEFT_PAREN)) {
+            int expression = parseExpression();
+            expectPunctuator(Kind.RIGHT_PAREN, ")");
+            return expression;
+        }
+
+        if (isIdentifier(pos)) {
+            String name = token.toString();
+            ++pos;
+            Integer declaration = lookupOrNull(name);
+            if (declaration == null) {
+                if (!isPunctuator(Kind.LEFT_PAREN)) {
+                    throw error(file, line, name + " undeclared");
+                }
+                //an implicit declaration, as C89 allowed
+                warnings.add(location(file, line) + ": implicit declaration of function " + name);
+                declaration = arena.add(NodeKind.FUNCTION, CType.function(CType.INT, List.of(), true), arena.intern(name), AstArena.NONE, AstArena.NONE,
+                        AstArena.STORAGE_FILE_SCOPE, file, line);
+                scopes.getFirst().put(name, declaration);
+            }
+            if (arena.is(declaration, NodeKind.TYPEDEF)) {
+                throw error(file, line, "Unexpected type name " + name);
+            }
+            if (arena.is(declaration, NodeKind.ENUM_CONSTANT)) {
+                return constant(arena.value(declaration), CType.INT, file, line);
+            }
+            return arena.add(NodeKind.IDENTIFIER, arena.type(declaration), arena.intern(name), declaration, 0, 0, file, line);
+        }
+
+        if (token.is(PreprocessingToken.TokenType.PP_NUMBER)) {
+            ++pos;
+            return parseNumber(token.toString(), file, line);
+        }
+
+        if (token.is(PreprocessingToken.TokenType.CHAR_CONST)) {
+            ++pos;
+            byte[] bytes = token.literalBytes();
+            if (bytes.length == 0) {
+                throw error(file, line, "Empty character constant");
+            }
+            return constant(bytes[0], CType.INT, file, line); //sign extended, as char is signed
+        }
+
+        if (token.is(PreprocessingToken.TokenType.STRING_LIT)) {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            while (tokens[pos].is(PreprocessingToken.TokenType.STRING_LIT)) {
+                contents.writeBytes(tokens[pos++].literalBytes());
+            }
+            String string = contents.toString(StandardCharsets.ISO_8859_1);
+            CType type = CType.CHAR.arrayOf(contents.size() + 1);
+            return arena.add(NodeKind.STRING, type, arena.intern(string), 0, 0, 0, file, line);
+        }
+
+        throw error(file, line, "Expected an expression, found " + (pos >= count ? "end of file" : token.toString()));
+    }
+
+    private int parseNumber(String spelling, int file, int line) throws CompilerException {
+        String lower = spelling.toLowerCase();
+        boolean hex = lower.startsWith("0x");
+        if (lower.contains(".") || (hex ? lower.contains("p") : lower.contains("e"))) {
+            throw error(file, line, "Floating point constants aren't supported yet");
+        }
+
+        int end = lower.length();
+        while (end > 0 && (lower.charAt(end - 1) == 'u' || lower.charAt(end - 1) == 'l')) {
+            --end;
+        }
+        String suffix = lower.substring(end);
+        boolean unsigned = suffix.contains("u");
+        boolean isLong = suffix.contains("l");
+        if (suffix.length() - (unsigned ? 1 : 0) > 2 || suffix.replace("u", "").matches(".*[^l].*")) {
+            throw error(file, line, "Invalid suffix on integer constant " + spelling);
+        }
+
+        String digits = lower.substring(0, end);
+        int radix = 10;
+        if (hex) {
+            digits = digits.substring(2);
+            radix = 16;
+        } else if (digits.length() > 1 && digits.startsWith("0")) {
+            digits = digits.substring(1);
+            radix = 8;
+        }
+
+        long value;
+        try {
+            value = Long.parseUnsignedLong(digits, radix);
+        } catch (NumberFormatException e) {
+            throw error(file, line, "Invalid integer constant " + spelling);
+        }
+
+        //the first type the value fits, in the order C gives for its base and suffix
+        boolean decimal = radix == 10;
+        CType type;
+        if (!isLong && !unsigned && value >= 0 && value <= Integer.MAX_VALUE) {
+            type = CType.INT;
+        } else if (!isLong && (unsigned || !decimal) && value >= 0 && value <= 0xFFFFFFFFL) {
+            type = CType.UINT;
+        } else if (!unsigned && value >= 0) {
+            type = CType.LONG;
+        } else {
+            type = CType.ULONG;
+        }
+        return constant(value, type, file, line);
+    }
+
+    private int constant(long value, CType type, int file, int line) {
+        return arena.add(NodeKind.INT_CONSTANT, type, AstArena.low(value), AstArena.high(value), 0, 0, file, line);
+    }
+
+
+    //CONVERSIONS AND CHECKS
+    //wraps the expression in a cast if it doesn't already have the given type
+    private int convert(int expression, CType type) {
+        CType from = arena.type(expression).decay();
+        if (from.equals(type)) {
+            return expression;
+        }
+        return arena.add(NodeKind.CAST, type, expression, 0, 0, 0, arena.file(expression), arena.line(expression));
+    }
+
+    private int convertForAssignment(int expression, CType type, String what) throws CompilerException {
+        CType from = arena.type(expression).decay();
+        int file = arena.file(expression);
+        int line = arena.line(expression);
+        if (type.isStruct() || from.isStruct()) {
+            throw error(file, line, "Copying whole structs in " + what + " isn't supported yet");
+        }
+        if (!from.isScalar()) {
+            throw error(file, line, "Incompatible types in " + what + ": " + from + " to " + type);
+        }
+        if (type.isPointer() && from.isInteger() && !isNullPointerConstant(expression)) {
+            warnings.add(location(file, line) + ": " + what + " makes a pointer from an integer without a cast");
+        } else if (type.isInteger() && from.isPointer()) {
+            warnings.add(location(file, line) + ": " + what + " makes an integer from a pointer without a cast");
+        } else if (type.isPointer() && from.isPointer() && !type.isCompatible(from)) {
+            warnings.add(location(file, line) + ": incompatible pointer types in " + what + ": " + from + " to " + type);
+        }
+        return convert(expression, type);
+    }
+
+    private boolean isNullPointerConstant(int expression) {
+        return arena.type(expression).isInteger() && isConstant(expression) && quietConstant(expression) == 0;
+    }
+
+    private long quietConstant(int expression) {
+        try {
+            return evaluateConstant(expression);
+        } catch (CompilerException e) {
+            return -1;
+        }
+    }
+
+    private int checkScalar(int expression, String what) throws CompilerException {
+        CType type = arena.type(expression).decay();
+        if (!type.isScalar()) {
+            throw error(arena.file(expression), arena.line(expression), "The " + what + " has type " + type + ", which isn't a number or pointer");
+        }
+        return expression;
+    }
+
+    private boolean isLvalue(int expression) {
+        return switch (arena.kind(expression)) {
+            case IDENTIFIER -> {
+                int declaration = arena.b(expression);
+                yield arena.is(declaration, NodeKind.VARIABLE) || arena.is(declaration, NodeKind.PARAMETER);
+            }
+            case DEREFERENCE -> true;
+            case MEMBER -> isLvalue(arena.a(expression));
+            default -> false;
+        };
+    }
+
+    private void checkModifiableLvalue(int expression, int file, int line) throws CompilerException {
+        if (!isLvalue(expression)) {
+            throw error(file, line, "Assigning to something that isn't an lvalue");
+        }
+        CType type = arena.type(expression);
+        if (type.isArray()) {
+            throw error(file, line, "Assigning to an array");
+        }
+    }
+
+    //evaluates an integer constant expression, as needed for array sizes, enumerators, case labels and static initializers
+    long evaluateConstant(int node) throws CompilerException {
+        return evaluateConstant(arena, node, unit);
+    }
+
+    static long evaluateConstant(AstArena arena, int node, Path unit) throws CompilerException {
+        CType type = arena.type(node);
+        switch (arena.kind(node)) {
+            case INT_CONSTANT -> {
+                return arena.value(node);
+            }
+            case CAST -> {
+                long value = evaluateConstant(arena, arena.a(node), unit);
+                return type.isInteger() || type.isPointer() ? truncate(value, type) : value;
+            }
+            case UNARY -> {
+                long value = evaluateConstant(arena, arena.a(node), unit);
+                Kind operator = KINDS[arena.d(node)];
+                return truncate(switch (operator) {
+                    case MINUS -> -value;
+                    case TILDE -> ~value;
+                    default -> value == 0 ? 1 : 0;
+                }, type);
+            }
+            case BINARY -> {
+                Kind operator = KINDS[arena.d(node)];
+                long left = evaluateConstant(arena, arena.a(node), unit);
+                if (operator == Kind.LOGICAL_AND && left == 0) {
+                    return 0;
+                }
+                if (operator == Kind.LOGICAL_OR && left != 0) {
+                    return 1;
+                }
+                long right = evaluateConstant(arena, arena.b(node), unit);
+                CType operandType = arena.type(arena.a(node)).decay();
+                boolean unsigned = operandType.isUnsigned() || operandType.isPointer();
+                if ((operator == Kind.SLASH || operator == Kind.PERCENT) && right == 0) {
+                    throw new CompilerException(arena.string(arena.file(node)), arena.line(node), unit, "Division by zero in constant expression");
+                }
+                long result = switch (operator) {
+                    case PLUS -> type.isPointer() ? left + right * type.getBase().size() : left + right;
+                    case MINUS -> type.isPointer() ? left - right * type.getBase().size() : left - right;
+                    case STAR -> left * right;
+                    case SLASH -> unsigned ? Long.divideUnsigned(left, right) : left / right;
+                    case PERCENT -> unsigned ? Long.remainderUnsigned(left, right) : left % right;
+                    case LEFT_SHIFT -> left << right;
+                    case RIGHT_SHIFT -> operandType.isUnsigned() ? left >>> right : left >> right;
+                    case AMPERSAND -> left & right;
+                    case PIPE -> left | right;
+                    case CARET -> left ^ right;
+                    case EQUAL -> left == right ? 1 : 0;
+                    case NOT_EQUAL -> left != right ? 1 : 0;
+                    case LESS -> (unsigned ? Long.compareUnsigned(left, right) < 0 : left < right) ? 1 : 0;
+                    case GREATER -> (unsigned ? Long.compareUnsigned(left, right) > 0 : left > right) ? 1 : 0;
+                    case LESS_EQUAL -> (unsigned ? Long.compareUnsigned(left, right) <= 0 : left <= right) ? 1 : 0;
+                    case GREATER_EQUAL -> (unsigned ? Long.compareUnsigned(left, right) >= 0 : left >= right) ? 1 : 0;
+                    case LOGICAL_AND, LOGICAL_OR -> right != 0 ? 1 : 0;
+                    default -> throw new CompilerException(arena.string(arena.file(node)), arena.line(node), unit, "Expected a constant expression");
+                };
+                return truncate(result, type);
+            }
+            case CONDITIONAL -> {
+                return evaluateConstant(arena, arena.a(node), unit) != 0
+                        ? evaluateConstant(arena, arena.b(node), unit)
+                        : evaluateConstant(arena, arena.c(node), unit);
+            }
+            default -> throw new CompilerException(arena.string(arena.file(node)), arena.line(node), unit, "Expected a constant expression");
+        }
+    }
+
+    //a value as it would be held in the given integer type, extended back out to 64 bits
+    static long truncate(long value, CType type) {
+        return switch ((int) type.size()) {
+            case 1 -> type.isUnsigned() ? value & 0xFF : (byte) value;
+            case 2 -> type.isUnsigned() ? value & 0xFFFF : (short) value;
+            case 4 -> type.isUnsigned() ? value & 0xFFFFFFFFL : (int) value;
+            default -> value;
+        };
+    }
+
+    //the bytes of a STRING node's literal, which the arena holds one char per byte
+    public static byte[] literalBytes(String contents) {
+        return contents.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    //SCOPES AND TOKENS
+    private void pushScope() {
+        scopes.add(new HashMap<>());
+        tagScopes.add(new HashMap<>());
+    }
+
+    private void popScope() {
+        scopes.removeLast();
+        tagScopes.removeLast();
+    }
+
+    private void declare(String name, int node, Declarator declarator) throws CompilerException {
+        Map<String, Integer> scope = scopes.getLast();
+        Integer previous = scope.get(name);
+        if (previous != null) {
+            boolean redeclarable = scopes.size() == 1 && arena.is(previous, NodeKind.VARIABLE) && arena.is(node, NodeKind.VARIABLE);
+            redeclarable |= arena.is(previous, NodeKind.TYPEDEF) && arena.is(node, NodeKind.TYPEDEF) && arena.type(previous).equals(arena.type(node));
+            if (!redeclarable) {
+                throw error(declarator.file, declarator.line, "Redeclaration of " + name);
+            }
+        }
+        scope.put(name, node);
+    }
+
+    private Integer lookupOrNull(String name) {
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            Integer node = scopes.get(i).get(name);
+            if (node != null) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private CType lookupTag(String tag) {
+        for (int i = tagScopes.size() - 1; i >= 0; --i) {
+            CType type = tagScopes.get(i).get(tag);
+            if (type != null) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private boolean isIdentifier(int p) {
+        return p < count && keywords[p] == null && isIdentifierToken(tokens[p]);
+    }
+
+    private boolean isPunctuator(Kind kind) {
+        return punctuators[pos] == kind;
+    }
+
+    private boolean acceptPunctuator(Kind kind) {
+        if (punctuators[pos] == kind) {
+            ++pos;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectPunctuator(Kind kind, String what) throws CompilerException {
+        if (!acceptPunctuator(kind)) {
+            throw error(files[pos], lines[pos], "Expected " + what + ", found " + (pos >= count ? "end of file" : tokens[pos].toString()));
+        }
+    }
+
+    private String expectIdentifier(String what) throws CompilerException {
+        if (!isIdentifier(pos)) {
+            throw error(files[pos], lines[pos], "Expected " + what + ", found " + (pos >= count ? "end of file" : tokens[pos].toString()));
+        }
+        return tokens[pos++].toString();
+    }
+
+    private String location(int file, int line) {
+        return arena.string(file) + ":" + line;
+    }
+
+    private CompilerException error(int file, int line, String reason) {
+        return new CompilerException(arena.string(file), line, unit, reason);
+    }
+}
@@ -0,0 +1,247 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+//a C type. the arithmetic types are shared constants, derived types are built as declarations are parsed.
+//structs compare by identity, as two struct types are only the same type if they come from the same declaration
+public final class CType {
+    public enum Kind {
+        VOID, CHAR, SHORT, INT, LONG, POINTER, ARRAY, FUNCTION, STRUCT
+    }
+
+    public static final CType VOID = new CType(Kind.VOID, false, null, 0, null, false);
+    public static final CType CHAR = new CType(Kind.CHAR, false, null, 0, null, false);
+    public static final CType UCHAR = new CType(Kind.CHAR, true, null, 0, null, false);
+    public static final CType SHORT = new CType(Kind.SHORT, false, null, 0, null, false);
+    public static final CType USHORT = new CType(Kind.SHORT, true, null, 0, null, false);
+    public static final CType INT = new CType(Kind.INT, false, null, 0, null, false);
+    public static final CType UINT = new CType(Kind.INT, true, null, 0, null, false);
+    public static final CType LONG = new CType(Kind.LONG, false, null, 0, null, false);
+    public static final CType ULONG = new CType(Kind.LONG, true, null, 0, null, false);
+
+    private final Kind kind;
+    private final boolean unsigned;
+    private final CType base; //pointee, element or return type
+    private final long length; //array element count, -1 when not given
+    private final List<CType> params;
+    private final boolean variadic;
+
+    //structs are created empty and completed once their members have been parsed, as members may point back at them
+    private String tag;
+    private List<Member> members;
+    private long structSize;
+    private int structAlign;
+
+    private CType(Kind kind, boolean unsigned, CType base, long length, List<CType> params, boolean variadic) {
+        this.kind = kind;
+        this.unsigned = unsigned;
+        this.base = base;
+        this.length = length;
+        this.params = params;
+        this.variadic = variadic;
+    }
+
+    public CType pointerTo() {
+        return new CType(Kind.POINTER, false, this, 0, null, false);
+    }
+    public CType arrayOf(long length) {
+        return new CType(Kind.ARRAY, false, this, length, null, false);
+    }
+    //a function declared without a parameter list is variadic with no fixed parameters, so any call to it is accepted
+    public static CType function(CType returnType, List<CType> params, boolean variadic) {
+        return new CType(Kind.FUNCTION, false, returnType, 0, List.copyOf(params), variadic);
+    }
+    public static CType struct(String tag) {
+        CType type = new CType(Kind.STRUCT, false, null, 0, null, false);
+        type.tag = tag;
+        return type;
+    }
+
+    public void completeStruct(List<Member> members, boolean isUnion) {
+        long offset = 0;
+        long size = 0;
+        int align = 1;
+        List<Member> laidOut = new ArrayList<>(members.size());
+        for (Member member : members) {
+            long memberOffset = isUnion ? 0 : alignTo(offset, member.type.align());
+            laidOut.add(new Member(member.name, member.type, memberOffset));
+            align = Math.max(align, member.type.align());
+            offset = memberOffset + member.type.size();
+            size = Math.max(size, offset);
+        }
+        this.members = laidOut;
+        this.structAlign = align;
+        this.structSize = alignTo(size, align);
+    }
+
+    public static long alignTo(long value, long align) {
+        return (value + align - 1) / align * align;
+    }
+
+
+    public Kind getKind() {
+        return kind;
+    }
+    public boolean isUnsigned() {
+        return unsigned;
+    }
+    public CType getBase() {
+        return base;
+    }
+    public long getLength() {
+        return length;
+    }
+    public List<CType> getParams() {
+        return params;
+    }
+    public boolean isVariadic() {
+        return variadic;
+    }
+    public List<Member> getMembers() {
+        return members;
+    }
+    public Member getMember(String name) {
+        for (Member member : members) {
+            if (member.name.equals(name)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    public boolean isVoid() {
+        return kind == Kind.VOID;
+    }
+    public boolean isInteger() {
+        return kind == Kind.CHAR || kind == Kind.SHORT || kind == Kind.INT || kind == Kind.LONG;
+    }
+    public boolean isPointer() {
+        return kind == Kind.POINTER;
+    }
+    public boolean isArray() {
+        return kind == Kind.ARRAY;
+    }
+    public boolean isFunction() {
+        return kind == Kind.FUNCTION;
+    }
+    public boolean isStruct() {
+        return kind == Kind.STRUCT;
+    }
+    public boolean isScalar() {
+        return isInteger() || isPointer();
+    }
+    public boolean isComplete() {
+        return switch (kind) {
+            case VOID, FUNCTION -> false;
+            case ARRAY -> length >= 0 && base.isComplete();
+            case STRUCT -> members != null;
+            default -> true;
+        };
+    }
+
+    public long size() {
+        return switch (kind) {
+            case VOID, FUNCTION -> 1; //as gcc does, so that arithmetic on void and function pointers steps by bytes
+            case CHAR -> 1;
+            case SHORT -> 2;
+            case INT -> 4;
+            case LONG, POINTER -> 8;
+            case ARRAY -> Math.max(length, 0) * base.size();
+            case STRUCT -> structSize;
+        };
+    }
+
+    public int align() {
+        return switch (kind) {
+            case ARRAY -> base.align();
+            case STRUCT -> structAlign;
+            default -> (int) size();
+        };
+    }
+
+    //the type an expression of this type has once it's used as a value
+    public CType decay() {
+        return switch (kind) {
+            case ARRAY -> base.pointerTo();
+            case FUNCTION -> pointerTo();
+            default -> this;
+        };
+    }
+
+    //integer promotion: anything narrower than int becomes int
+    public CType promote() {
+        return kind == Kind.CHAR || kind == Kind.SHORT ? INT : this;
+    }
+
+    //the usual arithmetic conversions, for integer operands
+    public static CType common(CType a, CType b) {
+        a = a.promote();
+        b = b.promote();
+        if (a.kind == Kind.LONG || b.kind == Kind.LONG) {
+            return (a.kind == Kind.LONG && a.unsigned) || (b.kind == Kind.LONG && b.unsigned) ? ULONG : LONG;
+        }
+        return a.unsigned || b.unsigned ? UINT : INT;
+    }
+
+    public static CType ofSize(long size, boolean unsigned) {
+        return switch ((int) size) {
+            case 1 -> unsigned ? UCHAR : CHAR;
+            case 2 -> unsigned ? USHORT : SHORT;
+            case 4 -> unsigned ? UINT : INT;
+            default -> unsigned ? ULONG : LONG;
+        };
+    }
+
+    //whether values of the two types can be used in place of each other without a cast
+    public boolean isCompatible(CType other) {
+        if (this == other) {
+            return true;
+        }
+        if (kind != other.kind) {
+            return false;
+        }
+        return switch (kind) {
+            case POINTER -> base.isVoid() || other.base.isVoid() || base.isCompatible(other.base);
+            case ARRAY -> base.isCompatible(other.base) && (length < 0 || other.length < 0 || length == other.length);
+            case FUNCTION -> base.isCompatible(other.base);
+            case STRUCT -> false;
+            default -> unsigned == other.unsigned;
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CType other) || kind != other.kind || kind == Kind.STRUCT) {
+            return false;
+        }
+        return unsigned == other.unsigned && length == other.length && variadic == other.variadic
+                && Objects.equals(base, other.base) && Objects.equals(params, other.params);
+    }
+
+    @Override
+    public int hashCode() {
+        return kind == Kind.STRUCT ? System.identityHashCode(this) : Objects.hash(kind, unsigned, base, length, params, variadic);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case VOID -> "void";
+            case CHAR -> unsigned ? "unsigned char" : "char";
+            case SHORT -> unsigned ? "unsigned short" : "short";
+            case INT -> unsigned ? "unsigned int" : "int";
+            case LONG -> unsigned ? "unsigned long" : "long";
+            case POINTER -> base + "*";
+            case ARRAY -> base + "[" + (length < 0 ? "" : length) + "]";
+            case FUNCTION -> base + "(" + String.join(", ", params.stream().map(CType::toString).toList()) + (variadic ? ", ..." : "") + ")";
+            case STRUCT -> "struct " + (tag == null ? "<anonymous>" : tag);
+        };
+    }
+
+    public record Member(String name, CType type, long offset) {}
+}
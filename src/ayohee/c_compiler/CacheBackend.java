@@ -0,0 +1,11 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+
+//somewhere OutputCache can keep entries. names are hex digests plus an extension, so they're safe to use as file names or URLs
+public interface CacheBackend {
+    //null if there's no entry under that name
+    byte[] get(String name) throws IOException;
+
+    void put(String name, byte[] value) throws IOException;
+}
@@ -0,0 +1,121 @@
+package ayohee.c_compiler;
+
+import ayohee.c_compiler.IrInstruction.Op;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+//replaces a computation with an earlier identical one that dominates it, walking the dominator tree with a scoped table
+//of what's been computed so far. loads are only reused within a block, up to the next store or call, and a load just
+//after a store to the same address takes the stored value
+public class CommonSubexpressionElimination implements IrPass {
+    @Override
+    public String getName() {
+        return "common subexpression elimination";
+    }
+
+    private static final IrBlock SCOPE_END = new IrBlock(-1);
+
+    private record Expression(Op op, IrType type, IrValue left, IrValue right) {}
+
+    @Override
+    public void run(IrFunction function, IrModule module) {
+        function.computeDominators();
+        function.renumber();
+        Map<Expression, IrInstruction> available = new HashMap<>();
+        Map<IrValue, IrValue> replacements = new HashMap<>();
+
+        //iterative, with a marker for where each block's scope ends, as dominator trees can be as deep as the function is long
+        Deque<IrBlock> stack = new ArrayDeque<>();
+        Deque<List<Expression>> scopes = new ArrayDeque<>();
+        stack.push(function.getEntry());
+        while (!stack.isEmpty()) {
+            IrBlock block = stack.pop();
+            if (block == SCOPE_END) {
+                for (Expression expression : scopes.pop()) {
+                    available.remove(expression);
+                }
+                continue;
+            }
+
+            List<Expression> added = new ArrayList<>();
+            Map<Expression, IrValue> memory = new HashMap<>();
+            Iterator<IrInstruction> it = block.getInstructions().iterator();
+            while (it.hasNext()) {
+                IrInstruction instruction = it.next();
+                IrValue[] operands = instruction.getOperands();
+                for (int i = 0; i < operands.length; ++i) {
+                    operands[i] = IrFunction.resolve(replacements, operands[i]);
+                }
+
+                Op op = instruction.getOp();
+                if (op == Op.STORE || op == Op.CALL) {
+                    memory.clear(); //anything could alias
+                    if (op == Op.STORE) {
+                        memory.put(new Expression(Op.LOAD, operands[1].getType(), operands[0], null), operands[1]);
+                    }
+                    continue;
+                }
+                if (op == Op.LOAD) {
+                    Expression expression = new Expression(Op.LOAD, instruction.getType(), operands[0], null);
+                    IrValue known = memory.get(expression);
+                    if (known != null) {
+                        replacements.put(instruction, known);
+                        it.remove();
+                    } else {
+                        memory.put(expression, instruction);
+                    }
+                    continue;
+                }
+                if (!(op.isBinary() || op.isUnary() || op.isComparison() || op.isConversion())) {
+                    continue;
+                }
+
+                Expression expression = expressionOf(instruction);
+                IrInstruction existing = available.get(expression);
+                if (existing != null) {
+                    replacements.put(instruction, existing);
+                    it.remove();
+                } else {
+                    available.put(expression, instruction);
+                    added.add(expression);
+                }
+            }
+
+            stack.push(SCOPE_END);
+            scopes.push(added);
+            for (IrBlock child : function.getDominated(block)) {
+                stack.push(child);
+            }
+        }
+        function.replaceUses(replacements);
+    }
+
+    //operands of commutative operators go in a fixed order, so that a + b and b + a are found to be the same
+    private static Expression expressionOf(IrInstruction instruction) {
+        IrValue[] operands = instruction.getOperands();
+        IrValue left = operands[0];
+        IrValue right = operands.length > 1 ? operands[1] : null;
+        if (right != null && instruction.getOp().isCommutative() && rank(right) < rank(left)) {
+            IrValue swap = left;
+            left = right;
+            right = swap;
+        }
+        return new Expression(instruction.getOp(), instruction.getType(), left, right);
+    }
+
+    private static long rank(IrValue value) {
+        if (value instanceof IrInstruction instruction) {
+            return instruction.getId();
+        }
+        if (value instanceof IrValue.Parameter param) {
+            return -1 - param.getIndex();
+        }
+        return Long.MAX_VALUE;
+    }
+}
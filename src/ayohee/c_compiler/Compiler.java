@@ -1,11 +1,205 @@
 package ayohee.c_compiler;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Compiler {
-    public static void compile(List<Path> ppuFiles, Path asmOutputPath, boolean verbose, boolean yesMode) {
-        //TODO this
+    //false if any unit failed to compile. every unit is still attempted, so that all of their errors are reported at once.
+    //objects are written to objOutputPath and assembler source to asmOutputPath, either of which may be null to skip it.
+    //with lto, each unit's optimised IR is written to objOutputPath instead of an object, for the linker to optimise and
+    //generate code for as a whole program
+    public static boolean compile(List<Path> ppuFiles, Path asmOutputPath, Path objOutputPath, boolean lto, boolean verbose, boolean yesMode) {
+        List<UnitJob> jobs = new ArrayList<>();
+        for (Path ppuFile : ppuFiles) {
+            if (Files.exists(ppuFile)) { //units that preprocessed to nothing have nothing to compile
+                jobs.add(new UnitJob(jobs.size(), ppuFile, sizeOf(ppuFile)));
+            }
+        }
+
+        //largest first, using the .i size as a guess at the cost, so that a big unit isn't left running alone at the end.
+        //in async mode each worker takes its own tasks oldest first, the same order that other workers steal them in
+        List<UnitJob> schedule = new ArrayList<>(jobs);
+        schedule.sort(Comparator.comparingLong((UnitJob job) -> job.size).reversed());
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), jobs.size()));
+        ForkJoinPool pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
+        //each worker keeps one arena for every unit it compiles, dropping a unit's whole tree once it's done with
+        ThreadLocal<AstArena> arenas = ThreadLocal.withInitial(AstArena::new);
+        PassManager passes = PassManager.standard();
+        DiagnosticPrinter printer = new DiagnosticPrinter(jobs);
+        long start = System.nanoTime();
+        try {
+            pool.invoke(ForkJoinTask.adapt(() -> {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (UnitJob job : schedule) {
+                    tasks.add(ForkJoinTask.adapt(() -> {
+                        job.run(arenas.get(), passes, asmOutputPath, objOutputPath, lto, verbose, yesMode);
+                        printer.finished(job);
+                    }).fork());
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.join();
+                }
+            }));
+        } finally {
+            pool.shutdown();
+        }
+
+        if (verbose) {
+            System.out.println("\nCompiled " + jobs.size() + " units on " + threads + " threads in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            passes.printTimings();
+        }
+        return jobs.stream().allMatch(job -> job.succeeded);
+    }
+
+    private static long sizeOf(Path ppuFile) {
+        try {
+            return Files.size(ppuFile);
+        } catch (IOException e) {
+            return 0; //only a scheduling hint. reading it properly will report the problem
+        }
+    }
+
+    private static void compileUnit(Path ppuFile, AstArena arena, PassManager passes, Path asmOutputPath, Path objOutputPath, boolean lto, StringBuilder log, boolean verbose, boolean yesMode) throws CompilerException {
+        log.append("\nCompiling ").append(ppuFile).append('\n');
+
+        List<String> warnings = new ArrayList<>();
+        int unit = CParser.parse(tokenize(ppuFile, yesMode, verbose), ppuFile, arena, warnings);
+        for (String warning : warnings) {
+            log.append("Warning: ").append(warning).append('\n');
+        }
+        if (verbose) {
+            log.append("Parsed ").append(arena.size()).append(" syntax tree nodes (").append(arena.capacityBytes() / 1024).append(" KiB of arena)\n");
+        }
+
+        IrModule module = IrLowering.lower(arena, unit, ppuFile);
+        int lowered = module.instructionCount();
+        passes.run(module);
+        if (verbose) {
+            log.append("Lowered to ").append(lowered).append(" IR instructions, ").append(module.instructionCount()).append(" after optimisation\n");
+        }
+        if (lto) {
+            writeIr(ppuFile, module, objOutputPath, log, verbose);
+            return;
+        }
+
+        X86Module machine = X86CodeGenerator.generate(module);
+        if (verbose) {
+            log.append("Allocated ").append(machine.getVirtualRegisters()).append(" virtual registers: ").append(machine.getSplits())
+                    .append(" intervals split, ").append(machine.getSpilled()).append(" spilled to the stack\n");
+        }
+        if (objOutputPath != null) {
+            Path objFile = objOutputPath.resolve(unitName(ppuFile) + ".o");
+            try {
+                ElfObject object = Assembler.assemble(machine, objFile);
+                if (verbose) {
+                    long bytes = 0;
+                    int relocations = 0;
+                    for (ElfObject.Section section : object.getSections()) {
+                        bytes += section.size();
+                        relocations += section.getRelocations().size();
+                    }
+                    log.append("Assembled ").append(bytes).append(" bytes of code and data with ").append(relocations).append(" relocations\n");
+                }
+            } catch (IOException e) {
+                throw new CompilerException(ppuFile.toString(), 0, ppuFile, "Failed to write " + objFile + ": " + e.getMessage());
+            }
+        }
+        if (asmOutputPath != null) {
+            Path asmFile = asmOutputPath.resolve(unitName(ppuFile) + ".s");
+            try {
+                X86AsmWriter.write(machine, asmFile);
+            } catch (IOException e) {
+                throw new CompilerException(ppuFile.toString(), 0, ppuFile, "Failed to write " + asmFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    //the IR takes the place of the unit's object, and the linker tells them apart by extension
+    private static void writeIr(Path ppuFile, IrModule module, Path objOutputPath, StringBuilder log, boolean verbose) throws CompilerException {
+        Path irFile = objOutputPath.resolve(unitName(ppuFile) + LinkTimeOptimizer.IR_EXTENSION);
+        try {
+            byte[] ir = IrSerializer.serialize(module);
+            Files.write(irFile, ir);
+            if (verbose) {
+                log.append("Wrote ").append(ir.length).append(" bytes of IR for link time optimisation\n");
+            }
+        } catch (IOException e) {
+            throw new CompilerException(ppuFile.toString(), 0, ppuFile, "Failed to write " + irFile + ": " + e.getMessage());
+        }
+    }
+
+    //the .i file's name without its extension, which names everything built from it
+    private static String unitName(Path ppuFile) {
+        String fileName = ppuFile.getFileName().toString();
+        return fileName.endsWith(".i") ? fileName.substring(0, fileName.length() - 2) : fileName;
+    }
+
+    private static List<PreprocessingToken> tokenize(Path ppuFile, boolean yesMode, boolean verbose) throws CompilerException {
+        PreprocessingContext context = new PreprocessingContext(ppuFile, LocalDateTime.now(), yesMode, verbose);
+        context.fileDeeper(ppuFile); //only used to report where the tokenizer fails
+        try {
+            return Tokenizer.tokenize(new String(Files.readAllBytes(ppuFile), StandardCharsets.UTF_8), context);
+        } catch (IOException e) {
+            throw new CompilerException(context, "Failed to read " + ppuFile, e);
+        }
+    }
+
+
+    //one unit to compile. everything it would print is kept in its log, so units compiling at the same time can't interleave
+    private static class UnitJob {
+        private final int index;
+        private final Path ppuFile;
+        private final long size;
+        private final StringBuilder log = new StringBuilder();
+        private boolean succeeded = false;
+
+        private UnitJob(int index, Path ppuFile, long size) {
+            this.index = index;
+            this.ppuFile = ppuFile;
+            this.size = size;
+        }
+
+        private void run(AstArena arena, PassManager passes, Path asmOutputPath, Path objOutputPath, boolean lto, boolean verbose, boolean yesMode) {
+            try {
+                compileUnit(ppuFile, arena, passes, asmOutputPath, objOutputPath, lto, log, verbose, yesMode);
+                succeeded = true;
+            } catch (CompilerException e) {
+                log.append(e.getMessage()).append('\n');
+            } catch (RuntimeException | StackOverflowError e) {
+                log.append("Internal compiler error while compiling ").append(ppuFile).append(": ").append(e).append('\n');
+            } finally {
+                arena.reset();
+            }
+        }
+    }
+
+    //prints each unit's log in the order the units were given, as soon as it and every unit before it have finished,
+    //so that the output is the same however the units happened to be scheduled
+    private static class DiagnosticPrinter {
+        private final List<UnitJob> jobs;
+        private final boolean[] done;
+        private int nextToPrint = 0;
+
+        private DiagnosticPrinter(List<UnitJob> jobs) {
+            this.jobs = jobs;
+            this.done = new boolean[jobs.size()];
+        }
+
+        private synchronized void finished(UnitJob job) {
+            done[job.index] = true;
+            while (nextToPrint < done.length && done[nextToPrint]) {
+                System.out.print(jobs.get(nextToPrint).log);
+                ++nextToPrint;
+            }
+        }
     }
 }
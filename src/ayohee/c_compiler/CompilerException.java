@@ -1,5 +1,7 @@
 package ayohee.c_compiler;
 
+import java.nio.file.Path;
+
 public class CompilerException extends Exception {
     public CompilerException(PreprocessingContext context) {
         super("Undescribed error occured in " + context.getCurrentFileName() + ":" + context.getLineNumber() + " while compiling " + context.getOriginalSourcePath());
@@ -10,4 +12,9 @@ public class CompilerException extends Exception {
     public CompilerException(PreprocessingContext context, String reason, Throwable cause) {
         super("Error occured in " + context.getCurrentFileName() + ":" + context.getLineNumber() + " while compiling " + context.getOriginalSourcePath() + ": " + reason, cause);
     }
+
+    //for the stages after preprocessing, which track where they are themselves
+    public CompilerException(String fileName, int line, Path unit, String reason) {
+        super("Error occured in " + fileName + ":" + line + " while compiling " + unit + ": " + reason);
+    }
 }
@@ -0,0 +1,252 @@
+package ayohee.c_compiler;
+
+import ayohee.c_compiler.IrInstruction.Op;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+//works out instructions whose operands are all constants, applies algebraic identities like x + 0 and x * 1, and turns
+//multiplication and unsigned division by powers of two into shifts. a branch on a constant becomes a jump.
+//constants are moved to the right of commutative operators, so the later passes and the back end only look there
+public class ConstantFolding implements IrPass {
+    @Override
+    public String getName() {
+        return "constant folding";
+    }
+
+    @Override
+    public void run(IrFunction function, IrModule module) {
+        Map<IrValue, IrValue> replacements = new HashMap<>();
+        boolean foldedBranch = false;
+        for (IrBlock block : function.getBlocks()) {
+            Iterator<IrInstruction> it = block.getInstructions().iterator();
+            while (it.hasNext()) {
+                IrInstruction instruction = it.next();
+                IrValue[] operands = instruction.getOperands();
+                for (int i = 0; i < operands.length; ++i) {
+                    operands[i] = IrFunction.resolve(replacements, operands[i]);
+                }
+
+                if (instruction.getOp() == Op.BRANCH) {
+                    foldedBranch |= simplifyBranch(instruction);
+                    continue;
+                }
+                IrValue simplified = simplify(instruction);
+                if (simplified != null) {
+                    replacements.put(instruction, simplified);
+                    it.remove();
+                }
+            }
+        }
+        function.replaceUses(replacements); //phis can use values from blocks that come after them
+        if (foldedBranch) {
+            function.removeUnreachableBlocks();
+        }
+    }
+
+    private static boolean simplifyBranch(IrInstruction branch) {
+        IrValue condition = branch.getOperand(0);
+        if (condition.isConstant()) {
+            IrBlock[] targets = branch.getTargets();
+            IrBlock taken = condition.constantValue() != 0 ? targets[0] : targets[1];
+            IrBlock skipped = taken == targets[0] ? targets[1] : targets[0];
+            skipped.removePredecessor(branch.getBlock());
+            branch.makeJump(taken);
+            return true;
+        }
+        //branching on whether a comparison is non-zero is branching on the comparison
+        if (condition instanceof IrInstruction test && test.getOp() == Op.NE && isZero(test.getOperand(1))
+                && test.getOperand(0) instanceof IrInstruction compared && compared.getOp().isComparison()) {
+            branch.setOperand(0, compared);
+        }
+        return false;
+    }
+
+    //a value equal to the instruction's result, or null if it has to stay. can also rewrite the instruction in place
+    static IrValue simplify(IrInstruction instruction) {
+        Op op = instruction.getOp();
+        IrValue[] operands = instruction.getOperands();
+        if (op == Op.PHI) {
+            IrValue same = operands.length == 0 ? null : operands[0];
+            for (IrValue operand : operands) {
+                if (!operand.equals(same)) {
+                    return null;
+                }
+            }
+            return same == instruction ? null : same;
+        }
+        if (!(op.isBinary() || op.isUnary() || op.isComparison() || op.isConversion())) {
+            return null;
+        }
+
+        boolean allConstant = true;
+        for (IrValue operand : operands) {
+            allConstant &= operand.isConstant();
+        }
+        if (allConstant) {
+            Long value = evaluate(op, instruction.getType(), operands[0].getType(),
+                    operands[0].constantValue(), operands.length > 1 ? operands[1].constantValue() : 0);
+            return value == null ? null : IrValue.Constant.of(instruction.getType(), value);
+        }
+
+        if (op.isConversion()) {
+            //narrowing something that was just widened from the same type gives back the original
+            if (op == Op.TRUNC && operands[0] instanceof IrInstruction widened && (widened.getOp() == Op.SEXT || widened.getOp() == Op.ZEXT)
+                    && widened.getOperand(0).getType() == instruction.getType()) {
+                return widened.getOperand(0);
+            }
+            return null;
+        }
+        if (operands.length == 1) {
+            return null;
+        }
+
+        if ((op.isCommutative() || op.isComparison()) && operands[0].isConstant() && !operands[1].isConstant()) {
+            instruction.rewrite(op.isComparison() ? op.swapped() : op, operands[1], operands[0]);
+            op = instruction.getOp();
+            operands = instruction.getOperands();
+        }
+        IrValue left = operands[0];
+        IrValue right = operands[1];
+        IrType type = instruction.getType();
+
+        if (left.equals(right) && !left.isConstant()) {
+            switch (op) {
+                case SUB, XOR -> {
+                    return IrValue.Constant.of(type, 0);
+                }
+                case AND, OR -> {
+                    return left;
+                }
+                case EQ, SLE, SGE, ULE, UGE -> {
+                    return IrValue.Constant.of(IrType.I32, 1);
+                }
+                case NE, SLT, SGT, ULT, UGT -> {
+                    return IrValue.Constant.of(IrType.I32, 0);
+                }
+            }
+        }
+        if (!right.isConstant()) {
+            return null;
+        }
+
+        long constant = right.constantValue();
+        switch (op) {
+            case ADD, SUB, OR, XOR, SHL, SHR, SAR -> {
+                if (constant == 0) {
+                    return left;
+                }
+                //(x + a) + b is x + (a + b), which is what addresses of members of members look like
+                if (op == Op.ADD && left instanceof IrInstruction inner && inner.getOp() == Op.ADD && inner.getOperand(1).isConstant()) {
+                    instruction.rewrite(Op.ADD, inner.getOperand(0), IrValue.Constant.of(type, inner.getOperand(1).constantValue() + constant));
+                }
+            }
+            case MUL -> {
+                if (constant == 0) {
+                    return right;
+                }
+                if (constant == 1) {
+                    return left;
+                }
+                if (isPowerOfTwo(constant)) {
+                    instruction.rewrite(Op.SHL, left, IrValue.Constant.of(type, Long.numberOfTrailingZeros(constant)));
+                }
+            }
+            case SDIV -> {
+                if (constant == 1) {
+                    return left;
+                }
+            }
+            case UDIV -> {
+                if (constant == 1) {
+                    return left;
+                }
+                if (isPowerOfTwo(type.unsigned(constant))) {
+                    instruction.rewrite(Op.SHR, left, IrValue.Constant.of(type, Long.numberOfTrailingZeros(type.unsigned(constant))));
+                }
+            }
+            case UREM -> {
+                if (isPowerOfTwo(type.unsigned(constant))) {
+                    instruction.rewrite(Op.AND, left, IrValue.Constant.of(type, type.unsigned(constant) - 1));
+                }
+            }
+            case AND -> {
+                if (constant == 0) {
+                    return right;
+                }
+                if (constant == -1) {
+                    return left;
+                }
+            }
+            case NE, EQ -> {
+                //comparing a comparison's result with zero is that comparison or its opposite
+                if (constant == 0 && left instanceof IrInstruction compared && compared.getOp().isComparison()) {
+                    if (op == Op.NE) {
+                        return compared;
+                    }
+                    instruction.rewrite(compared.getOp().inverse(), compared.getOperand(0), compared.getOperand(1));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isZero(IrValue value) {
+        return value.isConstant() && value.constantValue() == 0;
+    }
+
+    private static boolean isPowerOfTwo(long value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    //the result of an operation on constants, which are sign extended from their types, or null if it can't be worked
+    //out here: division by zero and overflowing division trap at run time, so are left to do so
+    static Long evaluate(Op op, IrType type, IrType operandType, long a, long b) {
+        long ua = operandType.unsigned(a);
+        long ub = operandType.unsigned(b);
+        int shiftMask = type == IrType.I64 ? 63 : 31;
+        long result;
+        switch (op) {
+            case ADD -> result = a + b;
+            case SUB -> result = a - b;
+            case MUL -> result = a * b;
+            case SDIV, SREM -> {
+                if (b == 0 || (b == -1 && a == type.normalize(Long.MIN_VALUE >> (64 - 8 * type.size())))) {
+                    return null;
+                }
+                result = op == Op.SDIV ? a / b : a % b;
+            }
+            case UDIV, UREM -> {
+                if (ub == 0) {
+                    return null;
+                }
+                result = op == Op.UDIV ? Long.divideUnsigned(ua, ub) : Long.remainderUnsigned(ua, ub);
+            }
+            case AND -> result = a & b;
+            case OR -> result = a | b;
+            case XOR -> result = a ^ b;
+            case SHL -> result = a << (b & shiftMask);
+            case SHR -> result = ua >>> (b & shiftMask);
+            case SAR -> result = a >> (b & shiftMask);
+            case NEG -> result = -a;
+            case NOT -> result = ~a;
+            case EQ -> result = a == b ? 1 : 0;
+            case NE -> result = a != b ? 1 : 0;
+            case SLT -> result = a < b ? 1 : 0;
+            case SLE -> result = a <= b ? 1 : 0;
+            case SGT -> result = a > b ? 1 : 0;
+            case SGE -> result = a >= b ? 1 : 0;
+            case ULT -> result = Long.compareUnsigned(ua, ub) < 0 ? 1 : 0;
+            case ULE -> result = Long.compareUnsigned(ua, ub) <= 0 ? 1 : 0;
+            case UGT -> result = Long.compareUnsigned(ua, ub) > 0 ? 1 : 0;
+            case UGE -> result = Long.compareUnsigned(ua, ub) >= 0 ? 1 : 0;
+            case SEXT, TRUNC -> result = a;
+            case ZEXT -> result = ua;
+            default -> {
+                return null;
+            }
+        }
+        return type.normalize(result);
+    }
+}
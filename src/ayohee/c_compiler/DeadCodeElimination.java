@@ -0,0 +1,149 @@
+package ayohee.c_compiler;
+
+import ayohee.c_compiler.IrInstruction.Op;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//removes instructions whose results are never used, starting from those that have effects and marking what they need,
+//so that dead cycles of phis go too. then tidies the control flow the other passes leave: blocks that only jump on are
+//bypassed, a block with one predecessor that jumps straight to it is merged into it, and static functions and variables
+//that nothing refers to any more are dropped
+public class DeadCodeElimination implements IrPass {
+    @Override
+    public String getName() {
+        return "dead code elimination";
+    }
+
+    @Override
+    public void run(IrModule module) {
+        for (IrFunction function : module.getFunctions()) {
+            run(function, module);
+        }
+        removeUnusedDefinitions(module);
+    }
+
+    @Override
+    public void run(IrFunction function, IrModule module) {
+        Set<IrInstruction> live = new HashSet<>();
+        Deque<IrInstruction> work = new ArrayDeque<>();
+        for (IrBlock block : function.getBlocks()) {
+            for (IrInstruction instruction : block.getInstructions()) {
+                if (!instruction.getOp().isPure() && live.add(instruction)) {
+                    work.add(instruction);
+                }
+            }
+        }
+        while (!work.isEmpty()) {
+            for (IrValue operand : work.poll().getOperands()) {
+                if (operand instanceof IrInstruction used && live.add(used)) {
+                    work.add(used);
+                }
+            }
+        }
+        for (IrBlock block : function.getBlocks()) {
+            block.getInstructions().removeIf(instruction -> !live.contains(instruction));
+        }
+
+        bypassEmptyBlocks(function);
+        mergeBlocks(function);
+        function.removeUnreachableBlocks();
+    }
+
+    //a block that does nothing but jump to a block without phis can be skipped by everything that goes there
+    private static void bypassEmptyBlocks(IrFunction function) {
+        for (IrBlock block : function.getBlocks()) {
+            if (block == function.getEntry() || block.getInstructions().size() != 1 || block.getInstructions().getFirst().getOp() != Op.JUMP) {
+                continue;
+            }
+            IrBlock target = block.getInstructions().getFirst().getTargets()[0];
+            if (target == block || !target.getPhis().isEmpty()) {
+                continue;
+            }
+            for (IrBlock pred : List.copyOf(block.getPredecessors())) {
+                IrInstruction terminator = pred.getTerminator();
+                IrBlock[] targets = terminator.getTargets();
+                if (terminator.getOp() == Op.BRANCH && (targets[0] == target || targets[1] == target)) {
+                    continue; //would make both ways go to the same place
+                }
+                for (int i = 0; i < targets.length; ++i) {
+                    if (targets[i] == block) {
+                        terminator.setTarget(i, target);
+                    }
+                }
+                block.removePredecessor(pred);
+                target.getPredecessors().add(pred);
+            }
+            if (block.getPredecessors().isEmpty()) {
+                target.getPredecessors().remove(block); //so that it doesn't look like a join when merging
+            }
+        }
+    }
+
+    private static void mergeBlocks(IrFunction function) {
+        Set<IrBlock> merged = new HashSet<>();
+        Map<IrValue, IrValue> replacements = new HashMap<>();
+        for (IrBlock block : function.getBlocks()) {
+            if (merged.contains(block) || block == function.getEntry() || block.getPredecessors().size() != 1) {
+                continue;
+            }
+            IrBlock pred = block.getPredecessors().getFirst();
+            IrInstruction jump = pred.getTerminator();
+            if (pred == block || merged.contains(pred) || jump.getOp() != Op.JUMP) {
+                continue;
+            }
+
+            //phis with one predecessor just pass its value on
+            for (IrInstruction phi : block.getPhis()) {
+                replacements.put(phi, phi.getOperand(0));
+            }
+            List<IrInstruction> instructions = pred.getInstructions();
+            instructions.removeLast();
+            for (IrInstruction instruction : block.getInstructions()) {
+                if (instruction.getOp() != Op.PHI) {
+                    pred.append(instruction);
+                }
+            }
+            block.getInstructions().clear();
+            block.getPredecessors().clear();
+            for (IrBlock successor : pred.getSuccessors()) {
+                successor.replacePredecessor(block, pred);
+            }
+            merged.add(block);
+        }
+        function.replaceUses(replacements);
+    }
+
+    //static definitions are only reachable through this unit, so once nothing here refers to one it can go
+    private static void removeUnusedDefinitions(IrModule module) {
+        boolean changed = true;
+        while (changed) {
+            Set<String> used = new HashSet<>();
+            for (IrFunction function : module.getFunctions()) {
+                for (IrBlock block : function.getBlocks()) {
+                    for (IrInstruction instruction : block.getInstructions()) {
+                        for (IrValue operand : instruction.getOperands()) {
+                            if (operand instanceof IrValue.Symbol symbol && !symbol.getName().equals(function.getName())) {
+                                used.add(symbol.getName());
+                            }
+                        }
+                    }
+                }
+            }
+            for (IrModule.Global global : module.getGlobals()) {
+                for (IrModule.Relocation relocation : global.getRelocations()) {
+                    if (!relocation.symbol().equals(global.getName())) {
+                        used.add(relocation.symbol());
+                    }
+                }
+            }
+            changed = module.getFunctions().removeIf(function -> function.isStatic() && !used.contains(function.getName()));
+            changed |= module.getGlobals().removeIf(global -> global.isStatic() && !used.contains(global.getName()));
+        }
+    }
+}
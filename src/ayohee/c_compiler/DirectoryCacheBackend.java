@@ -0,0 +1,112 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+//cache entries as files in a directory, which may be shared with other builds or machines.
+//with a size limit, the least recently used entries are evicted once the limit is passed
+public class DirectoryCacheBackend implements CacheBackend {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final Path root;
+    private final long maxBytes;
+    private long currentBytes;
+
+    public DirectoryCacheBackend(Path root, long maxBytes) throws IOException {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(root);
+        if (maxBytes != UNLIMITED) {
+            for (Entry entry : listEntries()) {
+                currentBytes += entry.size;
+            }
+        }
+    }
+
+    @Override
+    public byte[] get(String name) throws IOException {
+        Path path = pathOf(name);
+        try {
+            byte[] value = Files.readAllBytes(path);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis())); //mark as recently used
+            return value;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String name, byte[] value) throws IOException {
+        Path path = pathOf(name);
+        Files.createDirectories(path.getParent());
+
+        //write then move, so that other builds sharing the directory never see half an entry
+        Path temp = Files.createTempFile(path.getParent(), name, ".tmp");
+        try {
+            Files.write(temp, value);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        if (maxBytes != UNLIMITED) {
+            evictIfNeeded(value.length);
+        }
+    }
+
+    //entries are spread over subdirectories by their first two characters to keep directories small
+    private Path pathOf(String name) {
+        return root.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private synchronized void evictIfNeeded(long added) throws IOException {
+        currentBytes += added;
+        if (currentBytes <= maxBytes) {
+            return;
+        }
+
+        //the running total drifts when entries are replaced or other builds share the directory, so recount before evicting.
+        //evict down to 90% of the limit so that we aren't evicting again on every put
+        List<Entry> entries = listEntries();
+        entries.sort(Comparator.comparing(entry -> entry.lastUsed));
+        currentBytes = 0;
+        for (Entry entry : entries) {
+            currentBytes += entry.size;
+        }
+
+        long target = maxBytes / 10 * 9;
+        for (Entry entry : entries) {
+            if (currentBytes <= target) {
+                break;
+            }
+            Files.deleteIfExists(entry.path);
+            currentBytes -= entry.size;
+        }
+    }
+
+    private List<Entry> listEntries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root, 2)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue; //evicted by another build while we were looking
+                }
+                if (attributes.isRegularFile() && !path.getFileName().toString().endsWith(".tmp")) {
+                    entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private record Entry(Path path, long size, FileTime lastUsed) {}
+}
@@ -0,0 +1,433 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//an ELF64 relocatable object for x86-64, built up in memory: sections of bytes, the symbols defined in them or
+//referred to from them, and the relocations that still have to be applied to them once they're linked
+public final class ElfObject {
+    //section types and flags
+    public static final int SHT_PROGBITS = 1;
+    public static final int SHT_SYMTAB = 2;
+    public static final int SHT_STRTAB = 3;
+    public static final int SHT_RELA = 4;
+    public static final int SHT_NOBITS = 8;
+    public static final long SHF_WRITE = 0x1;
+    public static final long SHF_ALLOC = 0x2;
+    public static final long SHF_EXECINSTR = 0x4;
+    public static final long SHF_INFO_LINK = 0x40;
+
+    //symbol bindings and types
+    public static final int STB_LOCAL = 0;
+    public static final int STB_GLOBAL = 1;
+    public static final int STT_NOTYPE = 0;
+    public static final int STT_OBJECT = 1;
+    public static final int STT_FUNC = 2;
+    public static final int STT_SECTION = 3;
+
+    //relocation types
+    public static final int R_X86_64_64 = 1;
+    public static final int R_X86_64_PC32 = 2;
+    public static final int R_X86_64_GOTPCREL = 9;
+    public static final int R_X86_64_PLT32 = 4;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int SECTION_HEADER_SIZE = 64;
+    private static final int SYMBOL_SIZE = 24;
+    private static final int RELOCATION_SIZE = 24;
+
+    private final List<Section> sections = new ArrayList<>();
+    private final List<Symbol> symbols = new ArrayList<>();
+    private final Map<String, Symbol> symbolsByName = new HashMap<>();
+
+    public List<Section> getSections() {
+        return sections;
+    }
+    public List<Symbol> getSymbols() {
+        return symbols;
+    }
+
+    public Section addSection(String name, int type, long flags) {
+        Section section = new Section(name, type, flags);
+        sections.add(section);
+        return section;
+    }
+
+    //the symbol, defined or not yet, created undefined and global the first time it's asked for
+    public Symbol symbol(String name) {
+        return symbolsByName.computeIfAbsent(name, n -> {
+            Symbol symbol = new Symbol(n);
+            symbols.add(symbol);
+            return symbol;
+        });
+    }
+
+    //every part of the file is sized and placed before anything is written, and then it all goes out in one gathering
+    //write straight from the sections' own arrays. laid out as the header, each section's contents, the relocation and
+    //symbol tables, and then the section headers. section 0 is the null section, as is symbol 0
+    public void write(Path objFile) throws IOException {
+        ByteBuffer[] gathered = layOut();
+        long remaining = 0;
+        for (ByteBuffer piece : gathered) {
+            remaining += piece.remaining();
+        }
+        try (FileChannel channel = FileChannel.open(objFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (remaining > 0) {
+                remaining -= channel.write(gathered);
+            }
+        }
+    }
+
+    //the whole file in memory, for objects that are linked straight away rather than written out
+    public ByteBuffer toBuffer() {
+        ByteBuffer[] pieces = layOut();
+        int size = 0;
+        for (ByteBuffer piece : pieces) {
+            size += piece.remaining();
+        }
+        ByteBuffer file = ByteBuffer.allocate(size);
+        for (ByteBuffer piece : pieces) {
+            file.put(piece);
+        }
+        return file.flip();
+    }
+
+    //the file's pieces in order, ready to be written
+    private ByteBuffer[] layOut() {
+        List<Section> emitted = new ArrayList<>();
+        for (Section section : sections) {
+            if (section.size() > 0 || section.isAlwaysEmitted) {
+                emitted.add(section);
+            }
+        }
+        Map<Section, Integer> sectionIndices = new HashMap<>();
+        for (int i = 0; i < emitted.size(); ++i) {
+            sectionIndices.put(emitted.get(i), i + 1);
+        }
+
+        //locals have to come before globals, with the symbol table's info saying where the globals start. relocations
+        //against locals go through their section's symbol instead, as nothing outside the object can see them, so
+        //assembler local .L labels needn't be in the table at all
+        List<Symbol> ordered = new ArrayList<>();
+        Map<Section, Symbol> sectionSymbols = new HashMap<>();
+        for (Section section : emitted) {
+            if (section.flags != 0) {
+                Symbol symbol = new Symbol("");
+                symbol.define(section, 0, 0, STT_SECTION, true);
+                sectionSymbols.put(section, symbol);
+                ordered.add(symbol);
+            }
+        }
+        for (Symbol symbol : symbols) {
+            if (symbol.binding == STB_LOCAL && !symbol.name.startsWith(".L")) {
+                ordered.add(symbol);
+            }
+        }
+        int firstGlobal = ordered.size() + 1;
+        for (Symbol symbol : symbols) {
+            if (symbol.binding != STB_LOCAL) {
+                ordered.add(symbol);
+            }
+        }
+
+        List<Section> relocated = new ArrayList<>();
+        for (Section section : emitted) {
+            if (!section.relocations.isEmpty()) {
+                relocated.add(section);
+            }
+        }
+        List<String> sectionNames = new ArrayList<>();
+        for (Section section : emitted) {
+            sectionNames.add(section.name);
+        }
+        for (Section section : relocated) {
+            sectionNames.add(".rela" + section.name);
+        }
+        sectionNames.addAll(List.of(".symtab", ".strtab", ".shstrtab"));
+        List<String> symbolNames = new ArrayList<>();
+        for (Symbol symbol : ordered) {
+            symbolNames.add(symbol.name);
+        }
+        StringTable names = new StringTable(symbolNames);
+        StringTable shstrtab = new StringTable(sectionNames);
+
+        Map<Symbol, Integer> symbolIndices = new HashMap<>();
+        ByteBuffer symtab = buffer((ordered.size() + 1) * SYMBOL_SIZE);
+        symtab.position(SYMBOL_SIZE);
+        for (Symbol symbol : ordered) {
+            symbolIndices.put(symbol, symbolIndices.size() + 1);
+            symtab.putInt(names.offsetOf(symbol.name));
+            symtab.put((byte) (symbol.binding << 4 | symbol.type));
+            symtab.put((byte) 0);
+            symtab.putShort((short) (symbol.section == null ? 0 : sectionIndices.get(symbol.section)));
+            symtab.putLong(symbol.value);
+            symtab.putLong(symbol.size);
+        }
+
+        int symtabIndex = emitted.size() + relocated.size() + 1;
+        int sectionCount = symtabIndex + 3; //with the symbol, string and section name tables
+        ByteBuffer headers = buffer(sectionCount * SECTION_HEADER_SIZE);
+        headers.position(SECTION_HEADER_SIZE); //after the null section's
+        ByteBuffer fileHeader = buffer(HEADER_SIZE);
+        List<ByteBuffer> pieces = new ArrayList<>();
+        pieces.add(fileHeader);
+        long offset = HEADER_SIZE;
+
+        for (Section section : emitted) {
+            offset = pad(pieces, offset, section.align);
+            sectionHeader(headers, shstrtab.offsetOf(section.name), section.type, section.flags, offset, section.size(), 0, 0, section.align, 0);
+            if (section.type != SHT_NOBITS && section.length > 0) {
+                pieces.add(ByteBuffer.wrap(section.bytes, 0, section.length));
+                offset += section.length;
+            }
+        }
+        for (Section section : relocated) {
+            offset = pad(pieces, offset, 8);
+            ByteBuffer table = buffer(section.relocations.size() * RELOCATION_SIZE);
+            for (Relocation relocation : section.relocations) {
+                Symbol symbol = relocation.symbol();
+                long addend = relocation.addend();
+                if (symbol.binding == STB_LOCAL && symbol.isDefined()) {
+                    addend += symbol.value;
+                    symbol = sectionSymbols.get(symbol.section);
+                }
+                table.putLong(relocation.offset());
+                table.putLong((long) symbolIndices.get(symbol) << 32 | relocation.type());
+                table.putLong(addend);
+            }
+            sectionHeader(headers, shstrtab.offsetOf(".rela" + section.name), SHT_RELA, SHF_INFO_LINK, offset,
+                    table.capacity(), symtabIndex, sectionIndices.get(section), 8, RELOCATION_SIZE);
+            pieces.add(table.flip());
+            offset += table.limit();
+        }
+
+        offset = pad(pieces, offset, 8);
+        sectionHeader(headers, shstrtab.offsetOf(".symtab"), SHT_SYMTAB, 0, offset, symtab.capacity(), symtabIndex + 1, firstGlobal, 8, SYMBOL_SIZE);
+        pieces.add(symtab.flip());
+        offset += symtab.limit();
+
+        sectionHeader(headers, shstrtab.offsetOf(".strtab"), SHT_STRTAB, 0, offset, names.size(), 0, 0, 1, 0);
+        pieces.add(names.buffer());
+        offset += names.size();
+
+        sectionHeader(headers, shstrtab.offsetOf(".shstrtab"), SHT_STRTAB, 0, offset, shstrtab.size(), 0, 0, 1, 0);
+        pieces.add(shstrtab.buffer());
+        offset += shstrtab.size();
+
+        offset = pad(pieces, offset, 8);
+        writeHeader(fileHeader, offset, sectionCount, sectionCount - 1);
+        fileHeader.flip();
+        pieces.add(headers.flip());
+
+        return pieces.toArray(new ByteBuffer[0]);
+    }
+
+    private static final byte[] ZEROES = new byte[64];
+
+    //pads the file up to the alignment, returning the offset that's then at
+    private static long pad(List<ByteBuffer> pieces, long offset, long align) {
+        long aligned = align(offset, align);
+        for (long gap = aligned - offset; gap > 0; gap -= ZEROES.length) {
+            pieces.add(ByteBuffer.wrap(ZEROES, 0, (int) Math.min(gap, ZEROES.length)));
+        }
+        return aligned;
+    }
+
+    private static void writeHeader(ByteBuffer out, long sectionHeadersOffset, int sectionCount, int sectionNamesIndex) {
+        out.put(new byte[] {0x7F, 'E', 'L', 'F', 2, 1, 1, 0}); //64 bit, little endian, version 1, System V
+        out.position(16);
+        out.putShort((short) 1); //relocatable
+        out.putShort((short) 62); //x86-64
+        out.putInt(1);
+        out.putLong(0); //no entry point
+        out.putLong(0); //no program headers
+        out.putLong(sectionHeadersOffset);
+        out.putInt(0);
+        out.putShort((short) HEADER_SIZE);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putShort((short) SECTION_HEADER_SIZE);
+        out.putShort((short) sectionCount);
+        out.putShort((short) sectionNamesIndex);
+    }
+
+    private static void sectionHeader(ByteBuffer headers, int name, int type, long flags, long offset, long size, int link, int info, long align, long entrySize) {
+        headers.putInt(name);
+        headers.putInt(type);
+        headers.putLong(flags);
+        headers.putLong(0); //not loaded anywhere yet
+        headers.putLong(offset);
+        headers.putLong(size);
+        headers.putInt(link);
+        headers.putInt(info);
+        headers.putLong(align);
+        headers.putLong(entrySize);
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static long align(long offset, long align) {
+        return align <= 1 ? offset : (offset + align - 1) & -align;
+    }
+
+
+    //a section's bytes, grown as they're appended. .bss only has a size
+    public static final class Section {
+        private final String name;
+        private final int type;
+        private final long flags;
+        private long align = 1;
+        private byte[] bytes = new byte[0];
+        private int length = 0;
+        private long reserved = 0; //for sections without bytes
+        private boolean isAlwaysEmitted = false;
+        private final List<Relocation> relocations = new ArrayList<>();
+
+        private Section(String name, int type, long flags) {
+            this.name = name;
+            this.type = type;
+            this.flags = flags;
+        }
+
+        public String getName() {
+            return name;
+        }
+        public long getAlign() {
+            return align;
+        }
+        public List<Relocation> getRelocations() {
+            return relocations;
+        }
+        public long size() {
+            return type == SHT_NOBITS ? reserved : length;
+        }
+
+        //a marker section, like the one saying the stack needn't be executable, that matters even though it's empty
+        public void alwaysEmit() {
+            isAlwaysEmitted = true;
+        }
+
+        //pads to the alignment, and returns the offset that's then at
+        public long alignTo(long alignment, byte padding) {
+            align = Math.max(align, alignment);
+            if (type == SHT_NOBITS) {
+                reserved = ElfObject.align(reserved, alignment);
+                return reserved;
+            }
+            while (length % alignment != 0) {
+                put(padding);
+            }
+            return length;
+        }
+
+        public void reserve(long size) {
+            reserved += size;
+        }
+
+        //allocates the section's bytes at their final size, for when that's known before they're put in
+        public void presize(long size) {
+            if (type != SHT_NOBITS && size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.toIntExact(size));
+            }
+        }
+
+        public void put(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+        }
+        public void put(byte[] data, int from, int count) {
+            ensure(count);
+            System.arraycopy(data, from, bytes, length, count);
+            length += count;
+        }
+
+        public void addRelocation(long offset, Symbol symbol, int type, long addend) {
+            relocations.add(new Relocation(offset, symbol, type, addend));
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+
+    //section is null for a symbol that's only referred to here
+    public static final class Symbol {
+        private final String name;
+        private int binding = STB_GLOBAL;
+        private int type = STT_NOTYPE;
+        private Section section;
+        private long value;
+        private long size;
+
+        private Symbol(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+        public boolean isDefined() {
+            return section != null;
+        }
+
+        public void define(Section section, long value, long size, int type, boolean isLocal) {
+            this.section = section;
+            this.value = value;
+            this.size = size;
+            this.type = type;
+            this.binding = isLocal ? STB_LOCAL : STB_GLOBAL;
+        }
+    }
+
+    public record Relocation(long offset, Symbol symbol, int type, long addend) {}
+
+    //NUL terminated names, with the empty name at offset 0. every name is known before the table's made, so it's sized
+    //exactly once
+    private static final class StringTable {
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final byte[] bytes;
+
+        private StringTable(List<String> names) {
+            List<byte[]> encoded = new ArrayList<>();
+            int size = 1;
+            for (String name : names) {
+                if (!name.isEmpty() && !offsets.containsKey(name)) {
+                    byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+                    offsets.put(name, size);
+                    encoded.add(utf8);
+                    size += utf8.length + 1;
+                }
+            }
+            bytes = new byte[size];
+            int offset = 1;
+            for (byte[] utf8 : encoded) {
+                System.arraycopy(utf8, 0, bytes, offset, utf8.length);
+                offset += utf8.length + 1;
+            }
+        }
+
+        private int offsetOf(String name) {
+            return name.isEmpty() ? 0 : offsets.get(name);
+        }
+        private int size() {
+            return bytes.length;
+        }
+        private ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package ayohee.c_compiler;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
     List<String> argumentNames;
@@ -14,7 +16,7 @@ public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
 
     private int extractArgumentList(List<PreprocessingToken> statement, PreprocessingContext context) throws CompilerException {
         if (!statement.getFirst().is(PreprocessingToken.TokenType.FUNCTIONLIKE_MACRO_DEFINITION)
-            || !statement.get(1).is("(")) {
+            || !statement.get(1).is(PreprocessingToken.Kind.LEFT_PAREN)) {
             throw new CompilerException(context, "Invalid function-like macro definition");
         }
 
@@ -23,15 +25,15 @@ public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
         argumentNames = new ArrayList<>();
         for (; i < statement.size(); ++i) {
             PreprocessingToken currentToken = statement.get(i);
-            if (currentToken.is(")")) {
+            if (currentToken.is(PreprocessingToken.Kind.RIGHT_PAREN)) {
                 break;
             }
 
 
-            if (expectingComma && currentToken.is(",")) {
+            if (expectingComma && currentToken.is(PreprocessingToken.Kind.COMMA)) {
                 expectingComma = false;
                 continue;
-            } else if (!expectingComma && currentToken.is(",")) {
+            } else if (!expectingComma && currentToken.is(PreprocessingToken.Kind.COMMA)) {
                 throw new CompilerException(context, "Improperly formed function-like macro definition");
             }
 
@@ -56,8 +58,10 @@ public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
     }
 
     @Override
-    public boolean  replaceInstances(String label, List<PreprocessingToken> tokens, int i) throws CompilerException {
-        if (!tokens.get(i).is(label) || (tokens.size() > i + 1 && !tokens.get(i + 1).is("("))) {
+    public boolean replaceInstances(String label, List<PreprocessingToken> tokens, int i, PreprocessingContext context) throws CompilerException {
+        //only an invocation if the name is followed by its arguments. a name at the end of a macro's argument, as in
+        //X-macros, is left for the rescan, where what follows the replacement may supply them
+        if (!tokens.get(i).is(label) || i + 1 == tokens.size() || !tokens.get(i + 1).is(PreprocessingToken.Kind.LEFT_PAREN)) {
             return false;
         }
         tokens.remove(i); // identifier
@@ -69,7 +73,7 @@ public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
             tokens.remove(i);
         }
 
-        List<PreprocessingToken> replacement = generateReplacement(argumentTokens);
+        List<PreprocessingToken> replacement = generateReplacement(argumentTokens, context);
         tokens.addAll(i, replacement);
 
         return true;
@@ -80,14 +84,14 @@ public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
         int parenDepth = 0;
         PreprocessingToken currentToken = tokens.get(i);
         List<PreprocessingToken> currentArgument = new ArrayList<>();
-        while (!(parenDepth == 0 && currentToken.is(")"))) {
-            if (currentToken.is("(")) {
+        while (!(parenDepth == 0 && currentToken.is(PreprocessingToken.Kind.RIGHT_PAREN))) {
+            if (currentToken.is(PreprocessingToken.Kind.LEFT_PAREN)) {
                 ++parenDepth;
                 currentArgument.add(currentToken);
-            } else if (currentToken.is(")")) {
+            } else if (currentToken.is(PreprocessingToken.Kind.RIGHT_PAREN)) {
                 --parenDepth;
                 currentArgument.add(currentToken);
-            } else if (parenDepth == 0 && currentToken.is(",")) {
+            } else if (parenDepth == 0 && currentToken.is(PreprocessingToken.Kind.COMMA)) {
                 argumentTokens.add(currentArgument);
                 currentArgument = new ArrayList<>();
             } else {
@@ -104,16 +108,19 @@ public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
         return tokensToRemove;
     }
 
-    private List<PreprocessingToken> generateReplacement(List<List<PreprocessingToken>> argumentTokens) {
+    private List<PreprocessingToken> generateReplacement(List<List<PreprocessingToken>> argumentTokens, PreprocessingContext context) throws CompilerException {
         List<PreprocessingToken> replacement = new ArrayList<>(replacementList);
+        //arguments are expanded at most once each, however many times they're used, and identical arguments share one
+        //expansion. without this, nested invocations like MAX(MAX(a, b), MAX(c, d)) redo the inner expansions every rescan
+        Map<String, List<PreprocessingToken>> expandedArguments = new HashMap<>();
 
         for (int i = 0; i < replacement.size(); ++i) {
-            if (replacement.get(i).is("#")) {
+            if (replacement.get(i).is(PreprocessingToken.Kind.HASH)) {
                 //subtract one to counteract the ++i at the end of the loop
                 i = processStringifyOperator(replacement, i, argumentTokens) - 1;
                 continue;
             }
-            if (replacement.get(i).is("##")) {
+            if (replacement.get(i).is(PreprocessingToken.Kind.HASH_HASH)) {
                 //subtract one to counteract the ++i at the end of the loop
                 i = processTokenPasteOperator(replacement, i, argumentTokens) - 1;
                 continue;
@@ -121,9 +128,15 @@ public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
 
             for (int j = 0; j < argumentNames.size(); ++j) {
                 if (replacement.get(i).is(argumentNames.get(j))) {
+                    //operands of ## are pasted as written, everything else gets the expanded argument
+                    boolean pasted = (i > 0 && replacement.get(i - 1).is(PreprocessingToken.Kind.HASH_HASH)) || (i + 1 < replacement.size() && replacement.get(i + 1).is(PreprocessingToken.Kind.HASH_HASH));
+                    List<PreprocessingToken> argument = pasted
+                            ? argumentTokens.get(j)
+                            : expandedArgument(argumentTokens.get(j), expandedArguments, context);
+
                     replacement.remove(i);
-                    replacement.addAll(i, argumentTokens.get(j));
-                    i += argumentTokens.get(j).size(); //jump ahead to skip the tokens we replaced
+                    replacement.addAll(i, argument);
+                    i += argument.size(); //jump ahead to skip the tokens we replaced
                     --i; //but still counteract the ++i at the end of the loop
                 }
             }
@@ -132,6 +145,21 @@ public class FunctionLikePreprocessorDefinition extends PreprocessorDefinition{
         return replacement;
     }
 
+    private static List<PreprocessingToken> expandedArgument(List<PreprocessingToken> argument, Map<String, List<PreprocessingToken>> expandedArguments, PreprocessingContext context) throws CompilerException {
+        StringBuilder key = new StringBuilder();
+        for (PreprocessingToken token : argument) {
+            key.append(token.getType().ordinal()).append(':').append(token).append('\0'); //as spelled, so literals aren't decoded
+        }
+
+        List<PreprocessingToken> expanded = expandedArguments.get(key.toString());
+        if (expanded == null) {
+            expanded = new ArrayList<>(argument);
+            context.expandArgument(expanded);
+            expandedArguments.put(key.toString(), expanded);
+        }
+        return expanded;
+    }
+
     private int processStringifyOperator(List<PreprocessingToken> replacement, int i, List<List<PreprocessingToken>> argumentTokens) {
         //ensure next token exists
         int targetIndex = i + 1;
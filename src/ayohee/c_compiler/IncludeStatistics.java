@@ -0,0 +1,77 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//what each header costs the build, for deciding which headers to split up or precompile.
+//time and tokens include anything the header itself includes, so a header is charged for everything pulling it in brings along
+public class IncludeStatistics {
+    public static final IncludeStatistics DISABLED = new IncludeStatistics(false);
+
+    private final boolean enabled;
+    private final Map<Path, HeaderEntry> entries = new ConcurrentHashMap<>();
+
+    public IncludeStatistics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordInclusion(Path header, Path unit, long nanos, int tokensContributed) {
+        if (enabled) {
+            entries.computeIfAbsent(header.normalize(), HeaderEntry::new).recordInclusion(unit, nanos, tokensContributed);
+        }
+    }
+
+    public void printTop(int count) {
+        List<Map.Entry<Path, HeaderEntry>> sorted = new ArrayList<>(entries.entrySet());
+        sorted.sort(Comparator.comparingLong((Map.Entry<Path, HeaderEntry> e) -> e.getValue().nanos).reversed());
+
+        System.out.println("\nCostliest headers (by time spent preprocessing, including nested headers):");
+        System.out.println(String.format("%-48s %10s %8s %10s %14s %14s %12s", "header", "bytes", "units", "includes", "tokens out", "tokens/unit", "time (ms)"));
+        for (int i = 0; i < Math.min(count, sorted.size()); ++i) {
+            Path header = sorted.get(i).getKey();
+            HeaderEntry entry = sorted.get(i).getValue();
+            synchronized (entry) {
+                System.out.println(String.format("%-48s %10d %8d %10d %14d %14d %12.3f",
+                        header, entry.bytes, entry.units.size(), entry.inclusions, entry.tokensContributed,
+                        entry.tokensContributed / entry.units.size(), entry.nanos / 1e6));
+            }
+        }
+    }
+
+    private static class HeaderEntry {
+        private final long bytes;
+        private final Set<Path> units = new HashSet<>();
+        private long inclusions;
+        private long tokensContributed;
+        private long nanos;
+
+        private HeaderEntry(Path header) {
+            long size;
+            try {
+                size = Files.size(header);
+            } catch (IOException e) {
+                size = -1; //only reporting, so not worth failing the build over
+            }
+            this.bytes = size;
+        }
+
+        private synchronized void recordInclusion(Path unit, long nanos, int tokensContributed) {
+            units.add(unit);
+            ++inclusions;
+            this.tokensContributed += tokensContributed;
+            this.nanos += nanos;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+//what an incremental link keeps of the previous one, in a text file next to the program: how big the program was, a
+//digest of everything that decides the shape of its loader tables, each object's contents and how much room its slots
+//were given, and where every global ended up. the slots alone are enough to rebuild the whole layout, since they're
+//placed one after another exactly as they were. like the output cache, it's only an optimisation: a missing or
+//unreadable file just means a full link
+public final class IncrementalLinkState {
+    private static final String FORMAT_VERSION = "1";
+
+    //capacities are by Linker.Kind
+    public record ObjectSlots(String name, String digest, long[] capacities) {}
+
+    private final long fileSize;
+    private final String signature;
+    private final List<ObjectSlots> objects;
+    private final Map<String, Long> symbols; //global name to address
+
+    public IncrementalLinkState(long fileSize, String signature, List<ObjectSlots> objects, Map<String, Long> symbols) {
+        this.fileSize = fileSize;
+        this.signature = signature;
+        this.objects = objects;
+        this.symbols = symbols;
+    }
+
+    //null if there isn't a usable one
+    public static IncrementalLinkState read(Path path) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+        if (lines.size() < 3 || !lines.get(0).equals("incremental link map " + FORMAT_VERSION)) {
+            return null;
+        }
+
+        try {
+            long fileSize = Long.parseLong(lines.get(1).substring("size ".length()));
+            String signature = lines.get(2).substring("signature ".length());
+            List<ObjectSlots> objects = new ArrayList<>();
+            Map<String, Long> symbols = new HashMap<>();
+            for (String line : lines.subList(3, lines.size())) {
+                //"object <capacities...> <digest> <name>" and "symbol <address> <name>", the name last as it may contain spaces
+                if (line.startsWith("object ")) {
+                    String[] parts = line.split(" ", 7);
+                    long[] capacities = new long[4];
+                    for (int k = 0; k < capacities.length; ++k) {
+                        capacities[k] = Long.parseLong(parts[1 + k]);
+                    }
+                    objects.add(new ObjectSlots(parts[6], parts[5], capacities));
+                } else if (line.startsWith("symbol ")) {
+                    String[] parts = line.split(" ", 3);
+                    symbols.put(parts[2], Long.parseUnsignedLong(parts[1], 16));
+                }
+            }
+            return new IncrementalLinkState(fileSize, signature, objects, symbols);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    //symbols are listed by address, so the file doubles as a map of the program for reading
+    public void write(Path path) throws IOException {
+        StringBuilder sb = new StringBuilder("incremental link map " + FORMAT_VERSION + "\n");
+        sb.append("size ").append(fileSize).append('\n');
+        sb.append("signature ").append(signature).append('\n');
+        for (ObjectSlots object : objects) {
+            sb.append("object");
+            for (long capacity : object.capacities()) {
+                sb.append(' ').append(capacity);
+            }
+            sb.append(' ').append(object.digest()).append(' ').append(object.name()).append('\n');
+        }
+        symbols.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(symbol -> sb.append("symbol ").append(Long.toHexString(symbol.getValue())).append(' ').append(symbol.getKey()).append('\n'));
+
+        //write then move, so a link that's interrupted never leaves a map that doesn't match the program
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temp, sb, StandardCharsets.UTF_8);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+    public String getSignature() {
+        return signature;
+    }
+    public List<ObjectSlots> getObjects() {
+        return objects;
+    }
+
+    //where the global was, or -1 if the previous program didn't have it
+    public long addressOf(String symbol) {
+        return symbols.getOrDefault(symbol, -1L);
+    }
+
+    public static String digest(ByteBuffer bytes) {
+        MessageDigest digest = sha256();
+        digest.update(bytes.duplicate());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static String digest(String text) {
+        return HexFormat.of().formatHex(sha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 isn't available", e);
+        }
+    }
+}
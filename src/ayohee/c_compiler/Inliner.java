@@ -0,0 +1,158 @@
+package ayohee.c_compiler;
+
+import ayohee.c_compiler.IrInstruction.Op;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//copies the bodies of small functions defined in the same unit into their callers, where the call overhead would
+//otherwise cost about as much as the function itself, and the folding passes can then specialise the copy to its arguments.
+//recursive functions are left alone, and a caller stops taking in more once it's grown large
+public class Inliner implements IrPass {
+    private static final int MAX_CALLEE_INSTRUCTIONS = 40;
+    private static final int MAX_CALLER_INSTRUCTIONS = 5000;
+
+    @Override
+    public String getName() {
+        return "inlining";
+    }
+
+    @Override
+    public void run(IrFunction function, IrModule module) {
+        int size = function.instructionCount();
+        boolean inlined = false;
+        for (int b = 0; b < function.getBlocks().size() && size < MAX_CALLER_INSTRUCTIONS; ++b) {
+            IrBlock block = function.getBlocks().get(b);
+            List<IrInstruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); ++i) {
+                IrInstruction call = instructions.get(i);
+                IrFunction callee = inlinableCallee(call, function, module);
+                if (callee != null) {
+                    size += callee.instructionCount();
+                    inline(function, block, i, callee);
+                    inlined = true;
+                    break; //the rest of the block moved to a new one, which is later in the list
+                }
+            }
+        }
+        if (inlined) {
+            function.removeUnreachableBlocks(); //puts the blocks back in order
+        }
+    }
+
+    private static IrFunction inlinableCallee(IrInstruction call, IrFunction caller, IrModule module) {
+        if (call.getOp() != Op.CALL || !(call.getOperand(0) instanceof IrValue.Symbol symbol)) {
+            return null;
+        }
+        IrFunction callee = module.getFunction(symbol.getName());
+        if (callee == null || callee == caller || callee.instructionCount() > MAX_CALLEE_INSTRUCTIONS || callsItself(callee)) {
+            return null;
+        }
+        //calls through an implicit or mismatched declaration can pass anything, so only ones that match exactly
+        List<IrValue.Parameter> params = callee.getParams();
+        if (params.size() != call.getOperands().length - 1 || callee.getReturnType() != call.getType()) {
+            return null;
+        }
+        for (int i = 0; i < params.size(); ++i) {
+            if (params.get(i).getType() != call.getOperand(i + 1).getType()) {
+                return null;
+            }
+        }
+        return callee;
+    }
+
+    private static boolean callsItself(IrFunction function) {
+        for (IrBlock block : function.getBlocks()) {
+            for (IrInstruction instruction : block.getInstructions()) {
+                if (instruction.getOp() == Op.CALL && instruction.getOperand(0) instanceof IrValue.Symbol symbol
+                        && symbol.getName().equals(function.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    //splits the block at the call, which jumps to a copy of the callee whose returns all jump to the rest of the block
+    private static void inline(IrFunction caller, IrBlock block, int index, IrFunction callee) {
+        List<IrInstruction> instructions = block.getInstructions();
+        IrInstruction call = instructions.get(index);
+        IrBlock after = caller.newBlock();
+        for (IrInstruction moved : new ArrayList<>(instructions.subList(index + 1, instructions.size()))) {
+            after.append(moved);
+        }
+        instructions.subList(index, instructions.size()).clear();
+        for (IrBlock successor : after.getSuccessors()) {
+            successor.replacePredecessor(block, after);
+        }
+
+        Map<IrValue, IrValue> values = new HashMap<>();
+        for (int i = 0; i < callee.getParams().size(); ++i) {
+            values.put(callee.getParams().get(i), call.getOperand(i + 1));
+        }
+        for (IrValue.StackSlot slot : callee.getSlots()) {
+            values.put(slot, caller.newSlot(slot.getSize(), slot.getAlign()));
+        }
+        Map<IrBlock, IrBlock> blocks = new HashMap<>();
+        for (IrBlock calleeBlock : callee.getBlocks()) {
+            blocks.put(calleeBlock, caller.newBlock());
+        }
+
+        List<IrInstruction> copies = new ArrayList<>();
+        List<IrValue> returned = new ArrayList<>();
+        for (IrBlock calleeBlock : callee.getBlocks()) {
+            IrBlock copyBlock = blocks.get(calleeBlock);
+            for (IrBlock pred : calleeBlock.getPredecessors()) {
+                copyBlock.getPredecessors().add(blocks.get(pred));
+            }
+            for (IrInstruction instruction : calleeBlock.getInstructions()) {
+                IrInstruction copy = switch (instruction.getOp()) {
+                    case JUMP -> IrInstruction.jump(blocks.get(instruction.getTargets()[0]));
+                    case BRANCH -> IrInstruction.branch(instruction.getOperand(0), blocks.get(instruction.getTargets()[0]), blocks.get(instruction.getTargets()[1]));
+                    case RETURN -> {
+                        if (instruction.getOperands().length > 0) {
+                            returned.add(instruction.getOperand(0));
+                        }
+                        after.getPredecessors().add(copyBlock);
+                        yield IrInstruction.jump(after);
+                    }
+                    default -> {
+                        IrInstruction plain = new IrInstruction(instruction.getOp(), instruction.getType(), instruction.getOperands().clone());
+                        plain.setVariadicCall(instruction.isVariadicCall());
+                        yield plain;
+                    }
+                };
+                values.put(instruction, copy);
+                copyBlock.append(copy);
+                copies.add(copy);
+            }
+        }
+        //operands are mapped once everything's copied, as phis refer to values from later blocks
+        for (IrInstruction copy : copies) {
+            IrValue[] operands = copy.getOperands();
+            for (int i = 0; i < operands.length; ++i) {
+                operands[i] = values.getOrDefault(operands[i], operands[i]);
+            }
+        }
+
+        block.terminate(IrInstruction.jump(blocks.get(callee.getEntry())));
+        if (call.getType() != IrType.VOID) {
+            IrValue result;
+            if (returned.isEmpty()) {
+                result = IrValue.Constant.of(call.getType(), 0); //never returns
+            } else if (returned.size() == 1) {
+                result = values.getOrDefault(returned.getFirst(), returned.getFirst());
+            } else {
+                IrInstruction phi = new IrInstruction(Op.PHI, call.getType());
+                for (IrValue value : returned) {
+                    phi.addOperand(values.getOrDefault(value, value));
+                }
+                after.addPhi(phi);
+                result = phi;
+            }
+            caller.replaceUses(Map.of(call, result));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+//collects what the preprocessor measures across a whole build. anything not enabled costs a flag check and nothing more
+public class Instrumentation {
+    public static final Instrumentation DISABLED = new Instrumentation(false, false, false, false);
+
+    private final boolean metricsEnabled;
+    private final List<UnitMetrics> units = new ArrayList<>();
+    private final TraceRecorder trace;
+    private final MacroStatistics macroStatistics;
+    private final IncludeStatistics includeStatistics;
+
+    public Instrumentation(boolean metricsEnabled, boolean traceEnabled, boolean macroStatisticsEnabled, boolean includeStatisticsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        this.trace = traceEnabled ? new TraceRecorder(true) : TraceRecorder.DISABLED;
+        this.macroStatistics = macroStatisticsEnabled ? new MacroStatistics(true) : MacroStatistics.DISABLED;
+        this.includeStatistics = includeStatisticsEnabled ? new IncludeStatistics(true) : IncludeStatistics.DISABLED;
+    }
+
+    public synchronized UnitMetrics startUnit(Path sourceFile) {
+        if (!metricsEnabled) {
+            return UnitMetrics.DISABLED;
+        }
+
+        UnitMetrics metrics = new UnitMetrics(sourceFile.toString());
+        units.add(metrics);
+        return metrics;
+    }
+
+    public void attach(PreprocessingContext context, UnitMetrics metrics) {
+        context.setMetrics(metrics);
+        context.setTrace(trace);
+        context.setMacroStatistics(macroStatistics);
+        context.setIncludeStatistics(includeStatistics);
+    }
+
+    public TraceRecorder getTrace() {
+        return trace;
+    }
+
+    public MacroStatistics getMacroStatistics() {
+        return macroStatistics;
+    }
+
+    public IncludeStatistics getIncludeStatistics() {
+        return includeStatistics;
+    }
+
+    public synchronized UnitMetrics aggregate() {
+        UnitMetrics aggregate = new UnitMetrics("all units");
+        for (UnitMetrics unit : units) {
+            aggregate.mergeFrom(unit);
+        }
+        return aggregate;
+    }
+
+    public synchronized void writeMetricsReport(Path path) throws IOException {
+        JsonWriter json = new JsonWriter();
+        json.beginObject();
+
+        json.name("aggregate");
+        aggregate().writeJson(json);
+
+        json.name("units").beginArray();
+        for (UnitMetrics unit : units) {
+            json.newline();
+            unit.writeJson(json);
+        }
+        json.endArray();
+
+        json.endObject();
+        Files.writeString(path, json.toString());
+    }
+}
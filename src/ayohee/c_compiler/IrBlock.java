@@ -0,0 +1,121 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+//a basic block: phis first, then straight line code, then exactly one terminator
+public final class IrBlock {
+    private final int id;
+    private final List<IrInstruction> instructions = new ArrayList<>();
+    private final List<IrBlock> predecessors = new ArrayList<>();
+
+    IrBlock(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public List<IrInstruction> getInstructions() {
+        return instructions;
+    }
+
+    public List<IrBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public IrInstruction getTerminator() {
+        if (instructions.isEmpty()) {
+            return null;
+        }
+        IrInstruction last = instructions.getLast();
+        return last.getOp().isTerminator() ? last : null;
+    }
+
+    public IrBlock[] getSuccessors() {
+        IrInstruction terminator = getTerminator();
+        return terminator == null ? new IrBlock[0] : terminator.getTargets();
+    }
+
+    public void append(IrInstruction instruction) {
+        instruction.setBlock(this);
+        instructions.add(instruction);
+    }
+
+    public void insert(int index, IrInstruction instruction) {
+        instruction.setBlock(this);
+        instructions.add(index, instruction);
+    }
+
+    //ends the block, recording it as a predecessor of wherever the terminator can go
+    public void terminate(IrInstruction terminator) {
+        append(terminator);
+        for (IrBlock target : terminator.getTargets()) {
+            target.predecessors.add(this);
+        }
+    }
+
+    //phis always go before everything else
+    public void addPhi(IrInstruction phi) {
+        int index = 0;
+        while (index < instructions.size() && instructions.get(index).getOp() == IrInstruction.Op.PHI) {
+            ++index;
+        }
+        insert(index, phi);
+    }
+
+    //many at once, shifting the rest of the block along only once
+    public void addPhis(Collection<IrInstruction> phis) {
+        int index = 0;
+        while (index < instructions.size() && instructions.get(index).getOp() == IrInstruction.Op.PHI) {
+            ++index;
+        }
+        for (IrInstruction phi : phis) {
+            phi.setBlock(this);
+        }
+        instructions.addAll(index, phis);
+    }
+
+    public List<IrInstruction> getPhis() {
+        List<IrInstruction> phis = new ArrayList<>();
+        for (IrInstruction instruction : instructions) {
+            if (instruction.getOp() != IrInstruction.Op.PHI) {
+                break;
+            }
+            phis.add(instruction);
+        }
+        return phis;
+    }
+
+    //drops one edge from pred, along with the operand every phi had for it
+    public void removePredecessor(IrBlock pred) {
+        int index = predecessors.indexOf(pred);
+        if (index == -1) {
+            return;
+        }
+        predecessors.remove(index);
+        for (IrInstruction phi : getPhis()) {
+            phi.removeOperand(index);
+        }
+    }
+
+    //for when the code that branched here from pred moves to another block, keeping the phi operands where they are
+    public void replacePredecessor(IrBlock pred, IrBlock replacement) {
+        int index = predecessors.indexOf(pred);
+        while (index != -1) {
+            predecessors.set(index, replacement);
+            index = predecessors.indexOf(pred);
+        }
+    }
+
+    public String name() {
+        return "b" + id;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
@@ -0,0 +1,253 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//a function in SSA form. the first block is the entry, which nothing branches back to
+public final class IrFunction {
+    private final String name;
+    private final boolean isStatic;
+    private final IrType returnType;
+    private final List<IrValue.Parameter> params = new ArrayList<>();
+    private final List<IrBlock> blocks = new ArrayList<>();
+    private final List<IrValue.StackSlot> slots = new ArrayList<>();
+    private int nextBlockId = 0;
+    private int nextSlotId = 0;
+
+    //dominator tree, valid from computeDominators until the blocks next change
+    private final Map<IrBlock, IrBlock> immediateDominators = new HashMap<>();
+    private final Map<IrBlock, List<IrBlock>> dominated = new HashMap<>();
+
+    public IrFunction(String name, boolean isStatic, IrType returnType) {
+        this.name = name;
+        this.isStatic = isStatic;
+        this.returnType = returnType;
+    }
+
+    public String getName() {
+        return name;
+    }
+    public boolean isStatic() {
+        return isStatic;
+    }
+    public IrType getReturnType() {
+        return returnType;
+    }
+    public List<IrValue.Parameter> getParams() {
+        return params;
+    }
+    public List<IrBlock> getBlocks() {
+        return blocks;
+    }
+    public IrBlock getEntry() {
+        return blocks.getFirst();
+    }
+    public List<IrValue.StackSlot> getSlots() {
+        return slots;
+    }
+
+    public IrValue.Parameter addParam(IrType type) {
+        IrValue.Parameter param = new IrValue.Parameter(type, params.size());
+        params.add(param);
+        return param;
+    }
+
+    public IrBlock newBlock() {
+        IrBlock block = new IrBlock(nextBlockId++);
+        blocks.add(block);
+        return block;
+    }
+
+    public IrValue.StackSlot newSlot(long size, int align) {
+        IrValue.StackSlot slot = new IrValue.StackSlot(nextSlotId++, size, align);
+        slots.add(slot);
+        return slot;
+    }
+
+    public int instructionCount() {
+        int count = 0;
+        for (IrBlock block : blocks) {
+            count += block.getInstructions().size();
+        }
+        return count;
+    }
+
+    //points every use of a key at its value instead, following chains of replacements to the end
+    public void replaceUses(Map<? extends IrValue, ? extends IrValue> replacements) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        for (IrBlock block : blocks) {
+            for (IrInstruction instruction : block.getInstructions()) {
+                IrValue[] operands = instruction.getOperands();
+                for (int i = 0; i < operands.length; ++i) {
+                    operands[i] = resolve(replacements, operands[i]);
+                }
+            }
+        }
+    }
+
+    static IrValue resolve(Map<? extends IrValue, ? extends IrValue> replacements, IrValue value) {
+        IrValue replacement = replacements.get(value);
+        while (replacement != null) {
+            value = replacement;
+            replacement = replacements.get(value);
+        }
+        return value;
+    }
+
+    //blocks reachable from the entry, each before all of its successors except along back edges
+    public List<IrBlock> reversePostOrder() {
+        List<IrBlock> order = new ArrayList<>();
+        Map<IrBlock, Boolean> visited = new HashMap<>();
+        //iterative, as generated code can nest deeper than the java stack
+        Deque<IrBlock> stack = new ArrayDeque<>();
+        Deque<Integer> nextSuccessor = new ArrayDeque<>();
+        stack.push(getEntry());
+        nextSuccessor.push(0);
+        visited.put(getEntry(), true);
+        while (!stack.isEmpty()) {
+            IrBlock block = stack.peek();
+            int index = nextSuccessor.pop();
+            IrBlock[] successors = block.getSuccessors();
+            if (index < successors.length) {
+                nextSuccessor.push(index + 1);
+                IrBlock successor = successors[index];
+                if (visited.putIfAbsent(successor, true) == null) {
+                    stack.push(successor);
+                    nextSuccessor.push(0);
+                }
+            } else {
+                stack.pop();
+                order.add(block);
+            }
+        }
+        Collections.reverse(order);
+        return order;
+    }
+
+    //drops blocks nothing can reach, and the phi operands they gave, leaving the rest in reverse post-order
+    public boolean removeUnreachableBlocks() {
+        List<IrBlock> reachable = reversePostOrder();
+        if (reachable.size() == blocks.size()) {
+            blocks.clear();
+            blocks.addAll(reachable);
+            return false;
+        }
+        Map<IrBlock, Boolean> isReachable = new HashMap<>();
+        for (IrBlock block : reachable) {
+            isReachable.put(block, true);
+        }
+        for (IrBlock block : blocks) {
+            if (!isReachable.containsKey(block)) {
+                for (IrBlock successor : block.getSuccessors()) {
+                    if (isReachable.containsKey(successor)) {
+                        successor.removePredecessor(block);
+                    }
+                }
+            }
+        }
+        blocks.clear();
+        blocks.addAll(reachable);
+        return true;
+    }
+
+    //gives every instruction a number in block order, for printing and for ordering operands
+    public void renumber() {
+        int id = 0;
+        for (IrBlock block : blocks) {
+            for (IrInstruction instruction : block.getInstructions()) {
+                instruction.setId(id++);
+            }
+        }
+    }
+
+    //the iterative algorithm of Cooper, Harvey and Kennedy, which is quicker than Lengauer-Tarjan on the sizes of graph
+    //functions have. expects blocks to be in reverse post-order, as removeUnreachableBlocks leaves them
+    public void computeDominators() {
+        immediateDominators.clear();
+        dominated.clear();
+        Map<IrBlock, Integer> order = new HashMap<>();
+        for (int i = 0; i < blocks.size(); ++i) {
+            order.put(blocks.get(i), i);
+        }
+        IrBlock entry = getEntry();
+        immediateDominators.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < blocks.size(); ++i) {
+                IrBlock block = blocks.get(i);
+                IrBlock idom = null;
+                for (IrBlock pred : block.getPredecessors()) {
+                    if (!immediateDominators.containsKey(pred)) {
+                        continue;
+                    }
+                    idom = idom == null ? pred : intersect(pred, idom, order);
+                }
+                if (idom != null && immediateDominators.get(block) != idom) {
+                    immediateDominators.put(block, idom);
+                    changed = true;
+                }
+            }
+        }
+        for (IrBlock block : blocks) {
+            dominated.put(block, new ArrayList<>());
+        }
+        for (int i = 1; i < blocks.size(); ++i) {
+            IrBlock block = blocks.get(i);
+            dominated.get(immediateDominators.get(block)).add(block);
+        }
+    }
+
+    private IrBlock intersect(IrBlock a, IrBlock b, Map<IrBlock, Integer> order) {
+        while (a != b) {
+            while (order.get(a) > order.get(b)) {
+                a = immediateDominators.get(a);
+            }
+            while (order.get(b) > order.get(a)) {
+                b = immediateDominators.get(b);
+            }
+        }
+        return a;
+    }
+
+    public IrBlock getImmediateDominator(IrBlock block) {
+        return immediateDominators.get(block);
+    }
+
+    //the children of the block in the dominator tree
+    public List<IrBlock> getDominated(IrBlock block) {
+        return dominated.get(block);
+    }
+
+    @Override
+    public String toString() {
+        renumber();
+        StringBuilder sb = new StringBuilder();
+        sb.append(isStatic ? "static " : "").append("function ").append(returnType).append(" @").append(name).append('(');
+        for (int i = 0; i < params.size(); ++i) {
+            sb.append(i == 0 ? "" : ", ").append(params.get(i));
+        }
+        sb.append(")\n");
+        for (IrValue.StackSlot slot : slots) {
+            sb.append("  ").append(slot).append(": ").append(slot.getSize()).append(" bytes, align ").append(slot.getAlign()).append('\n');
+        }
+        for (IrBlock block : blocks) {
+            sb.append(block.name()).append(':');
+            if (!block.getPredecessors().isEmpty()) {
+                sb.append(" ;preds ").append(block.getPredecessors());
+            }
+            sb.append('\n');
+            for (IrInstruction instruction : block.getInstructions()) {
+                sb.append("  ").append(instruction).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
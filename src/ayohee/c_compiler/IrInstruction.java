@@ -0,0 +1,208 @@
+package ayohee.c_compiler;
+
+import java.util.Arrays;
+
+//one SSA instruction. its result is the instruction itself, defined exactly once, so it can be used directly as an operand.
+//phis take one operand per predecessor of their block, in the same order as the block's predecessor list
+public final class IrInstruction extends IrValue {
+    public enum Op {
+        //operands and result all have the instruction's type
+        ADD, SUB, MUL, SDIV, UDIV, SREM, UREM, AND, OR, XOR, SHL, SHR, SAR,
+        NEG, NOT,
+
+        //compare two operands of the same type, giving an i32 of 0 or 1
+        EQ, NE, SLT, SLE, SGT, SGE, ULT, ULE, UGT, UGE,
+
+        //convert the operand to the instruction's type
+        SEXT, ZEXT, TRUNC,
+
+        LOAD,   //address. loads a value of the instruction's type
+        STORE,  //address, value
+        CALL,   //callee, arguments...
+        PHI,
+
+        //terminators, which end every block and nothing else
+        JUMP,   //target
+        BRANCH, //condition. first target if it's non-zero, second otherwise
+        RETURN; //value, or nothing for void
+
+        public boolean isBinary() {
+            return ordinal() <= SAR.ordinal();
+        }
+        public boolean isUnary() {
+            return this == NEG || this == NOT;
+        }
+        public boolean isComparison() {
+            return ordinal() >= EQ.ordinal() && ordinal() <= UGE.ordinal();
+        }
+        public boolean isConversion() {
+            return this == SEXT || this == ZEXT || this == TRUNC;
+        }
+        public boolean isTerminator() {
+            return this == JUMP || this == BRANCH || this == RETURN;
+        }
+        public boolean isCommutative() {
+            return this == ADD || this == MUL || this == AND || this == OR || this == XOR || this == EQ || this == NE;
+        }
+        //whether an instruction can be removed when nothing uses its result. division can trap, so it stays
+        public boolean isPure() {
+            return !(this == STORE || this == CALL || isTerminator() || this == SDIV || this == UDIV || this == SREM || this == UREM);
+        }
+
+        //the comparison that's true exactly when this one is false
+        public Op inverse() {
+            return switch (this) {
+                case EQ -> NE;
+                case NE -> EQ;
+                case SLT -> SGE;
+                case SGE -> SLT;
+                case SLE -> SGT;
+                case SGT -> SLE;
+                case ULT -> UGE;
+                case UGE -> ULT;
+                case ULE -> UGT;
+                case UGT -> ULE;
+                default -> throw new IllegalArgumentException(name());
+            };
+        }
+
+        //the comparison that gives the same result with its operands swapped
+        public Op swapped() {
+            return switch (this) {
+                case SLT -> SGT;
+                case SGT -> SLT;
+                case SLE -> SGE;
+                case SGE -> SLE;
+                case ULT -> UGT;
+                case UGT -> ULT;
+                case ULE -> UGE;
+                case UGE -> ULE;
+                default -> this;
+            };
+        }
+    }
+
+    private static final IrValue[] NO_OPERANDS = new IrValue[0];
+    private static final IrBlock[] NO_TARGETS = new IrBlock[0];
+
+    private Op op;
+    private IrValue[] operands;
+    private IrBlock[] targets = NO_TARGETS;
+    private IrBlock block;
+    private int id;
+    private boolean variadicCall; //calls through an unprototyped or variadic function type pass the vector register count
+
+    public IrInstruction(Op op, IrType type, IrValue... operands) {
+        super(type);
+        this.op = op;
+        this.operands = operands.length == 0 ? NO_OPERANDS : operands;
+    }
+
+    public static IrInstruction jump(IrBlock target) {
+        IrInstruction jump = new IrInstruction(Op.JUMP, IrType.VOID);
+        jump.targets = new IrBlock[] {target};
+        return jump;
+    }
+
+    public static IrInstruction branch(IrValue condition, IrBlock ifTrue, IrBlock ifFalse) {
+        IrInstruction branch = new IrInstruction(Op.BRANCH, IrType.VOID, condition);
+        branch.targets = new IrBlock[] {ifTrue, ifFalse};
+        return branch;
+    }
+
+
+    public Op getOp() {
+        return op;
+    }
+
+    public IrValue[] getOperands() {
+        return operands;
+    }
+    public IrValue getOperand(int i) {
+        return operands[i];
+    }
+    public void setOperand(int i, IrValue value) {
+        operands[i] = value;
+    }
+    public void setOperands(IrValue[] values) {
+        operands = values;
+    }
+    public void addOperand(IrValue value) {
+        operands = Arrays.copyOf(operands, operands.length + 1);
+        operands[operands.length - 1] = value;
+    }
+    public void removeOperand(int i) {
+        IrValue[] newOperands = new IrValue[operands.length - 1];
+        System.arraycopy(operands, 0, newOperands, 0, i);
+        System.arraycopy(operands, i + 1, newOperands, i, newOperands.length - i);
+        operands = newOperands;
+    }
+
+    public IrBlock[] getTargets() {
+        return targets;
+    }
+    public void setTarget(int i, IrBlock target) {
+        targets[i] = target;
+    }
+
+    public IrBlock getBlock() {
+        return block;
+    }
+    void setBlock(IrBlock block) {
+        this.block = block;
+    }
+
+    public int getId() {
+        return id;
+    }
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public boolean isVariadicCall() {
+        return variadicCall;
+    }
+    public void setVariadicCall(boolean variadicCall) {
+        this.variadicCall = variadicCall;
+    }
+
+    //for rewriting an instruction into a cheaper one with the same result
+    void rewrite(Op newOp, IrValue... newOperands) {
+        op = newOp;
+        operands = newOperands;
+    }
+
+    //turns a branch whose outcome is known into a jump to the target it always takes
+    void makeJump(IrBlock target) {
+        op = Op.JUMP;
+        operands = NO_OPERANDS;
+        targets = new IrBlock[] {target};
+    }
+
+    public String name() {
+        return "%" + id;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (getType() != IrType.VOID) {
+            sb.append(name()).append(" = ");
+        }
+        sb.append(op.name().toLowerCase());
+        if (getType() != IrType.VOID) {
+            sb.append(' ').append(getType());
+        }
+        for (int i = 0; i < operands.length; ++i) {
+            sb.append(i == 0 ? " " : ", ").append(operandName(operands[i]));
+        }
+        for (IrBlock target : targets) {
+            sb.append(operands.length == 0 && target == targets[0] ? " " : ", ").append(target.name());
+        }
+        return sb.toString();
+    }
+
+    static String operandName(IrValue value) {
+        return value instanceof IrInstruction instruction ? instruction.name() : value.toString();
+    }
+}
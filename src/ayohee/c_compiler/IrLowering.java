@@ -0,0 +1,1100 @@
+package ayohee.c_compiler;
+
+import ayohee.c_compiler.AstArena.NodeKind;
+import ayohee.c_compiler.IrInstruction.Op;
+import ayohee.c_compiler.PreprocessingToken.Kind;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//turns a unit's syntax tree into SSA form. local scalars whose address is never taken become SSA values as they're
+//lowered, with phis placed as in Braun et al.'s "Simple and Efficient Construction of Static Single Assignment Form",
+//so there's no separate pass to find where each variable is assigned. everything else lives in memory.
+//trivial phis are removed as they're found. the few that only become trivial later are left to PhiSimplification
+public final class IrLowering {
+    private static final Kind[] KINDS = Kind.values();
+    private static final IrValue PENDING = new IrInstruction(Op.PHI, IrType.VOID); //a join whose operands are being read
+
+    private final AstArena arena;
+    private final Path unit;
+    private final IrModule module;
+    private final Map<String, String> stringLiterals = new HashMap<>(); //contents to the name of the global holding them
+    private final Map<Integer, String> staticLocals = new HashMap<>(); //declaration to the name of its global
+    private final Set<Integer> addressTaken = new HashSet<>();
+
+    //state of the function being lowered
+    private IrFunction function;
+    private IrBlock current;
+    private final Map<Integer, IrValue.StackSlot> slots = new HashMap<>();
+    private final List<Map<Integer, IrValue>> definitions = new ArrayList<>(); //by block id, variable to its value there
+    private final List<Map<Integer, IrInstruction>> incompletePhis = new ArrayList<>();
+    //by block id, the phis made for variables. they only go into their blocks once the function is lowered, as most turn
+    //out to be trivial and are replaced, and inserting each at the front of a block as it's made copies the whole block
+    private final List<Set<IrInstruction>> phis = new ArrayList<>();
+    private final Map<IrInstruction, IrValue> replacedPhis = new HashMap<>();
+    private final Map<IrInstruction, List<IrInstruction>> phiUsers = new HashMap<>(); //phi to the phis it's an operand of
+    private final BitSet sealed = new BitSet(); //blocks whose predecessors are all known
+    private final Map<String, IrBlock> labels = new HashMap<>();
+    private IrBlock breakTarget;
+    private IrBlock continueTarget;
+    private Map<Integer, IrBlock> caseBlocks; //CASE and DEFAULT nodes of the innermost switch
+
+    private IrLowering(AstArena arena, Path unit) {
+        this.arena = arena;
+        this.unit = unit;
+        this.module = new IrModule(unit.toString());
+    }
+
+    public static IrModule lower(AstArena arena, int first, Path unit) throws CompilerException {
+        IrLowering lowering = new IrLowering(arena, unit);
+        lowering.lowerUnit(first);
+        return lowering.module;
+    }
+
+    private void lowerUnit(int first) throws CompilerException {
+        //anything that has its address taken anywhere has to stay in memory
+        for (int n = 1; n <= arena.size(); ++n) {
+            if (arena.is(n, NodeKind.ADDRESS_OF) && arena.is(arena.a(n), NodeKind.IDENTIFIER)) {
+                addressTaken.add(arena.b(arena.a(n)));
+            }
+        }
+
+        //a variable can be declared any number of times. it's defined once, by the declaration with the initializer if
+        //there is one, and not at all if every declaration is extern
+        Map<String, Integer> variables = new LinkedHashMap<>();
+        Set<String> statics = new HashSet<>();
+        for (int n = first; n != AstArena.NONE; n = arena.next(n)) {
+            if (!arena.is(n, NodeKind.VARIABLE)) {
+                continue;
+            }
+            String name = arena.name(n);
+            int storage = arena.d(n);
+            if ((storage & AstArena.STORAGE_STATIC) != 0) {
+                statics.add(name);
+            }
+            if ((storage & AstArena.STORAGE_EXTERN) != 0 && arena.b(n) == AstArena.NONE) {
+                continue;
+            }
+            Integer previous = variables.get(name);
+            if (previous == null || (arena.b(previous) == AstArena.NONE
+                    && (arena.b(n) != AstArena.NONE || arena.type(n).size() > arena.type(previous).size()))) {
+                variables.put(name, n);
+            }
+        }
+        for (Map.Entry<String, Integer> variable : variables.entrySet()) {
+            defineGlobal(variable.getKey(), variable.getValue(), statics.contains(variable.getKey()));
+        }
+
+        for (int n = first; n != AstArena.NONE; n = arena.next(n)) {
+            if (arena.is(n, NodeKind.FUNCTION) && arena.c(n) != AstArena.NONE) {
+                lowerFunction(n);
+            }
+        }
+    }
+
+
+    //STATIC DATA
+    private void defineGlobal(String name, int node, boolean isStatic) throws CompilerException {
+        CType type = arena.type(node);
+        int initializer = arena.b(node);
+        byte[] data = null;
+        List<IrModule.Relocation> relocations = new ArrayList<>();
+        if (initializer != AstArena.NONE) {
+            data = new byte[(int) type.size()];
+            initializeStatic(data, relocations, 0, type, initializer);
+            if (relocations.isEmpty() && isAllZero(data)) {
+                data = null; //goes in .bss, as it would without the initializer
+            }
+        }
+        module.getGlobals().add(new IrModule.Global(name, type.size(), type.align(), data, relocations, isStatic, false));
+    }
+
+    private static boolean isAllZero(byte[] data) {
+        for (byte b : data) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void initializeStatic(byte[] data, List<IrModule.Relocation> relocations, long offset, CType type, int initializer) throws CompilerException {
+        if (arena.is(initializer, NodeKind.INIT_LIST)) {
+            int index = 0;
+            for (int element = arena.a(initializer); element != AstArena.NONE; element = arena.next(element)) {
+                if (type.isArray()) {
+                    initializeStatic(data, relocations, offset + index * type.getBase().size(), type.getBase(), element);
+                } else {
+                    CType.Member member = type.getMembers().get(index);
+                    initializeStatic(data, relocations, offset + member.offset(), member.type(), element);
+                }
+                ++index;
+            }
+            return;
+        }
+        if (arena.is(initializer, NodeKind.STRING) && type.isArray()) {
+            byte[] bytes = CParser.literalBytes(arena.string(arena.a(initializer)));
+            System.arraycopy(bytes, 0, data, (int) offset, (int) Math.min(bytes.length, type.size()));
+            return;
+        }
+
+        SymbolAddress address = addressConstant(initializer);
+        if (address != null) {
+            relocations.add(new IrModule.Relocation(offset, address.symbol, address.addend));
+            return;
+        }
+        writeLittleEndian(data, (int) offset, (int) type.size(), CParser.evaluateConstant(arena, initializer, unit));
+    }
+
+    private static void writeLittleEndian(byte[] data, int offset, int size, long value) {
+        for (int i = 0; i < size; ++i) {
+            data[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private record SymbolAddress(String symbol, long addend) {}
+
+    //the symbol and offset an address constant in a static initializer refers to, or null if it isn't one
+    private SymbolAddress addressConstant(int node) throws CompilerException {
+        switch (arena.kind(node)) {
+            case STRING -> {
+                return new SymbolAddress(stringLiteral(arena.string(arena.a(node))), 0);
+            }
+            case IDENTIFIER -> {
+                CType type = arena.type(node);
+                return type.isArray() || type.isFunction() ? new SymbolAddress(symbolName(arena.b(node)), 0) : null;
+            }
+            case ADDRESS_OF -> {
+                int operand = arena.a(node);
+                return arena.is(operand, NodeKind.IDENTIFIER) ? new SymbolAddress(symbolName(arena.b(operand)), 0) : null;
+            }
+            case CAST -> {
+                return arena.type(node).size() == 8 ? addressConstant(arena.a(node)) : null;
+            }
+            case BINARY -> {
+                Kind operator = KINDS[arena.d(node)];
+                CType type = arena.type(node);
+                if (!type.isPointer() || (operator != Kind.PLUS && operator != Kind.MINUS)) {
+                    return null;
+                }
+                SymbolAddress base = addressConstant(arena.a(node));
+                if (base == null) {
+                    return null;
+                }
+                long offset = CParser.evaluateConstant(arena, arena.b(node), unit) * type.getBase().size();
+                return new SymbolAddress(base.symbol, operator == Kind.PLUS ? base.addend + offset : base.addend - offset);
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private String symbolName(int declaration) {
+        String local = staticLocals.get(declaration);
+        return local != null ? local : arena.name(declaration);
+    }
+
+    //identical literals share one read-only copy, which C allows
+    private String stringLiteral(String contents) {
+        String name = stringLiterals.get(contents);
+        if (name == null) {
+            name = ".Lstr" + stringLiterals.size();
+            stringLiterals.put(contents, name);
+            byte[] bytes = CParser.literalBytes(contents);
+            byte[] data = new byte[bytes.length + 1];
+            System.arraycopy(bytes, 0, data, 0, bytes.length);
+            module.getGlobals().add(new IrModule.Global(name, data.length, 1, data, List.of(), true, true));
+        }
+        return name;
+    }
+
+
+    //FUNCTIONS
+    private void lowerFunction(int node) throws CompilerException {
+        CType type = arena.type(node);
+        function = new IrFunction(arena.name(node), (arena.d(node) & AstArena.STORAGE_STATIC) != 0, IrType.of(type.getBase()));
+        slots.clear();
+        definitions.clear();
+        incompletePhis.clear();
+        phis.clear();
+        replacedPhis.clear();
+        phiUsers.clear();
+        sealed.clear();
+        labels.clear();
+        breakTarget = null;
+        continueTarget = null;
+        caseBlocks = null;
+
+        current = newBlock();
+        seal(current);
+        for (int param = arena.b(node); param != AstArena.NONE; param = arena.next(param)) {
+            IrValue.Parameter value = function.addParam(IrType.of(arena.type(param)));
+            if (isRegisterVariable(param)) {
+                writeVariable(param, current, value);
+            } else {
+                store(slotFor(param), value);
+            }
+        }
+
+        lowerStatement(arena.c(node));
+        if (current.getTerminator() == null) {
+            //falling off the end. only defined for void functions and main, which returns 0
+            IrType returnType = function.getReturnType();
+            current.terminate(returnType == IrType.VOID
+                    ? new IrInstruction(Op.RETURN, IrType.VOID)
+                    : new IrInstruction(Op.RETURN, IrType.VOID, IrValue.Constant.of(returnType, 0)));
+        }
+        for (IrBlock block : function.getBlocks()) {
+            seal(block); //labels, whose gotos could have been anywhere
+        }
+        for (IrBlock block : function.getBlocks()) {
+            block.addPhis(phis.get(block.getId()));
+        }
+        function.replaceUses(replacedPhis);
+        function.removeUnreachableBlocks();
+        module.getFunctions().add(function);
+    }
+
+    private boolean isRegisterVariable(int declaration) {
+        if (!arena.type(declaration).isScalar() || addressTaken.contains(declaration)) {
+            return false;
+        }
+        if (arena.is(declaration, NodeKind.PARAMETER)) {
+            return true;
+        }
+        return arena.is(declaration, NodeKind.VARIABLE)
+                && (arena.d(declaration) & (AstArena.STORAGE_STATIC | AstArena.STORAGE_EXTERN | AstArena.STORAGE_FILE_SCOPE)) == 0;
+    }
+
+    private IrValue.StackSlot slotFor(int declaration) {
+        IrValue.StackSlot slot = slots.get(declaration);
+        if (slot == null) {
+            CType type = arena.type(declaration);
+            slot = function.newSlot(Math.max(type.size(), 1), type.align());
+            slots.put(declaration, slot);
+        }
+        return slot;
+    }
+
+
+    //SSA CONSTRUCTION
+    private IrBlock newBlock() {
+        IrBlock block = function.newBlock();
+        definitions.add(new HashMap<>());
+        incompletePhis.add(new HashMap<>());
+        phis.add(new LinkedHashSet<>());
+        return block;
+    }
+
+    //where lowering carries on after a jump, for statements nothing can reach
+    private IrBlock unreachableBlock() {
+        IrBlock block = newBlock();
+        seal(block);
+        return block;
+    }
+
+    private void seal(IrBlock block) {
+        if (sealed.get(block.getId())) {
+            return;
+        }
+        for (Map.Entry<Integer, IrInstruction> phi : incompletePhis.get(block.getId()).entrySet()) {
+            addPhiOperands(phi.getKey(), phi.getValue());
+        }
+        incompletePhis.get(block.getId()).clear();
+        sealed.set(block.getId());
+    }
+
+    private void writeVariable(int variable, IrBlock block, IrValue value) {
+        definitions.get(block.getId()).put(variable, value);
+    }
+
+    private IrValue readVariable(int variable, IrBlock block) {
+        //walks up through blocks with one predecessor without recursing, as generated code makes long chains of them
+        List<IrBlock> chain = null;
+        IrValue value;
+        while (true) {
+            value = definitions.get(block.getId()).get(variable);
+            if (value == PENDING) {
+                //came back round a loop to a join whose operands are still being read, so it needs a phi after all
+                value = newPhi(IrType.of(arena.type(variable)), block);
+                writeVariable(variable, block, value);
+            }
+            if (value != null) {
+                break;
+            }
+            if (!sealed.get(block.getId()) || block.getPredecessors().size() != 1) {
+                value = readVariableRecursive(variable, block);
+                break;
+            }
+            if (chain == null) {
+                chain = new ArrayList<>();
+            }
+            chain.add(block);
+            if (chain.size() > function.getBlocks().size()) {
+                value = IrValue.Constant.of(IrType.of(arena.type(variable)), 0); //a loop nothing enters
+                break;
+            }
+            block = block.getPredecessors().getFirst();
+        }
+        if (chain != null) {
+            for (IrBlock link : chain) {
+                writeVariable(variable, link, value);
+            }
+        }
+        return IrFunction.resolve(replacedPhis, value);
+    }
+
+    private IrValue readVariableRecursive(int variable, IrBlock block) {
+        IrType type = IrType.of(arena.type(variable));
+        IrValue value;
+        if (!sealed.get(block.getId())) {
+            IrInstruction phi = newPhi(type, block);
+            incompletePhis.get(block.getId()).put(variable, phi);
+            value = phi;
+        } else if (block.getPredecessors().isEmpty()) {
+            value = IrValue.Constant.of(type, 0); //read before anything was assigned, so any value will do
+        } else {
+            //the operands are read before there's a phi, so that the joins every path reaches with the same value, which
+            //is most of them, never make one. PENDING is there so that reads around a loop stop here rather than recursing forever
+            writeVariable(variable, block, PENDING);
+            List<IrBlock> preds = block.getPredecessors();
+            IrValue[] operands = new IrValue[preds.size()];
+            boolean same = true;
+            for (int i = 0; i < operands.length; ++i) {
+                operands[i] = readVariable(variable, preds.get(i));
+                same &= operands[i].equals(operands[0]);
+            }
+
+            IrValue placed = definitions.get(block.getId()).get(variable);
+            if (placed == PENDING && same) {
+                value = operands[0];
+            } else {
+                IrInstruction phi = placed == PENDING ? newPhi(type, block) : (IrInstruction) placed;
+                for (IrValue operand : operands) {
+                    addPhiOperand(phi, operand);
+                }
+                removeIfTrivial(phi);
+                value = phi;
+            }
+        }
+        writeVariable(variable, block, value);
+        return value;
+    }
+
+    private IrInstruction newPhi(IrType type, IrBlock block) {
+        IrInstruction phi = new IrInstruction(Op.PHI, type);
+        phi.setBlock(block);
+        phis.get(block.getId()).add(phi);
+        return phi;
+    }
+
+    private void addPhiOperands(int variable, IrInstruction phi) {
+        for (IrBlock pred : phi.getBlock().getPredecessors()) {
+            addPhiOperand(phi, readVariable(variable, pred));
+        }
+        removeIfTrivial(phi);
+    }
+
+    private void addPhiOperand(IrInstruction phi, IrValue operand) {
+        phi.addOperand(operand);
+        if (operand != phi && operand instanceof IrInstruction user && user.getOp() == Op.PHI) {
+            phiUsers.computeIfAbsent(user, key -> new ArrayList<>()).add(phi);
+        }
+    }
+
+    //a phi whose operands are all the same value, or itself, is just that value. replacing it can make the phis that use
+    //it trivial in turn. those still having their operands read are left for when they're done
+    private void removeIfTrivial(IrInstruction phi) {
+        IrValue same = PhiSimplification.trivialValue(phi, replacedPhis);
+        if (same == null) {
+            return;
+        }
+        replacedPhis.put(phi, same);
+        phis.get(phi.getBlock().getId()).remove(phi);
+
+        List<IrInstruction> users = phiUsers.remove(phi);
+        if (users != null) {
+            for (IrInstruction user : users) {
+                if (!replacedPhis.containsKey(user) && user.getOperands().length == user.getBlock().getPredecessors().size()) {
+                    removeIfTrivial(user);
+                }
+            }
+        }
+    }
+
+
+    //STATEMENTS
+    private void lowerStatement(int node) throws CompilerException {
+        switch (arena.kind(node)) {
+            case COMPOUND -> {
+                for (int item = arena.a(node); item != AstArena.NONE; item = arena.next(item)) {
+                    lowerStatement(item);
+                }
+            }
+            case DECLARATION -> {
+                for (int variable = arena.a(node); variable != AstArena.NONE; variable = arena.next(variable)) {
+                    lowerLocal(variable);
+                }
+            }
+            case EXPRESSION_STATEMENT -> rvalue(arena.a(node));
+            case IF -> {
+                IrBlock then = newBlock();
+                IrBlock end = newBlock();
+                IrBlock otherwise = arena.c(node) == AstArena.NONE ? end : newBlock();
+                condition(arena.a(node), then, otherwise);
+                seal(then);
+                current = then;
+                lowerStatement(arena.b(node));
+                jump(end);
+                if (otherwise != end) {
+                    seal(otherwise);
+                    current = otherwise;
+                    lowerStatement(arena.c(node));
+                    jump(end);
+                }
+                seal(end);
+                current = end;
+            }
+            case WHILE -> {
+                IrBlock header = newBlock();
+                IrBlock body = newBlock();
+                IrBlock exit = newBlock();
+                jump(header);
+                current = header;
+                condition(arena.a(node), body, exit);
+                seal(body);
+                current = body;
+                lowerLoopBody(arena.b(node), exit, header);
+                jump(header);
+                seal(header);
+                seal(exit);
+                current = exit;
+            }
+            case DO_WHILE -> {
+                IrBlock body = newBlock();
+                IrBlock test = newBlock();
+                IrBlock exit = newBlock();
+                jump(body);
+                current = body;
+                lowerLoopBody(arena.a(node), exit, test);
+                jump(test);
+                seal(test);
+                current = test;
+                condition(arena.b(node), body, exit);
+                seal(body);
+                seal(exit);
+                current = exit;
+            }
+            case FOR -> {
+                if (arena.a(node) != AstArena.NONE) {
+                    lowerStatement(arena.a(node));
+                }
+                IrBlock header = newBlock();
+                IrBlock body = newBlock();
+                IrBlock step = newBlock();
+                IrBlock exit = newBlock();
+                jump(header);
+                current = header;
+                if (arena.b(node) != AstArena.NONE) {
+                    condition(arena.b(node), body, exit);
+                } else {
+                    jump(body);
+                }
+                seal(body);
+                current = body;
+                lowerLoopBody(arena.d(node), exit, step);
+                jump(step);
+                seal(step);
+                current = step;
+                if (arena.c(node) != AstArena.NONE) {
+                    rvalue(arena.c(node));
+                }
+                jump(header);
+                seal(header);
+                seal(exit);
+                current = exit;
+            }
+            case SWITCH -> lowerSwitch(node);
+            case CASE -> {
+                IrBlock block = caseBlocks.get(node);
+                jump(block);
+                current = block;
+                lowerStatement(arena.c(node));
+            }
+            case DEFAULT -> {
+                IrBlock block = caseBlocks.get(node);
+                jump(block);
+                current = block;
+                lowerStatement(arena.a(node));
+            }
+            case LABEL -> {
+                IrBlock block = labels.computeIfAbsent(arena.name(node), name -> newBlock());
+                jump(block);
+                current = block;
+                lowerStatement(arena.b(node));
+            }
+            case GOTO -> {
+                jump(labels.computeIfAbsent(arena.name(node), name -> newBlock()));
+                current = unreachableBlock();
+            }
+            case RETURN -> {
+                if (arena.a(node) == AstArena.NONE) {
+                    current.terminate(new IrInstruction(Op.RETURN, IrType.VOID));
+                } else {
+                    IrValue value = rvalue(arena.a(node));
+                    current.terminate(value == null || function.getReturnType() == IrType.VOID
+                            ? new IrInstruction(Op.RETURN, IrType.VOID)
+                            : new IrInstruction(Op.RETURN, IrType.VOID, value));
+                }
+                current = unreachableBlock();
+            }
+            case BREAK -> {
+                jump(breakTarget);
+                current = unreachableBlock();
+            }
+            case CONTINUE -> {
+                jump(continueTarget);
+                current = unreachableBlock();
+            }
+            case EMPTY -> {
+            }
+            default -> throw error(node, "Unexpected " + arena.kind(node) + " in a statement");
+        }
+    }
+
+    private void lowerLoopBody(int body, IrBlock exit, IrBlock next) throws CompilerException {
+        IrBlock outerBreak = breakTarget;
+        IrBlock outerContinue = continueTarget;
+        breakTarget = exit;
+        continueTarget = next;
+        lowerStatement(body);
+        breakTarget = outerBreak;
+        continueTarget = outerContinue;
+    }
+
+    //a chain of comparisons. the back end picks how to branch on them
+    private void lowerSwitch(int node) throws CompilerException {
+        IrValue value = rvalue(arena.a(node));
+        Map<Integer, IrBlock> outerCases = caseBlocks;
+        IrBlock outerBreak = breakTarget;
+        caseBlocks = new LinkedHashMap<>();
+        collectCases(arena.b(node));
+        IrBlock exit = newBlock();
+
+        IrBlock defaultBlock = exit;
+        for (Map.Entry<Integer, IrBlock> entry : caseBlocks.entrySet()) {
+            int label = entry.getKey();
+            if (arena.is(label, NodeKind.DEFAULT)) {
+                defaultBlock = entry.getValue();
+                continue;
+            }
+            IrBlock next = newBlock();
+            IrValue matches = emit(new IrInstruction(Op.EQ, IrType.I32, value, IrValue.Constant.of(value.getType(), arena.value(label))));
+            branch(matches, entry.getValue(), next);
+            seal(next);
+            current = next;
+        }
+        jump(defaultBlock);
+
+        current = unreachableBlock(); //anything before the first label
+        breakTarget = exit;
+        lowerStatement(arena.b(node));
+        jump(exit);
+        for (IrBlock block : caseBlocks.values()) {
+            seal(block);
+        }
+        seal(exit);
+        current = exit;
+        caseBlocks = outerCases;
+        breakTarget = outerBreak;
+    }
+
+    //the labels that belong to this switch, leaving those of any switch inside it
+    private void collectCases(int node) {
+        switch (arena.kind(node)) {
+            case COMPOUND -> {
+                for (int item = arena.a(node); item != AstArena.NONE; item = arena.next(item)) {
+                    collectCases(item);
+                }
+            }
+            case IF -> {
+                collectCases(arena.b(node));
+                if (arena.c(node) != AstArena.NONE) {
+                    collectCases(arena.c(node));
+                }
+            }
+            case WHILE, LABEL -> collectCases(arena.b(node));
+            case DO_WHILE -> collectCases(arena.a(node));
+            case FOR -> collectCases(arena.d(node));
+            case CASE -> {
+                caseBlocks.put(node, newBlock());
+                collectCases(arena.c(node));
+            }
+            case DEFAULT -> {
+                caseBlocks.put(node, newBlock());
+                collectCases(arena.a(node));
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void lowerLocal(int variable) throws CompilerException {
+        int storage = arena.d(variable);
+        if ((storage & AstArena.STORAGE_EXTERN) != 0) {
+            return;
+        }
+        if ((storage & AstArena.STORAGE_STATIC) != 0) {
+            //named after the function so it's recognisable in a disassembly, and numbered so it can't clash
+            String name = arena.name(variable) + "." + function.getName() + "." + staticLocals.size();
+            staticLocals.put(variable, name);
+            defineGlobal(name, variable, true);
+            return;
+        }
+
+        int initializer = arena.b(variable);
+        if (isRegisterVariable(variable)) {
+            if (initializer != AstArena.NONE) {
+                writeVariable(variable, current, rvalue(initializer));
+            }
+            return;
+        }
+        IrValue.StackSlot slot = slotFor(variable);
+        if (initializer == AstArena.NONE) {
+            return;
+        }
+        CType type = arena.type(variable);
+        if (type.isScalar()) {
+            store(slot, rvalue(initializer));
+            return;
+        }
+
+        //the constant parts are laid out in an image of the whole variable, which also zeroes whatever isn't
+        //initialised, and stored in the widest pieces that fit. the rest are stored one by one afterwards
+        byte[] image = new byte[(int) type.size()];
+        List<Integer> dynamic = new ArrayList<>();
+        List<Long> dynamicOffsets = new ArrayList<>();
+        layoutLocal(image, 0, type, initializer, dynamic, dynamicOffsets);
+        int offset = 0;
+        while (offset < image.length) {
+            int size = image.length - offset >= 8 ? 8 : image.length - offset >= 4 ? 4 : image.length - offset >= 2 ? 2 : 1;
+            long value = 0;
+            for (int i = size - 1; i >= 0; --i) {
+                value = (value << 8) | (image[offset + i] & 0xFF);
+            }
+            IrType pieceType = IrType.ofSize(size);
+            store(offsetAddress(slot, offset), IrValue.Constant.of(pieceType, value));
+            offset += size;
+        }
+        for (int i = 0; i < dynamic.size(); ++i) {
+            IrValue value = rvalue(dynamic.get(i));
+            store(offsetAddress(slot, dynamicOffsets.get(i)), value);
+        }
+    }
+
+    private void layoutLocal(byte[] image, long offset, CType type, int initializer, List<Integer> dynamic, List<Long> dynamicOffsets) throws CompilerException {
+        if (arena.is(initializer, NodeKind.INIT_LIST)) {
+            int index = 0;
+            for (int element = arena.a(initializer); element != AstArena.NONE; element = arena.next(element)) {
+                if (type.isArray()) {
+                    layoutLocal(image, offset + index * type.getBase().size(), type.getBase(), element, dynamic, dynamicOffsets);
+                } else {
+                    CType.Member member = type.getMembers().get(index);
+                    layoutLocal(image, offset + member.offset(), member.type(), element, dynamic, dynamicOffsets);
+                }
+                ++index;
+            }
+            return;
+        }
+        if (arena.is(initializer, NodeKind.STRING) && type.isArray()) {
+            byte[] bytes = CParser.literalBytes(arena.string(arena.a(initializer)));
+            System.arraycopy(bytes, 0, image, (int) offset, (int) Math.min(bytes.length, type.size()));
+            return;
+        }
+        if (isSimpleConstant(initializer)) {
+            writeLittleEndian(image, (int) offset, (int) type.size(), CParser.evaluateConstant(arena, initializer, unit));
+            return;
+        }
+        dynamic.add(initializer);
+        dynamicOffsets.add(offset);
+    }
+
+    //constants that evaluateConstant can work out without anything having side effects
+    private boolean isSimpleConstant(int node) {
+        return switch (arena.kind(node)) {
+            case INT_CONSTANT -> true;
+            case CAST -> arena.type(node).isInteger() && isSimpleConstant(arena.a(node));
+            case UNARY -> isSimpleConstant(arena.a(node));
+            default -> false;
+        };
+    }
+
+
+    //CONDITIONS
+    //branches to ifTrue or ifFalse on the condition, short circuiting && and || straight into branches
+    private void condition(int node, IrBlock ifTrue, IrBlock ifFalse) throws CompilerException {
+        if (arena.is(node, NodeKind.BINARY)) {
+            Kind operator = KINDS[arena.d(node)];
+            if (operator == Kind.LOGICAL_AND || operator == Kind.LOGICAL_OR) {
+                IrBlock right = newBlock();
+                if (operator == Kind.LOGICAL_AND) {
+                    condition(arena.a(node), right, ifFalse);
+                } else {
+                    condition(arena.a(node), ifTrue, right);
+                }
+                seal(right);
+                current = right;
+                condition(arena.b(node), ifTrue, ifFalse);
+                return;
+            }
+        }
+        if (arena.is(node, NodeKind.UNARY) && KINDS[arena.d(node)] == Kind.EXCLAMATION) {
+            condition(arena.a(node), ifFalse, ifTrue);
+            return;
+        }
+        if (arena.is(node, NodeKind.INT_CONSTANT)) {
+            jump(arena.value(node) != 0 ? ifTrue : ifFalse);
+            return;
+        }
+        branch(rvalue(node), ifTrue, ifFalse);
+    }
+
+    //&& and || as values: 0 along every edge that skipped the right operand, its truth along the one that didn't
+    private IrValue logical(int node, Kind operator) throws CompilerException {
+        IrBlock right = newBlock();
+        IrBlock end = newBlock();
+        if (operator == Kind.LOGICAL_AND) {
+            condition(arena.a(node), right, end);
+        } else {
+            condition(arena.a(node), end, right);
+        }
+        seal(right);
+        current = right;
+        IrValue rightValue = truth(rvalue(arena.b(node)));
+        IrBlock rightEnd = current;
+        jump(end);
+        seal(end);
+        current = end;
+
+        IrValue skipped = IrValue.Constant.of(IrType.I32, operator == Kind.LOGICAL_AND ? 0 : 1);
+        IrInstruction phi = new IrInstruction(Op.PHI, IrType.I32);
+        for (IrBlock pred : end.getPredecessors()) {
+            phi.addOperand(pred == rightEnd ? rightValue : skipped);
+        }
+        end.addPhi(phi);
+        return phi;
+    }
+
+    //0 or 1, as an i32
+    private IrValue truth(IrValue value) {
+        if (value instanceof IrInstruction instruction && instruction.getOp().isComparison()) {
+            return value;
+        }
+        return emit(new IrInstruction(Op.NE, IrType.I32, value, IrValue.Constant.of(value.getType(), 0)));
+    }
+
+
+    //EXPRESSIONS
+    //the value of an expression, with arrays and functions decayed to their address. null for a void expression
+    private IrValue rvalue(int node) throws CompilerException {
+        CType type = arena.type(node);
+        switch (arena.kind(node)) {
+            case INT_CONSTANT -> {
+                return IrValue.Constant.of(IrType.of(type), arena.value(node));
+            }
+            case STRING, ADDRESS_OF -> {
+                return address(arena.kind(node) == NodeKind.STRING ? node : arena.a(node));
+            }
+            case IDENTIFIER -> {
+                int declaration = arena.b(node);
+                if (type.isArray() || type.isFunction()) {
+                    return address(node);
+                }
+                if (isRegisterVariable(declaration)) {
+                    return readVariable(declaration, current);
+                }
+                return load(type, address(node));
+            }
+            case DEREFERENCE, MEMBER -> {
+                IrValue address = address(node);
+                return type.isArray() || type.isStruct() || type.isFunction() ? address : load(type, address);
+            }
+            case UNARY -> {
+                IrValue operand = rvalue(arena.a(node));
+                return switch (KINDS[arena.d(node)]) {
+                    case MINUS -> emit(new IrInstruction(Op.NEG, operand.getType(), operand));
+                    case TILDE -> emit(new IrInstruction(Op.NOT, operand.getType(), operand));
+                    default -> emit(new IrInstruction(Op.EQ, IrType.I32, operand, IrValue.Constant.of(operand.getType(), 0)));
+                };
+            }
+            case PRE_INCREMENT, PRE_DECREMENT, POST_INCREMENT, POST_DECREMENT -> {
+                return increment(node);
+            }
+            case BINARY -> {
+                return binary(node);
+            }
+            case ASSIGN -> {
+                return assign(node);
+            }
+            case CONDITIONAL -> {
+                IrBlock ifTrue = newBlock();
+                IrBlock ifFalse = newBlock();
+                IrBlock end = newBlock();
+                condition(arena.a(node), ifTrue, ifFalse);
+                seal(ifTrue);
+                seal(ifFalse);
+                current = ifTrue;
+                IrValue trueValue = rvalue(arena.b(node));
+                jump(end);
+                current = ifFalse;
+                IrValue falseValue = rvalue(arena.c(node));
+                jump(end);
+                seal(end);
+                current = end;
+                if (type.isVoid()) {
+                    return null;
+                }
+                IrInstruction phi = new IrInstruction(Op.PHI, IrType.of(type), trueValue, falseValue);
+                end.addPhi(phi);
+                return phi;
+            }
+            case COMMA -> {
+                rvalue(arena.a(node));
+                return rvalue(arena.b(node));
+            }
+            case CALL -> {
+                return call(node);
+            }
+            case CAST -> {
+                IrValue operand = rvalue(arena.a(node));
+                if (type.isVoid()) {
+                    return null;
+                }
+                return convert(operand, arena.type(arena.a(node)).decay(), type);
+            }
+            default -> throw error(node, "Unexpected " + arena.kind(node) + " in an expression");
+        }
+    }
+
+    //where an lvalue lives, or a string literal or function
+    private IrValue address(int node) throws CompilerException {
+        switch (arena.kind(node)) {
+            case IDENTIFIER -> {
+                int declaration = arena.b(node);
+                if (arena.is(declaration, NodeKind.PARAMETER)
+                        || (arena.is(declaration, NodeKind.VARIABLE)
+                            && (arena.d(declaration) & (AstArena.STORAGE_STATIC | AstArena.STORAGE_EXTERN | AstArena.STORAGE_FILE_SCOPE)) == 0)) {
+                    return slotFor(declaration);
+                }
+                return new IrValue.Symbol(symbolName(declaration));
+            }
+            case DEREFERENCE -> {
+                return rvalue(arena.a(node));
+            }
+            case MEMBER -> {
+                return offsetAddress(address(arena.a(node)), arena.b(node));
+            }
+            case STRING -> {
+                return new IrValue.Symbol(stringLiteral(arena.string(arena.a(node))));
+            }
+            default -> throw error(node, "Can't take the address of " + arena.kind(node));
+        }
+    }
+
+    private IrValue offsetAddress(IrValue address, long offset) {
+        if (offset == 0) {
+            return address;
+        }
+        return emit(new IrInstruction(Op.ADD, IrType.I64, address, IrValue.Constant.of(IrType.I64, offset)));
+    }
+
+    private IrValue binary(int node) throws CompilerException {
+        Kind operator = KINDS[arena.d(node)];
+        if (operator == Kind.LOGICAL_AND || operator == Kind.LOGICAL_OR) {
+            return logical(node, operator);
+        }
+
+        CType type = arena.type(node);
+        CType leftType = arena.type(arena.a(node)).decay();
+        CType rightType = arena.type(arena.b(node)).decay();
+        IrValue left = rvalue(arena.a(node));
+        IrValue right = rvalue(arena.b(node));
+        switch (operator) {
+            case EQUAL, NOT_EQUAL, LESS, GREATER, LESS_EQUAL, GREATER_EQUAL -> {
+                boolean unsigned = leftType.isUnsigned() || leftType.isPointer();
+                Op op = switch (operator) {
+                    case EQUAL -> Op.EQ;
+                    case NOT_EQUAL -> Op.NE;
+                    case LESS -> unsigned ? Op.ULT : Op.SLT;
+                    case GREATER -> unsigned ? Op.UGT : Op.SGT;
+                    case LESS_EQUAL -> unsigned ? Op.ULE : Op.SLE;
+                    default -> unsigned ? Op.UGE : Op.SGE;
+                };
+                return emit(new IrInstruction(op, IrType.I32, left, right));
+            }
+            case PLUS, MINUS -> {
+                if (leftType.isPointer() && rightType.isPointer()) {
+                    IrValue difference = emit(new IrInstruction(Op.SUB, IrType.I64, left, right));
+                    long size = leftType.getBase().size();
+                    return size == 1 ? difference : emit(new IrInstruction(Op.SDIV, IrType.I64, difference, IrValue.Constant.of(IrType.I64, size)));
+                }
+                if (leftType.isPointer()) {
+                    return pointerArithmetic(operator, left, right, leftType);
+                }
+            }
+        }
+        return arithmetic(operator, type, left, right, rightType);
+    }
+
+    private IrValue pointerArithmetic(Kind operator, IrValue pointer, IrValue offset, CType pointerType) {
+        long size = pointerType.getBase().size();
+        if (size != 1) {
+            offset = emit(new IrInstruction(Op.MUL, IrType.I64, offset, IrValue.Constant.of(IrType.I64, size)));
+        }
+        return emit(new IrInstruction(operator == Kind.PLUS ? Op.ADD : Op.SUB, IrType.I64, pointer, offset));
+    }
+
+    //an operator on two integers already converted to type, except that the right of a shift keeps its own type
+    private IrValue arithmetic(Kind operator, CType type, IrValue left, IrValue right, CType rightType) {
+        IrType irType = IrType.of(type);
+        boolean unsigned = type.isUnsigned();
+        Op op = switch (operator) {
+            case PLUS -> Op.ADD;
+            case MINUS -> Op.SUB;
+            case STAR -> Op.MUL;
+            case SLASH -> unsigned ? Op.UDIV : Op.SDIV;
+            case PERCENT -> unsigned ? Op.UREM : Op.SREM;
+            case AMPERSAND -> Op.AND;
+            case PIPE -> Op.OR;
+            case CARET -> Op.XOR;
+            case LEFT_SHIFT -> Op.SHL;
+            default -> unsigned ? Op.SHR : Op.SAR;
+        };
+        if (op == Op.SHL || op == Op.SHR || op == Op.SAR) {
+            right = convert(right, rightType, type);
+        }
+        return emit(new IrInstruction(op, irType, left, right));
+    }
+
+    private IrValue assign(int node) throws CompilerException {
+        Kind operator = KINDS[arena.d(node)];
+        int target = arena.a(node);
+        CType type = arena.type(node);
+        boolean inRegister = arena.is(target, NodeKind.IDENTIFIER) && isRegisterVariable(arena.b(target));
+
+        if (operator == Kind.ASSIGN) {
+            IrValue address = inRegister ? null : address(target);
+            IrValue value = rvalue(arena.b(node));
+            assignTo(target, address, value);
+            return value;
+        }
+
+        IrValue address = inRegister ? null : address(target);
+        IrValue old = inRegister ? readVariable(arena.b(target), current) : load(type, address);
+        IrValue value = rvalue(arena.b(node));
+        CType valueType = arena.type(arena.b(node)).decay();
+        Kind binary = CParser.compoundOperator(operator);
+        IrValue result;
+        if (type.isPointer()) {
+            result = pointerArithmetic(binary, old, value, type);
+        } else {
+            CType operationType = binary == Kind.LEFT_SHIFT || binary == Kind.RIGHT_SHIFT ? type.promote() : valueType;
+            result = arithmetic(binary, operationType, convert(old, type, operationType), value, valueType);
+            result = convert(result, operationType, type);
+        }
+        assignTo(target, address, result);
+        return result;
+    }
+
+    private void assignTo(int target, IrValue address, IrValue value) {
+        if (address == null) {
+            writeVariable(arena.b(target), current, value);
+        } else {
+            store(address, value);
+        }
+    }
+
+    private IrValue increment(int node) throws CompilerException {
+        NodeKind kind = arena.kind(node);
+        int target = arena.a(node);
+        CType type = arena.type(node);
+        IrType irType = IrType.of(type);
+        boolean inRegister = arena.is(target, NodeKind.IDENTIFIER) && isRegisterVariable(arena.b(target));
+
+        IrValue address = inRegister ? null : address(target);
+        IrValue old = inRegister ? readVariable(arena.b(target), current) : load(type, address);
+        IrValue step = IrValue.Constant.of(irType, type.isPointer() ? type.getBase().size() : 1);
+        Op op = kind == NodeKind.PRE_INCREMENT || kind == NodeKind.POST_INCREMENT ? Op.ADD : Op.SUB;
+        IrValue updated = emit(new IrInstruction(op, irType, old, step));
+        assignTo(target, address, updated);
+        return kind == NodeKind.PRE_INCREMENT || kind == NodeKind.PRE_DECREMENT ? updated : old;
+    }
+
+    private IrValue call(int node) throws CompilerException {
+        CType function = arena.type(arena.a(node)).decay().getBase();
+        List<IrValue> operands = new ArrayList<>();
+        operands.add(rvalue(arena.a(node)));
+        for (int argument = arena.b(node); argument != AstArena.NONE; argument = arena.next(argument)) {
+            operands.add(rvalue(argument));
+        }
+        IrInstruction call = new IrInstruction(Op.CALL, IrType.of(arena.type(node)), operands.toArray(new IrValue[0]));
+        call.setVariadicCall(function.isVariadic());
+        emit(call);
+        return arena.type(node).isVoid() ? null : call;
+    }
+
+    //between integer and pointer types. pointers are 64 bit unsigned as far as widening goes
+    private IrValue convert(IrValue value, CType from, CType to) {
+        IrType fromType = IrType.of(from);
+        IrType toType = IrType.of(to);
+        if (fromType == toType) {
+            return value;
+        }
+        boolean unsigned = from.isUnsigned() || from.isPointer();
+        if (value.isConstant()) {
+            return IrValue.Constant.of(toType, unsigned ? fromType.unsigned(value.constantValue()) : value.constantValue());
+        }
+        Op op = toType.size() < fromType.size() ? Op.TRUNC : unsigned ? Op.ZEXT : Op.SEXT;
+        return emit(new IrInstruction(op, toType, value));
+    }
+
+
+    //EMITTING
+    private IrInstruction emit(IrInstruction instruction) {
+        current.append(instruction);
+        return instruction;
+    }
+
+    private IrValue load(CType type, IrValue address) {
+        return emit(new IrInstruction(Op.LOAD, IrType.of(type), address));
+    }
+
+    private void store(IrValue address, IrValue value) {
+        emit(new IrInstruction(Op.STORE, IrType.VOID, address, value));
+    }
+
+    private void jump(IrBlock target) {
+        current.terminate(IrInstruction.jump(target));
+    }
+
+    private void branch(IrValue condition, IrBlock ifTrue, IrBlock ifFalse) {
+        if (ifTrue == ifFalse) {
+            jump(ifTrue);
+        } else {
+            current.terminate(IrInstruction.branch(condition, ifTrue, ifFalse));
+        }
+    }
+
+    private CompilerException error(int node, String reason) {
+        return new CompilerException(arena.string(arena.file(node)), arena.line(node), unit, reason);
+    }
+}
@@ -0,0 +1,107 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//everything one unit defines: its functions, and the variables and string literals that live in memory
+public final class IrModule {
+    private final String name;
+    private final List<IrFunction> functions = new ArrayList<>();
+    private final List<Global> globals = new ArrayList<>();
+
+    public IrModule(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+    public List<IrFunction> getFunctions() {
+        return functions;
+    }
+    public List<Global> getGlobals() {
+        return globals;
+    }
+
+    public IrFunction getFunction(String functionName) {
+        for (IrFunction function : functions) {
+            if (function.getName().equals(functionName)) {
+                return function;
+            }
+        }
+        return null;
+    }
+
+    public int instructionCount() {
+        int count = 0;
+        for (IrFunction function : functions) {
+            count += function.instructionCount();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Global global : globals) {
+            sb.append(global).append('\n');
+        }
+        for (IrFunction function : functions) {
+            sb.append('\n').append(function);
+        }
+        return sb.toString();
+    }
+
+
+    //the address of symbol plus addend, written as 8 bytes at offset into a global's data
+    public record Relocation(long offset, String symbol, long addend) {}
+
+    //a variable with static storage, or a string literal. data is null for one that's all zeroes
+    public static final class Global {
+        private final String name;
+        private final long size;
+        private final int align;
+        private final byte[] data;
+        private final List<Relocation> relocations;
+        private final boolean isStatic;
+        private final boolean isReadOnly;
+
+        public Global(String name, long size, int align, byte[] data, List<Relocation> relocations, boolean isStatic, boolean isReadOnly) {
+            this.name = name;
+            this.size = size;
+            this.align = align;
+            this.data = data;
+            this.relocations = relocations;
+            this.isStatic = isStatic;
+            this.isReadOnly = isReadOnly;
+        }
+
+        public String getName() {
+            return name;
+        }
+        public long getSize() {
+            return size;
+        }
+        public int getAlign() {
+            return align;
+        }
+        public byte[] getData() {
+            return data;
+        }
+        public List<Relocation> getRelocations() {
+            return relocations;
+        }
+        public boolean isStatic() {
+            return isStatic;
+        }
+        public boolean isReadOnly() {
+            return isReadOnly;
+        }
+
+        @Override
+        public String toString() {
+            return (isStatic ? "static " : "") + (isReadOnly ? "const " : "") + "global @" + name + ": " + size + " bytes, align " + align
+                    + (data == null ? ", zeroed" : "") + (relocations.isEmpty() ? "" : ", relocations " + relocations);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ayohee.c_compiler;
+
+//an optimisation over the IR. most only look at one function at a time
+public interface IrPass {
+    String getName();
+
+    void run(IrFunction function, IrModule module);
+
+    default void run(IrModule module) {
+        for (IrFunction function : module.getFunctions()) {
+            run(function, module);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//a unit's optimised IR in a compact binary form, for link time optimisation: the compiler writes it instead of an
+//object, and the linker reads every unit's back in to optimise and generate code for the program as a whole.
+//numbers are LEB128 varints, zigzag encoded where they can be negative, and every name is written once in a table at
+//the start and referred to by its index. instructions refer to each other by their position in the function, in
+//block order, so phis can refer forwards
+public final class IrSerializer {
+    private static final int MAGIC = 0x52495941; //"AYIR"
+    private static final int FORMAT_VERSION = 1;
+
+    //what kind of value an operand is
+    private static final int CONSTANT = 0;
+    private static final int PARAMETER = 1;
+    private static final int SYMBOL = 2;
+    private static final int SLOT = 3;
+    private static final int INSTRUCTION = 4;
+
+    private static final int NAME_IS_STATIC = 1;
+    private static final int GLOBAL_IS_STATIC = 1;
+    private static final int GLOBAL_IS_READ_ONLY = 2;
+    private static final int GLOBAL_HAS_DATA = 4;
+
+    public static byte[] serialize(IrModule module) {
+        Map<String, Integer> names = new LinkedHashMap<>();
+        Output body = new Output();
+
+        body.unsigned(module.getGlobals().size());
+        for (IrModule.Global global : module.getGlobals()) {
+            body.unsigned(intern(names, global.getName()));
+            body.unsigned(global.getSize());
+            body.unsigned(global.getAlign());
+            body.unsigned((global.isStatic() ? GLOBAL_IS_STATIC : 0) | (global.isReadOnly() ? GLOBAL_IS_READ_ONLY : 0) | (global.getData() != null ? GLOBAL_HAS_DATA : 0));
+            if (global.getData() != null) {
+                body.unsigned(global.getData().length);
+                body.bytes(global.getData());
+            }
+            body.unsigned(global.getRelocations().size());
+            for (IrModule.Relocation relocation : global.getRelocations()) {
+                body.unsigned(relocation.offset());
+                body.unsigned(intern(names, relocation.symbol()));
+                body.signed(relocation.addend());
+            }
+        }
+
+        body.unsigned(module.getFunctions().size());
+        for (IrFunction function : module.getFunctions()) {
+            writeFunction(body, names, function);
+        }
+
+        //which names are this unit's own static definitions, so that the reader can tell them apart from another unit's
+        Set<String> statics = new HashSet<>();
+        module.getFunctions().stream().filter(IrFunction::isStatic).forEach(function -> statics.add(function.getName()));
+        module.getGlobals().stream().filter(IrModule.Global::isStatic).forEach(global -> statics.add(global.getName()));
+
+        Output file = new Output();
+        file.fixed(MAGIC);
+        file.unsigned(FORMAT_VERSION);
+        file.unsigned(names.size());
+        for (String name : names.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            file.unsigned(statics.contains(name) ? NAME_IS_STATIC : 0);
+            file.unsigned(bytes.length);
+            file.bytes(bytes);
+        }
+        file.bytes(Arrays.copyOf(body.bytes, body.size));
+        return Arrays.copyOf(file.bytes, file.size);
+    }
+
+    private static void writeFunction(Output out, Map<String, Integer> names, IrFunction function) {
+        function.renumber();
+        Map<IrValue.StackSlot, Integer> slots = new IdentityHashMap<>();
+        Map<IrBlock, Integer> blocks = new IdentityHashMap<>();
+        for (IrValue.StackSlot slot : function.getSlots()) {
+            slots.put(slot, slots.size());
+        }
+        for (IrBlock block : function.getBlocks()) {
+            blocks.put(block, blocks.size());
+        }
+
+        out.unsigned(intern(names, function.getName()));
+        out.unsigned(function.isStatic() ? 1 : 0);
+        out.unsigned(function.getReturnType().ordinal());
+        out.unsigned(function.getParams().size());
+        for (IrValue.Parameter param : function.getParams()) {
+            out.unsigned(param.getType().ordinal());
+        }
+        out.unsigned(function.getSlots().size());
+        for (IrValue.StackSlot slot : function.getSlots()) {
+            out.unsigned(slot.getSize());
+            out.unsigned(slot.getAlign());
+        }
+
+        out.unsigned(function.getBlocks().size());
+        for (IrBlock block : function.getBlocks()) {
+            out.unsigned(block.getPredecessors().size());
+            for (IrBlock pred : block.getPredecessors()) {
+                out.unsigned(blocks.get(pred));
+            }
+            out.unsigned(block.getInstructions().size());
+            for (IrInstruction instruction : block.getInstructions()) {
+                out.unsigned(instruction.getOp().ordinal());
+                out.unsigned(instruction.getType().ordinal());
+                out.unsigned(instruction.isVariadicCall() ? 1 : 0);
+                out.unsigned(instruction.getOperands().length);
+                for (IrValue operand : instruction.getOperands()) {
+                    writeValue(out, names, slots, operand);
+                }
+                for (IrBlock target : instruction.getTargets()) {
+                    out.unsigned(blocks.get(target));
+                }
+            }
+        }
+    }
+
+    private static void writeValue(Output out, Map<String, Integer> names, Map<IrValue.StackSlot, Integer> slots, IrValue value) {
+        switch (value) {
+            case IrValue.Constant constant -> {
+                out.unsigned(CONSTANT | constant.getType().ordinal() << 3);
+                out.signed(constant.constantValue());
+            }
+            case IrValue.Parameter param -> {
+                out.unsigned(PARAMETER);
+                out.unsigned(param.getIndex());
+            }
+            case IrValue.Symbol symbol -> {
+                out.unsigned(SYMBOL);
+                out.unsigned(intern(names, symbol.getName()));
+            }
+            case IrValue.StackSlot slot -> {
+                out.unsigned(SLOT);
+                out.unsigned(slots.get(slot));
+            }
+            case IrInstruction instruction -> {
+                out.unsigned(INSTRUCTION);
+                out.unsigned(instruction.getId());
+            }
+            default -> throw new IllegalArgumentException("Can't serialize " + value);
+        }
+    }
+
+    private static int intern(Map<String, Integer> names, String name) {
+        return names.computeIfAbsent(name, n -> names.size());
+    }
+
+
+    //a unit's IR, as written by serialize. with a promotion suffix, the unit's static functions and variables are
+    //renamed with it and made global, so they can't clash with another unit's and can be referred to from whichever
+    //part of the program they end up in after the units are merged
+    public static IrModule deserialize(ByteBuffer file, String name, String promotionSuffix) throws IOException {
+        Input in = new Input(file.duplicate());
+        if (file.remaining() < 4 || in.fixed() != MAGIC) {
+            throw new IOException(name + " is not serialized IR");
+        }
+        long version = in.unsigned();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(name + " is serialized IR of version " + version + ", not " + FORMAT_VERSION);
+        }
+        try {
+            return readModule(in, name, promotionSuffix);
+        } catch (RuntimeException e) {
+            throw new IOException(name + " is corrupt: " + e, e);
+        }
+    }
+
+    private static IrModule readModule(Input in, String name, String promotionSuffix) {
+        String[] names = new String[(int) in.unsigned()];
+        boolean[] statics = new boolean[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            statics[i] = (in.unsigned() & NAME_IS_STATIC) != 0;
+            byte[] bytes = in.bytes((int) in.unsigned());
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+            if (statics[i] && promotionSuffix != null) {
+                //assembler local names, like string literals', would be left out of the symbol table
+                names[i] = names[i].startsWith(".L") ? names[i].substring(2) + ".local" + promotionSuffix : names[i] + promotionSuffix;
+            }
+        }
+        boolean promote = promotionSuffix != null;
+
+        IrModule module = new IrModule(name);
+        long globalCount = in.unsigned();
+        for (long g = 0; g < globalCount; ++g) {
+            String globalName = names[(int) in.unsigned()];
+            long size = in.unsigned();
+            int align = (int) in.unsigned();
+            int flags = (int) in.unsigned();
+            byte[] data = (flags & GLOBAL_HAS_DATA) != 0 ? in.bytes((int) in.unsigned()) : null;
+            long relocationCount = in.unsigned();
+            List<IrModule.Relocation> relocations = new ArrayList<>();
+            for (long r = 0; r < relocationCount; ++r) {
+                relocations.add(new IrModule.Relocation(in.unsigned(), names[(int) in.unsigned()], in.signed()));
+            }
+            module.getGlobals().add(new IrModule.Global(globalName, size, align, data, relocations,
+                    (flags & GLOBAL_IS_STATIC) != 0 && !promote, (flags & GLOBAL_IS_READ_ONLY) != 0));
+        }
+
+        long functionCount = in.unsigned();
+        for (long f = 0; f < functionCount; ++f) {
+            module.getFunctions().add(readFunction(in, names, promote));
+        }
+        return module;
+    }
+
+    private static IrFunction readFunction(Input in, String[] names, boolean promote) {
+        IrType[] types = IrType.values();
+        IrInstruction.Op[] ops = IrInstruction.Op.values();
+
+        String name = names[(int) in.unsigned()];
+        boolean isStatic = in.unsigned() != 0 && !promote;
+        IrFunction function = new IrFunction(name, isStatic, types[(int) in.unsigned()]);
+        long paramCount = in.unsigned();
+        for (long p = 0; p < paramCount; ++p) {
+            function.addParam(types[(int) in.unsigned()]);
+        }
+        long slotCount = in.unsigned();
+        for (long s = 0; s < slotCount; ++s) {
+            function.newSlot(in.unsigned(), (int) in.unsigned());
+        }
+
+        int blockCount = (int) in.unsigned();
+        IrBlock[] blocks = new IrBlock[blockCount];
+        for (int b = 0; b < blockCount; ++b) {
+            blocks[b] = function.newBlock();
+        }
+        //operands that are instructions are filled in at the end, once every instruction exists
+        List<IrInstruction> instructions = new ArrayList<>();
+        List<long[]> pending = new ArrayList<>(); //instruction, operand, the instruction it refers to
+        for (IrBlock block : blocks) {
+            long predCount = in.unsigned();
+            for (long p = 0; p < predCount; ++p) {
+                block.getPredecessors().add(blocks[(int) in.unsigned()]);
+            }
+            long instructionCount = in.unsigned();
+            for (long i = 0; i < instructionCount; ++i) {
+                IrInstruction.Op op = ops[(int) in.unsigned()];
+                IrType type = types[(int) in.unsigned()];
+                boolean variadic = in.unsigned() != 0;
+                IrValue[] operands = new IrValue[(int) in.unsigned()];
+                for (int o = 0; o < operands.length; ++o) {
+                    int tag = (int) in.unsigned();
+                    operands[o] = switch (tag & 7) {
+                        case CONSTANT -> IrValue.Constant.of(types[tag >>> 3], in.signed());
+                        case PARAMETER -> function.getParams().get((int) in.unsigned());
+                        case SYMBOL -> new IrValue.Symbol(names[(int) in.unsigned()]);
+                        case SLOT -> function.getSlots().get((int) in.unsigned());
+                        case INSTRUCTION -> {
+                            pending.add(new long[] {instructions.size(), o, in.unsigned()});
+                            yield null;
+                        }
+                        default -> throw new IllegalStateException("unknown operand kind " + tag);
+                    };
+                }
+                IrInstruction instruction = switch (op) {
+                    case JUMP -> IrInstruction.jump(blocks[(int) in.unsigned()]);
+                    case BRANCH -> IrInstruction.branch(operands[0], blocks[(int) in.unsigned()], blocks[(int) in.unsigned()]);
+                    default -> new IrInstruction(op, type, operands);
+                };
+                instruction.setVariadicCall(variadic);
+                block.append(instruction);
+                instructions.add(instruction);
+            }
+        }
+        for (long[] reference : pending) {
+            instructions.get((int) reference[0]).setOperand((int) reference[1], instructions.get((int) reference[2]));
+        }
+        return function;
+    }
+
+
+    private static final class Output {
+        private byte[] bytes = new byte[4096];
+        private int size = 0;
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+
+        private void fixed(int value) {
+            ensure(4);
+            for (int i = 0; i < 4; ++i) {
+                bytes[size++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        private void unsigned(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void signed(long value) {
+            unsigned(value << 1 ^ value >> 63);
+        }
+
+        private void bytes(byte[] values) {
+            ensure(values.length);
+            System.arraycopy(values, 0, bytes, size, values.length);
+            size += values.length;
+        }
+    }
+
+    private static final class Input {
+        private final ByteBuffer buffer;
+
+        private Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int fixed() {
+            int value = 0;
+            for (int i = 0; i < 4; ++i) {
+                value |= (buffer.get() & 0xFF) << (8 * i);
+            }
+            return value;
+        }
+
+        private long unsigned() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private long signed() {
+            long value = unsigned();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        private byte[] bytes(int length) {
+            byte[] values = new byte[length];
+            buffer.get(values);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ayohee.c_compiler;
+
+//the widths values in the IR can have. signedness isn't part of the type: it's in the operations, as it is in the hardware
+public enum IrType {
+    VOID(0), I8(1), I16(2), I32(4), I64(8);
+
+    private final int size;
+
+    IrType(int size) {
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //pointers, arrays, functions and structs are all handled by address
+    public static IrType of(CType type) {
+        return switch (type.getKind()) {
+            case VOID -> VOID;
+            case CHAR -> I8;
+            case SHORT -> I16;
+            case INT -> I32;
+            default -> I64;
+        };
+    }
+
+    public static IrType ofSize(long size) {
+        return switch ((int) size) {
+            case 1 -> I8;
+            case 2 -> I16;
+            case 4 -> I32;
+            default -> I64;
+        };
+    }
+
+    //a value as this type would hold it, sign extended back out to 64 bits
+    public long normalize(long value) {
+        return switch (this) {
+            case I8 -> (byte) value;
+            case I16 -> (short) value;
+            case I32 -> (int) value;
+            default -> value;
+        };
+    }
+
+    //the same value zero extended instead, for unsigned operations
+    public long unsigned(long value) {
+        return switch (this) {
+            case I8 -> value & 0xFF;
+            case I16 -> value & 0xFFFF;
+            case I32 -> value & 0xFFFFFFFFL;
+            default -> value;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,128 @@
+package ayohee.c_compiler;
+
+//anything an IR instruction can take as an operand. instructions are values themselves, standing for their result
+public abstract class IrValue {
+    private final IrType type;
+
+    protected IrValue(IrType type) {
+        this.type = type;
+    }
+
+    public IrType getType() {
+        return type;
+    }
+
+    public boolean isConstant() {
+        return this instanceof Constant;
+    }
+
+    //the constant's value sign extended to 64 bits. only for constants
+    public long constantValue() {
+        return ((Constant) this).value;
+    }
+
+
+    public static final class Constant extends IrValue {
+        private final long value;
+
+        private Constant(IrType type, long value) {
+            super(type);
+            this.value = type.normalize(value);
+        }
+
+        public static Constant of(IrType type, long value) {
+            return new Constant(type, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Constant other && other.getType() == getType() && other.value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(value) * 31 + getType().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getType() + " " + value;
+        }
+    }
+
+    public static final class Parameter extends IrValue {
+        private final int index;
+
+        public Parameter(IrType type, int index) {
+            super(type);
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return getType() + " %arg" + index;
+        }
+    }
+
+    //the address of a function or global variable
+    public static final class Symbol extends IrValue {
+        private final String name;
+
+        public Symbol(String name) {
+            super(IrType.I64);
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Symbol other && other.name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "@" + name;
+        }
+    }
+
+    //the address of a piece of the function's stack frame, for anything that can't live in a register
+    public static final class StackSlot extends IrValue {
+        private final int id;
+        private final long size;
+        private final int align;
+
+        public StackSlot(int id, long size, int align) {
+            super(IrType.I64);
+            this.id = id;
+            this.size = size;
+            this.align = align;
+        }
+
+        public int getId() {
+            return id;
+        }
+        public long getSize() {
+            return size;
+        }
+        public int getAlign() {
+            return align;
+        }
+
+        @Override
+        public String toString() {
+            return "$slot" + id;
+        }
+    }
+}
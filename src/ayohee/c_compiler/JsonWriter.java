@@ -0,0 +1,110 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+//just enough JSON output for the instrumentation reports, without pulling in a library
+class JsonWriter {
+    private final StringBuilder sb = new StringBuilder();
+    private final Deque<Boolean> hasElements = new ArrayDeque<>(); //whether the current object/array needs a comma next
+    private boolean afterName = false;
+    private boolean pendingNewline = false;
+
+    public JsonWriter beginObject() {
+        separate();
+        sb.append('{');
+        hasElements.push(false);
+        return this;
+    }
+    public JsonWriter endObject() {
+        hasElements.pop();
+        sb.append('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separate();
+        sb.append('[');
+        hasElements.push(false);
+        return this;
+    }
+    public JsonWriter endArray() {
+        hasElements.pop();
+        sb.append(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        separate();
+        appendString(name);
+        sb.append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separate();
+        appendString(value);
+        return this;
+    }
+    public JsonWriter value(long value) {
+        separate();
+        sb.append(value);
+        return this;
+    }
+    public JsonWriter value(double value) {
+        separate();
+        sb.append(Double.isFinite(value) ? Double.toString(value) : "null");
+        return this;
+    }
+
+    //starts the next element of an array on its own line, to keep large reports diffable
+    public JsonWriter newline() {
+        pendingNewline = true;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!hasElements.isEmpty()) {
+            if (hasElements.pop()) {
+                sb.append(',');
+            }
+            hasElements.push(true);
+        }
+        if (pendingNewline) {
+            pendingNewline = false;
+            sb.append('\n');
+        }
+    }
+
+    private void appendString(String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
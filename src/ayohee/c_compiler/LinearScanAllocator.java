@@ -0,0 +1,756 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+//linear scan register allocation with interval splitting, after Wimmer and Mossenbock. every instruction gets two
+//positions: an even one where it reads its operands, and the odd one after, where its results start. each virtual
+//register gets a live interval made of the ranges where its value is needed, with holes where it isn't. intervals are
+//handed registers in order of where they start, and one that can't keep a register for its whole life is split: the
+//rest of it either waits for a register that frees up later, or lives in a stack slot until just before its next use.
+//physical registers that instructions use directly (arguments, division, shift counts and what calls clobber) have
+//fixed intervals that the others have to fit around. moves are then added wherever an interval changes location,
+//within blocks at the split positions and along edges where the two ends disagree
+public final class LinearScanAllocator {
+    private static final int NOWHERE = Integer.MAX_VALUE;
+
+    private final X86Function function;
+    private final List<X86Block> blocks;
+    private final int[] blockFrom;
+    private final int[] blockTo;
+    private final BitSet blockStarts = new BitSet();
+    private final Map<X86Block, Integer> blockIndex = new HashMap<>();
+    private final BitSet[] liveIn;
+
+    private final Interval[] intervals; //by register number, physical ones being the fixed intervals
+    private final PriorityQueue<Interval> unhandled = new PriorityQueue<>(Comparator.comparingInt(Interval::from));
+    private final List<Interval> active = new ArrayList<>();
+    private final List<Interval> inactive = new ArrayList<>();
+
+    private int splits = 0;
+    private int spilled = 0;
+
+    private LinearScanAllocator(X86Function function) {
+        this.function = function;
+        this.blocks = function.getBlocks();
+        this.blockFrom = new int[blocks.size()];
+        this.blockTo = new int[blocks.size()];
+        this.liveIn = new BitSet[blocks.size()];
+        this.intervals = new Interval[function.getVirtualRegisterLimit()];
+    }
+
+    public record Statistics(int virtualRegisters, int splits, int spilled) {}
+
+    //rewrites the function to use physical registers and lays out its frame
+    public static Statistics allocate(X86Function function) {
+        LinearScanAllocator allocator = new LinearScanAllocator(function);
+        allocator.numberInstructions();
+        allocator.computeLiveness();
+        allocator.buildIntervals();
+        allocator.walkIntervals();
+        allocator.resolve();
+        return new Statistics(function.getVirtualRegisterLimit() - X86Register.FIRST_VIRTUAL, allocator.splits, allocator.spilled);
+    }
+
+    //registers the allocator looks after: virtual ones, and the physical ones it can hand out
+    private static boolean isTracked(int register) {
+        return register >= X86Register.FIRST_VIRTUAL || (register != X86Register.RSP.number() && register != X86Register.RBP.number());
+    }
+
+
+    //LIVENESS
+    private void numberInstructions() {
+        int position = 0;
+        for (int b = 0; b < blocks.size(); ++b) {
+            X86Block block = blocks.get(b);
+            blockIndex.put(block, b);
+            blockFrom[b] = position;
+            blockStarts.set(position);
+            position += 2 * block.getInstructions().size();
+            blockTo[b] = position;
+        }
+    }
+
+    private void computeLiveness() {
+        int count = blocks.size();
+        BitSet[] gen = new BitSet[count];
+        BitSet[] kill = new BitSet[count];
+        for (int b = 0; b < count; ++b) {
+            BitSet blockGen = new BitSet();
+            BitSet blockKill = new BitSet();
+            for (X86Instruction instruction : blocks.get(b).getInstructions()) {
+                instruction.forEachUse(register -> {
+                    if (register >= X86Register.FIRST_VIRTUAL && !blockKill.get(register)) {
+                        blockGen.set(register);
+                    }
+                });
+                instruction.forEachDef(register -> {
+                    if (register >= X86Register.FIRST_VIRTUAL) {
+                        blockKill.set(register);
+                    }
+                });
+            }
+            gen[b] = blockGen;
+            kill[b] = blockKill;
+            liveIn[b] = (BitSet) blockGen.clone();
+        }
+
+        //backwards over the layout, which is close to reverse post order, so this settles in a few rounds
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = count - 1; b >= 0; --b) {
+                BitSet live = liveOut(b);
+                live.andNot(kill[b]);
+                live.or(gen[b]);
+                if (!live.equals(liveIn[b])) {
+                    liveIn[b] = live;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private BitSet liveOut(int b) {
+        BitSet live = new BitSet();
+        for (X86Block successor : blocks.get(b).getSuccessors()) {
+            live.or(liveIn[blockIndex.get(successor)]);
+        }
+        return live;
+    }
+
+    private Interval interval(int register) {
+        if (intervals[register] == null) {
+            intervals[register] = new Interval(register);
+            if (register < X86Register.FIRST_VIRTUAL) {
+                intervals[register].assigned = register;
+            }
+        }
+        return intervals[register];
+    }
+
+    //backwards through each block, so that every range can be added at the front of its interval
+    private void buildIntervals() {
+        for (int b = blocks.size() - 1; b >= 0; --b) {
+            int from = blockFrom[b];
+            BitSet out = liveOut(b);
+            for (int register = out.nextSetBit(0); register >= 0; register = out.nextSetBit(register + 1)) {
+                interval(register).addRange(from, blockTo[b]);
+            }
+
+            List<X86Instruction> instructions = blocks.get(b).getInstructions();
+            for (int i = instructions.size() - 1; i >= 0; --i) {
+                X86Instruction instruction = instructions.get(i);
+                int position = from + 2 * i;
+                instruction.forEachDef(register -> {
+                    if (isTracked(register)) {
+                        interval(register).define(position + 1);
+                    }
+                });
+                instruction.forEachUse(register -> {
+                    if (isTracked(register)) {
+                        interval(register).use(from, position);
+                    }
+                });
+
+                //copies try to end up in the same register on both sides, so that they can be dropped
+                if (instruction.isRegisterMove()) {
+                    int destination = ((X86Operand.Register) instruction.getOperand(0)).number();
+                    int source = ((X86Operand.Register) instruction.getOperand(1)).number();
+                    if (isTracked(destination) && isTracked(source)) {
+                        if (destination >= X86Register.FIRST_VIRTUAL) {
+                            interval(destination).hint = interval(source);
+                        } else if (source >= X86Register.FIRST_VIRTUAL && interval(source).hint == null) {
+                            interval(source).hint = interval(destination);
+                        }
+                    }
+                }
+            }
+        }
+        for (Interval interval : intervals) {
+            if (interval != null) {
+                interval.finish();
+            }
+        }
+    }
+
+
+    //ALLOCATION
+    private void walkIntervals() {
+        for (int register = 0; register < intervals.length; ++register) {
+            Interval interval = intervals[register];
+            if (interval == null || interval.rangeCount == 0) {
+                continue;
+            }
+            if (interval.isFixed()) {
+                inactive.add(interval);
+            } else {
+                unhandled.add(interval);
+            }
+        }
+
+        while (!unhandled.isEmpty()) {
+            Interval current = unhandled.poll();
+            int position = current.from();
+
+            List<Interval> reactivated = new ArrayList<>();
+            for (Iterator<Interval> it = active.iterator(); it.hasNext(); ) {
+                Interval interval = it.next();
+                interval.advance(position);
+                if (interval.to() <= position) {
+                    it.remove();
+                } else if (!interval.covers(position)) {
+                    it.remove();
+                    inactive.add(interval);
+                }
+            }
+            for (Iterator<Interval> it = inactive.iterator(); it.hasNext(); ) {
+                Interval interval = it.next();
+                interval.advance(position);
+                if (interval.to() <= position) {
+                    it.remove();
+                } else if (interval.covers(position)) {
+                    it.remove();
+                    reactivated.add(interval);
+                }
+            }
+            active.addAll(reactivated);
+
+            if (!tryAllocateFreeRegister(current, position)) {
+                allocateBlockedRegister(current, position);
+            }
+            if (current.assigned >= 0) {
+                active.add(current);
+            }
+        }
+    }
+
+    //gives current a register that nothing else needs for as long as possible, splitting it where the register is next
+    //needed if that's before it ends
+    private boolean tryAllocateFreeRegister(Interval current, int position) {
+        int[] freeUntil = new int[X86Register.FIRST_VIRTUAL];
+        for (X86Register register : X86Register.ALLOCATABLE) {
+            freeUntil[register.number()] = NOWHERE;
+        }
+        for (Interval interval : active) {
+            freeUntil[interval.assigned] = 0;
+        }
+        for (Interval interval : inactive) {
+            if (freeUntil[interval.assigned] > 0) {
+                freeUntil[interval.assigned] = Math.min(freeUntil[interval.assigned], interval.nextIntersection(current));
+            }
+        }
+
+        int chosen = -1;
+        int hint = current.hintedRegister();
+        if (hint >= 0 && freeUntil[hint] >= current.to()) {
+            chosen = hint;
+        } else {
+            for (X86Register register : X86Register.ALLOCATABLE) {
+                if (chosen == -1 || freeUntil[register.number()] > freeUntil[chosen]) {
+                    chosen = register.number();
+                }
+            }
+        }
+
+        int free = freeUntil[chosen];
+        if (free >= current.to()) {
+            current.assigned = chosen;
+            return true;
+        }
+        int split = free & ~1; //moves only go between instructions
+        if (split <= position) {
+            return false;
+        }
+        current.assigned = chosen;
+        unhandled.add(split(current, split));
+        return true;
+    }
+
+    //every register is needed before current ends. either current waits in a stack slot until it's next used, or it
+    //takes the register whose other users are furthest from needing it, and they wait in stack slots instead
+    private void allocateBlockedRegister(Interval current, int position) {
+        int[] nextUse = new int[X86Register.FIRST_VIRTUAL];
+        int[] blocked = new int[X86Register.FIRST_VIRTUAL];
+        for (X86Register register : X86Register.ALLOCATABLE) {
+            nextUse[register.number()] = NOWHERE;
+            blocked[register.number()] = NOWHERE;
+        }
+        for (Interval interval : active) {
+            if (interval.isFixed()) {
+                nextUse[interval.assigned] = 0;
+                blocked[interval.assigned] = 0;
+            } else {
+                nextUse[interval.assigned] = Math.min(nextUse[interval.assigned], interval.nextUseFrom(position & ~1));
+            }
+        }
+        for (Interval interval : inactive) {
+            int intersection = interval.nextIntersection(current);
+            if (intersection == NOWHERE) {
+                continue;
+            }
+            if (interval.isFixed()) {
+                int limit = (intersection & ~1) <= position ? 0 : intersection;
+                blocked[interval.assigned] = Math.min(blocked[interval.assigned], limit);
+                nextUse[interval.assigned] = Math.min(nextUse[interval.assigned], limit);
+            } else {
+                nextUse[interval.assigned] = Math.min(nextUse[interval.assigned], interval.nextUseFrom(position & ~1));
+            }
+        }
+
+        int chosen = X86Register.ALLOCATABLE[0].number();
+        for (X86Register register : X86Register.ALLOCATABLE) {
+            if (nextUse[register.number()] > nextUse[chosen]) {
+                chosen = register.number();
+            }
+        }
+
+        int firstUse = current.nextUseFrom(position);
+        if (nextUse[chosen] < firstUse && (firstUse == NOWHERE || (firstUse & ~1) > position)) {
+            //everything else is needed sooner, so current is the one to go to memory
+            spill(current, position);
+            return;
+        }
+        if (blocked[chosen] <= position) {
+            throw new IllegalStateException("No register left for v" + current.register + " at " + position + " in " + function.getName());
+        }
+
+        current.assigned = chosen;
+        if (blocked[chosen] < current.to()) {
+            unhandled.add(split(current, blocked[chosen] & ~1));
+        }
+
+        //whatever else had the register gives it up where current starts
+        int evictAt = position & ~1;
+        for (Iterator<Interval> it = active.iterator(); it.hasNext(); ) {
+            Interval interval = it.next();
+            if (interval.assigned == chosen && !interval.isFixed()) {
+                it.remove();
+                if (evictAt <= interval.from()) {
+                    interval.assigned = -1;
+                    spill(interval, position);
+                } else {
+                    spill(split(interval, evictAt), position);
+                }
+            }
+        }
+        for (Iterator<Interval> it = inactive.iterator(); it.hasNext(); ) {
+            Interval interval = it.next();
+            if (interval.assigned == chosen && !interval.isFixed() && interval.nextIntersection(current) != NOWHERE) {
+                it.remove();
+                spill(split(interval, interval.nextRangeFrom(position) & ~1), position); //in a hole until then
+            }
+        }
+    }
+
+    //puts interval in its stack slot up to just before its next use, from where the rest goes back to be allocated
+    private void spill(Interval interval, int position) {
+        int nextUse = interval.nextUseFrom(interval.from());
+        if (nextUse != NOWHERE && (nextUse & ~1) <= interval.from()) {
+            if (interval.from() < position) {
+                throw new IllegalStateException("v" + interval.register + " can't be spilled at " + position + " in " + function.getName());
+            }
+            interval.assigned = -1;
+            unhandled.add(interval); //used right where it starts, so it still needs a register
+            return;
+        }
+        if (nextUse != NOWHERE) {
+            unhandled.add(split(interval, nextUse & ~1));
+        }
+        interval.assigned = -1;
+        Interval parent = interval.parent();
+        if (parent.spillSlot == null) {
+            parent.spillSlot = function.newSlot(8, 8);
+            ++spilled;
+        }
+    }
+
+    private Interval split(Interval interval, int position) {
+        ++splits;
+        return interval.splitAt(position);
+    }
+
+
+    //RESOLUTION
+    private record Move(X86Operand from, X86Operand to) {}
+
+    private void resolve() {
+        Map<Integer, List<Move>> splitMoves = new HashMap<>();
+        for (Interval interval : intervals) {
+            if (interval == null || interval.isFixed() || interval.pieces == null) {
+                continue;
+            }
+            List<Interval> pieces = interval.pieces;
+            for (int i = 1; i < pieces.size(); ++i) {
+                Interval before = pieces.get(i - 1);
+                Interval after = pieces.get(i);
+                if (before.to() == after.from() && !blockStarts.get(after.from())) {
+                    addMove(splitMoves.computeIfAbsent(after.from(), k -> new ArrayList<>()), location(before), location(after));
+                }
+            }
+        }
+
+        //along each edge, from wherever the value is at the end of one block to wherever the next one expects it. edges
+        //that need their own place for moves have been given a block of their own, so a block with more than one way
+        //out only goes to blocks with no other way in
+        Map<X86Block, List<Move>> atEnd = new HashMap<>();
+        Map<X86Block, List<Move>> atStart = new HashMap<>();
+        for (int b = 0; b < blocks.size(); ++b) {
+            X86Block block = blocks.get(b);
+            for (X86Block successor : block.getSuccessors()) {
+                int s = blockIndex.get(successor);
+                List<Move> moves = block.getSuccessors().size() == 1
+                        ? atEnd.computeIfAbsent(block, k -> new ArrayList<>())
+                        : atStart.computeIfAbsent(successor, k -> new ArrayList<>());
+                BitSet live = liveIn[s];
+                for (int register = live.nextSetBit(0); register >= 0; register = live.nextSetBit(register + 1)) {
+                    addMove(moves, location(intervals[register].pieceAt(blockTo[b] - 1)), location(intervals[register].pieceAt(blockFrom[s])));
+                }
+            }
+        }
+
+        for (int b = 0; b < blocks.size(); ++b) {
+            X86Block block = blocks.get(b);
+            List<X86Instruction> original = block.getInstructions();
+            List<X86Instruction> rewritten = new ArrayList<>(original.size() + 4);
+            sequence(atStart.get(block), rewritten);
+            int terminator = block.terminatorIndex();
+            for (int i = 0; i < original.size(); ++i) {
+                int position = blockFrom[b] + 2 * i;
+                sequence(splitMoves.get(position), rewritten);
+                if (i == terminator) {
+                    sequence(atEnd.get(block), rewritten);
+                }
+                X86Instruction instruction = original.get(i);
+                rewrite(instruction, position);
+                if (!(instruction.isRegisterMove() && instruction.getSize() == 8 && instruction.getOperand(0).equals(instruction.getOperand(1)))) {
+                    rewritten.add(instruction);
+                }
+            }
+            original.clear();
+            original.addAll(rewritten);
+        }
+
+        BitSet used = new BitSet();
+        for (X86Block block : blocks) {
+            for (X86Instruction instruction : block.getInstructions()) {
+                instruction.forEachDef(used::set);
+            }
+        }
+        List<X86Register> usedRegisters = new ArrayList<>();
+        for (int register = used.nextSetBit(0); register >= 0 && register < X86Register.FIRST_VIRTUAL; register = used.nextSetBit(register + 1)) {
+            usedRegisters.add(X86Register.of(register));
+        }
+        function.layOutFrame(usedRegisters);
+    }
+
+    private static void addMove(List<Move> moves, X86Operand from, X86Operand to) {
+        if (!from.equals(to)) {
+            moves.add(new Move(from, to));
+        }
+    }
+
+    private X86Operand location(Interval piece) {
+        if (piece.assigned >= 0) {
+            return X86Instruction.register(piece.assigned);
+        }
+        return X86Operand.Memory.of(piece.parent().spillSlot, 0);
+    }
+
+    //virtual registers become whichever physical register the piece of their interval there was given
+    private void rewrite(X86Instruction instruction, int position) {
+        X86Operand[] operands = instruction.getOperands();
+        for (int i = 0; i < operands.length; ++i) {
+            if (operands[i] instanceof X86Operand.Register register && register.isVirtual()) {
+                operands[i] = physical(register.number(), instruction.writesOperand(i) ? position + 1 : position);
+            } else if (operands[i] instanceof X86Operand.Memory memory) {
+                int base = memory.base() >= X86Register.FIRST_VIRTUAL ? physical(memory.base(), position).number() : memory.base();
+                int index = memory.index() >= X86Register.FIRST_VIRTUAL ? physical(memory.index(), position).number() : memory.index();
+                operands[i] = memory.withRegisters(base, index);
+            }
+        }
+    }
+
+    private X86Operand.Register physical(int register, int position) {
+        Interval piece = intervals[register].pieceAt(position);
+        if (piece.assigned < 0) {
+            throw new IllegalStateException("v" + register + " is in memory where it's used at " + position + " in " + function.getName());
+        }
+        return X86Instruction.register(piece.assigned);
+    }
+
+    //a set of moves that all happen at once, in an order where nothing is overwritten before it's read. what's left
+    //once nothing more can go is cycles of registers, which are undone with exchanges
+    private static void sequence(List<Move> moves, List<X86Instruction> out) {
+        if (moves == null || moves.isEmpty()) {
+            return;
+        }
+        List<Move> pending = new ArrayList<>(moves);
+        while (!pending.isEmpty()) {
+            boolean progress = false;
+            for (Iterator<Move> it = pending.iterator(); it.hasNext(); ) {
+                Move move = it.next();
+                if (!isRead(pending, move.to(), move)) {
+                    if (move.from() instanceof X86Operand.Memory && move.to() instanceof X86Operand.Memory) {
+                        throw new IllegalStateException("Move between two stack slots");
+                    }
+                    out.add(new X86Instruction(X86Instruction.Op.MOV, 8, move.to(), move.from()));
+                    it.remove();
+                    progress = true;
+                }
+            }
+            if (!progress) {
+                Move move = pending.removeFirst();
+                out.add(new X86Instruction(X86Instruction.Op.XCHG, 8, move.to(), move.from()));
+                //what was in the destination is now where the move came from
+                for (int i = 0; i < pending.size(); ++i) {
+                    if (pending.get(i).from().equals(move.to())) {
+                        pending.set(i, new Move(move.from(), pending.get(i).to()));
+                    }
+                }
+                pending.removeIf(m -> m.from().equals(m.to()));
+            }
+        }
+    }
+
+    private static boolean isRead(List<Move> moves, X86Operand location, Move except) {
+        for (Move move : moves) {
+            if (move != except && move.from().equals(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    //the positions where a register's value is needed, as sorted, disjoint half open ranges, and the positions where
+    //it's read or written. split intervals keep a list of their pieces in the first one
+    private static final class Interval {
+        private final int register;
+        private int[] starts = new int[2];
+        private int[] ends = new int[2];
+        private int rangeCount = 0;
+        private int[] uses = new int[4];
+        private int useCount = 0;
+        private int cursor = 0; //ranges before this one end before the current position
+
+        private int assigned = -1;
+        private Interval hint;
+        private Interval parent;
+        private List<Interval> pieces; //on the first piece, in order of position
+        private X86Function.FrameSlot spillSlot; //on the first piece
+
+        private Interval(int register) {
+            this.register = register;
+        }
+
+        private boolean isFixed() {
+            return register < X86Register.FIRST_VIRTUAL;
+        }
+
+        private Interval parent() {
+            return parent == null ? this : parent;
+        }
+
+        private int from() {
+            return starts[0];
+        }
+        private int to() {
+            return ends[rangeCount - 1];
+        }
+
+        //while building, ranges are added backwards, so they're kept latest first until finish turns them around
+        private void addRange(int from, int to) {
+            if (rangeCount > 0 && starts[rangeCount - 1] <= to) {
+                starts[rangeCount - 1] = Math.min(starts[rangeCount - 1], from);
+                ends[rangeCount - 1] = Math.max(ends[rangeCount - 1], to);
+                return;
+            }
+            if (rangeCount == starts.length) {
+                starts = Arrays.copyOf(starts, rangeCount * 2);
+                ends = Arrays.copyOf(ends, rangeCount * 2);
+            }
+            starts[rangeCount] = from;
+            ends[rangeCount] = to;
+            ++rangeCount;
+        }
+
+        //written at position, so not live before it. a result nothing reads still takes its register for a moment
+        private void define(int position) {
+            if (rangeCount > 0 && starts[rangeCount - 1] <= position && position < ends[rangeCount - 1]) {
+                starts[rangeCount - 1] = position;
+            } else {
+                addRange(position, position + 1);
+            }
+            addUse(position);
+        }
+
+        private void use(int blockFrom, int position) {
+            addRange(blockFrom, position + 1);
+            addUse(position);
+        }
+
+        private void addUse(int position) {
+            if (useCount > 0 && uses[useCount - 1] == position) {
+                return;
+            }
+            if (useCount == uses.length) {
+                uses = Arrays.copyOf(uses, useCount * 2);
+            }
+            uses[useCount++] = position;
+        }
+
+        private void finish() {
+            reverse(starts, rangeCount);
+            reverse(ends, rangeCount);
+            reverse(uses, useCount);
+        }
+
+        private static void reverse(int[] array, int count) {
+            for (int i = 0, j = count - 1; i < j; ++i, --j) {
+                int swap = array[i];
+                array[i] = array[j];
+                array[j] = swap;
+            }
+        }
+
+        //positions only move forwards, so ranges that have been passed never need looking at again
+        private void advance(int position) {
+            while (cursor < rangeCount - 1 && ends[cursor] <= position) {
+                ++cursor;
+            }
+        }
+
+        private boolean covers(int position) {
+            for (int i = cursor; i < rangeCount && starts[i] <= position; ++i) {
+                if (position < ends[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int nextRangeFrom(int position) {
+            for (int i = cursor; i < rangeCount; ++i) {
+                if (ends[i] > position) {
+                    return Math.max(starts[i], position);
+                }
+            }
+            return NOWHERE;
+        }
+
+        //the first position both intervals cover, from where they've got to
+        private int nextIntersection(Interval other) {
+            int i = cursor;
+            int j = other.cursor;
+            while (i < rangeCount && j < other.rangeCount) {
+                if (ends[i] <= other.starts[j]) {
+                    ++i;
+                } else if (other.ends[j] <= starts[i]) {
+                    ++j;
+                } else {
+                    return Math.max(starts[i], other.starts[j]);
+                }
+            }
+            return NOWHERE;
+        }
+
+        private int nextUseFrom(int position) {
+            int index = nextUseIndex(position);
+            return index < useCount ? uses[index] : NOWHERE;
+        }
+
+        private int hintedRegister() {
+            if (hint == null) {
+                return -1;
+            }
+            if (hint.isFixed()) {
+                return hint.assigned;
+            }
+            Interval piece = hint.pieceAt(from() - 1);
+            return piece == null ? -1 : piece.assigned;
+        }
+
+        //everything from position on moves to a new piece, which is returned. a range spanning position is cut in two
+        private Interval splitAt(int position) {
+            Interval child = new Interval(register);
+            Interval first = parent();
+            child.parent = first;
+            child.hint = hint;
+
+            int range = 0;
+            while (range < rangeCount && ends[range] <= position) {
+                ++range;
+            }
+            child.starts = new int[Math.max(2, rangeCount - range)];
+            child.ends = new int[child.starts.length];
+            for (int i = range; i < rangeCount; ++i) {
+                child.starts[child.rangeCount] = Math.max(starts[i], position);
+                child.ends[child.rangeCount] = ends[i];
+                ++child.rangeCount;
+            }
+            if (range < rangeCount && starts[range] < position) {
+                ends[range] = position;
+                rangeCount = range + 1;
+            } else {
+                rangeCount = range;
+            }
+            cursor = Math.min(cursor, rangeCount - 1);
+
+            int use = nextUseIndex(position);
+            child.uses = Arrays.copyOfRange(uses, use, Math.max(use + 1, useCount));
+            child.useCount = useCount - use;
+            useCount = use;
+
+            if (first.pieces == null) {
+                first.pieces = new ArrayList<>();
+                first.pieces.add(first);
+            }
+            int at = first.pieces.size();
+            while (at > 0 && first.pieces.get(at - 1).from() > child.from()) {
+                --at;
+            }
+            first.pieces.add(at, child);
+            return child;
+        }
+
+        private int nextUseIndex(int position) {
+            int low = 0;
+            int high = useCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (uses[middle] < position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        //the piece that holds the value at position, or the last one before it if it's in a hole
+        private Interval pieceAt(int position) {
+            if (pieces == null) {
+                return this;
+            }
+            int low = 0;
+            int high = pieces.size() - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (pieces.get(middle).from() <= position) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return pieces.get(low);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+//link time optimisation: the units' IR, which the compiler wrote instead of objects, is merged into one module for the
+//whole program, so that functions can be inlined across units and those nothing in the program reaches dropped. code
+//is then generated for it in partitions of about the same size at once, each becoming an object in memory that the
+//linker takes in like any other. every unit's static definitions are given names of their own when they're read, so
+//that they can't clash with another's and can be called from whichever partition they end up in
+public final class LinkTimeOptimizer {
+    public static final String IR_EXTENSION = ".ir";
+
+    private final IrModule program = new IrModule("program");
+    private final int units;
+    private final List<String> errors = new ArrayList<>();
+
+    private int functionsBefore;
+    private int instructionsBefore;
+    private int inlinedCount;
+    private int partitionCount;
+
+    private LinkTimeOptimizer(int units) {
+        this.units = units;
+    }
+
+    //reads every unit's IR at once, then merges it in the order given, so that errors come out the same every time
+    public static LinkTimeOptimizer read(List<Path> irFiles) throws IOException {
+        List<IrModule> modules;
+        try {
+            modules = IntStream.range(0, irFiles.size()).parallel().mapToObj(unit -> {
+                Path path = irFiles.get(unit);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    return IrSerializer.deserialize(file, path.getFileName().toString(), ".lto" + unit);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        LinkTimeOptimizer optimizer = new LinkTimeOptimizer(irFiles.size());
+        Map<String, String> definedIn = new HashMap<>();
+        for (IrModule module : modules) {
+            for (IrFunction function : module.getFunctions()) {
+                optimizer.define(definedIn, function.getName(), module.getName());
+                optimizer.program.getFunctions().add(function);
+            }
+            for (IrModule.Global global : module.getGlobals()) {
+                optimizer.define(definedIn, global.getName(), module.getName());
+                optimizer.program.getGlobals().add(global);
+            }
+        }
+        return optimizer;
+    }
+
+    private void define(Map<String, String> definedIn, String name, String unit) {
+        String previous = definedIn.putIfAbsent(name, unit);
+        if (previous != null) {
+            errors.add("Multiple definitions of " + name + ", in " + previous + " and " + unit);
+        }
+    }
+
+    //what the units' IR defines, and what it refers to without defining, which objects and libraries have to provide
+    public Set<String> getDefined() {
+        Set<String> defined = new HashSet<>();
+        program.getFunctions().forEach(function -> defined.add(function.getName()));
+        program.getGlobals().forEach(global -> defined.add(global.getName()));
+        return defined;
+    }
+    public Set<String> getUndefined() {
+        Set<String> referenced = new HashSet<>();
+        for (IrFunction function : program.getFunctions()) {
+            referenced.addAll(references(function));
+        }
+        for (IrModule.Global global : program.getGlobals()) {
+            global.getRelocations().forEach(relocation -> referenced.add(relocation.symbol()));
+        }
+        referenced.removeAll(getDefined());
+        return referenced;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+
+    //roots are what the rest of the program may refer to: main, and whatever the objects that weren't compiled for link
+    //time optimisation need. anything in the IR that they don't lead to is dropped. returns the partitions' objects
+    public List<LinkerInput> optimise(Set<String> roots) throws IOException {
+        functionsBefore = program.getFunctions().size();
+        instructionsBefore = program.instructionCount();
+
+        //dropping what's unreachable first saves inlining into it. inlining goes function by function, copying from
+        //callees that may themselves have just been inlined into, so it can't be split up. each unit's functions were
+        //already optimised on their own, so only those that took in a copy need the cleanup after it, which only looks
+        //at one function at a time. the callees they took in may be unreachable now
+        removeUnreachable(roots);
+        Inliner inliner = new Inliner();
+        List<IrFunction> inlinedInto = new ArrayList<>();
+        for (IrFunction function : program.getFunctions()) {
+            int blocks = function.getBlocks().size();
+            inliner.run(function, program);
+            if (function.getBlocks().size() != blocks) { //inlining splits the block at the call
+                inlinedInto.add(function);
+            }
+        }
+        List<IrPass> cleanup = List.of(new PhiSimplification(), new SparseConditionalConstantPropagation(), new ConstantFolding(),
+                new CommonSubexpressionElimination(), new DeadCodeElimination());
+        inlinedInto.parallelStream().forEach(function -> {
+            for (IrPass pass : cleanup) {
+                pass.run(function, program);
+            }
+        });
+        inlinedCount = inlinedInto.size();
+        removeUnreachable(roots);
+
+        List<IrModule> partitions = partition();
+        partitionCount = partitions.size();
+        Set<String> defined = getDefined();
+        try {
+            return IntStream.range(0, partitions.size()).parallel().mapToObj(p -> {
+                X86Module machine = X86CodeGenerator.generate(partitions.get(p), defined);
+                try {
+                    return LinkerInput.parse(partitions.get(p).getName() + ".o", X86Encoder.encode(machine).toBuffer());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void removeUnreachable(Set<String> roots) {
+        Map<String, IrFunction> functions = new HashMap<>();
+        Map<String, IrModule.Global> globals = new HashMap<>();
+        program.getFunctions().forEach(function -> functions.put(function.getName(), function));
+        program.getGlobals().forEach(global -> globals.put(global.getName(), global));
+
+        Set<String> reached = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>();
+        for (String root : roots) {
+            if (reached.add(root)) {
+                work.add(root);
+            }
+        }
+        while (!work.isEmpty()) {
+            String name = work.poll();
+            Set<String> next = new HashSet<>();
+            if (functions.containsKey(name)) {
+                next.addAll(references(functions.get(name)));
+            } else if (globals.containsKey(name)) {
+                globals.get(name).getRelocations().forEach(relocation -> next.add(relocation.symbol()));
+            }
+            for (String symbol : next) {
+                if (reached.add(symbol)) {
+                    work.add(symbol);
+                }
+            }
+        }
+        program.getFunctions().removeIf(function -> !reached.contains(function.getName()));
+        program.getGlobals().removeIf(global -> !reached.contains(global.getName()));
+    }
+
+    private static Set<String> references(IrFunction function) {
+        Set<String> symbols = new HashSet<>();
+        for (IrBlock block : function.getBlocks()) {
+            for (IrInstruction instruction : block.getInstructions()) {
+                for (IrValue operand : instruction.getOperands()) {
+                    if (operand instanceof IrValue.Symbol symbol) {
+                        symbols.add(symbol.getName());
+                    }
+                }
+            }
+        }
+        return symbols;
+    }
+
+    //largest function first into whichever partition is smallest so far. the variables all go in the first, as they
+    //cost nothing to generate
+    private List<IrModule> partition() {
+        int count = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), program.getFunctions().size()));
+        List<IrModule> partitions = new ArrayList<>();
+        long[] sizes = new long[count];
+        for (int p = 0; p < count; ++p) {
+            partitions.add(new IrModule("lto." + p));
+        }
+        partitions.getFirst().getGlobals().addAll(program.getGlobals());
+
+        List<IrFunction> bySize = new ArrayList<>(program.getFunctions());
+        bySize.sort(Comparator.comparingInt(IrFunction::instructionCount).reversed().thenComparing(IrFunction::getName));
+        for (IrFunction function : bySize) {
+            int smallest = 0;
+            for (int p = 1; p < count; ++p) {
+                if (sizes[p] < sizes[smallest]) {
+                    smallest = p;
+                }
+            }
+            partitions.get(smallest).getFunctions().add(function);
+            sizes[smallest] += function.instructionCount();
+        }
+        return partitions;
+    }
+
+    public void printStatistics() {
+        System.out.println("\nOptimised the IR of " + units + " units as one program: " + functionsBefore + " functions and "
+                + instructionsBefore + " instructions, " + program.getFunctions().size() + " functions and " + program.instructionCount()
+                + " instructions after inlining into " + inlinedCount + " and dropping what's unreachable, generated in " + partitionCount + " partitions");
+    }
+}
@@ -1,10 +1,1093 @@
 package ayohee.c_compiler;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+//links the unit objects into a dynamically linked x86-64 executable. everything that scales with the size of the program
+//runs in parallel, one task per input object: mapping and decoding the inputs, entering their symbols into a concurrent
+//table, scanning their relocations, and finally copying their sections into the mapped output and relocating them there.
+//only the layout, which is a running sum over the sections, and the small tables the dynamic loader needs are serial.
+//an incremental link gives every object's sections room to grow, and remembers the layout in a map next to the program.
+//the next incremental link reuses that layout when it can, rewriting only the objects that changed and the relocations
+//elsewhere that refer to globals that moved, instead of the whole program
 public class Linker {
-    public static void link(Path objOutputPath, ArrayList<Path> libraryPaths, Path linkerOutputName, boolean verbose, boolean yesMode) {
-        //TODO this
+    private static final long BASE = 0x400000;
+    private static final long PAGE = 0x1000;
+    private static final String INTERPRETER = "/lib64/ld-linux-x86-64.so.2";
+    private static final List<Path> SYSTEM_LIBC = List.of(Path.of("/lib/x86_64-linux-gnu/libc.so.6"), Path.of("/lib64/libc.so.6"),
+            Path.of("/usr/lib64/libc.so.6"), Path.of("/usr/lib/x86_64-linux-gnu/libc.so.6"), Path.of("/usr/lib/libc.so.6"));
+    private static final String START_MAIN = "__libc_start_main";
+    private static final String GOT_SYMBOL = "_GLOBAL_OFFSET_TABLE_"; //defined by the linker, at the start of the GOT
+
+    private static final int HEADER_SIZE = 64;
+    private static final int PROGRAM_HEADER_SIZE = 56;
+    private static final int PROGRAM_HEADER_COUNT = 7;
+    private static final int SECTION_HEADER_SIZE = 64;
+
+    private static final int STB_WEAK = 2;
+    private static final int R_X86_64_32 = 10;
+    private static final int R_X86_64_32S = 11;
+    private static final int R_X86_64_GLOB_DAT = 6;
+    private static final int R_X86_64_GOTOFF64 = 25;
+    private static final int R_X86_64_GOTPC32 = 26;
+    private static final int R_X86_64_GOTPC64 = 29;
+    private static final int R_X86_64_GOTPCRELX = 41;
+    private static final int R_X86_64_REX_GOTPCRELX = 42;
+
+    //what _start does before main: clear the frame pointer, hand __libc_start_main main, argc, argv and the loader's
+    //finaliser, and keep the stack 16 byte aligned. main's address and the GOT entry are patched in at the two offsets
+    private static final byte[] START = {
+            0x31, (byte) 0xED, 0x49, (byte) 0x89, (byte) 0xD1, 0x5E, 0x48, (byte) 0x89, (byte) 0xE2, 0x48, (byte) 0x83, (byte) 0xE4, (byte) 0xF0,
+            0x50, 0x54, 0x45, 0x31, (byte) 0xC0, 0x31, (byte) 0xC9, 0x48, (byte) 0x8D, 0x3D, 0, 0, 0, 0, (byte) 0xFF, 0x15, 0, 0, 0, 0, (byte) 0xF4
+    };
+    private static final int START_MAIN_DISPLACEMENT = 23;
+    private static final int START_GOT_DISPLACEMENT = 29;
+    private static final int PLT_ENTRY_SIZE = 8;
+    private static final byte[] ZEROES = new byte[4096];
+
+    private final boolean verbose;
+    private final boolean incremental;
+    private final Path statePath;
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+    private final List<LinkerInput> objects = new ArrayList<>(); //the unit objects, then archive members as they're loaded
+    private final List<SharedLibrary> libraries = new ArrayList<>();
+    private final List<StaticArchive> archives = new ArrayList<>();
+    private LinkTimeOptimizer lto; //when units were compiled to IR rather than objects
+    private int unitObjects;
+    private final ConcurrentHashMap<String, Definition> globals = new ConcurrentHashMap<>();
+
+    //what the program needs from shared libraries, and the tables that reach it
+    private final List<Import> imports = new ArrayList<>();
+    private final Map<String, Import> importsByName = new ConcurrentHashMap<>();
+    private final Set<String> needsGot = ConcurrentHashMap.newKeySet();
+    private final Set<String> needsPlt = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> gotSlots = new LinkedHashMap<>();
+    private final Map<String, Integer> pltSlots = new LinkedHashMap<>();
+    private int[] dynamicRelocationBases; //where each object's absolute relocations against imports go in .rela.dyn
+    private int dynamicRelocationCount;
+
+    //the layout
+    private final List<OutputSection> outputs = new ArrayList<>();
+    private OutputSection interp, hash, dynsym, dynstr, relaDyn, rodata, text, start, plt, dynamic, got, data, bss;
+    private long rEnd, xStart, xEnd, wStart, wFileEnd, wMemoryEnd, sectionHeadersOffset, fileSize;
+    private final Map<String, Integer> dynamicStrings = new LinkedHashMap<>();
+    private int dynamicStringsSize = 1;
+
+    //incremental linking
+    private String[] digests; //of each object's contents
+    private IncrementalLinkState previous; //the link being patched, or null when writing the whole program
+    private long[][] slotStarts; //by object and Kind, as addresses
+    private long[][] slotCapacities;
+    private boolean slotsFit;
+    private int changedObjects;
+    private long patchedRelocations;
+
+    private Linker(boolean verbose, boolean incremental, Path output) {
+        this.verbose = verbose;
+        this.incremental = incremental;
+        this.statePath = output.resolveSibling(output.getFileName() + ".ilk");
+    }
+
+    //false, having printed why, if the program couldn't be linked
+    public static boolean link(Path objOutputPath, ArrayList<Path> libraryPaths, Path linkerOutputName, boolean incremental, boolean verbose, boolean yesMode) {
+        Linker linker = new Linker(verbose, incremental, linkerOutputName);
+        long begin = System.nanoTime();
+        try {
+            linker.run(objOutputPath, libraryPaths, linkerOutputName);
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Failed to link " + linkerOutputName + ": " + e.getMessage());
+            return false;
+        }
+        if (!linker.errors.isEmpty()) {
+            linker.errors.stream().sorted().forEach(System.out::println);
+            return false;
+        }
+        if (verbose) {
+            if (linker.lto != null) {
+                linker.lto.printStatistics();
+            }
+            if (!linker.archives.isEmpty()) {
+                int members = linker.archives.stream().mapToInt(StaticArchive::getMemberCount).sum();
+                System.out.println("\nLoaded " + (linker.objects.size() - linker.unitObjects) + " of " + members + " members from "
+                        + linker.archives.size() + " archives");
+            }
+            System.out.println("\nLinked " + linker.objects.size() + " objects into " + linkerOutputName + " (" + linker.fileSize / 1024 + " KiB) in "
+                    + (System.nanoTime() - begin) / 1_000_000 + " ms");
+            if (linker.previous != null) {
+                System.out.println("Incremental link rewrote " + linker.changedObjects + " changed objects and patched "
+                        + linker.patchedRelocations + " relocations in the rest");
+            }
+            linker.printTimings();
+        }
+        return true;
+    }
+
+    private void run(Path objOutputPath, List<Path> libraryPaths, Path output) throws IOException {
+        phase("map inputs", () -> mapInputs(objOutputPath, libraryPaths));
+        if (lto != null) {
+            phase("link time optimisation", this::optimiseProgram);
+            if (!errors.isEmpty()) {
+                return;
+            }
+        }
+        phase("resolve symbols", this::resolveSymbols);
+        if (!errors.isEmpty()) {
+            return;
+        }
+        if (incremental) {
+            digests = objects.parallelStream().map(object -> IncrementalLinkState.digest(object.getFile())).toArray(String[]::new);
+        }
+        phase("scan relocations", this::scanRelocations);
+        if (!errors.isEmpty()) {
+            return;
+        }
+        if (incremental) {
+            phase("compare with previous link", () -> previous = reusableLink(output));
+        } else {
+            Files.deleteIfExists(statePath); //it wouldn't describe the program any more
+        }
+        phase("lay out", this::layOut);
+        if (previous != null && (!slotsFit || fileSize != previous.getFileSize())) {
+            fullLinkBecause("some of the changed objects have outgrown their room");
+            phase("lay out", this::layOut);
+        }
+
+        if (previous != null) {
+            phase("patch output", () -> patch(output));
+        } else {
+            phase("write output", () -> write(output));
+        }
+        if (incremental) {
+            phase("write link map", this::writeState);
+        }
+    }
+
+
+    //INPUTS
+    private void mapInputs(Path objOutputPath, List<Path> libraryPaths) throws IOException {
+        List<Path> objectPaths;
+        try (Stream<Path> list = Files.list(objOutputPath)) {
+            objectPaths = list.filter(path -> path.toString().endsWith(".o")).sorted().toList();
+        }
+        objects.addAll(objectPaths.parallelStream().map(path -> {
+            try {
+                return LinkerInput.map(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).toList());
+        unitObjects = objects.size();
+
+        List<Path> irPaths;
+        try (Stream<Path> list = Files.list(objOutputPath)) {
+            irPaths = list.filter(path -> path.toString().endsWith(LinkTimeOptimizer.IR_EXTENSION)).sorted().toList();
+        }
+        if (!irPaths.isEmpty()) {
+            lto = LinkTimeOptimizer.read(irPaths);
+        }
+
+        Set<Path> libraryFiles = new LinkedHashSet<>();
+        for (Path path : libraryPaths) {
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> list = Files.list(path)) {
+                    list.filter(file -> isSharedLibrary(file) || isArchive(file)).sorted().forEach(libraryFiles::add);
+                }
+            } else if (isSharedLibrary(path) || isArchive(path)) {
+                libraryFiles.add(path);
+            }
+        }
+        archives.addAll(libraryFiles.stream().filter(Linker::isArchive).toList().parallelStream().map(path -> {
+            try {
+                return StaticArchive.map(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).toList());
+
+        //the C library is always linked, as the compiler's driver would, after anything asked for
+        SYSTEM_LIBC.stream().filter(Files::isRegularFile).findFirst().ifPresent(libraryFiles::add);
+        libraries.addAll(libraryFiles.stream().filter(Linker::isSharedLibrary).toList().parallelStream().map(path -> {
+            try {
+                return SharedLibrary.map(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).toList());
+    }
+
+    private static boolean isSharedLibrary(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".so") || name.contains(".so.");
+    }
+
+    private static boolean isArchive(Path path) {
+        return path.getFileName().toString().endsWith(".a");
+    }
+
+
+    //the IR's code is generated into objects of its own, which are then linked like the units'. what the units that
+    //were compiled to objects refer to has to be kept, as well as main, but archive members are only loaded afterwards,
+    //so a member can't refer back to anything in the IR that nothing else needed
+    private void optimiseProgram() throws IOException {
+        errors.addAll(lto.getErrors());
+        if (!errors.isEmpty()) {
+            return;
+        }
+        Set<String> roots = new HashSet<>();
+        roots.add("main");
+        for (LinkerInput object : objects) {
+            LinkerInput.InputSymbol[] symbols = object.getSymbols();
+            for (int s = Math.max(1, object.getFirstGlobal()); s < symbols.length; ++s) {
+                if (!symbols[s].isDefined()) {
+                    roots.add(symbols[s].name());
+                }
+            }
+        }
+        objects.addAll(lto.optimise(roots));
+        unitObjects = objects.size();
+    }
+
+
+    //SYMBOLS
+    //a global defined in one of the objects. when two objects define the same one, a strong definition beats a weak
+    //or common one, and otherwise the earlier object wins, so the result doesn't depend on which thread got there first
+    private static final class Definition {
+        private final int objectIndex;
+        private final LinkerInput object;
+        private final LinkerInput.InputSymbol symbol;
+        private volatile long address;
+
+        private Definition(int objectIndex, LinkerInput object, LinkerInput.InputSymbol symbol) {
+            this.objectIndex = objectIndex;
+            this.object = object;
+            this.symbol = symbol;
+        }
+
+        private int strength() {
+            if (symbol.section() == LinkerInput.SHN_COMMON) {
+                return 0;
+            }
+            return symbol.binding() == STB_WEAK ? 1 : 2;
+        }
+    }
+
+    private record Import(String name, int type, SharedLibrary library, int dynamicIndex) {}
+
+    private void resolveSymbols() throws IOException {
+        define(0, objects.size());
+        if (!archives.isEmpty()) {
+            loadArchiveMembers();
+        }
+
+        //anything still undefined has to come from a shared library
+        Set<String> undefined = ConcurrentHashMap.newKeySet();
+        undefined.add(START_MAIN);
+        objects.parallelStream().forEach(object -> {
+            LinkerInput.InputSymbol[] symbols = object.getSymbols();
+            for (int s = Math.max(1, object.getFirstGlobal()); s < symbols.length; ++s) {
+                LinkerInput.InputSymbol symbol = symbols[s];
+                if (!symbol.isDefined() && !globals.containsKey(symbol.name()) && !symbol.name().equals(GOT_SYMBOL)) {
+                    if (symbol.binding() != STB_WEAK && findLibrary(symbol.name()) == null) {
+                        errors.add("Undefined reference to " + symbol.name() + " in " + object.getName());
+                    }
+                    undefined.add(symbol.name());
+                }
+            }
+        });
+        if (!globals.containsKey("main")) {
+            errors.add("Undefined reference to main, which the program starts at");
+        }
+
+        List<String> names = new ArrayList<>(undefined);
+        names.sort(Comparator.naturalOrder());
+        for (String name : names) {
+            SharedLibrary library = findLibrary(name);
+            if (library != null) { //weak references nothing defines are left at zero
+                Import imported = new Import(name, library.exportType(name), library, imports.size() + 1);
+                imports.add(imported);
+                importsByName.put(name, imported);
+            }
+        }
+    }
+
+    private void define(int from, int to) {
+        IntStream.range(from, to).parallel().forEach(index -> {
+            LinkerInput object = objects.get(index);
+            LinkerInput.InputSymbol[] symbols = object.getSymbols();
+            for (int s = Math.max(1, object.getFirstGlobal()); s < symbols.length; ++s) {
+                LinkerInput.InputSymbol symbol = symbols[s];
+                if (symbol.isDefined()) {
+                    globals.merge(symbol.name(), new Definition(index, object, symbol), this::stronger);
+                }
+            }
+        });
+    }
+
+    //archive members are only linked in if they define something that's still undefined, which they may do for
+    //each other, so this goes round in waves: the newest objects' undefined references are looked up in the archives'
+    //indexes, and the members that define them are loaded and their symbols entered in parallel, until nothing new is
+    //needed. every archive is searched on every wave, so the order archives are given in doesn't matter. archives are
+    //searched before shared libraries, and as usual a weak reference doesn't pull a member in
+    private void loadArchiveMembers() throws IOException {
+        Set<String> loaded = new HashSet<>();
+        for (int from = 0; from < objects.size(); ) {
+            int to = objects.size();
+            Set<String> wanted = ConcurrentHashMap.newKeySet();
+            objects.subList(from, to).parallelStream().forEach(object -> {
+                LinkerInput.InputSymbol[] symbols = object.getSymbols();
+                for (int s = Math.max(1, object.getFirstGlobal()); s < symbols.length; ++s) {
+                    LinkerInput.InputSymbol symbol = symbols[s];
+                    if (!symbol.isDefined() && symbol.binding() != STB_WEAK && !globals.containsKey(symbol.name()) && !symbol.name().equals(GOT_SYMBOL)) {
+                        wanted.add(symbol.name());
+                    }
+                }
+            });
+
+            List<Map.Entry<StaticArchive, Integer>> members = new ArrayList<>();
+            for (String name : wanted.stream().sorted().toList()) {
+                for (StaticArchive archive : archives) {
+                    int member = archive.memberDefining(name);
+                    if (member >= 0) {
+                        if (loaded.add(archive.getPath() + ":" + member)) {
+                            members.add(Map.entry(archive, member));
+                        }
+                        break;
+                    }
+                }
+            }
+            objects.addAll(members.parallelStream().map(member -> {
+                try {
+                    return member.getKey().member(member.getValue());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toList());
+            define(to, objects.size());
+            from = to;
+        }
+    }
+
+    private Definition stronger(Definition existing, Definition added) {
+        if (existing.strength() == 2 && added.strength() == 2) {
+            Definition first = existing.objectIndex < added.objectIndex ? existing : added;
+            Definition second = first == existing ? added : existing;
+            errors.add("Multiple definitions of " + first.symbol.name() + ", in " + first.object.getName() + " and " + second.object.getName());
+        }
+        if (existing.strength() != added.strength()) {
+            return existing.strength() > added.strength() ? existing : added;
+        }
+        if (existing.strength() == 0 && existing.symbol.size() != added.symbol.size()) { //common symbols take the largest size
+            return existing.symbol.size() > added.symbol.size() ? existing : added;
+        }
+        return existing.objectIndex < added.objectIndex ? existing : added;
+    }
+
+    private SharedLibrary findLibrary(String name) {
+        for (SharedLibrary library : libraries) {
+            if (library.exportType(name) >= 0) {
+                return library;
+            }
+        }
+        return null;
+    }
+
+    //which input sections make it into the output. notes and unwinding tables aren't needed by anything this links
+    private static boolean isLoaded(LinkerInput.InputSection section) {
+        return section != null && section.getType() != 7 && !section.getName().startsWith(".eh_frame");
+    }
+
+
+    //RELOCATIONS
+    //finds everything that needs a GOT entry or a PLT stub, and how many relocations each object leaves for the
+    //dynamic loader, so the tables can be sized before any of them is written
+    private void scanRelocations() {
+        int[] counts = new int[objects.size()];
+        IntStream.range(0, objects.size()).parallel().forEach(index -> {
+            LinkerInput object = objects.get(index);
+            for (LinkerInput.InputSection section : object.getSections()) {
+                if (!isLoaded(section)) {
+                    continue;
+                }
+                for (int r = 0; r < section.getRelocationCount(); ++r) {
+                    LinkerInput.InputSymbol symbol = object.getSymbols()[object.relocationSymbol(section, r)];
+                    int type = object.relocationType(section, r);
+                    Import imported = symbol.binding() == ElfObject.STB_LOCAL ? null : importsByName.get(symbol.name());
+                    switch (type) {
+                        case ElfObject.R_X86_64_GOTPCREL, R_X86_64_GOTPCRELX, R_X86_64_REX_GOTPCRELX -> needsGot.add(symbol.name());
+                        case ElfObject.R_X86_64_PLT32, ElfObject.R_X86_64_PC32 -> {
+                            if (imported != null) {
+                                if (imported.type() != ElfObject.STT_FUNC) {
+                                    errors.add("Can't refer to " + symbol.name() + " from " + object.getName() + " other than through the GOT, as it's in "
+                                            + imported.library().getSoname());
+                                }
+                                needsPlt.add(symbol.name());
+                                needsGot.add(symbol.name());
+                            }
+                        }
+                        case ElfObject.R_X86_64_64 -> {
+                            if (imported != null) {
+                                ++counts[index];
+                            }
+                        }
+                        case R_X86_64_GOTOFF64, R_X86_64_GOTPC32, R_X86_64_GOTPC64 -> {}
+                        case R_X86_64_32, R_X86_64_32S -> {
+                            if (imported != null) {
+                                errors.add("Can't refer to " + symbol.name() + " from " + object.getName() + " with a 32 bit absolute address, as it's in "
+                                        + imported.library().getSoname());
+                            }
+                        }
+                        default -> errors.add("Unsupported relocation type " + type + " in " + object.getName());
+                    }
+                }
+            }
+        });
+        needsGot.add(START_MAIN);
+
+        dynamicRelocationBases = new int[objects.size()];
+        int total = 0;
+        for (int i = 0; i < objects.size(); ++i) {
+            dynamicRelocationBases[i] = total;
+            total += counts[i];
+        }
+        for (String name : needsGot.stream().sorted().toList()) {
+            gotSlots.put(name, gotSlots.size());
+            if (importsByName.containsKey(name)) {
+                ++total; //filled in by the loader
+            }
+        }
+        for (String name : needsPlt.stream().sorted().toList()) {
+            pltSlots.put(name, pltSlots.size());
+        }
+        dynamicRelocationCount = total;
+    }
+
+
+    //LAYOUT
+    //three segments, each starting on its own page: read only (the headers, the loader's tables and constants), code,
+    //and writable data. addresses are the file offset plus BASE throughout, with .bss at the end taking no space in
+    //the file
+    private static final class OutputSection {
+        private final String name;
+        private final int type;
+        private final long flags;
+        private long align;
+        private long offset;
+        private long address;
+        private long size;
+        private int link;
+        private long entrySize;
+
+        private OutputSection(String name, int type, long flags, long align) {
+            this.name = name;
+            this.type = type;
+            this.flags = flags;
+            this.align = align;
+        }
+    }
+
+    private void layOut() {
+        outputs.clear();
+        dynamicStrings.clear();
+        dynamicStringsSize = 1;
+        slotStarts = new long[objects.size()][Kind.values().length];
+        slotCapacities = new long[objects.size()][Kind.values().length];
+        slotsFit = true;
+
+        dynamicString(""); //the empty name at offset 0
+        for (Import imported : imports) {
+            dynamicString(imported.name());
+        }
+        for (SharedLibrary library : neededLibraries()) {
+            dynamicString(library.getSoname());
+        }
+
+        long cursor = HEADER_SIZE + (long) PROGRAM_HEADER_COUNT * PROGRAM_HEADER_SIZE;
+        interp = new OutputSection(".interp", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC, 1);
+        cursor = place(interp, cursor, INTERPRETER.length() + 1);
+        hash = new OutputSection(".hash", 5, ElfObject.SHF_ALLOC, 8);
+        cursor = place(hash, cursor, 4L * (2 + bucketCount() + imports.size() + 1));
+        dynsym = new OutputSection(".dynsym", 11, ElfObject.SHF_ALLOC, 8);
+        cursor = place(dynsym, cursor, 24L * (imports.size() + 1));
+        dynsym.entrySize = 24;
+        dynstr = new OutputSection(".dynstr", ElfObject.SHT_STRTAB, ElfObject.SHF_ALLOC, 1);
+        cursor = place(dynstr, cursor, dynamicStringsSize);
+        relaDyn = new OutputSection(".rela.dyn", ElfObject.SHT_RELA, ElfObject.SHF_ALLOC, 8);
+        cursor = place(relaDyn, cursor, 24L * dynamicRelocationCount);
+        relaDyn.entrySize = 24;
+        rodata = new OutputSection(".rodata", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC, 1);
+        cursor = placeInputs(rodata, cursor, Kind.READ_ONLY);
+        rEnd = cursor;
+
+        xStart = cursor = ElfObject.align(cursor, PAGE);
+        text = new OutputSection(".text", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_EXECINSTR, 16);
+        cursor = placeInputs(text, cursor, Kind.CODE);
+        start = new OutputSection(".text.start", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_EXECINSTR, 16);
+        cursor = place(start, cursor, START.length);
+        plt = new OutputSection(".plt", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_EXECINSTR, 16);
+        cursor = place(plt, cursor, (long) PLT_ENTRY_SIZE * pltSlots.size());
+        xEnd = cursor;
+
+        wStart = cursor = ElfObject.align(cursor, PAGE);
+        dynamic = new OutputSection(".dynamic", 6, ElfObject.SHF_ALLOC | ElfObject.SHF_WRITE, 8);
+        cursor = place(dynamic, cursor, 16L * dynamicEntries().size());
+        dynamic.entrySize = 16;
+        got = new OutputSection(".got", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_WRITE, 8);
+        cursor = place(got, cursor, 8L * gotSlots.size());
+        data = new OutputSection(".data", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_WRITE, 1);
+        cursor = placeInputs(data, cursor, Kind.DATA);
+        wFileEnd = cursor;
+        bss = new OutputSection(".bss", ElfObject.SHT_NOBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_WRITE, 1);
+        wMemoryEnd = placeInputs(bss, cursor, Kind.ZEROED);
+
+        hash.link = relaDyn.link = outputs.indexOf(dynsym) + 1;
+        dynsym.link = dynamic.link = outputs.indexOf(dynstr) + 1;
+
+        globals.values().parallelStream().forEach(this::locate);
+
+        long shstrtabSize = 1;
+        for (OutputSection section : outputs) {
+            shstrtabSize += section.name.length() + 1;
+        }
+        shstrtabSize += ".shstrtab".length() + 1;
+        sectionHeadersOffset = ElfObject.align(wFileEnd + shstrtabSize, 8);
+        fileSize = sectionHeadersOffset + (long) (outputs.size() + 2) * SECTION_HEADER_SIZE;
+    }
+
+    private long place(OutputSection section, long cursor, long size) {
+        cursor = ElfObject.align(cursor, section.align);
+        section.offset = cursor;
+        section.address = BASE + cursor;
+        section.size = size;
+        outputs.add(section);
+        return cursor + size;
+    }
+
+    private enum Kind { READ_ONLY, CODE, DATA, ZEROED }
+
+    //how much room an incremental link leaves each object to grow into, per kind of section: a quarter of what it has
+    //now, and at least enough for a few small functions or strings
+    private static final long SLOT_ALIGN = 16;
+    private static final long MIN_SLOT_SLACK = 64;
+
+    private static Kind kindOf(LinkerInput.InputSection section) {
+        if (section.getType() == ElfObject.SHT_NOBITS) {
+            return Kind.ZEROED;
+        } else if ((section.getFlags() & ElfObject.SHF_EXECINSTR) != 0) {
+            return Kind.CODE;
+        } else if ((section.getFlags() & ElfObject.SHF_WRITE) != 0) {
+            return Kind.DATA;
+        }
+        return Kind.READ_ONLY;
+    }
+
+    //every object's sections of the kind, in order, and for .bss the common symbols after them. returns where they end.
+    //for an incremental link each object's sections go in a slot with room to spare, or the room the previous link gave
+    //them, which puts every slot back where it was as long as nothing before it grew
+    private long placeInputs(OutputSection output, long cursor, Kind kind) {
+        long begin = cursor;
+        long align = output.align;
+        for (int index = 0; index < objects.size(); ++index) {
+            if (incremental) {
+                cursor = ElfObject.align(cursor, SLOT_ALIGN);
+            }
+            long slotStart = cursor;
+            for (LinkerInput.InputSection section : objects.get(index).getSections()) {
+                if (isLoaded(section) && kindOf(section) == kind) {
+                    cursor = ElfObject.align(cursor, section.getAlign());
+                    section.setAddress(BASE + cursor);
+                    cursor += section.getSize();
+                    align = Math.max(align, section.getAlign());
+                }
+            }
+            if (incremental) {
+                long used = cursor - slotStart;
+                long capacity = previous != null ? previous.getObjects().get(index).capacities()[kind.ordinal()]
+                        : ElfObject.align(used + Math.max(MIN_SLOT_SLACK, used / 4), SLOT_ALIGN);
+                slotsFit &= used <= capacity;
+                slotStarts[index][kind.ordinal()] = BASE + slotStart;
+                slotCapacities[index][kind.ordinal()] = capacity;
+                cursor = slotStart + capacity;
+            }
+        }
+        if (kind == Kind.ZEROED) {
+            for (Definition definition : globals.values().stream().sorted(Comparator.comparing(d -> d.symbol.name())).toList()) {
+                if (definition.symbol.section() == LinkerInput.SHN_COMMON) {
+                    long commonAlign = Math.max(1, definition.symbol.value()); //a common symbol's value is its alignment
+                    cursor = ElfObject.align(cursor, commonAlign);
+                    definition.address = BASE + cursor;
+                    cursor += definition.symbol.size();
+                    align = Math.max(align, commonAlign);
+                }
+            }
+        }
+        output.align = align;
+        place(output, begin, cursor - begin);
+        return cursor;
+    }
+
+    private void locate(Definition definition) {
+        LinkerInput.InputSymbol symbol = definition.symbol;
+        if (symbol.section() == LinkerInput.SHN_ABS) {
+            definition.address = symbol.value();
+        } else if (symbol.section() != LinkerInput.SHN_COMMON) {
+            LinkerInput.InputSection section = definition.object.getSections()[symbol.section()];
+            definition.address = (section == null ? 0 : section.getAddress()) + symbol.value();
+        }
+    }
+
+    private void dynamicString(String string) {
+        if (!dynamicStrings.containsKey(string)) {
+            dynamicStrings.put(string, string.isEmpty() ? 0 : dynamicStringsSize);
+            if (!string.isEmpty()) {
+                dynamicStringsSize += string.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+        }
+    }
+
+    //only the libraries something was actually imported from, in the order they were given
+    private List<SharedLibrary> neededLibraries() {
+        Set<SharedLibrary> used = new LinkedHashSet<>();
+        for (SharedLibrary library : libraries) {
+            for (Import imported : imports) {
+                if (imported.library() == library) {
+                    used.add(library);
+                }
+            }
+        }
+        return new ArrayList<>(used);
+    }
+
+    private int bucketCount() {
+        return Math.max(1, imports.size());
+    }
+
+    private List<long[]> dynamicEntries() {
+        List<long[]> entries = new ArrayList<>();
+        for (SharedLibrary library : neededLibraries()) {
+            entries.add(new long[] {1, dynamicStrings.get(library.getSoname())}); //DT_NEEDED
+        }
+        entries.add(new long[] {4, hash == null ? 0 : hash.address}); //DT_HASH
+        entries.add(new long[] {5, dynstr == null ? 0 : dynstr.address}); //DT_STRTAB
+        entries.add(new long[] {6, dynsym == null ? 0 : dynsym.address}); //DT_SYMTAB
+        entries.add(new long[] {10, dynamicStringsSize}); //DT_STRSZ
+        entries.add(new long[] {11, 24}); //DT_SYMENT
+        if (dynamicRelocationCount > 0) {
+            entries.add(new long[] {7, relaDyn == null ? 0 : relaDyn.address}); //DT_RELA
+            entries.add(new long[] {8, 24L * dynamicRelocationCount}); //DT_RELASZ
+            entries.add(new long[] {9, 24}); //DT_RELAENT
+        }
+        entries.add(new long[] {21, 0}); //DT_DEBUG, for debuggers to find the loader's state through
+        entries.add(new long[] {30, 8}); //DT_FLAGS: DF_BIND_NOW, as every import goes through a GOT entry filled at load
+        entries.add(new long[] {0x6FFFFFFBL, 1}); //DT_FLAGS_1: DF_1_NOW
+        entries.add(new long[] {0, 0}); //DT_NULL
+        return entries;
+    }
+
+
+    //OUTPUT
+    private void write(Path output) throws IOException {
+        Files.deleteIfExists(output); //rather than writing over a program that might be running
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+
+            IntStream.range(0, objects.size()).parallel().forEach(index -> copyAndRelocate(out, index));
+            writeHeaders(out);
+            writeLoaderTables(out);
+            writeStart(out);
+            out.force();
+        }
+        try {
+            Files.setPosixFilePermissions(output, PosixFilePermissions.fromString("rwxr-xr-x"));
+        } catch (UnsupportedOperationException e) {
+            output.toFile().setExecutable(true);
+        }
+    }
+
+    //only this object's own sections and its own range of .rela.dyn are written, so objects don't need to coordinate
+    private void copyAndRelocate(ByteBuffer out, int index) {
+        LinkerInput object = objects.get(index);
+        for (LinkerInput.InputSection section : object.getSections()) {
+            if (isLoaded(section) && section.getType() != ElfObject.SHT_NOBITS) {
+                out.put((int) (section.getAddress() - BASE), object.getFile(), (int) section.getOffset(), (int) section.getSize());
+            }
+        }
+        relocate(out, index, null);
+    }
+
+    //applies the object's relocations, or if only is given, just the ones against those globals. returns how many it applied
+    private int relocate(ByteBuffer out, int index, Set<String> only) {
+        LinkerInput object = objects.get(index);
+        int dynamicRelocation = dynamicRelocationBases[index];
+        int applied = 0;
+        for (LinkerInput.InputSection section : object.getSections()) {
+            if (!isLoaded(section)) {
+                continue;
+            }
+            for (int r = 0; r < section.getRelocationCount(); ++r) {
+                LinkerInput.InputSymbol symbol = object.getSymbols()[object.relocationSymbol(section, r)];
+                if (only != null && (symbol.binding() == ElfObject.STB_LOCAL || !only.contains(symbol.name()))) {
+                    continue;
+                }
+                ++applied;
+                long place = section.getAddress() + object.relocationOffset(section, r);
+                int at = (int) (place - BASE);
+                int type = object.relocationType(section, r);
+                long addend = object.relocationAddend(section, r);
+                Import imported = symbol.binding() == ElfObject.STB_LOCAL ? null : importsByName.get(symbol.name());
+                switch (type) {
+                    case ElfObject.R_X86_64_64 -> {
+                        if (imported != null) {
+                            writeRelocation(out, dynamicRelocation++, place, imported.dynamicIndex(), ElfObject.R_X86_64_64, addend);
+                            out.putLong(at, 0);
+                        } else {
+                            out.putLong(at, addressOf(object, symbol) + addend);
+                        }
+                    }
+                    case ElfObject.R_X86_64_PC32, ElfObject.R_X86_64_PLT32 -> {
+                        long target = imported != null ? plt.address + (long) PLT_ENTRY_SIZE * pltSlots.get(symbol.name()) : addressOf(object, symbol);
+                        putInt32(out, at, target + addend - place, true, object, symbol);
+                    }
+                    case ElfObject.R_X86_64_GOTPCREL, R_X86_64_GOTPCRELX, R_X86_64_REX_GOTPCRELX ->
+                            putInt32(out, at, got.address + 8L * gotSlots.get(symbol.name()) + addend - place, true, object, symbol);
+                    case R_X86_64_GOTOFF64 -> out.putLong(at, addressOf(object, symbol) + addend - got.address);
+                    case R_X86_64_GOTPC32 -> putInt32(out, at, got.address + addend - place, true, object, symbol);
+                    case R_X86_64_GOTPC64 -> out.putLong(at, got.address + addend - place);
+                    case R_X86_64_32 -> putInt32(out, at, addressOf(object, symbol) + addend, false, object, symbol);
+                    case R_X86_64_32S -> putInt32(out, at, addressOf(object, symbol) + addend, true, object, symbol);
+                    default -> {} //reported by the scan
+                }
+            }
+        }
+        return applied;
+    }
+
+    private static void clear(ByteBuffer out, long from, long length) {
+        for (long at = from; at < from + length; at += ZEROES.length) {
+            out.put((int) at, ZEROES, 0, (int) Math.min(ZEROES.length, from + length - at));
+        }
+    }
+
+    private long addressOf(LinkerInput object, LinkerInput.InputSymbol symbol) {
+        if (symbol.binding() != ElfObject.STB_LOCAL) {
+            if (symbol.name().equals(GOT_SYMBOL)) {
+                return got.address;
+            }
+            Definition definition = globals.get(symbol.name());
+            return definition == null ? 0 : definition.address; //an undefined weak reference
+        }
+        if (symbol.section() == LinkerInput.SHN_ABS) {
+            return symbol.value();
+        }
+        LinkerInput.InputSection section = object.getSections()[symbol.section()];
+        return (section == null ? 0 : section.getAddress()) + symbol.value();
+    }
+
+    private void putInt32(ByteBuffer out, int at, long value, boolean signed, LinkerInput object, LinkerInput.InputSymbol symbol) {
+        if (signed ? value != (int) value : (value >>> 32) != 0) {
+            errors.add("Relocation against " + symbol.name() + " in " + object.getName() + " is out of range");
+        }
+        out.putInt(at, (int) value);
+    }
+
+    private void writeRelocation(ByteBuffer out, int index, long place, int symbol, int type, long addend) {
+        int at = (int) (relaDyn.offset + 24L * index);
+        out.putLong(at, place);
+        out.putLong(at + 8, (long) symbol << 32 | type);
+        out.putLong(at + 16, addend);
+    }
+
+    private void writeHeaders(ByteBuffer out) {
+        out.put(0, new byte[] {0x7F, 'E', 'L', 'F', 2, 1, 1, 0});
+        out.putShort(16, (short) 2); //an executable
+        out.putShort(18, (short) 62); //x86-64
+        out.putInt(20, 1);
+        out.putLong(24, start.address);
+        out.putLong(32, HEADER_SIZE);
+        out.putLong(40, sectionHeadersOffset);
+        out.putShort(52, (short) HEADER_SIZE);
+        out.putShort(54, (short) PROGRAM_HEADER_SIZE);
+        out.putShort(56, (short) PROGRAM_HEADER_COUNT);
+        out.putShort(58, (short) SECTION_HEADER_SIZE);
+        out.putShort(60, (short) (outputs.size() + 2));
+        out.putShort(62, (short) (outputs.size() + 1));
+
+        int at = HEADER_SIZE;
+        long headersSize = (long) PROGRAM_HEADER_COUNT * PROGRAM_HEADER_SIZE;
+        at = programHeader(out, at, 6, 4, HEADER_SIZE, headersSize, headersSize, 8); //PT_PHDR
+        at = programHeader(out, at, 3, 4, interp.offset, interp.size, interp.size, 1); //PT_INTERP
+        at = programHeader(out, at, 1, 4, 0, rEnd, rEnd, PAGE); //PT_LOAD, read only
+        at = programHeader(out, at, 1, 5, xStart, xEnd - xStart, xEnd - xStart, PAGE); //code
+        at = programHeader(out, at, 1, 6, wStart, wFileEnd - wStart, wMemoryEnd - wStart, PAGE); //writable
+        at = programHeader(out, at, 2, 6, dynamic.offset, dynamic.size, dynamic.size, 8); //PT_DYNAMIC
+        programHeader(out, at, 0x6474E551, 6, 0, 0, 0, 16); //PT_GNU_STACK, not executable
+
+        //section headers aren't needed to run the program, only to look at it, and are after everything that's loaded
+        int namesOffset = (int) wFileEnd;
+        int name = 1;
+        at = (int) sectionHeadersOffset + SECTION_HEADER_SIZE;
+        for (OutputSection section : outputs) {
+            byte[] bytes = section.name.getBytes(StandardCharsets.UTF_8);
+            out.put(namesOffset + name, bytes);
+            long fileOffset = section.type == ElfObject.SHT_NOBITS ? wFileEnd : section.offset;
+            at = sectionHeader(out, at, name, section.type, section.flags, section.address, fileOffset, section.size, section.link, 0, section.align, section.entrySize);
+            name += bytes.length + 1;
+        }
+        out.put(namesOffset + name, ".shstrtab".getBytes(StandardCharsets.UTF_8));
+        sectionHeader(out, at, name, ElfObject.SHT_STRTAB, 0, 0, namesOffset, name + ".shstrtab".length() + 1, 0, 0, 1, 0);
+    }
+
+    private static int programHeader(ByteBuffer out, int at, int type, int flags, long offset, long fileSize, long memorySize, long align) {
+        out.putInt(at, type);
+        out.putInt(at + 4, flags);
+        out.putLong(at + 8, offset);
+        out.putLong(at + 16, type == 0x6474E551 ? 0 : BASE + offset);
+        out.putLong(at + 24, type == 0x6474E551 ? 0 : BASE + offset);
+        out.putLong(at + 32, fileSize);
+        out.putLong(at + 40, memorySize);
+        out.putLong(at + 48, align);
+        return at + PROGRAM_HEADER_SIZE;
+    }
+
+    private static int sectionHeader(ByteBuffer out, int at, int name, int type, long flags, long address, long offset, long size, int link, int info, long align, long entrySize) {
+        out.putInt(at, name);
+        out.putInt(at + 4, type);
+        out.putLong(at + 8, flags);
+        out.putLong(at + 16, address);
+        out.putLong(at + 24, offset);
+        out.putLong(at + 32, size);
+        out.putInt(at + 40, link);
+        out.putInt(at + 44, info);
+        out.putLong(at + 48, align);
+        out.putLong(at + 56, entrySize);
+        return at + SECTION_HEADER_SIZE;
+    }
+
+    //the interpreter's name, the dynamic symbols and their hash table, the GOT with its relocations, the PLT stubs,
+    //and .dynamic, which points the loader at the rest
+    private void writeLoaderTables(ByteBuffer out) {
+        out.put((int) interp.offset, INTERPRETER.getBytes(StandardCharsets.UTF_8));
+
+        for (Map.Entry<String, Integer> entry : dynamicStrings.entrySet()) {
+            out.put((int) (dynstr.offset + entry.getValue()), entry.getKey().getBytes(StandardCharsets.UTF_8));
+        }
+        for (Import imported : imports) {
+            int at = (int) (dynsym.offset + 24L * imported.dynamicIndex());
+            out.putInt(at, dynamicStrings.get(imported.name()));
+            out.put(at + 4, (byte) (ElfObject.STB_GLOBAL << 4 | imported.type()));
+        }
+
+        //the loader looks symbols up in the program too, so it needs the hash table even though nothing's exported
+        int buckets = bucketCount();
+        int at = (int) hash.offset;
+        out.putInt(at, buckets);
+        out.putInt(at + 4, imports.size() + 1);
+        int[] heads = new int[buckets];
+        int chains = at + 8 + 4 * buckets;
+        for (Import imported : imports) {
+            int bucket = (int) (Integer.toUnsignedLong(elfHash(imported.name())) % buckets);
+            out.putInt(chains + 4 * imported.dynamicIndex(), heads[bucket]);
+            heads[bucket] = imported.dynamicIndex();
+        }
+        for (int bucket = 0; bucket < buckets; ++bucket) {
+            out.putInt(at + 8 + 4 * bucket, heads[bucket]);
+        }
+
+        int relocation = dynamicRelocationCount;
+        for (Map.Entry<String, Integer> slot : gotSlots.entrySet()) {
+            long place = got.address + 8L * slot.getValue();
+            Import imported = importsByName.get(slot.getKey());
+            if (imported != null) {
+                writeRelocation(out, --relocation, place, imported.dynamicIndex(), R_X86_64_GLOB_DAT, 0);
+            } else {
+                Definition definition = globals.get(slot.getKey());
+                out.putLong((int) (place - BASE), definition == null ? 0 : definition.address);
+            }
+        }
+
+        for (Map.Entry<String, Integer> slot : pltSlots.entrySet()) {
+            long stub = plt.address + (long) PLT_ENTRY_SIZE * slot.getValue();
+            int stubAt = (int) (stub - BASE);
+            out.put(stubAt, (byte) 0xFF); //jmp *got(%rip)
+            out.put(stubAt + 1, (byte) 0x25);
+            out.putInt(stubAt + 2, (int) (got.address + 8L * gotSlots.get(slot.getKey()) - (stub + 6)));
+            out.put(stubAt + 6, (byte) 0x66); //a two byte nop to the next stub
+            out.put(stubAt + 7, (byte) 0x90);
+        }
+
+        at = (int) dynamic.offset;
+        for (long[] entry : dynamicEntries()) {
+            out.putLong(at, entry[0]);
+            out.putLong(at + 8, entry[1]);
+            at += 16;
+        }
+    }
+
+    private static int elfHash(String name) {
+        int h = 0;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            h = (h << 4) + (b & 0xFF);
+            int g = h & 0xF0000000;
+            if (g != 0) {
+                h ^= g >>> 24;
+            }
+            h &= ~g;
+        }
+        return h;
+    }
+
+    private void writeStart(ByteBuffer out) {
+        int at = (int) start.offset;
+        out.put(at, START);
+        out.putInt(at + START_MAIN_DISPLACEMENT, (int) (globals.get("main").address - (start.address + START_MAIN_DISPLACEMENT + 4)));
+        long slot = got.address + 8L * gotSlots.get(START_MAIN);
+        out.putInt(at + START_GOT_DISPLACEMENT, (int) (slot - (start.address + START_GOT_DISPLACEMENT + 4)));
+    }
+
+
+    //INCREMENTAL LINKING
+    //the previous link, if this one can be done by patching it: the same objects, each still defining the same globals,
+    //and the same imports, GOT and PLT entries and dynamic relocations, so that only the objects' own slots change
+    private IncrementalLinkState reusableLink(Path output) throws IOException {
+        IncrementalLinkState state = IncrementalLinkState.read(statePath);
+        if (state == null) {
+            return fullLinkBecause("there's no map of a previous incremental link");
+        }
+        if (!Files.isRegularFile(output) || Files.size(output) != state.getFileSize()) {
+            return fullLinkBecause(output + " isn't the program the map describes");
+        }
+        if (state.getObjects().size() != objects.size()) {
+            return fullLinkBecause("objects were added or removed");
+        }
+        for (int i = 0; i < objects.size(); ++i) {
+            if (!state.getObjects().get(i).name().equals(objects.get(i).getName())) {
+                return fullLinkBecause("objects were added or removed");
+            }
+        }
+        if (!state.getSignature().equals(signature())) {
+            return fullLinkBecause("the symbols the objects define or import have changed");
+        }
+        return state;
+    }
+
+    private IncrementalLinkState fullLinkBecause(String reason) {
+        if (verbose) {
+            System.out.println("Linking the whole program, as " + reason);
+        }
+        previous = null;
+        return null;
+    }
+
+    //everything that decides the loader tables' layout and which definition of each global wins
+    private String signature() {
+        StringBuilder sb = new StringBuilder();
+        for (LinkerInput object : objects) {
+            sb.append("object ").append(object.getName()).append('\n');
+            LinkerInput.InputSymbol[] symbols = object.getSymbols();
+            for (int s = Math.max(1, object.getFirstGlobal()); s < symbols.length; ++s) {
+                if (symbols[s].isDefined()) {
+                    boolean common = symbols[s].section() == LinkerInput.SHN_COMMON;
+                    sb.append(symbols[s].name()).append(' ').append(symbols[s].binding()).append(common ? " common " + symbols[s].size() : "").append('\n');
+                }
+            }
+        }
+        imports.forEach(imported -> sb.append("import ").append(imported.name()).append(' ').append(imported.library().getSoname()).append('\n'));
+        gotSlots.keySet().forEach(name -> sb.append("got ").append(name).append('\n'));
+        pltSlots.keySet().forEach(name -> sb.append("plt ").append(name).append('\n'));
+        for (int base : dynamicRelocationBases) {
+            sb.append(base).append(' ');
+        }
+        sb.append(dynamicRelocationCount);
+        return IncrementalLinkState.digest(sb.toString());
+    }
+
+    //every slot is where it was, so the objects that changed are copied over their old contents, and the others only
+    //have the relocations against globals that moved applied again. the loader tables are small and written whole
+    private void patch(Path output) throws IOException {
+        boolean[] changed = new boolean[objects.size()];
+        for (int i = 0; i < objects.size(); ++i) {
+            changed[i] = !digests[i].equals(previous.getObjects().get(i).digest());
+            changedObjects += changed[i] ? 1 : 0;
+        }
+        Set<String> moved = ConcurrentHashMap.newKeySet();
+        globals.values().parallelStream().filter(definition -> definition.address != previous.addressOf(definition.symbol.name()))
+                .forEach(definition -> moved.add(definition.symbol.name()));
+
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+
+            patchedRelocations = IntStream.range(0, objects.size()).parallel().mapToLong(index -> {
+                if (!changed[index]) {
+                    return moved.isEmpty() ? 0 : relocate(out, index, moved);
+                }
+                for (Kind kind : List.of(Kind.READ_ONLY, Kind.CODE, Kind.DATA)) { //so nothing's left of a bigger old version
+                    clear(out, slotStarts[index][kind.ordinal()] - BASE, slotCapacities[index][kind.ordinal()]);
+                }
+                copyAndRelocate(out, index);
+                return 0;
+            }).sum();
+            writeLoaderTables(out);
+            writeStart(out);
+            out.force();
+        } catch (IOException e) {
+            //most likely the program is running, and can't be written to. it can still be replaced
+            fullLinkBecause(output + " couldn't be opened for writing");
+            changedObjects = objects.size();
+            write(output);
+        }
+    }
+
+    private void writeState() throws IOException {
+        List<IncrementalLinkState.ObjectSlots> slots = new ArrayList<>();
+        for (int i = 0; i < objects.size(); ++i) {
+            slots.add(new IncrementalLinkState.ObjectSlots(objects.get(i).getName(), digests[i], slotCapacities[i]));
+        }
+        Map<String, Long> symbols = new ConcurrentHashMap<>();
+        globals.values().parallelStream().forEach(definition -> symbols.put(definition.symbol.name(), definition.address));
+        new IncrementalLinkState(fileSize, signature(), slots, symbols).write(statePath);
+    }
+
+
+    //TIMING
+    private interface Phase {
+        void run() throws IOException;
+    }
+
+    private void phase(String name, Phase phase) throws IOException {
+        long begin = System.nanoTime();
+        phase.run();
+        phaseNanos.merge(name, System.nanoTime() - begin, Long::sum);
+    }
+
+    private void printTimings() {
+        System.out.println(String.format("%-40s %12s", "phase", "time (ms)"));
+        for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+            System.out.println(String.format("%-40s %12.3f", entry.getKey(), entry.getValue() / 1e6));
+        }
     }
 }
@@ -0,0 +1,199 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//an ELF64 relocatable object being linked. the file is mapped rather than read, and only its section headers and symbol
+//table are decoded up front: section contents and relocations are read straight out of the mapping when they're copied
+//and applied
+public final class LinkerInput {
+    public static final int SHN_UNDEF = 0;
+    public static final int SHN_ABS = 0xFFF1;
+    public static final int SHN_COMMON = 0xFFF2;
+
+    private final String name;
+    private final ByteBuffer file;
+    private final InputSection[] sections; //by section number, null for ones that aren't loaded
+    private final InputSymbol[] symbols; //by symbol number
+    private final int firstGlobal;
+
+    private LinkerInput(String name, ByteBuffer file, InputSection[] sections, InputSymbol[] symbols, int firstGlobal) {
+        this.name = name;
+        this.file = file;
+        this.sections = sections;
+        this.symbols = symbols;
+        this.firstGlobal = firstGlobal;
+    }
+
+    public static LinkerInput map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return parse(path.getFileName().toString(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    //file is the object's bytes, which for an archive member is a slice of the archive's mapping
+    public static LinkerInput parse(String name, ByteBuffer file) throws IOException {
+        file = file.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (file.limit() < 64 || file.getInt(0) != 0x464C457F || file.get(4) != 2 || file.get(5) != 1) {
+            throw new IOException(name + " is not a 64 bit little endian ELF file");
+        }
+        if (file.getShort(16) != 1 || file.getShort(18) != 62) {
+            throw new IOException(name + " is not an x86-64 relocatable object");
+        }
+        long headersOffset = file.getLong(40);
+        int headerSize = Short.toUnsignedInt(file.getShort(58));
+        int sectionCount = Short.toUnsignedInt(file.getShort(60));
+        int namesIndex = Short.toUnsignedInt(file.getShort(62));
+        long namesOffset = file.getLong((int) (headersOffset + (long) namesIndex * headerSize + 24));
+
+        InputSection[] sections = new InputSection[sectionCount];
+        int symtab = -1;
+        for (int i = 1; i < sectionCount; ++i) {
+            int header = (int) (headersOffset + (long) i * headerSize);
+            int type = file.getInt(header + 4);
+            long flags = file.getLong(header + 8);
+            if (type == ElfObject.SHT_SYMTAB) {
+                symtab = i;
+            }
+            if ((flags & ElfObject.SHF_ALLOC) == 0) {
+                continue;
+            }
+            String sectionName = string(file, namesOffset + file.getInt(header));
+            sections[i] = new InputSection(sectionName, type, flags, file.getLong(header + 24), file.getLong(header + 32), Math.max(1, file.getLong(header + 48)));
+        }
+        //relocations for a section that isn't loaded, like debugging information, are dropped along with it
+        for (int i = 1; i < sectionCount; ++i) {
+            int header = (int) (headersOffset + (long) i * headerSize);
+            if (file.getInt(header + 4) == ElfObject.SHT_RELA) {
+                int target = file.getInt(header + 44);
+                if (target < sectionCount && sections[target] != null) {
+                    sections[target].relocationOffset = file.getLong(header + 24);
+                    sections[target].relocationCount = (int) (file.getLong(header + 32) / 24);
+                }
+            }
+        }
+
+        InputSymbol[] symbols = new InputSymbol[0];
+        int firstGlobal = 0;
+        if (symtab >= 0) {
+            int header = (int) (headersOffset + (long) symtab * headerSize);
+            long offset = file.getLong(header + 24);
+            int count = (int) (file.getLong(header + 32) / 24);
+            firstGlobal = file.getInt(header + 44);
+            int link = file.getInt(header + 40);
+            long stringsOffset = file.getLong((int) (headersOffset + (long) link * headerSize + 24));
+            symbols = new InputSymbol[count];
+            for (int s = 1; s < count; ++s) {
+                int entry = (int) (offset + 24L * s);
+                int info = file.get(entry + 4);
+                symbols[s] = new InputSymbol(string(file, stringsOffset + file.getInt(entry)), (info >> 4) & 0xF, info & 0xF,
+                        Short.toUnsignedInt(file.getShort(entry + 6)), file.getLong(entry + 8), file.getLong(entry + 16));
+            }
+        }
+        return new LinkerInput(name, file, sections, symbols, firstGlobal);
+    }
+
+    static String string(ByteBuffer file, long offset) {
+        int start = (int) offset;
+        int end = start;
+        while (file.get(end) != 0) {
+            ++end;
+        }
+        byte[] bytes = new byte[end - start];
+        file.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String getName() {
+        return name;
+    }
+    public ByteBuffer getFile() {
+        return file;
+    }
+    public InputSection[] getSections() {
+        return sections;
+    }
+    public InputSymbol[] getSymbols() {
+        return symbols;
+    }
+    public int getFirstGlobal() {
+        return firstGlobal;
+    }
+
+    //the relocation's fields, read out of the mapping: where it applies, its symbol and type, and its addend
+    public long relocationOffset(InputSection section, int i) {
+        return file.getLong((int) (section.relocationOffset + 24L * i));
+    }
+    public int relocationSymbol(InputSection section, int i) {
+        return (int) (file.getLong((int) (section.relocationOffset + 24L * i + 8)) >>> 32);
+    }
+    public int relocationType(InputSection section, int i) {
+        return (int) file.getLong((int) (section.relocationOffset + 24L * i + 8));
+    }
+    public long relocationAddend(InputSection section, int i) {
+        return file.getLong((int) (section.relocationOffset + 24L * i + 16));
+    }
+
+
+    //a loaded section, and where the linker put it
+    public static final class InputSection {
+        private final String name;
+        private final int type;
+        private final long flags;
+        private final long offset;
+        private final long size;
+        private final long align;
+        private long relocationOffset;
+        private int relocationCount = 0;
+
+        private long address; //filled in by the linker's layout
+
+        private InputSection(String name, int type, long flags, long offset, long size, long align) {
+            this.name = name;
+            this.type = type;
+            this.flags = flags;
+            this.offset = offset;
+            this.size = size;
+            this.align = align;
+        }
+
+        public String getName() {
+            return name;
+        }
+        public int getType() {
+            return type;
+        }
+        public long getFlags() {
+            return flags;
+        }
+        public long getOffset() {
+            return offset;
+        }
+        public long getSize() {
+            return size;
+        }
+        public long getAlign() {
+            return align;
+        }
+        public int getRelocationCount() {
+            return relocationCount;
+        }
+        public long getAddress() {
+            return address;
+        }
+        public void setAddress(long address) {
+            this.address = address;
+        }
+    }
+
+    public record InputSymbol(String name, int binding, int type, int section, long value, long size) {
+        public boolean isDefined() {
+            return section != SHN_UNDEF;
+        }
+    }
+}
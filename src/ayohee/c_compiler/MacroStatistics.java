@@ -0,0 +1,74 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//per-macro totals across every unit in the build, for finding the few macros that dominate expansion time
+public class MacroStatistics {
+    public static final MacroStatistics DISABLED = new MacroStatistics(false);
+
+    private final boolean enabled;
+    private final Map<String, MacroEntry> entries = new ConcurrentHashMap<>();
+
+    public MacroStatistics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordExpansion(String macro, long nanos, int tokensProduced) {
+        if (enabled) {
+            entries.computeIfAbsent(macro, name -> new MacroEntry()).recordExpansion(nanos, tokensProduced);
+        }
+    }
+
+    //a replacement by this macro meant doReplacement had to scan the line again
+    public void recordRescan(String macro) {
+        if (enabled) {
+            entries.computeIfAbsent(macro, name -> new MacroEntry()).recordRescan();
+        }
+    }
+
+    public void printTop(int count) {
+        List<Map.Entry<String, MacroEntry>> sorted = new ArrayList<>(entries.entrySet());
+
+        sorted.sort(Comparator.comparingLong((Map.Entry<String, MacroEntry> e) -> e.getValue().nanos).reversed());
+        System.out.println("\nCostliest macros (by time spent expanding):");
+        printTable(sorted, count);
+
+        sorted.sort(Comparator.comparingLong((Map.Entry<String, MacroEntry> e) -> e.getValue().invocations).reversed());
+        System.out.println("\nHottest macros (by invocation count):");
+        printTable(sorted, count);
+    }
+
+    private static void printTable(List<Map.Entry<String, MacroEntry>> sorted, int count) {
+        System.out.println(String.format("%-32s %12s %14s %10s %12s", "macro", "invocations", "tokens out", "rescans", "time (ms)"));
+        for (int i = 0; i < Math.min(count, sorted.size()); ++i) {
+            String name = sorted.get(i).getKey();
+            MacroEntry entry = sorted.get(i).getValue();
+            System.out.println(String.format("%-32s %12d %14d %10d %12.3f", name, entry.invocations, entry.tokensProduced, entry.rescans, entry.nanos / 1e6));
+        }
+    }
+
+    private static class MacroEntry {
+        private long invocations;
+        private long tokensProduced;
+        private long rescans;
+        private long nanos;
+
+        private synchronized void recordExpansion(long nanos, int tokensProduced) {
+            ++invocations;
+            this.tokensProduced += tokensProduced;
+            this.nanos += nanos;
+        }
+
+        private synchronized void recordRescan() {
+            ++rescans;
+        }
+    }
+}
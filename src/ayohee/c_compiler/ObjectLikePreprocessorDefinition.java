@@ -11,7 +11,7 @@ public class ObjectLikePreprocessorDefinition extends PreprocessorDefinition{
     }
 
     @Override
-    public boolean replaceInstances(String label, List<PreprocessingToken> tokens, int i) throws CompilerException {
+    public boolean replaceInstances(String label, List<PreprocessingToken> tokens, int i, PreprocessingContext context) throws CompilerException {
         if (tokens.get(i).is(label)) {
             tokens.remove(i);
             tokens.addAll(i, replacementList);
@@ -0,0 +1,128 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+//.i outputs shared between builds, addressed by the hash of everything that went into them.
+//which headers a unit includes isn't known until it's been preprocessed, so each unit gets a manifest keyed by what is
+//known up front (source, context file, include paths), listing the headers the last run looked for and their contents.
+//the output itself is keyed by the manifest key plus those header hashes, so a hit needs every header to be unchanged.
+//the cache is only ever an optimisation: any failure to read or write it is reported and treated as a miss
+public class OutputCache {
+    public static final OutputCache DISABLED = new OutputCache(null, null);
+
+    private static final String FORMAT_VERSION = "1";
+
+    private final CacheBackend local;
+    private final CacheBackend remote;
+
+    //remote may be null, for a local-only cache
+    public OutputCache(CacheBackend local, CacheBackend remote) {
+        this.local = local;
+        this.remote = remote;
+    }
+
+    public boolean isEnabled() {
+        return local != null;
+    }
+
+    //identifies a unit by everything that's known before preprocessing it
+    public String unitKey(Path sf, Path ctxPath, List<Path> includePaths) throws IOException {
+        StringBuilder sb = new StringBuilder(FORMAT_VERSION).append('\n');
+        sb.append(sf.toAbsolutePath()).append('\n'); //__FILE__ and #line markers embed the path
+        sb.append(sha256(Files.readAllBytes(sf))).append('\n');
+        sb.append(ctxPath.toAbsolutePath()).append(' ');
+        sb.append(Files.exists(ctxPath) ? PreprocessingCache.getContentHash(ctxPath) : "-").append('\n');
+        for (Path includePath : includePaths) {
+            sb.append(includePath.toAbsolutePath()).append('\n');
+        }
+        return sha256(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    //the cached output, or null if there isn't one for the headers as they are now
+    public byte[] lookup(String unitKey) throws IOException {
+        byte[] manifest = get(unitKey + ".manifest");
+        if (manifest == null) {
+            return null;
+        }
+
+        String[] lines = new String(manifest, StandardCharsets.UTF_8).split("\n");
+        StringBuilder headerState = new StringBuilder();
+        for (String line : lines) {
+            if (line.isEmpty()) {
+                continue; //a unit without any #includes
+            }
+
+            //"+ <hash> <path>" for a header that was included, "- <path>" for one that was looked for but didn't exist
+            String[] parts = line.split(" ", line.startsWith("+") ? 3 : 2);
+            Path header = Path.of(parts[parts.length - 1]);
+            if (!describeHeader(header).equals(line)) {
+                return null;
+            }
+            headerState.append(line).append('\n');
+        }
+
+        return get(outputKey(unitKey, headerState.toString()) + ".i");
+    }
+
+    //headers maps every header path that was looked for to whether it existed
+    public void store(String unitKey, Map<Path, Boolean> headers, byte[] output) throws IOException {
+        StringBuilder headerState = new StringBuilder();
+        for (Map.Entry<Path, Boolean> header : headers.entrySet()) {
+            String line = describeHeader(header.getKey());
+            if (line.startsWith("+") != header.getValue()) {
+                return; //changed while we were preprocessing, so the output can't be trusted to match either state
+            }
+            headerState.append(line).append('\n');
+        }
+
+        //store the output first, so that a manifest never points at an output that isn't there
+        put(outputKey(unitKey, headerState.toString()) + ".i", output);
+        put(unitKey + ".manifest", headerState.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String describeHeader(Path header) throws IOException {
+        if (Files.exists(header)) {
+            return "+ " + PreprocessingCache.getContentHash(header) + " " + header.toAbsolutePath();
+        }
+        return "- " + header.toAbsolutePath();
+    }
+
+    private static String outputKey(String unitKey, String headerState) {
+        return sha256((unitKey + '\n' + headerState).getBytes(StandardCharsets.UTF_8));
+    }
+
+    //the local cache is always checked first. remote hits are copied locally for next time
+    private byte[] get(String name) throws IOException {
+        byte[] value = local.get(name);
+        if (value == null && remote != null) {
+            value = remote.get(name);
+            if (value != null) {
+                local.put(name, value);
+            }
+        }
+        return value;
+    }
+
+    private void put(String name, byte[] value) throws IOException {
+        local.put(name, value);
+        if (remote != null) {
+            remote.put(name, value);
+        }
+    }
+
+    public static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be available on every JVM", e);
+        }
+    }
+}
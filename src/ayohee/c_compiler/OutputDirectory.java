@@ -0,0 +1,79 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+//output directories given as symlinks are followed: the directory the link points to is what's emptied, and the link
+//itself is left alone. links inside them are removed without following them, so nothing outside is ever touched
+public class OutputDirectory {
+    //empties the directory without removing it, creating it (and any parents) if it doesn't exist yet
+    public static void refresh(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            clearContents(path);
+        } else {
+            Files.deleteIfExists(path); //a stale file where the directory should be
+            Files.createDirectories(path);
+        }
+    }
+
+    public static void delete(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (Files.isSymbolicLink(path)) { //removing the directory only removes the link to it
+            Files.delete(path);
+            return;
+        }
+
+        clearContents(path);
+        Files.delete(path);
+    }
+
+    private static void clearContents(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return;
+        }
+
+        List<Path> children;
+        try (Stream<Path> list = Files.list(path)) {
+            children = list.collect(Collectors.toList());
+        }
+
+        //each top level entry is independent, so they can be removed concurrently
+        try {
+            children.parallelStream().forEach(child -> {
+                try {
+                    deleteRecursively(child);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,57 @@
+package ayohee.c_compiler;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+//runs the optimisation pipeline over each unit's IR. one manager is shared by every unit being compiled at once, so the
+//time each pass takes is added up across all of them
+public class PassManager {
+    private final List<IrPass> pipeline;
+    private final Map<String, PassTotals> totals = new LinkedHashMap<>();
+
+    public PassManager(List<IrPass> pipeline) {
+        this.pipeline = pipeline;
+        for (IrPass pass : pipeline) {
+            totals.putIfAbsent(pass.getName(), new PassTotals()); //filled in here, so that it's only read while running
+        }
+    }
+
+    //a cleanup and first round of folding, then inlining, then the same again over the inlined code
+    public static PassManager standard() {
+        PhiSimplification phis = new PhiSimplification();
+        SparseConditionalConstantPropagation sccp = new SparseConditionalConstantPropagation();
+        ConstantFolding folding = new ConstantFolding();
+        CommonSubexpressionElimination cse = new CommonSubexpressionElimination();
+        DeadCodeElimination dce = new DeadCodeElimination();
+        return new PassManager(List.of(phis, sccp, folding, cse, dce, new Inliner(), phis, sccp, folding, cse, dce));
+    }
+
+    public void run(IrModule module) {
+        for (IrPass pass : pipeline) {
+            long start = System.nanoTime();
+            pass.run(module);
+            totals.get(pass.getName()).record(System.nanoTime() - start);
+        }
+    }
+
+    public void printTimings() {
+        System.out.println("\nOptimisation passes (totals over every unit):");
+        System.out.println(String.format("%-40s %10s %12s", "pass", "runs", "time (ms)"));
+        for (Map.Entry<String, PassTotals> entry : totals.entrySet()) {
+            PassTotals pass = entry.getValue();
+            System.out.println(String.format("%-40s %10d %12.3f", entry.getKey(), pass.runs.sum(), pass.nanos.sum() / 1e6));
+        }
+    }
+
+    private static class PassTotals {
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private void record(long elapsed) {
+            runs.increment();
+            nanos.add(elapsed);
+        }
+    }
+}
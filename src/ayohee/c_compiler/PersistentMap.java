@@ -0,0 +1,294 @@
+package ayohee.c_compiler;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+//an immutable hash map (a hash array mapped trie). updates return a new map that shares everything they didn't touch
+//with the old one, so keeping a snapshot is just keeping a reference, and many contexts can fork from the same macros.
+//each level of the trie indexes 5 bits of the hash into at most 32 slots, only allocating the slots in use
+public final class PersistentMap<K, V> {
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, 0);
+
+    private final BitmapNode root;
+    private final int size;
+
+    private PersistentMap(BitmapNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        int hash = hash(key);
+        Object node = root;
+        for (int shift = 0; ; shift += BITS_PER_LEVEL) {
+            if (node instanceof BitmapNode bitmapNode) {
+                int bit = bit(hash, shift);
+                if ((bitmapNode.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = bitmapNode.slots[bitmapNode.index(bit)];
+            } else if (node instanceof Leaf leaf) {
+                return leaf.key.equals(key) ? (V) leaf.value : null;
+            } else {
+                return (V) ((CollisionNode) node).get(key);
+            }
+        }
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    public PersistentMap<K, V> with(K key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("PersistentMap values can't be null");
+        }
+
+        boolean[] added = new boolean[1];
+        Object newRoot = insert(root, 0, hash(key), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>((BitmapNode) newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PersistentMap<K, V> without(K key) {
+        int hash = hash(key);
+        Object newRoot = remove(root, 0, hash, key);
+        if (newRoot == root) {
+            return this;
+        }
+
+        //the root always stays a bitmap node, even when what's left would otherwise be pulled up into its parent
+        if (newRoot == null) {
+            newRoot = BitmapNode.EMPTY;
+        } else if (newRoot instanceof Leaf leaf) {
+            newRoot = new BitmapNode(bit(leaf.hash, 0), new Object[] {leaf});
+        } else if (newRoot instanceof CollisionNode collisionNode) {
+            newRoot = new BitmapNode(bit(collisionNode.hash, 0), new Object[] {collisionNode});
+        }
+        return new PersistentMap<>((BitmapNode) newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, (BiConsumer<Object, Object>) action);
+    }
+
+    private static void forEach(Object node, BiConsumer<Object, Object> action) {
+        if (node instanceof BitmapNode bitmapNode) {
+            for (Object slot : bitmapNode.slots) {
+                forEach(slot, action);
+            }
+        } else if (node instanceof Leaf leaf) {
+            action.accept(leaf.key, leaf.value);
+        } else {
+            for (Leaf leaf : ((CollisionNode) node).leaves) {
+                action.accept(leaf.key, leaf.value);
+            }
+        }
+    }
+
+
+    private static Object insert(Object node, int shift, int hash, Object key, Object value, boolean[] added) {
+        if (node instanceof Leaf leaf) {
+            if (leaf.key.equals(key)) {
+                return leaf.value == value ? leaf : new Leaf(hash, key, value);
+            }
+            added[0] = true;
+            return merge(leaf, leaf.hash, new Leaf(hash, key, value), hash, shift);
+        }
+
+        if (node instanceof CollisionNode collisionNode) {
+            if (collisionNode.hash != hash) {
+                added[0] = true;
+                return merge(collisionNode, collisionNode.hash, new Leaf(hash, key, value), hash, shift);
+            }
+            return collisionNode.with(key, value, added);
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = bit(hash, shift);
+        int index = bitmapNode.index(bit);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] slots = new Object[bitmapNode.slots.length + 1];
+            System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+            slots[index] = new Leaf(hash, key, value);
+            System.arraycopy(bitmapNode.slots, index, slots, index + 1, bitmapNode.slots.length - index);
+            return new BitmapNode(bitmapNode.bitmap | bit, slots);
+        }
+
+        Object child = bitmapNode.slots[index];
+        Object newChild = insert(child, shift + BITS_PER_LEVEL, hash, key, value, added);
+        return newChild == child ? bitmapNode : bitmapNode.withSlot(index, newChild);
+    }
+
+    //null if nothing is left. a node with only one leaf left returns just the leaf, so that its parent can hold it directly
+    private static Object remove(Object node, int shift, int hash, Object key) {
+        if (node instanceof Leaf leaf) {
+            return leaf.key.equals(key) ? null : leaf;
+        }
+
+        if (node instanceof CollisionNode collisionNode) {
+            return collisionNode.hash == hash ? collisionNode.without(key) : collisionNode;
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = bit(hash, shift);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            return bitmapNode;
+        }
+
+        int index = bitmapNode.index(bit);
+        Object child = bitmapNode.slots[index];
+        Object newChild = remove(child, shift + BITS_PER_LEVEL, hash, key);
+        if (newChild == child) {
+            return bitmapNode;
+        }
+
+        if (newChild != null) {
+            if (bitmapNode.slots.length == 1 && !(newChild instanceof BitmapNode)) {
+                return newChild;
+            }
+            return bitmapNode.withSlot(index, newChild);
+        }
+
+        if (bitmapNode.slots.length == 1) {
+            return null;
+        }
+        if (bitmapNode.slots.length == 2 && !(bitmapNode.slots[1 - index] instanceof BitmapNode)) {
+            return bitmapNode.slots[1 - index];
+        }
+
+        Object[] slots = new Object[bitmapNode.slots.length - 1];
+        System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+        System.arraycopy(bitmapNode.slots, index + 1, slots, index, slots.length - index);
+        return new BitmapNode(bitmapNode.bitmap & ~bit, slots);
+    }
+
+    //a (sub)trie holding two entries with different keys, starting from the level at which their slots collided
+    private static Object merge(Object a, int hashA, Object b, int hashB, int shift) {
+        if (hashA == hashB) {
+            return new CollisionNode(hashA, new Leaf[] {(Leaf) a, (Leaf) b});
+        }
+
+        int bitA = bit(hashA, shift);
+        int bitB = bit(hashB, shift);
+        if (bitA == bitB) {
+            return new BitmapNode(bitA, new Object[] {merge(a, hashA, b, hashB, shift + BITS_PER_LEVEL)});
+        }
+        return new BitmapNode(bitA | bitB, Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[] {a, b} : new Object[] {b, a});
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16); //String hashes vary most in their low bits, spread them over every level
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & LEVEL_MASK);
+    }
+
+
+    private static final class Leaf {
+        private final int hash;
+        private final Object key;
+        private final Object value;
+
+        private Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    //slots hold leaves or child nodes, in the order of their bits in the bitmap
+    private static final class BitmapNode {
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        private BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private BitmapNode withSlot(int index, Object slot) {
+            Object[] newSlots = slots.clone();
+            newSlots[index] = slot;
+            return new BitmapNode(bitmap, newSlots);
+        }
+    }
+
+    //keys whose whole hashes are equal, which no number of levels could tell apart
+    private static final class CollisionNode {
+        private final int hash;
+        private final Leaf[] leaves;
+
+        private CollisionNode(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        private Object get(Object key) {
+            for (Leaf leaf : leaves) {
+                if (leaf.key.equals(key)) {
+                    return leaf.value;
+                }
+            }
+            return null;
+        }
+
+        private CollisionNode with(Object key, Object value, boolean[] added) {
+            for (int i = 0; i < leaves.length; ++i) {
+                if (leaves[i].key.equals(key)) {
+                    if (leaves[i].value == value) {
+                        return this;
+                    }
+                    Leaf[] newLeaves = leaves.clone();
+                    newLeaves[i] = new Leaf(hash, key, value);
+                    return new CollisionNode(hash, newLeaves);
+                }
+            }
+
+            added[0] = true;
+            Leaf[] newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+            newLeaves[leaves.length] = new Leaf(hash, key, value);
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        private Object without(Object key) {
+            for (int i = 0; i < leaves.length; ++i) {
+                if (leaves[i].key.equals(key)) {
+                    if (leaves.length == 2) {
+                        return leaves[1 - i];
+                    }
+                    Leaf[] newLeaves = new Leaf[leaves.length - 1];
+                    System.arraycopy(leaves, 0, newLeaves, 0, i);
+                    System.arraycopy(leaves, i + 1, newLeaves, i, newLeaves.length - i);
+                    return new CollisionNode(hash, newLeaves);
+                }
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ayohee.c_compiler;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+//removes phis that can only ever have one value: all of their operands are the same, or the phi itself around a loop.
+//replacing one can make others trivial in turn, so it repeats until nothing changes
+public class PhiSimplification implements IrPass {
+    @Override
+    public String getName() {
+        return "phi simplification";
+    }
+
+    @Override
+    public void run(IrFunction function, IrModule module) {
+        Map<IrValue, IrValue> replacements = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IrBlock block : function.getBlocks()) {
+                for (IrInstruction phi : block.getPhis()) {
+                    if (replacements.containsKey(phi)) {
+                        continue;
+                    }
+                    IrValue same = trivialValue(phi, replacements);
+                    if (same != null) {
+                        replacements.put(phi, same);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        if (replacements.isEmpty()) {
+            return;
+        }
+
+        for (IrBlock block : function.getBlocks()) {
+            Iterator<IrInstruction> it = block.getInstructions().iterator();
+            while (it.hasNext()) {
+                if (replacements.containsKey(it.next())) {
+                    it.remove();
+                }
+            }
+        }
+        function.replaceUses(replacements);
+    }
+
+    //the one value the phi can have, or null if it can have more
+    static IrValue trivialValue(IrInstruction phi, Map<? extends IrValue, ? extends IrValue> replacements) {
+        IrValue same = null;
+        for (IrValue operand : phi.getOperands()) {
+            IrValue value = IrFunction.resolve(replacements, operand);
+            if (value == phi || value.equals(same)) {
+                continue;
+            }
+            if (same != null) {
+                return null;
+            }
+            same = value;
+        }
+        return same == null ? IrValue.Constant.of(phi.getType(), 0) : same; //only ever itself, so never assigned
+    }
+}
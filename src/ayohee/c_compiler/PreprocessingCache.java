@@ -0,0 +1,98 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+//results that only depend on a file's contents, shared between translation units and (in server mode) between builds.
+//entries are keyed by path and thrown away as soon as the file's size or modification time changes
+public class PreprocessingCache {
+    private static final int MAX_HEADERS = 4096;
+
+    private static final Map<Path, Entry<List<PreprocessingToken>>> headerTokens = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Entry<List<PreprocessingToken>>> eldest) {
+            return size() > MAX_HEADERS;
+        }
+    };
+    private static final Map<Path, Entry<PersistentMap<String, PreprocessorDefinition>>> contextMacros = new HashMap<>();
+    private static final Map<Path, Entry<String>> contentHashes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Entry<String>> eldest) {
+            return size() > MAX_HEADERS;
+        }
+    };
+
+    //tokens are never modified once created, so cached lists can be shared as long as callers copy before editing them
+    public static synchronized List<PreprocessingToken> getHeaderTokens(Path path) {
+        return getIfFresh(headerTokens, path);
+    }
+    public static synchronized void putHeaderTokens(Path path, List<PreprocessingToken> tokens) {
+        putStamped(headerTokens, path, List.copyOf(tokens));
+    }
+
+    //persistent, so every unit can start from the same macros without copying them
+    public static synchronized PersistentMap<String, PreprocessorDefinition> getContextMacros(Path path) {
+        return getIfFresh(contextMacros, path);
+    }
+    public static synchronized void putContextMacros(Path path, PersistentMap<String, PreprocessorDefinition> macros) {
+        putStamped(contextMacros, path, macros);
+    }
+
+    //hashed outside the lock, as it means reading the whole file
+    public static String getContentHash(Path path) throws IOException {
+        synchronized (PreprocessingCache.class) {
+            String hash = getIfFresh(contentHashes, path);
+            if (hash != null) {
+                return hash;
+            }
+        }
+
+        String hash = OutputCache.sha256(Files.readAllBytes(path));
+        synchronized (PreprocessingCache.class) {
+            putStamped(contentHashes, path, hash);
+        }
+        return hash;
+    }
+
+    public static synchronized void clear() {
+        headerTokens.clear();
+        contextMacros.clear();
+        contentHashes.clear();
+    }
+
+    private static <T> T getIfFresh(Map<Path, Entry<T>> cache, Path path) {
+        Entry<T> entry = cache.get(path);
+        if (entry == null) {
+            return null;
+        }
+
+        if (!entry.stamp.equals(FileStamp.of(path))) {
+            cache.remove(path);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private static <T> void putStamped(Map<Path, Entry<T>> cache, Path path, T value) {
+        FileStamp stamp = FileStamp.of(path);
+        if (stamp != null) {
+            cache.put(path, new Entry<>(stamp, value));
+        }
+    }
+
+    private record Entry<T>(FileStamp stamp, T value) {}
+
+    private record FileStamp(long size, long lastModified) {
+        private static FileStamp of(Path path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -9,14 +9,26 @@ import java.util.*;
 public class PreprocessingContext {
     private final int MAX_FILE_DEPTH = 32;
     private final int REPLACEMENT_LIMIT = 16;
+    private static final String[] PREDEFINED_MACROS = {"__LINE__", "__FILE__", "__DATE__", "__TIME__", "__STDC__"};
 
 
-    private HashMap<String, PreprocessorDefinition> macros = new HashMap<>();
+    //persistent, so that contexts can share their macros and snapshots cost nothing
+    private PersistentMap<String, PreprocessorDefinition> macros = PersistentMap.empty();
     private Stack<Path> fileStack;
     private String currentFileName;
     private Path originalSourcePath;
     private boolean yesMode;
     private boolean verbose;
+    private UnitMetrics metrics = UnitMetrics.DISABLED;
+    private TraceRecorder trace = TraceRecorder.DISABLED;
+    private MacroStatistics macroStatistics = MacroStatistics.DISABLED;
+    private IncludeStatistics includeStatistics = IncludeStatistics.DISABLED;
+    private final Map<Path, Boolean> includeCandidates = new LinkedHashMap<>(); //every header path looked for, and whether it existed
+    private boolean usedBuildTime = false;
+
+    //the open #if groups of a file being streamed, innermost first, as its windows are preprocessed one at a time
+    private enum Conditional { TAKING, WAITING, DONE, SKIPPED }
+    private final Deque<Conditional> conditionals = new ArrayDeque<>();
 
     private int lineNumber;
 
@@ -60,7 +72,7 @@ public class PreprocessingContext {
     }
 
     private void updateLineMacro() throws CompilerException {
-        macros.remove("__LINE__");
+        macros = macros.without("__LINE__");
 
         List<PreprocessingToken> tokens = new ArrayList<>();
         tokens.add(new PreprocessingToken(PreprocessingToken.TokenType.IDENTIFIER, "__LINE__"));
@@ -95,10 +107,12 @@ public class PreprocessingContext {
     }
 
     public int doReplacement(List<PreprocessingToken> tokens, int i, boolean singleToken) throws CompilerException {
+        metrics.enter(UnitMetrics.Phase.MACRO_EXPANSION);
         int lengthBefore = tokens.size();
 
         boolean wasUpdated = true;
         int depth = 0;
+        List<String> replacedThisPass = macroStatistics.isEnabled() ? new ArrayList<>() : null;
         while (wasUpdated) {
             depth++;
             if (depth > REPLACEMENT_LIMIT) {
@@ -110,20 +124,99 @@ public class PreprocessingContext {
             for (int j = i; (j < tokens.size()) && (!tokens.get(j).is(PreprocessingToken.TokenType.NEWLINE)) && !(singleToken && j > i); ++j) {
                 wasUpdated |= replaceDefinitionCheck(tokens, j);
 
-                for(Map.Entry<String, PreprocessorDefinition> entry : macros.entrySet()) {
-                    boolean didReplacement = entry.getValue().replaceInstances(entry.getKey(), tokens, j);
-                    wasUpdated |= didReplacement;
+                //look up the macro by name rather than trying every macro against every token. a replacement can leave
+                //another macro name at j, so keep going until it's settled (or is clearly never going to)
+                for (int replacements = 0; j < tokens.size(); ++replacements) {
+                    //only identifiers name macros. the tokenizer marks one followed straight away by ( as a function-like definition
+                    PreprocessingToken token = tokens.get(j);
+                    if (!token.is(PreprocessingToken.TokenType.IDENTIFIER) && !token.is(PreprocessingToken.TokenType.FUNCTIONLIKE_MACRO_DEFINITION)) {
+                        break;
+                    }
+                    String label = token.toString();
+                    PreprocessorDefinition definition = macros.get(label);
+                    if (definition == null) {
+                        break;
+                    }
+                    if (replacements == REPLACEMENT_LIMIT) {
+                        throw new CompilerException(this, "Maximum replacement depth reached");
+                    }
+
+                    boolean didReplacement;
+                    if (trace.isEnabled() || macroStatistics.isEnabled()) {
+                        didReplacement = instrumentedReplacement(label, definition, tokens, j);
+                        if (didReplacement && replacedThisPass != null && !replacedThisPass.contains(label)) {
+                            replacedThisPass.add(label);
+                        }
+                    } else {
+                        didReplacement = definition.replaceInstances(label, tokens, j, this);
+                    }
+                    if (!didReplacement) {
+                        break;
+                    }
+
+                    metrics.increment(UnitMetrics.Counter.MACROS_EXPANDED);
+                    if (label.equals("__DATE__") || label.equals("__TIME__")) {
+                        usedBuildTime = true;
+                    }
+                    wasUpdated = true;
                 }
             }
 
+            if (wasUpdated && replacedThisPass != null) {
+                for (String macro : replacedThisPass) {
+                    macroStatistics.recordRescan(macro);
+                }
+                replacedThisPass.clear();
+            }
         }
 
+        metrics.exit();
         return tokens.size() - lengthBefore;
     }
 
+    //expands every macro in a function-like macro's argument, as the standard requires before it's substituted in.
+    //arguments can span several lines, while doReplacement stops at the end of one
+    public void expandArgument(List<PreprocessingToken> argument) throws CompilerException {
+        for (int i = 0; i < argument.size(); ++i) {
+            if (i == 0 || argument.get(i - 1).is(PreprocessingToken.TokenType.NEWLINE)) {
+                doReplacement(argument, i, false);
+            }
+        }
+    }
+
+    private boolean instrumentedReplacement(String label, PreprocessorDefinition definition, List<PreprocessingToken> tokens, int i) throws CompilerException {
+        long start = System.nanoTime();
+        int sizeBefore = tokens.size() - invocationLength(tokens, i);
+        if (!definition.replaceInstances(label, tokens, i, this)) {
+            return false;
+        }
+
+        int tokensProduced = tokens.size() - sizeBefore;
+        macroStatistics.recordExpansion(label, System.nanoTime() - start, tokensProduced);
+        trace.macroExpansion(label, start, tokensProduced);
+        return true;
+    }
+
+    //how many tokens a macro invocation starting at i takes up: just the name, or the name and its parenthesised arguments
+    private static int invocationLength(List<PreprocessingToken> tokens, int i) {
+        if (i + 1 >= tokens.size() || !tokens.get(i + 1).is(PreprocessingToken.Kind.LEFT_PAREN)) {
+            return 1;
+        }
+
+        int parenDepth = 0;
+        for (int j = i + 1; j < tokens.size(); ++j) {
+            if (tokens.get(j).is(PreprocessingToken.Kind.LEFT_PAREN)) {
+                ++parenDepth;
+            } else if (tokens.get(j).is(PreprocessingToken.Kind.RIGHT_PAREN) && --parenDepth == 0) {
+                return j - i + 1;
+            }
+        }
+        return 1;
+    }
+
     private boolean replaceDefinitionCheck(List<PreprocessingToken> tokens, int i) {
-        if (!tokens.get(i).is("defined") || !tokens.get(i + 1).is("(")
-            || !tokens.get(i + 2).is(PreprocessingToken.TokenType.IDENTIFIER) || !tokens.get(i + 3).is(")")) {
+        if (!tokens.get(i).is(PreprocessingToken.Kind.DEFINED) || !tokens.get(i + 1).is(PreprocessingToken.Kind.LEFT_PAREN)
+            || !tokens.get(i + 2).is(PreprocessingToken.TokenType.IDENTIFIER) || !tokens.get(i + 3).is(PreprocessingToken.Kind.RIGHT_PAREN)) {
             return false;
         }
 
@@ -142,6 +235,7 @@ public class PreprocessingContext {
     }
 
     public void fileDeeper(Path nextFile) throws CompilerException {
+        trace.begin(String.valueOf(nextFile.getFileName()), "file", nextFile.toString());
         fileStack.push(nextFile);
         currentFileName = fileStack.peek().toString();
 
@@ -158,6 +252,7 @@ public class PreprocessingContext {
         }
     }
     public void fileOut() throws CompilerException {
+        trace.end();
         fileStack.pop();
         currentFileName = fileStack.empty() ? "\"UNKNOWN\"" : fileStack.peek().toString();
 
@@ -184,6 +279,43 @@ public class PreprocessingContext {
         return currentFileName;
     }
 
+    public UnitMetrics getMetrics() {
+        return metrics;
+    }
+    public void setMetrics(UnitMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public TraceRecorder getTrace() {
+        return trace;
+    }
+    public void setTrace(TraceRecorder trace) {
+        this.trace = trace;
+    }
+
+    public void setMacroStatistics(MacroStatistics macroStatistics) {
+        this.macroStatistics = macroStatistics;
+    }
+
+    public void recordIncludeCandidate(Path path, boolean exists) {
+        includeCandidates.put(path, exists);
+    }
+    public Map<Path, Boolean> getIncludeCandidates() {
+        return includeCandidates;
+    }
+
+    //output that depends on when it was built can't be reused by later builds
+    public boolean usedBuildTime() {
+        return usedBuildTime;
+    }
+
+    public IncludeStatistics getIncludeStatistics() {
+        return includeStatistics;
+    }
+    public void setIncludeStatistics(IncludeStatistics includeStatistics) {
+        this.includeStatistics = includeStatistics;
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
@@ -203,7 +335,7 @@ public class PreprocessingContext {
         }
 
         if (label.is(PreprocessingToken.TokenType.IDENTIFIER) && (force || Preprocessor.isValidIdentifier(label.toString(), context))) {
-            macros.put(label.toString(), new ObjectLikePreprocessorDefinition(replacementList));
+            macros = macros.with(label.toString(), new ObjectLikePreprocessorDefinition(replacementList));
             return i;
         } else {
             throw new CompilerException(this, "Tried to define macro with invalid name: \"" + label.toString());
@@ -219,22 +351,89 @@ public class PreprocessingContext {
         String label = statement.getFirst().toString();
 
         if (statement.getFirst().is(PreprocessingToken.TokenType.FUNCTIONLIKE_MACRO_DEFINITION) && Preprocessor.isValidIdentifier(label, this)) {
-            macros.put(label, new FunctionLikePreprocessorDefinition(statement, context));
+            macros = macros.with(label, new FunctionLikePreprocessorDefinition(statement, context));
             return i;
         } else {
             throw new CompilerException(this, "Tried to define macro with invalid name \"" + label + "\"");
         }
     }
 
+    //every macro except the predefined ones, which depend on the unit being compiled and when.
+    //a snapshot, unaffected by anything defined or undefined afterwards
+    public PersistentMap<String, PreprocessorDefinition> getUserMacros() {
+        PersistentMap<String, PreprocessorDefinition> userMacros = macros;
+        for (String predefined : PREDEFINED_MACROS) {
+            userMacros = userMacros.without(predefined);
+        }
+        return userMacros;
+    }
+
+    //replaces every user macro with the given ones, sharing them rather than copying them in.
+    //the predefined macros are kept, as they belong to this context
+    public void inheritMacros(PersistentMap<String, PreprocessorDefinition> userMacros) {
+        PersistentMap<String, PreprocessorDefinition> inherited = userMacros;
+        for (String predefined : PREDEFINED_MACROS) {
+            PreprocessorDefinition definition = macros.get(predefined);
+            if (definition != null) {
+                inherited = inherited.with(predefined, definition);
+            }
+        }
+        macros = inherited;
+    }
+
     public void undefine(String name) throws CompilerException {
         if (Preprocessor.isValidIdentifier(name, this)) {
-            macros.remove(name);
+            macros = macros.without(name);
         } else {
             throw new CompilerException(this, "Tried to undefine macro with invalid name \"" + name + "\"");
         }
     }
 
 
+    //true while inside a branch that isn't being taken, whose text and directives are skipped over
+    public boolean isSkippingConditional() {
+        return !conditionals.isEmpty() && conditionals.peek() != Conditional.TAKING;
+    }
+
+    //true while no branch of the innermost group has been taken yet, so an #elif's condition decides whether to take it
+    public boolean isWaitingConditional() {
+        return conditionals.peek() == Conditional.WAITING;
+    }
+
+    public boolean hasOpenConditionals() {
+        return !conditionals.isEmpty();
+    }
+
+    //a group opened while skipping is skipped whole, so its condition is never evaluated
+    public void openConditional(boolean condition) {
+        if (isSkippingConditional()) {
+            conditionals.push(Conditional.SKIPPED);
+        } else {
+            conditionals.push(condition ? Conditional.TAKING : Conditional.WAITING);
+        }
+    }
+
+    //#elif and #else. condition is only looked at while waiting
+    public void nextConditionalBranch(boolean condition, String directive) throws CompilerException {
+        if (conditionals.isEmpty()) {
+            throw new CompilerException(this, "Unmatched #" + directive + " directive");
+        }
+        Conditional state = conditionals.pop();
+        conditionals.push(switch (state) {
+            case TAKING, DONE -> Conditional.DONE;
+            case WAITING -> condition ? Conditional.TAKING : Conditional.WAITING;
+            case SKIPPED -> Conditional.SKIPPED;
+        });
+    }
+
+    public void closeConditional() throws CompilerException {
+        if (conditionals.isEmpty()) {
+            throw new CompilerException(this, "Unmatched #endif directive");
+        }
+        conditionals.pop();
+    }
+
+
     public void setLineNumber(int line) throws CompilerException {
         lineNumber = line;
         updateLineMacro();
@@ -1,5 +1,9 @@
 package ayohee.c_compiler;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
 public class PreprocessingToken {
     public enum TokenType {
         HEADER_NAME,
@@ -13,36 +17,120 @@ public class PreprocessingToken {
         OTHER
     }
 
+    //which punctuator or directive keyword a token is, worked out once when it's created so that the preprocessor's
+    //checks on nearly every token compare enums rather than strings. anything else, literals included, is NONE
+    public enum Kind {
+        NONE(null),
+
+        DEFINED("defined"), SIZEOF("sizeof"),
+        LEFT_SHIFT_ASSIGN("<<="), RIGHT_SHIFT_ASSIGN(">>="), ELLIPSIS("..."),
+        INCREMENT("++"), DECREMENT("--"), LEFT_SHIFT("<<"), RIGHT_SHIFT(">>"),
+        LESS_EQUAL("<="), GREATER_EQUAL(">="), EQUAL("=="), NOT_EQUAL("!="),
+        LOGICAL_AND("&&"), LOGICAL_OR("||"),
+        MULTIPLY_ASSIGN("*="), DIVIDE_ASSIGN("/="), MODULO_ASSIGN("%="), ADD_ASSIGN("+="), SUBTRACT_ASSIGN("-="),
+        AND_ASSIGN("&="), XOR_ASSIGN("^="), OR_ASSIGN("|="),
+        ARROW("->"), HASH_HASH("##"),
+        LEFT_BRACKET("["), RIGHT_BRACKET("]"), LEFT_PAREN("("), RIGHT_PAREN(")"), LEFT_BRACE("{"), RIGHT_BRACE("}"), DOT("."),
+        AMPERSAND("&"), STAR("*"), PLUS("+"), MINUS("-"), TILDE("~"), EXCLAMATION("!"), SLASH("/"), PERCENT("%"),
+        LESS("<"), GREATER(">"), CARET("^"), PIPE("|"),
+        QUESTION("?"), COLON(":"), ASSIGN("="), COMMA(","), HASH("#"), SEMICOLON(";"),
+
+        //directive names. these are also ordinary identifiers outside of directives, which doesn't matter to anything checking for them
+        IF("if"), IFDEF("ifdef"), IFNDEF("ifndef"), ELIF("elif"), ELSE("else"), ENDIF("endif"),
+        INCLUDE("include"), DEFINE("define"), UNDEF("undef"), LINE("line"), ERROR("error"), PRAGMA("pragma");
+
+        private static final Map<String, Kind> BY_SPELLING = new HashMap<>();
+        static {
+            for (Kind kind : values()) {
+                if (kind.spelling != null) {
+                    BY_SPELLING.put(kind.spelling, kind);
+                }
+            }
+        }
+
+        private final String spelling;
+
+        Kind(String spelling) {
+            this.spelling = spelling;
+        }
+
+        public String getSpelling() {
+            return spelling;
+        }
+
+        private static Kind of(TokenType type, String contents) {
+            if (type != TokenType.OPERATOR_PUNCTUATOR && type != TokenType.IDENTIFIER) {
+                return NONE;
+            }
+            return BY_SPELLING.getOrDefault(contents, NONE);
+        }
+    }
+
     private TokenType type;
-    private String asString;
+    private String asString; //for literals read from source, only decoded once something asks for it
+    private final Kind kind;
+
+    //literals read from source keep their spelling, so that most of them never need decoding or re-escaping at all
+    private String spelling;
+    private String printed;
 
     public PreprocessingToken(TokenType type, String contents) {
         this.type = type;
         this.asString = contents;
+        this.kind = Kind.of(type, contents);
+    }
+
+    //a string literal or char constant as written between its quotes
+    public static PreprocessingToken fromSpelling(TokenType type, String spelling) {
+        PreprocessingToken token = new PreprocessingToken(type, null);
+        token.spelling = spelling;
+        return token;
     }
 
 
     public TokenType getType() {
         return type;
     }
+    public Kind getKind() {
+        return kind;
+    }
 
     @Override
     public String toString() {
-        return switch (type) {
-            case STRING_LIT -> '"' + Tokenizer.inverseEscapeStringLiteral(asString) + '"';
-            case CHAR_CONST -> '\'' + Tokenizer.inverseEscapeStringLiteral(asString) + '\'';
-            default -> asString;
-        };
+        if (type != TokenType.STRING_LIT && type != TokenType.CHAR_CONST) {
+            return asString;
+        }
+
+        if (printed == null) {
+            //a literal read from source prints exactly as it was written. decoding and re-escaping it could change its
+            //value, as an escaped byte over 0x7F would come back out as a character of the source's encoding
+            String contents = spelling != null ? spelling : Tokenizer.inverseEscapeStringLiteral(unescapedString());
+            char quote = type == TokenType.STRING_LIT ? '"' : '\'';
+            printed = quote + contents + quote;
+        }
+        return printed;
     }
 
     public String unescapedString() {
+        if (asString == null) {
+            asString = spelling.indexOf('\\') == -1 ? spelling : Tokenizer.escapeStringLiteral(spelling);
+        }
         return asString;
     }
 
+    //the bytes of a string literal or char constant. literals made by the preprocessor, like __FILE__ or the result of
+    //#, are characters with no escapes in them, so are just their UTF-8
+    public byte[] literalBytes() {
+        return spelling != null ? Tokenizer.literalBytes(spelling) : unescapedString().getBytes(StandardCharsets.UTF_8);
+    }
+
     public boolean is(String match) {
-        return match.contentEquals(asString);
+        return match.contentEquals(unescapedString());
     }
     public boolean is(TokenType match) {
         return match == type;
     }
+    public boolean is(Kind match) {
+        return match == kind;
+    }
 }
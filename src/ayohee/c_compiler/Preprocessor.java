@@ -2,6 +2,7 @@ package ayohee.c_compiler;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -12,27 +13,108 @@ import java.util.List;
 
 
 public class Preprocessor {
-    public static List<Path> preprocess(List<Path> sourceFiles, List<Path> includePaths, Path ctxPath, Path ppOutputPath, boolean yesMode, boolean verbose) throws CompilerException {
+    //how much source text streaming mode tries to preprocess at once. windows can run longer, see SourceWindowReader
+    public static final int STREAMING_WINDOW_CHARS = 1 << 16;
+
+    //consumes source files as they're discovered, rather than waiting for every source directory to be searched
+    public static List<Path> preprocess(SourceDiscovery sources, List<Path> includePaths, Path ctxPath, Path ppOutputPath, boolean yesMode, boolean verbose, boolean streaming, OutputCache cache, Instrumentation instrumentation) throws CompilerException {
         ArrayList<Path> compilationUnits = new ArrayList<>();
         LocalDateTime compilationTime = LocalDateTime.now();
-        for (Path sf : sourceFiles) {
-            System.out.println("\nPreprocessing " + sf.toString());
-            PreprocessingContext context = findPPCtx(ctxPath, sf, compilationTime, yesMode, verbose); //refresh context between translation units
-
-            Path result = preprocessFile(sf, includePaths, context, ppOutputPath);
-            compilationUnits.add(result);
+        for (Path sf = sources.next(); sf != null; sf = sources.next()) {
+            compilationUnits.add(preprocessUnit(sf, includePaths, ctxPath, ppOutputPath, compilationTime, yesMode, verbose, streaming, cache, instrumentation));
         }
 
         return compilationUnits;
     }
 
-    private static PreprocessingContext findPPCtx(Path ctxPath, Path sf, LocalDateTime compilationTime, boolean yesMode, boolean verbose) throws CompilerException {
+    private static Path preprocessUnit(Path sf, List<Path> includePaths, Path ctxPath, Path ppOutputPath, LocalDateTime compilationTime, boolean yesMode, boolean verbose, boolean streaming, OutputCache cache, Instrumentation instrumentation) throws CompilerException {
+        System.out.println("\nPreprocessing " + sf.toString());
+        UnitMetrics metrics = instrumentation.startUnit(sf);
+        metrics.start();
+        instrumentation.getTrace().begin(String.valueOf(sf.getFileName()), "unit", sf.toString());
+
+        String unitKey = cacheKey(cache, sf, ctxPath, includePaths);
+        Path result = unitKey == null ? null : reuseCachedOutput(cache, unitKey, sf, ppOutputPath, verbose, metrics);
+        if (result == null) {
+            PreprocessingContext context = findPPCtx(ctxPath, sf, compilationTime, yesMode, verbose, instrumentation, metrics); //refresh context between translation units
+            result = streaming
+                    ? preprocessFileStreaming(sf, includePaths, context, ppOutputPath)
+                    : preprocessFile(sf, includePaths, context, ppOutputPath);
+
+            if (unitKey != null && !context.usedBuildTime()) {
+                storeCachedOutput(cache, unitKey, context, result);
+            }
+        }
+
+        instrumentation.getTrace().end();
+        metrics.finish();
+        return result;
+    }
+
+    //failing to use the cache never fails the build, it just means doing the work
+    private static String cacheKey(OutputCache cache, Path sf, Path ctxPath, List<Path> includePaths) {
+        if (!cache.isEnabled()) {
+            return null;
+        }
+
+        try {
+            return cache.unitKey(sf, ctxPath, includePaths);
+        } catch (IOException e) {
+            System.out.println("Unable to read preprocessor output cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Path reuseCachedOutput(OutputCache cache, String unitKey, Path sf, Path ppOutputPath, boolean verbose, UnitMetrics metrics) {
+        try {
+            byte[] output = cache.lookup(unitKey);
+            if (output == null) {
+                metrics.increment(UnitMetrics.Counter.OUTPUT_CACHE_MISSES);
+                return null;
+            }
+
+            Path compilationUnitPath = Paths.get(ppOutputPath.toAbsolutePath().toString(), getUnitFilename(sf));
+            Files.write(compilationUnitPath, output);
+            metrics.increment(UnitMetrics.Counter.OUTPUT_CACHE_HITS);
+            if (verbose) {
+                System.out.println("Reused cached output");
+            }
+            return compilationUnitPath;
+        } catch (IOException e) {
+            System.out.println("Unable to read preprocessor output cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void storeCachedOutput(OutputCache cache, String unitKey, PreprocessingContext context, Path result) {
+        try {
+            //blank units don't produce a file, which is cheap enough to redo
+            if (Files.exists(result)) {
+                cache.store(unitKey, context.getIncludeCandidates(), Files.readAllBytes(result));
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to write preprocessor output cache: " + e.getMessage());
+        }
+    }
+
+    private static PreprocessingContext findPPCtx(Path ctxPath, Path sf, LocalDateTime compilationTime, boolean yesMode, boolean verbose, Instrumentation instrumentation, UnitMetrics metrics) throws CompilerException {
         PreprocessingContext ctx = new PreprocessingContext(sf, compilationTime, yesMode, verbose);
+        instrumentation.attach(ctx, metrics);
         if (Files.exists(ctxPath)) {
-            if (verbose) {
-                System.out.println("Context file found. Loading constants via preprocessor...");
+            PersistentMap<String, PreprocessorDefinition> cachedMacros = PreprocessingCache.getContextMacros(ctxPath);
+            if (cachedMacros != null) {
+                if (verbose) {
+                    System.out.println("Context file found. Reusing previously loaded constants...");
+                }
+                metrics.increment(UnitMetrics.Counter.CONTEXT_CACHE_HITS);
+                ctx.inheritMacros(cachedMacros);
+            } else {
+                if (verbose) {
+                    System.out.println("Context file found. Loading constants via preprocessor...");
+                }
+                loadContext(ctxPath, ctx);
+                PreprocessingCache.putContextMacros(ctxPath, ctx.getUserMacros());
             }
-            loadContext(ctxPath, ctx);
         } else if (verbose) {
             System.out.println("Context file not found or not supplied. Using blank context.");
         }
@@ -40,13 +122,13 @@ public class Preprocessor {
     }
 
     private static void loadContext(Path sf, PreprocessingContext context) throws CompilerException {
-        String fileContents = readFileToString(sf);
+        String fileContents = readFileToString(sf, context);
         preprocessString(sf, fileContents, new ArrayList<>(), context);
     }
 
 
     private static Path preprocessFile(Path sf, List<Path> includePaths, PreprocessingContext context, Path ppOutputPath) throws CompilerException {
-        String fileContents = readFileToString(sf);
+        String fileContents = readFileToString(sf, context);
         List<PreprocessingToken> tokens = preprocessString(sf, fileContents, includePaths, context);
 
         Path compilationUnitPath = Paths.get(ppOutputPath.toAbsolutePath().toString(), getUnitFilename(context.getOriginalSourcePath()));
@@ -55,30 +137,159 @@ public class Preprocessor {
         }
 
         try (FileWriter writer = new FileWriter(compilationUnitPath.toFile())) {
-            for (PreprocessingToken token : tokens) {
-                writer.write(token.toString());
-                if (token.getType() != PreprocessingToken.TokenType.NEWLINE) {
-                    writer.write(" ");
+            writeTokens(writer, tokens, context);
+        } catch (IOException e) {
+            throw new CompilerException(context, "Failed to write " + compilationUnitPath, e);
+        }
+
+        return compilationUnitPath;
+    }
+
+    //same output as preprocessFile, but only one window of the source is ever tokenized at a time,
+    //so memory use doesn't grow with the size of the file. headers are still included whole. the file's own #if
+    //groups may span windows, so their directives are followed here rather than by executeDirectives
+    private static Path preprocessFileStreaming(Path sf, List<Path> includePaths, PreprocessingContext context, Path ppOutputPath) throws CompilerException {
+        Path compilationUnitPath = Paths.get(ppOutputPath.toAbsolutePath().toString(), getUnitFilename(context.getOriginalSourcePath()));
+        FileWriter writer = null;
+        context.fileDeeper(sf);
+
+        try (SourceWindowReader reader = new SourceWindowReader(sf, STREAMING_WINDOW_CHARS)) {
+            //a file that's entirely blank produces no output, so hold onto leading blank windows until we know
+            String heldBlank = "";
+            for (String window = readWindow(reader, sf, context); window != null; window = readWindow(reader, sf, context)) {
+                if (writer == null && window.isBlank() && !reader.isConditional()) {
+                    heldBlank += window;
+                    continue;
+                }
+                if (writer == null) {
+                    writer = new FileWriter(compilationUnitPath.toFile());
+                }
+                if (!heldBlank.isEmpty()) {
+                    writeTokens(writer, newlines(tokenizeString(heldBlank, context), context), context);
+                    heldBlank = "";
+                }
+
+                List<PreprocessingToken> tokens = tokenizeString(window, context);
+                context.getMetrics().enter(UnitMetrics.Phase.DIRECTIVES);
+                if (reader.isConditional()) {
+                    conditionalDirective(tokens, context);
+                    reader.setSkipping(context.isSkippingConditional());
+                    tokens = newlines(tokens, context);
+                } else if (context.isSkippingConditional()) {
+                    tokens = newlines(tokens, context);
+                } else {
+                    tokens = executeDirectives(tokens, includePaths, context);
                 }
+                context.getMetrics().exit();
+                writeTokens(writer, tokens, context);
+            }
+            if (context.hasOpenConditionals()) {
+                throw new CompilerException(context, "Malformed #if directive: no matching #endif");
             }
         } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Failed to write " + compilationUnitPath);
-            System.exit(2);
+            throw new CompilerException(context, "Failed to write " + compilationUnitPath, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new CompilerException(context, "Failed to write " + compilationUnitPath, e);
+                }
+            }
         }
 
+        context.fileOut();
         return compilationUnitPath;
     }
 
-    private static String readFileToString(Path sf) {
+    //one of the streamed file's conditional directives, as tokens: #, its name, its condition, then the newline
+    private static void conditionalDirective(List<PreprocessingToken> tokens, PreprocessingContext context) throws CompilerException {
+        int hash = 0;
+        while (!tokens.get(hash).is(PreprocessingToken.Kind.HASH)) {
+            ++hash;
+        }
+        PreprocessingToken directive = tokens.get(hash + 1);
+        List<PreprocessingToken> condition = new ArrayList<>();
+        for (int i = hash + 2; i < tokens.size() && !tokens.get(i).is(PreprocessingToken.TokenType.NEWLINE); ++i) {
+            condition.add(tokens.get(i));
+        }
+
+        switch (directive.getKind()) {
+            case IF -> context.openConditional(!context.isSkippingConditional() && isConditionTrue(condition, context));
+            case IFDEF, IFNDEF -> {
+                if (context.isSkippingConditional()) {
+                    context.openConditional(false);
+                    return;
+                }
+                if (condition.isEmpty() || !condition.getFirst().is(PreprocessingToken.TokenType.IDENTIFIER)) {
+                    throw new CompilerException(context, "#" + directive + " statement without valid identifier");
+                }
+                boolean defined = isConditionTrue(new ArrayList<>(List.of(
+                        new PreprocessingToken(PreprocessingToken.TokenType.IDENTIFIER, "defined"),
+                        new PreprocessingToken(PreprocessingToken.TokenType.OPERATOR_PUNCTUATOR, "("),
+                        condition.getFirst(),
+                        new PreprocessingToken(PreprocessingToken.TokenType.OPERATOR_PUNCTUATOR, ")"))), context);
+                context.openConditional(directive.is(PreprocessingToken.Kind.IFDEF) == defined);
+            }
+            case ELIF -> context.nextConditionalBranch(context.isWaitingConditional() && isConditionTrue(condition, context), "elif");
+            case ELSE -> context.nextConditionalBranch(true, "else");
+            case ENDIF -> context.closeConditional();
+            default -> throw new CompilerException(context, "Invalid preprocessing directive");
+        }
+    }
+
+    //what's left of text that isn't preprocessed, which still keeps its lines
+    private static List<PreprocessingToken> newlines(List<PreprocessingToken> tokens, PreprocessingContext context) throws CompilerException {
+        List<PreprocessingToken> newlines = new ArrayList<>();
+        for (PreprocessingToken token : tokens) {
+            if (token.is(PreprocessingToken.TokenType.NEWLINE)) {
+                newlines.add(token);
+                context.incrementLineNumber();
+            }
+        }
+        return newlines;
+    }
+
+    private static String readWindow(SourceWindowReader reader, Path sf, PreprocessingContext context) throws CompilerException {
+        context.getMetrics().enter(UnitMetrics.Phase.READING);
+        String window;
+        try {
+            window = reader.next();
+        } catch (IOException e) {
+            throw new CompilerException(context, "Failed to read " + sf, e);
+        }
+        context.getMetrics().exit();
+
+        if (window != null) {
+            context.getMetrics().add(UnitMetrics.Counter.BYTES_READ, window.length());
+        }
+        return window;
+    }
+
+    private static void writeTokens(FileWriter writer, List<PreprocessingToken> tokens, PreprocessingContext context) throws IOException {
+        context.getMetrics().enter(UnitMetrics.Phase.WRITING);
+        for (PreprocessingToken token : tokens) {
+            writer.write(token.toString());
+            if (token.getType() != PreprocessingToken.TokenType.NEWLINE) {
+                writer.write(" ");
+            }
+        }
+        context.getMetrics().add(UnitMetrics.Counter.TOKENS_WRITTEN, tokens.size());
+        context.getMetrics().exit();
+    }
+
+    private static String readFileToString(Path sf, PreprocessingContext context) throws CompilerException {
+        context.getMetrics().enter(UnitMetrics.Phase.READING);
+        byte[] contents;
         try {
-            return Files.readString(sf);
+            contents = Files.readAllBytes(sf);
         } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Failed to read " + sf);
-            System.exit(2);
-            return "";
+            throw new CompilerException(context, "Failed to read " + sf, e);
         }
+        context.getMetrics().add(UnitMetrics.Counter.BYTES_READ, contents.length);
+        context.getMetrics().exit();
+
+        return new String(contents, StandardCharsets.UTF_8);
     }
 
     private static String getUnitFilename(Path sf) {
@@ -87,34 +298,75 @@ public class Preprocessor {
         return filename.substring(0, filename.length() - 2) + ".i";
     }
 
-    private static List<PreprocessingToken> preprocessString(Path filePath, String fileContents, List<Path> includePaths, PreprocessingContext context) throws CompilerException {
+    static List<PreprocessingToken> preprocessString(Path filePath, String fileContents, List<Path> includePaths, PreprocessingContext context) throws CompilerException {
         if(fileContents.isBlank()){
             return new ArrayList<>();
         }
         context.fileDeeper(filePath);
 
+        List<PreprocessingToken> tokens = tokenizeString(fileContents, context);
+
+        //phase 4: preprocessing directive execution and macro expansion. #include + 1-4 happens here
+        context.getMetrics().enter(UnitMetrics.Phase.DIRECTIVES);
+        tokens = executeDirectives(tokens, includePaths, context);
+        context.getMetrics().exit();
+
+        //phase 5 and 6 technically count as preprocessor responsibilities,
+        //but practically belong to the compiler and should be handled after tokenisation
+
+        context.fileOut();
+        return tokens;
+    }
+
+    //phases 1-3 only depend on the file contents, so headers can reuse their tokens between units
+    private static List<PreprocessingToken> preprocessHeader(Path resolved, List<Path> includePaths, PreprocessingContext context) throws CompilerException {
+        context.fileDeeper(resolved);
+
+        List<PreprocessingToken> tokens = PreprocessingCache.getHeaderTokens(resolved);
+        if (tokens != null) {
+            context.getMetrics().increment(UnitMetrics.Counter.HEADER_CACHE_HITS);
+            tokens = new ArrayList<>(tokens);
+        } else {
+            context.getMetrics().increment(UnitMetrics.Counter.HEADER_CACHE_MISSES);
+            String contents = readFileToString(resolved, context);
+            contents = "# line 1\"" + Tokenizer.inverseEscapeStringLiteral(resolved.toString()) + "\"\n" + contents;
+            tokens = tokenizeString(contents, context);
+            PreprocessingCache.putHeaderTokens(resolved, tokens);
+        }
+
+        context.getMetrics().enter(UnitMetrics.Phase.DIRECTIVES);
+        tokens = executeDirectives(tokens, includePaths, context);
+        context.getMetrics().exit();
+
+        context.fileOut();
+        return tokens;
+    }
+
+    private static List<PreprocessingToken> tokenizeString(String fileContents, PreprocessingContext context) throws CompilerException {
+        UnitMetrics metrics = context.getMetrics();
+
         //phase 1: trigraph replacement
+        metrics.enter(UnitMetrics.Phase.TRIGRAPHS);
         String workingContents = replaceTrigraphs(fileContents);
+        metrics.exit();
 
         //phase 2: eof == newline enforcement and \ + \n removal
+        metrics.enter(UnitMetrics.Phase.SPLICING);
         workingContents = ensureEOFNewline(workingContents, context);
         workingContents = mergeSourceLines(workingContents);
+        metrics.exit();
 
         //phase 3: tokenization and comment removal
+        metrics.enter(UnitMetrics.Phase.TOKENIZING);
         List<PreprocessingToken> tokens = Tokenizer.tokenize(workingContents, context);
+        metrics.add(UnitMetrics.Counter.TOKENS_TOKENIZED, tokens.size());
+        metrics.exit();
 
-        //phase 4: preprocessing directive execution and macro expansion. #include + 1-4 happens here
-        tokens = executeDirectives(tokens, includePaths, context);
-
-        //phase 5 and 6 technically count as preprocessor responsibilities,
-        //but practically belong to the compiler and should be handled after tokenisation
-
-        context.fileOut();
         return tokens;
     }
 
 
-    private static String replaceTrigraphs(String fileContents) {
+    static String replaceTrigraphs(String fileContents) {
         return fileContents
                 .replace("??=", "#")
                 .replace("??(", "[")
@@ -183,7 +435,7 @@ public class Preprocessor {
 
     private static int handleToken(List<PreprocessingToken> tokens, List<Path> includePaths, int i, PreprocessingContext context) throws CompilerException {
         PreprocessingToken currentToken = tokens.get(i);
-        if (currentToken.is("#") && (i == 0 || tokens.get(i - 1).is(PreprocessingToken.TokenType.NEWLINE))) {
+        if (currentToken.is(PreprocessingToken.Kind.HASH) && (i == 0 || tokens.get(i - 1).is(PreprocessingToken.TokenType.NEWLINE))) {
             if (i + 1 < tokens.size() && tokens.get(i + 1).is(PreprocessingToken.TokenType.IDENTIFIER)) {
                 return executeDirective(tokens, includePaths, i + 1, context);
             } else {
@@ -209,19 +461,19 @@ public class Preprocessor {
         tokens.remove(i - 1); //hashtag
         //leaving the first token afterwards now at i - 1
 
-        return switch (token.toString()) {
-            case "if" -> ifDirective(tokens, includePaths, i - 1, context);
-            case "ifdef" -> ifdefDirective(tokens, includePaths, i - 1, context);
-            case "ifndef" -> ifndefDirective(tokens, includePaths, i - 1, context);
-            case "elif" -> elifDirective(tokens, includePaths, i - 1, context);
-            case "else" -> elseDirective(tokens, includePaths, i - 1, context);
-            case "endif" -> endifDirective(tokens, includePaths, i - 1, context);
-            case "include" -> includeDirective(tokens, includePaths, i - 1, context);
-            case "define" -> defineDirective(tokens, includePaths, i - 1, context);
-            case "undef" -> undefDirective(tokens, includePaths, i - 1, context);
-            case "line" -> lineDirective(tokens, includePaths, i - 1, context);
-            case "error" -> errorDirective(tokens, includePaths, i - 1, context);
-            case "pragma" -> pragmaDirective(tokens, includePaths, i - 1, context);
+        return switch (token.getKind()) {
+            case IF -> ifDirective(tokens, includePaths, i - 1, context);
+            case IFDEF -> ifdefDirective(tokens, includePaths, i - 1, context);
+            case IFNDEF -> ifndefDirective(tokens, includePaths, i - 1, context);
+            case ELIF -> elifDirective(tokens, includePaths, i - 1, context);
+            case ELSE -> elseDirective(tokens, includePaths, i - 1, context);
+            case ENDIF -> endifDirective(tokens, includePaths, i - 1, context);
+            case INCLUDE -> includeDirective(tokens, includePaths, i - 1, context);
+            case DEFINE -> defineDirective(tokens, includePaths, i - 1, context);
+            case UNDEF -> undefDirective(tokens, includePaths, i - 1, context);
+            case LINE -> lineDirective(tokens, includePaths, i - 1, context);
+            case ERROR -> errorDirective(tokens, includePaths, i - 1, context);
+            case PRAGMA -> pragmaDirective(tokens, includePaths, i - 1, context);
 
             default -> invalidDirective(tokens, includePaths, i - 1, context, token);
         };
@@ -233,25 +485,36 @@ public class Preprocessor {
             condition.add(tokens.remove(i));
         }
 
-        context.doReplacement(condition, 0, false);
-        evalConstantExpressions(condition, context);
+        boolean isTrue = isConditionTrue(condition, context);
 
         int nearestClauseBeginNewline = findNearestIfClauseNewline(tokens, i, context);
         int endifEndNewline = findNearestEndifNewline(tokens, i, context);
-        if (condition.size() == 1 && condition.getFirst().is("1")) {
+        if (isTrue) {
             //if true, use block. remove between clause and endif
             removeExceptNewline(tokens, nearestClauseBeginNewline, endifEndNewline);
-        } else if (condition.size() == 1 && condition.getFirst().is("0")) {
+        } else {
             //if false, continue
             alterFollowingIfClause(tokens, nearestClauseBeginNewline + 2);
             removeExceptNewline(tokens, i, nearestClauseBeginNewline);
-        } else {
-            throw new CompilerException(context, "#if directive with non-constant or otherwise invalid expression");
         }
 
         return i;
     }
 
+    private static boolean isConditionTrue(List<PreprocessingToken> condition, PreprocessingContext context) throws CompilerException {
+        context.getTrace().begin("#if", "if");
+        context.doReplacement(condition, 0, false);
+        evalConstantExpressions(condition, context);
+        context.getTrace().end();
+
+        if (condition.size() == 1 && condition.getFirst().is("1")) {
+            return true;
+        } else if (condition.size() == 1 && condition.getFirst().is("0")) {
+            return false;
+        }
+        throw new CompilerException(context, "#if directive with non-constant or otherwise invalid expression");
+    }
+
     private static void evalConstantExpressions(List<PreprocessingToken> condition, PreprocessingContext context) throws CompilerException {
         PreprocessorConstExpr constExpr = new PreprocessorConstExpr(condition, context);
 
@@ -264,7 +527,7 @@ public class Preprocessor {
         for (int j = i; j + 1 < tokens.size(); ++j) {
             PreprocessingToken lastToken = tokens.get(j);
             PreprocessingToken currentToken = tokens.get(j + 1);
-            if (lastToken.is("#") && (currentToken.is("elif") || currentToken.is("else") || currentToken.is("endif"))) {
+            if (lastToken.is(PreprocessingToken.Kind.HASH) && (currentToken.is(PreprocessingToken.Kind.ELIF) || currentToken.is(PreprocessingToken.Kind.ELSE) || currentToken.is(PreprocessingToken.Kind.ENDIF))) {
                 return lastNewline;
             } else if (lastToken.is(PreprocessingToken.TokenType.NEWLINE)) {
                 lastNewline = j;
@@ -278,7 +541,7 @@ public class Preprocessor {
         for (int j = i; j + 1 < tokens.size(); ++j) {
             PreprocessingToken lastToken = tokens.get(j);
             PreprocessingToken currentToken = tokens.get(j + 1);
-            if (lastToken.is("#") && (currentToken.is("endif"))) {
+            if (lastToken.is(PreprocessingToken.Kind.HASH) && currentToken.is(PreprocessingToken.Kind.ENDIF)) {
                 while (!tokens.get(j).is(PreprocessingToken.TokenType.NEWLINE)) {
                     ++j;
                 }
@@ -303,13 +566,13 @@ public class Preprocessor {
 
     private static void alterFollowingIfClause(List<PreprocessingToken> tokens, int i) {
         PreprocessingToken directive = tokens.get(i);
-        if (directive.is("endif")) {
+        if (directive.is(PreprocessingToken.Kind.ENDIF)) {
             tokens.remove(i); //endif
             tokens.remove(i - 1); //#
-        } else if (directive.is("else")) {
+        } else if (directive.is(PreprocessingToken.Kind.ELSE)) {
             tokens.set(i, new PreprocessingToken(PreprocessingToken.TokenType.IDENTIFIER, "if"));
             tokens.add(i + 1, new PreprocessingToken(PreprocessingToken.TokenType.PP_NUMBER, "1"));
-        } else if (directive.is("elif")) {
+        } else if (directive.is(PreprocessingToken.Kind.ELIF)) {
             tokens.set(i, new PreprocessingToken(PreprocessingToken.TokenType.IDENTIFIER, "if"));
         }
     }
@@ -375,11 +638,18 @@ public class Preprocessor {
         String headerAsString = headerName.toString();
         String headerPath = headerAsString.substring(1, headerAsString.length() - 1);
         //insert at i + 1 to insert after the newline and preserve line numbering
+        context.getMetrics().enter(UnitMetrics.Phase.INCLUDES);
+        context.getTrace().begin("#include " + headerAsString, "include");
+        int next;
         if (isQHeader) {
-            return includeQHeader(tokens, includePaths, i + 1, context, headerPath);
+            next = includeQHeader(tokens, includePaths, i + 1, context, headerPath);
         } else {
-            return includeHHeader(tokens, includePaths, i + 1, context, headerPath);
+            next = includeHHeader(tokens, includePaths, i + 1, context, headerPath);
         }
+        context.getTrace().end();
+        context.getMetrics().exit();
+
+        return next;
     }
 
     private static int includeQHeader(List<PreprocessingToken> tokens, List<Path> includePaths, int i, PreprocessingContext context, String headerPath) throws CompilerException {
@@ -414,7 +684,9 @@ public class Preprocessor {
     }
 
     private static boolean tryIncludeFile(Path resolved, List<PreprocessingToken> tokens, int i, List<Path> includePaths, PreprocessingContext context) throws CompilerException {
-        if (!Files.exists(resolved)) {
+        boolean exists = Files.exists(resolved);
+        context.recordIncludeCandidate(resolved, exists);
+        if (!exists) {
             return false;
         }
 
@@ -422,9 +694,9 @@ public class Preprocessor {
         int lineNumber = context.getLineNumber();
         String originalFile = context.getCurrentFileName();
 
-        String contents = readFileToString(resolved);
-        contents = "# line 1\"" + Tokenizer.inverseEscapeStringLiteral(resolved.toString()) + "\"\n" + contents;
-        List<PreprocessingToken> tokenised = preprocessString(resolved, contents, includePaths, context);
+        long start = System.nanoTime();
+        List<PreprocessingToken> tokenised = preprocessHeader(resolved, includePaths, context);
+        context.getIncludeStatistics().recordInclusion(resolved, context.getOriginalSourcePath(), System.nanoTime() - start, tokenised.size());
 
         //add in order now that we're adding to the end each time
         tokenised.add(tokenised.size(), new PreprocessingToken(PreprocessingToken.TokenType.OPERATOR_PUNCTUATOR, "#"));
@@ -434,6 +706,7 @@ public class Preprocessor {
         tokenised.add(tokenised.size(), new PreprocessingToken(PreprocessingToken.TokenType.NEWLINE, "\n"));
 
         tokens.addAll(i, tokenised);
+        context.getMetrics().increment(UnitMetrics.Counter.FILES_INCLUDED);
         return true;
     }
 
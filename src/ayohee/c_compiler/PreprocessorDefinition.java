@@ -3,5 +3,5 @@ package ayohee.c_compiler;
 import java.util.List;
 
 public abstract class PreprocessorDefinition {
-    public abstract boolean replaceInstances(String label, List<PreprocessingToken> tokens, int i) throws CompilerException;
+    public abstract boolean replaceInstances(String label, List<PreprocessingToken> tokens, int i, PreprocessingContext context) throws CompilerException;
 }
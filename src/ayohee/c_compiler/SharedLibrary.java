@@ -0,0 +1,81 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+//a shared library linked against: only which symbols it exports, and the name the program has to ask for it by
+public final class SharedLibrary {
+    private static final int SHT_DYNAMIC = 6;
+    private static final int SHT_DYNSYM = 11;
+    private static final long DT_SONAME = 14;
+    private static final int STT_GNU_IFUNC = 10;
+
+    private final String soname;
+    private final Map<String, Integer> exports; //to their symbol types
+
+    private SharedLibrary(String soname, Map<String, Integer> exports) {
+        this.soname = soname;
+        this.exports = exports;
+    }
+
+    public static SharedLibrary map(Path path) throws IOException {
+        ByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (file.limit() < 64 || file.getInt(0) != 0x464C457F || file.get(4) != 2 || file.getShort(16) != 3) {
+            throw new IOException(path + " is not a 64 bit shared library");
+        }
+        long headersOffset = file.getLong(40);
+        int headerSize = Short.toUnsignedInt(file.getShort(58));
+        int sectionCount = Short.toUnsignedInt(file.getShort(60));
+
+        String soname = path.getFileName().toString();
+        Map<String, Integer> exports = new HashMap<>();
+        for (int i = 1; i < sectionCount; ++i) {
+            int header = (int) (headersOffset + (long) i * headerSize);
+            int type = file.getInt(header + 4);
+            if (type != SHT_DYNSYM && type != SHT_DYNAMIC) {
+                continue;
+            }
+            long offset = file.getLong(header + 24);
+            long size = file.getLong(header + 32);
+            int link = file.getInt(header + 40);
+            long stringsOffset = file.getLong((int) (headersOffset + (long) link * headerSize + 24));
+            if (type == SHT_DYNAMIC) {
+                for (long entry = offset; entry < offset + size; entry += 16) {
+                    if (file.getLong((int) entry) == DT_SONAME) {
+                        soname = LinkerInput.string(file, stringsOffset + file.getLong((int) entry + 8));
+                    }
+                }
+                continue;
+            }
+            for (long entry = offset + 24; entry < offset + size; entry += 24) {
+                int info = file.get((int) entry + 4);
+                int binding = (info >> 4) & 0xF;
+                int section = Short.toUnsignedInt(file.getShort((int) entry + 6));
+                if (section != LinkerInput.SHN_UNDEF && binding != ElfObject.STB_LOCAL) {
+                    //an indirect function is resolved by the library itself, so to the program it's just a function
+                    int symbolType = info & 0xF;
+                    exports.put(LinkerInput.string(file, stringsOffset + file.getInt((int) entry)), symbolType == STT_GNU_IFUNC ? ElfObject.STT_FUNC : symbolType);
+                }
+            }
+        }
+        return new SharedLibrary(soname, exports);
+    }
+
+    public String getSoname() {
+        return soname;
+    }
+
+    //the symbol's type if the library exports it, or -1
+    public int exportType(String symbol) {
+        return exports.getOrDefault(symbol, -1);
+    }
+}
@@ -0,0 +1,128 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+public class SourceDiscovery {
+    //marks the end of the queue. never a real source file, as every discovered path is absolute
+    private static final Path END_OF_SOURCES = Path.of("");
+
+    private final List<Path> roots;
+    private final boolean verbose;
+    private final List<PathMatcher> ignoreMatchers = new ArrayList<>();
+    private final PathMatcher sourceMatcher = FileSystems.getDefault().getPathMatcher("glob:**.c");
+    private final BlockingQueue<Path> discovered = new LinkedBlockingQueue<>();
+    private final Set<Path> seen = ConcurrentHashMap.newKeySet(); //roots may overlap
+    private Path peeked;
+
+    //roots are made absolute and normalised, so that the same directory given two ways is only walked once, and the
+    //files found under overlapping roots compare equal
+    public SourceDiscovery(List<Path> roots, List<String> ignorePatterns, boolean verbose) {
+        LinkedHashSet<Path> unique = new LinkedHashSet<>();
+        for (Path root : roots) {
+            unique.add(root.toAbsolutePath().normalize());
+        }
+        this.roots = new ArrayList<>(unique);
+        this.verbose = verbose;
+        for (String pattern : ignorePatterns) {
+            ignoreMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+    }
+
+    public void start() {
+        if (roots.isEmpty()) {
+            discovered.add(END_OF_SOURCES);
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(roots.size(), Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "source-discovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        CompletableFuture<?>[] walks = new CompletableFuture<?>[roots.size()];
+        for (int i = 0; i < roots.size(); ++i) {
+            Path root = roots.get(i);
+            walks[i] = CompletableFuture.runAsync(() -> walk(root), pool);
+        }
+
+        CompletableFuture.allOf(walks).whenComplete((result, e) -> {
+            discovered.add(END_OF_SOURCES);
+            pool.shutdown();
+        });
+    }
+
+    //blocks until either another source file has been found or every root has been fully walked
+    public boolean hasNext() {
+        if (peeked == null) {
+            try {
+                peeked = discovered.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                peeked = END_OF_SOURCES;
+            }
+        }
+
+        return peeked != END_OF_SOURCES;
+    }
+
+    public Path next() {
+        if (!hasNext()) {
+            return null;
+        }
+
+        Path next = peeked;
+        peeked = null;
+        return next;
+    }
+
+    private void walk(Path root) {
+        if (!Files.exists(root)) {
+            System.out.println("Attempted to detect files in " + root + " but it does not exist");
+            return;
+        }
+
+        System.out.println("Searching " + root + " for source files...");
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return !dir.equals(root) && isIgnored(root, dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    //attrs are the link's own when file is a symlink, so ask again following it, to find linked sources too
+                    Path source = file.toAbsolutePath().normalize();
+                    if (Files.isRegularFile(file) && sourceMatcher.matches(source) && !isIgnored(root, source) && seen.add(source)) {
+                        if (verbose) {
+                            System.out.println("Detected source file: " + source);
+                        }
+                        discovered.add(source);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Failed to detect source files in " + root);
+        }
+    }
+
+    private boolean isIgnored(Path root, Path path) {
+        Path relative = root.relativize(path);
+        for (PathMatcher matcher : ignoreMatchers) {
+            if (matcher.matches(relative) || matcher.matches(path.getFileName())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
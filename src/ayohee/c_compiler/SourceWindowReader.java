@@ -0,0 +1,234 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//reads a source file a window at a time, for preprocessing files too large to hold as one token list.
+//a window only ends where nothing after it can change how it's preprocessed: outside of any block comment or
+//parenthesised macro arguments, and before a line that couldn't be the ( of a function-like macro invocation.
+//#if groups don't hold windows back: each of the file's conditional directives at such a point comes back as a window
+//of its own, for the preprocessor to follow with the state of the open groups kept in its context, so a group can
+//span any number of windows. only directives that turn up inside macro arguments are left to the window around them,
+//which then has to hold their whole group. windows only grow past their target size while waiting for one of those
+//points, and a warning is given once one grows past HARD_LIMIT_FACTOR times it
+class SourceWindowReader implements AutoCloseable {
+    private static final int HARD_LIMIT_FACTOR = 16;
+
+    private final Path path;
+    private final Reader reader;
+    private final int targetChars;
+    private final char[] buffer = new char[8192];
+    private int bufferPos = 0;
+    private int bufferLimit = 0;
+
+    private String pendingLine; //first line of the next window, read while looking for the end of this one
+
+    private int conditionalDepth = 0; //of groups left to the window that opened them
+    private int parenDepth = 0;
+    private boolean inBlockComment = false;
+    private boolean skipping = false;
+    private boolean conditional = false;
+    private boolean warned = false;
+
+    SourceWindowReader(Path path, int targetChars) throws IOException {
+        this.path = path;
+        this.reader = new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8);
+        this.targetChars = targetChars;
+    }
+
+    //the next window of raw source text, or null once the whole file has been read
+    String next() throws IOException {
+        conditional = false;
+        StringBuilder window = new StringBuilder();
+        for (String line = nextLine(); line != null; line = nextLine()) {
+            if (atBoundary() && isConditionalDirective(line)) {
+                if (window.isEmpty()) {
+                    conditional = true;
+                    scan(line, false);
+                    return line;
+                }
+                pendingLine = line;
+                break;
+            }
+            if (window.length() >= targetChars && atBoundary() && canStartWindow(line)) {
+                pendingLine = line;
+                break;
+            }
+            window.append(line);
+            scan(line, true);
+
+            if (!warned && window.length() > (long) targetChars * HARD_LIMIT_FACTOR) {
+                warned = true;
+                System.out.println("Warning: " + path + " has over " + (long) targetChars * HARD_LIMIT_FACTOR + " characters inside one comment,"
+                        + " set of macro arguments or #if group begun in macro arguments, which streaming preprocessing has to hold all at once");
+            }
+        }
+
+        return window.isEmpty() ? null : window.toString();
+    }
+
+    //whether the last window was a single #if, #ifdef, #ifndef, #elif, #else or #endif line
+    boolean isConditional() {
+        return conditional;
+    }
+
+    //text the preprocessor is skipping over isn't macro arguments, so its parentheses don't count
+    void setSkipping(boolean skipping) {
+        this.skipping = skipping;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean atBoundary() {
+        return conditionalDepth <= 0 && (parenDepth <= 0 || skipping) && !inBlockComment;
+    }
+
+    private String nextLine() throws IOException {
+        if (pendingLine != null) {
+            String line = pendingLine;
+            pendingLine = null;
+            return line;
+        }
+        return readLogicalLine();
+    }
+
+    private static boolean isConditionalDirective(String logicalLine) {
+        return switch (directiveName(Preprocessor.replaceTrigraphs(logicalLine).replace("\\\n", ""))) {
+            case "if", "ifdef", "ifndef", "elif", "else", "endif" -> true;
+            default -> false;
+        };
+    }
+
+    //the name of the directive on the line, or "" if it isn't one. lines are only read for this outside of comments
+    private static String directiveName(String line) {
+        int i = skipWhitespace(line, 0);
+        if (i >= line.length() || line.charAt(i) != '#') {
+            return "";
+        }
+        int start = skipWhitespace(line, i + 1);
+        int end = start;
+        while (end < line.length() && Character.isLetter(line.charAt(end))) {
+            ++end;
+        }
+        return line.substring(start, end);
+    }
+
+    //blank lines are skipped over, as the next line might still open a macro's arguments
+    private static boolean canStartWindow(String line) {
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c != '(';
+            }
+        }
+        return false;
+    }
+
+    //a physical line, plus any following lines it's spliced onto with a backslash-newline
+    private String readLogicalLine() throws IOException {
+        String line = readPhysicalLine();
+        if (line == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(line);
+        while (Preprocessor.replaceTrigraphs(line).endsWith("\\\n")) {
+            line = readPhysicalLine();
+            if (line == null) {
+                break;
+            }
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    //split on \n alone so that the windows put back together are exactly the original file
+    private String readPhysicalLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (bufferPos == bufferLimit) {
+                bufferLimit = reader.read(buffer);
+                bufferPos = 0;
+                if (bufferLimit == -1) {
+                    bufferLimit = 0;
+                    return sb.isEmpty() ? null : sb.toString();
+                }
+            }
+
+            char c = buffer[bufferPos++];
+            sb.append(c);
+            if (c == '\n') {
+                return sb.toString();
+            }
+        }
+    }
+
+    //just enough lexing to track the nesting of #if groups left in windows, block comments and open parentheses
+    //across lines. inWindow is false for conditional directives handed to the preprocessor on their own
+    private void scan(String logicalLine, boolean inWindow) {
+        String line = Preprocessor.replaceTrigraphs(logicalLine).replace("\\\n", "");
+
+        boolean isDirective = false;
+        if (!inBlockComment) {
+            int i = skipWhitespace(line, 0);
+            if (i < line.length() && line.charAt(i) == '#') {
+                isDirective = true;
+                if (inWindow) {
+                    switch (directiveName(line)) {
+                        case "if", "ifdef", "ifndef" -> ++conditionalDepth;
+                        case "endif" -> --conditionalDepth;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (inBlockComment) {
+                if (c == '*' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+                    inBlockComment = false;
+                    ++i;
+                }
+            } else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+                return;
+            } else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '*') {
+                inBlockComment = true;
+                ++i;
+            } else if (c == '"' || c == '\'') {
+                i = skipLiteral(line, i);
+            } else if (!isDirective && !skipping && c == '(') {
+                //directive lines can't hold part of a macro invocation, so a stray ( in a #define doesn't count
+                ++parenDepth;
+            } else if (!isDirective && !skipping && c == ')') {
+                --parenDepth;
+            }
+        }
+    }
+
+    private static int skipWhitespace(String line, int i) {
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+            ++i;
+        }
+        return i;
+    }
+
+    //the index of the closing quote, or the end of the line if there isn't one
+    private static int skipLiteral(String line, int i) {
+        char quote = line.charAt(i);
+        for (++i; i < line.length(); ++i) {
+            if (line.charAt(i) == '\\') {
+                ++i;
+            } else if (line.charAt(i) == quote) {
+                return i;
+            }
+        }
+        return i;
+    }
+}
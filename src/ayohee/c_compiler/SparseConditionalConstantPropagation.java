@@ -0,0 +1,201 @@
+package ayohee.c_compiler;
+
+import ayohee.c_compiler.IrInstruction.Op;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//Wegman and Zadeck's sparse conditional constant propagation. values start out unknown and only ever move down to a
+//constant and then to varying, while blocks only become reachable along edges whose branch could go that way. this finds
+//constants that folding alone can't, like a variable that keeps its value around a loop because the branch that would
+//change it never runs
+public class SparseConditionalConstantPropagation implements IrPass {
+    private static final Object VARYING = new Object(); //the bottom of the lattice. unknown, the top, is being absent
+
+    @Override
+    public String getName() {
+        return "sparse conditional constant propagation";
+    }
+
+    @Override
+    public void run(IrFunction function, IrModule module) {
+        new Solver(function).run();
+    }
+
+    private static class Solver {
+        private final IrFunction function;
+        private final Map<IrInstruction, Object> values = new HashMap<>(); //a Long, or VARYING
+        private final Map<IrInstruction, List<IrInstruction>> users = new HashMap<>();
+        private final Set<IrBlock> reachable = new HashSet<>();
+        private final Set<Long> edges = new HashSet<>(); //from and to block ids, for the edges that can be taken
+        private final Deque<IrBlock[]> edgeWork = new ArrayDeque<>();
+        private final Deque<IrInstruction> work = new ArrayDeque<>();
+
+        private Solver(IrFunction function) {
+            this.function = function;
+        }
+
+        private void run() {
+            for (IrBlock block : function.getBlocks()) {
+                for (IrInstruction instruction : block.getInstructions()) {
+                    for (IrValue operand : instruction.getOperands()) {
+                        if (operand instanceof IrInstruction used) {
+                            users.computeIfAbsent(used, key -> new ArrayList<>()).add(instruction);
+                        }
+                    }
+                }
+            }
+
+            reachable.add(function.getEntry());
+            visitBlock(function.getEntry());
+            while (!edgeWork.isEmpty() || !work.isEmpty()) {
+                while (!edgeWork.isEmpty()) {
+                    IrBlock[] edge = edgeWork.poll();
+                    if (reachable.add(edge[1])) {
+                        visitBlock(edge[1]);
+                    } else {
+                        for (IrInstruction phi : edge[1].getPhis()) {
+                            visit(phi); //one more operand counts now
+                        }
+                    }
+                }
+                while (!work.isEmpty()) {
+                    IrInstruction instruction = work.poll();
+                    if (reachable.contains(instruction.getBlock())) {
+                        visit(instruction);
+                    }
+                }
+            }
+            rewrite();
+        }
+
+        private void visitBlock(IrBlock block) {
+            for (IrInstruction instruction : block.getInstructions()) {
+                visit(instruction);
+            }
+        }
+
+        private void markEdge(IrBlock from, IrBlock to) {
+            if (edges.add(((long) from.getId() << 32) | to.getId())) {
+                edgeWork.add(new IrBlock[] {from, to});
+            }
+        }
+
+        private boolean isEdgeTaken(IrBlock from, IrBlock to) {
+            return edges.contains(((long) from.getId() << 32) | to.getId());
+        }
+
+        //a Long, VARYING, or null while unknown
+        private Object valueOf(IrValue value) {
+            if (value.isConstant()) {
+                return value.constantValue();
+            }
+            if (value instanceof IrInstruction instruction) {
+                return values.get(instruction);
+            }
+            return VARYING; //parameters and addresses
+        }
+
+        private void visit(IrInstruction instruction) {
+            Op op = instruction.getOp();
+            switch (op) {
+                case JUMP -> markEdge(instruction.getBlock(), instruction.getTargets()[0]);
+                case BRANCH -> {
+                    Object condition = valueOf(instruction.getOperand(0));
+                    IrBlock[] targets = instruction.getTargets();
+                    if (condition == VARYING) {
+                        markEdge(instruction.getBlock(), targets[0]);
+                        markEdge(instruction.getBlock(), targets[1]);
+                    } else if (condition != null) {
+                        markEdge(instruction.getBlock(), (Long) condition != 0 ? targets[0] : targets[1]);
+                    }
+                }
+                case RETURN, STORE -> {
+                }
+                case LOAD, CALL -> update(instruction, VARYING);
+                case PHI -> {
+                    Object result = null;
+                    List<IrBlock> preds = instruction.getBlock().getPredecessors();
+                    for (int i = 0; i < preds.size() && result != VARYING; ++i) {
+                        if (!isEdgeTaken(preds.get(i), instruction.getBlock())) {
+                            continue;
+                        }
+                        Object value = valueOf(instruction.getOperand(i));
+                        if (value == null) {
+                            continue;
+                        }
+                        result = result == null || result.equals(value) ? value : VARYING;
+                    }
+                    if (result != null) {
+                        update(instruction, result);
+                    }
+                }
+                default -> {
+                    IrValue[] operands = instruction.getOperands();
+                    Object a = valueOf(operands[0]);
+                    Object b = operands.length > 1 ? valueOf(operands[1]) : 0L;
+                    if (a == VARYING || b == VARYING) {
+                        update(instruction, VARYING);
+                    } else if (a != null && b != null) {
+                        Long result = ConstantFolding.evaluate(op, instruction.getType(), operands[0].getType(), (Long) a, (Long) b);
+                        update(instruction, result == null ? VARYING : result);
+                    }
+                }
+            }
+        }
+
+        private void update(IrInstruction instruction, Object value) {
+            Object old = values.get(instruction);
+            if (old == VARYING || value.equals(old)) {
+                return;
+            }
+            values.put(instruction, old == null ? value : VARYING); //a second, different constant means it varies
+            List<IrInstruction> instructionUsers = users.get(instruction);
+            if (instructionUsers != null) {
+                work.addAll(instructionUsers);
+            }
+        }
+
+        //replaces everything found constant, and turns branches that only go one way into jumps
+        private void rewrite() {
+            Map<IrValue, IrValue> replacements = new HashMap<>();
+            boolean changedFlow = false;
+            for (IrBlock block : function.getBlocks()) {
+                if (!reachable.contains(block)) {
+                    changedFlow = true;
+                    continue;
+                }
+                Iterator<IrInstruction> it = block.getInstructions().iterator();
+                while (it.hasNext()) {
+                    IrInstruction instruction = it.next();
+                    Object value = values.get(instruction);
+                    if (value instanceof Long constant && instruction.getOp() != Op.CALL && instruction.getOp() != Op.LOAD) {
+                        replacements.put(instruction, IrValue.Constant.of(instruction.getType(), constant));
+                        it.remove();
+                    } else if (instruction.getOp() == Op.BRANCH) {
+                        IrBlock[] targets = instruction.getTargets();
+                        boolean first = isEdgeTaken(block, targets[0]);
+                        boolean second = isEdgeTaken(block, targets[1]);
+                        if (first != second) {
+                            IrBlock taken = first ? targets[0] : targets[1];
+                            (first ? targets[1] : targets[0]).removePredecessor(block);
+                            instruction.makeJump(taken);
+                            changedFlow = true;
+                        }
+                    }
+                }
+            }
+            function.replaceUses(replacements);
+            if (changedFlow) {
+                function.removeUnreachableBlocks();
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//a static library. the archive is mapped, and only its symbol index is read up front: a member is only decoded, as a
+//slice of the mapping, once the linker asks for it because it defines something still undefined. archives built
+//without an index get one built by reading every member once, which is cached so later links don't have to again
+public final class StaticArchive {
+    private static final String MAGIC = "!<arch>\n";
+    private static final int HEADER_SIZE = 60;
+    private static final Path INDEX_CACHE = Path.of(System.getProperty("java.io.tmpdir"), "ayohee-archive-index");
+    private static final String INDEX_FORMAT_VERSION = "1";
+
+    private final Path path;
+    private final ByteBuffer file;
+    private final int longNames; //offset of the long member names, or -1
+    private final Map<String, Integer> index; //symbol to the offset of the header of the first member defining it
+    private final int memberCount;
+
+    private StaticArchive(Path path, ByteBuffer file, int longNames, Map<String, Integer> index, int memberCount) {
+        this.path = path;
+        this.file = file;
+        this.longNames = longNames;
+        this.index = index;
+        this.memberCount = memberCount;
+    }
+
+    public static StaticArchive map(Path path) throws IOException {
+        ByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] magic = new byte[MAGIC.length()];
+        if (file.limit() < magic.length) {
+            throw new IOException(path + " is not an archive");
+        }
+        file.get(0, magic);
+        if (!new String(magic, StandardCharsets.US_ASCII).equals(MAGIC)) {
+            throw new IOException(path + " is not an archive" + (new String(magic, StandardCharsets.US_ASCII).equals("!<thin>\n") ? " that has its members in it" : ""));
+        }
+
+        //the special members all come before the objects: "/" or "/SYM64/" is the symbol index, and "//" holds the
+        //names too long for a member header
+        Map<String, Integer> index = null;
+        int longNames = -1;
+        int memberCount = 0;
+        for (int header = MAGIC.length(); header + HEADER_SIZE <= file.limit(); header = next(file, header)) {
+            String name = field(file, header, 0, 16);
+            if (name.equals("/")) {
+                index = readIndex(file, header + HEADER_SIZE, 4);
+            } else if (name.equals("/SYM64/")) {
+                index = readIndex(file, header + HEADER_SIZE, 8);
+            } else if (name.equals("//")) {
+                longNames = header + HEADER_SIZE;
+            } else {
+                ++memberCount;
+            }
+        }
+
+        StaticArchive archive = new StaticArchive(path, file, longNames, index == null ? new HashMap<>() : index, memberCount);
+        if (index == null) {
+            archive.loadOrBuildIndex();
+        }
+        return archive;
+    }
+
+    //a count, that many member offsets, then that many null terminated symbol names, all big endian
+    private static Map<String, Integer> readIndex(ByteBuffer file, int offset, int width) {
+        ByteBuffer index = file.slice(offset, file.limit() - offset).order(ByteOrder.BIG_ENDIAN);
+        long count = width == 4 ? Integer.toUnsignedLong(index.getInt(0)) : index.getLong(0);
+        Map<String, Integer> symbols = new HashMap<>((int) (count * 4 / 3) + 1);
+        int name = (int) (width + count * width);
+        for (int i = 0; i < count; ++i) {
+            long member = width == 4 ? Integer.toUnsignedLong(index.getInt(width + i * width)) : index.getLong(width + i * width);
+            String symbol = LinkerInput.string(index, name);
+            symbols.putIfAbsent(symbol, (int) member); //like ar, the first member that defines it
+            name += symbol.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        return symbols;
+    }
+
+    private static int next(ByteBuffer file, int header) {
+        long size = Long.parseLong(field(file, header, 48, 10));
+        return (int) (header + HEADER_SIZE + size + (size & 1)); //members are 2 byte aligned
+    }
+
+    private static String field(ByteBuffer file, int header, int offset, int length) {
+        byte[] bytes = new byte[length];
+        file.get(header + offset, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+
+    //the member whose header is at offset, decoded in place
+    public LinkerInput member(int offset) throws IOException {
+        long size = Long.parseLong(field(file, offset, 48, 10));
+        return LinkerInput.parse(path.getFileName() + "(" + memberName(offset) + ")", file.slice(offset + HEADER_SIZE, (int) size));
+    }
+
+    private String memberName(int header) {
+        String name = field(file, header, 0, 16);
+        if (name.startsWith("/") && name.length() > 1 && longNames >= 0) { //"/123" is at 123 in the long names
+            int start = longNames + Integer.parseInt(name.substring(1));
+            int end = start;
+            while (file.get(end) != '/' && file.get(end) != '\n') {
+                ++end;
+            }
+            byte[] bytes = new byte[end - start];
+            file.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    //the offset of the member that defines the symbol, or -1
+    public int memberDefining(String symbol) {
+        return index.getOrDefault(symbol, -1);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+
+    //the cached index is keyed by where the archive is and its size and modification time, and like the output cache
+    //it's only an optimisation: if it can't be read or written, the index is just built again next time
+    private void loadOrBuildIndex() throws IOException {
+        Path cached = cachedIndexPath();
+        if (cached != null && readCachedIndex(cached)) {
+            return;
+        }
+        index.clear();
+        for (int header = MAGIC.length(); header + HEADER_SIZE <= file.limit(); header = next(file, header)) {
+            if (isSpecial(field(file, header, 0, 16))) {
+                continue;
+            }
+            LinkerInput member = member(header);
+            LinkerInput.InputSymbol[] symbols = member.getSymbols();
+            for (int s = Math.max(1, member.getFirstGlobal()); s < symbols.length; ++s) {
+                if (symbols[s].isDefined() && symbols[s].binding() != ElfObject.STB_LOCAL) {
+                    index.putIfAbsent(symbols[s].name(), header);
+                }
+            }
+        }
+        if (cached != null) {
+            writeCachedIndex(cached);
+        }
+    }
+
+    private static boolean isSpecial(String memberName) {
+        return memberName.equals("/") || memberName.equals("//") || memberName.equals("/SYM64/");
+    }
+
+    private Path cachedIndexPath() {
+        try {
+            String key = path.toAbsolutePath() + "\n" + Files.size(path) + "\n" + Files.getLastModifiedTime(path).toMillis();
+            return INDEX_CACHE.resolve(IncrementalLinkState.digest(key) + ".idx");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    //"<member offset> <symbol>" lines
+    private boolean readCachedIndex(Path cached) {
+        try {
+            List<String> lines = Files.readAllLines(cached, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals("archive index " + INDEX_FORMAT_VERSION)) {
+                return false;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                String[] parts = line.split(" ", 2);
+                index.put(parts[1], Integer.parseInt(parts[0]));
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void writeCachedIndex(Path cached) {
+        StringBuilder sb = new StringBuilder("archive index " + INDEX_FORMAT_VERSION + "\n");
+        index.forEach((symbol, member) -> sb.append(member).append(' ').append(symbol).append('\n'));
+        try {
+            //write then move, so that other links never see half an index
+            Files.createDirectories(INDEX_CACHE);
+            Path temp = Files.createTempFile(INDEX_CACHE, "index", ".tmp");
+            Files.writeString(temp, sb, StandardCharsets.UTF_8);
+            Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //the next link will just build it again
+        }
+    }
+}
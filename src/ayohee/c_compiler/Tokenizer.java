@@ -1,5 +1,7 @@
 package ayohee.c_compiler;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -190,7 +192,7 @@ public class Tokenizer {
         int backslashCount = 0;
         for (; j < workingContents.length(); ++j) {
             if (backslashCount % 2 == 0 && workingContents.charAt(j) == '\'') {
-                tokens.add(new PreprocessingToken(PreprocessingToken.TokenType.CHAR_CONST, escapeStringLiteral(workingContents.substring(i + 1, j))));
+                tokens.add(PreprocessingToken.fromSpelling(PreprocessingToken.TokenType.CHAR_CONST, workingContents.substring(i + 1, j)));
                 return j + 1;
             }
 
@@ -213,7 +215,7 @@ public class Tokenizer {
         int backslashCount = 0;
         for (; j < workingContents.length(); ++j) {
             if (backslashCount % 2 == 0 && workingContents.charAt(j) == '"') {
-                tokens.add(new PreprocessingToken(PreprocessingToken.TokenType.STRING_LIT, escapeStringLiteral(workingContents.substring(i + 1, j))));
+                tokens.add(PreprocessingToken.fromSpelling(PreprocessingToken.TokenType.STRING_LIT, workingContents.substring(i + 1, j)));
                 return j + 1;
             }
 
@@ -312,65 +314,86 @@ public class Tokenizer {
 
 
     public static String escapeStringLiteral(String unescaped) {
-        //TODO octal/hexadecimal escapes
-        StringBuilder sb = new StringBuilder();
-        int i = 0;
-        for (; i < unescaped.length() - 1; ++i) {
-            String nextTwoChars = unescaped.substring(i, i + 2);
-            switch (nextTwoChars) {
-                case "\\\\":
-                    sb.append("\\");
-                    ++i;
-                    break;
-
-                case "\\\"":
-                    sb.append("\"");
-                    ++i;
-                    break;
-
-                case "\\t":
-                    sb.append("\t");
-                    ++i;
-                    break;
-
-                case "\\'":
-                    sb.append("\'");
-                    ++i;
-                    break;
-
-                case "\\r":
-                    sb.append("\r");
-                    ++i;
-                    break;
+        StringBuilder sb = new StringBuilder(unescaped.length());
+        for (int i = 0; i < unescaped.length(); ++i) {
+            Escape escape = unescaped.charAt(i) == '\\' ? Escape.at(unescaped, i) : null;
+            if (escape == null) {
+                sb.append(unescaped.charAt(i)); //a backslash that starts no escape we know is kept as is
+                continue;
+            }
+            sb.append((char) escape.value());
+            i = escape.end() - 1;
+        }
 
-                case "\\n":
-                    sb.append("\n");
-                    ++i;
-                    break;
+        return sb.toString();
+    }
 
-                case "\\f":
-                    sb.append("\f");
-                    ++i;
-                    break;
+    //the bytes a literal's spelling stands for. escapes give the byte they name, and everything written as it is goes
+    //out as UTF-8, the way the source file was read, so that "caf\xe9" is four bytes and "café" is five
+    public static byte[] literalBytes(String spelling) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(spelling.length());
+        int written = 0;
+        for (int i = 0; i < spelling.length(); ++i) {
+            Escape escape = spelling.charAt(i) == '\\' ? Escape.at(spelling, i) : null;
+            if (escape != null) {
+                bytes.writeBytes(spelling.substring(written, i).getBytes(StandardCharsets.UTF_8));
+                bytes.write(escape.value());
+                written = escape.end();
+                i = escape.end() - 1;
+            }
+        }
+        bytes.writeBytes(spelling.substring(written).getBytes(StandardCharsets.UTF_8));
+        return bytes.toByteArray();
+    }
 
-                case "\\b":
-                    sb.append("\b");
-                    ++i;
-                    break;
+    //an escape sequence starting at the backslash at start, with the byte it stands for and the index just after it
+    private record Escape(int value, int end) {
+        private static Escape at(String spelling, int start) {
+            if (start + 1 == spelling.length()) {
+                return null;
+            }
 
-                default:
-                    sb.append(unescaped.charAt(i));
+            char next = spelling.charAt(start + 1);
+            if (next >= '0' && next <= '7') {
+                //up to three octal digits
+                int end = start + 1;
+                int value = 0;
+                while (end < spelling.length() && end < start + 4 && spelling.charAt(end) >= '0' && spelling.charAt(end) <= '7') {
+                    value = value * 8 + (spelling.charAt(end) - '0');
+                    ++end;
+                }
+                return new Escape(value & 0xFF, end);
+            }
+            if (next == 'x' && start + 2 < spelling.length() && Character.digit(spelling.charAt(start + 2), 16) != -1) {
+                //as many hex digits as follow
+                int end = start + 2;
+                int value = 0;
+                while (end < spelling.length() && Character.digit(spelling.charAt(end), 16) != -1) {
+                    value = value * 16 + Character.digit(spelling.charAt(end), 16);
+                    ++end;
+                }
+                return new Escape(value & 0xFF, end);
             }
-        }
-        if (unescaped.length() >= 2 && i == unescaped.length() - 1) {
-            sb.append(unescaped.charAt(unescaped.length() - 1));
-        }
 
-        return sb.toString();
+            int escaped = switch (next) {
+                case '\\' -> '\\';
+                case '"' -> '"';
+                case 't' -> '\t';
+                case '\'' -> '\'';
+                case 'r' -> '\r';
+                case 'n' -> '\n';
+                case 'f' -> '\f';
+                case 'b' -> '\b';
+                case 'a' -> 7;
+                case 'v' -> 11;
+                case '?' -> '?';
+                default -> -1;
+            };
+            return escaped == -1 ? null : new Escape(escaped, start + 2);
+        }
     }
 
     public static String inverseEscapeStringLiteral(String escaped) {
-        //TODO octal/hexadecimal escapes
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < escaped.length(); ++i) {
             char nextChar = escaped.charAt(i);
@@ -408,10 +431,19 @@ public class Tokenizer {
                     break;
 
                 default:
-                    sb.append(nextChar);
+                    if (isUnprintable(nextChar)) {
+                        //always three digits, so that a digit following it can't be read as part of the escape
+                        sb.append('\\').append(String.format("%03o", (int) nextChar));
+                    } else {
+                        sb.append(nextChar);
+                    }
             }
         }
 
         return sb.toString();
     }
+
+    private static boolean isUnprintable(char c) {
+        return c < ' ' || c == 0x7F;
+    }
 }
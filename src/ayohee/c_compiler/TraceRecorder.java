@@ -0,0 +1,91 @@
+package ayohee.c_compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//nested begin/end spans in the Chrome trace event format, viewable in chrome://tracing, Perfetto or speedscope.
+//each thread's spans nest separately, so units preprocessed in parallel show up as separate tracks
+public class TraceRecorder {
+    public static final TraceRecorder DISABLED = new TraceRecorder(false);
+
+    //macro expansions are only worth a span if they're big enough to show up
+    public static final int LARGE_EXPANSION_TOKENS = 32;
+    public static final long LARGE_EXPANSION_NANOS = 50_000;
+
+    private final boolean enabled;
+    private final long origin = System.nanoTime();
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+
+    public TraceRecorder(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void begin(String name, String category) {
+        begin(name, category, null);
+    }
+    public void begin(String name, String category, String detail) {
+        if (enabled) {
+            events.add(new Event('B', name, category, Thread.currentThread().threadId(), System.nanoTime(), 0, detail));
+        }
+    }
+
+    public void end() {
+        if (enabled) {
+            events.add(new Event('E', null, null, Thread.currentThread().threadId(), System.nanoTime(), 0, null));
+        }
+    }
+
+    public void macroExpansion(String macro, long startNanos, int tokensProduced) {
+        if (!enabled) {
+            return;
+        }
+
+        long duration = System.nanoTime() - startNanos;
+        if (tokensProduced >= LARGE_EXPANSION_TOKENS || duration >= LARGE_EXPANSION_NANOS) {
+            events.add(new Event('X', macro, "macro", Thread.currentThread().threadId(), startNanos, duration, tokensProduced + " tokens"));
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        JsonWriter json = new JsonWriter();
+        json.beginObject();
+        json.name("displayTimeUnit").value("ms");
+        json.name("traceEvents").beginArray();
+        for (Event event : events) {
+            json.newline();
+            event.writeJson(json, origin);
+        }
+        json.endArray();
+        json.endObject();
+
+        Files.writeString(path, json.toString());
+    }
+
+    private record Event(char phase, String name, String category, long thread, long timestamp, long duration, String detail) {
+        private void writeJson(JsonWriter json, long origin) {
+            json.beginObject();
+            json.name("ph").value(String.valueOf(phase));
+            if (name != null) {
+                json.name("name").value(name);
+                json.name("cat").value(category);
+            }
+            json.name("pid").value(1);
+            json.name("tid").value(thread);
+            json.name("ts").value((timestamp - origin) / 1000.0);
+            if (phase == 'X') {
+                json.name("dur").value(duration / 1000.0);
+            }
+            if (detail != null) {
+                json.name("args").beginObject().name("detail").value(detail).endObject();
+            }
+            json.endObject();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ayohee.c_compiler;
+
+import java.util.Arrays;
+
+//timings and counts for a single translation unit. phase times are exclusive: time spent in a nested phase
+//(e.g. tokenizing an included header while executing directives) is only charged to the innermost one,
+//so nothing is counted twice. whatever falls outside every phase is reported as "other"
+public class UnitMetrics {
+    public enum Phase {
+        READING,
+        TRIGRAPHS,
+        SPLICING,
+        TOKENIZING,
+        DIRECTIVES,
+        MACRO_EXPANSION,
+        INCLUDES,
+        WRITING
+    }
+
+    public enum Counter {
+        BYTES_READ,
+        TOKENS_TOKENIZED,
+        TOKENS_WRITTEN,
+        MACROS_EXPANDED,
+        FILES_INCLUDED,
+        HEADER_CACHE_HITS,
+        HEADER_CACHE_MISSES,
+        CONTEXT_CACHE_HITS,
+        OUTPUT_CACHE_HITS,
+        OUTPUT_CACHE_MISSES
+    }
+
+    public static final UnitMetrics DISABLED = new UnitMetrics("", false);
+
+    private final String unit;
+    private final boolean enabled;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final long[] counts = new long[Counter.values().length];
+    private long totalNanos;
+
+    private Phase[] phaseStack = new Phase[16];
+    private int phaseDepth = 0;
+    private long lastSwitch;
+    private long started;
+
+    public UnitMetrics(String unit) {
+        this(unit, true);
+    }
+    private UnitMetrics(String unit, boolean enabled) {
+        this.unit = unit;
+        this.enabled = enabled;
+    }
+
+    public void start() {
+        if (enabled) {
+            started = System.nanoTime();
+        }
+    }
+    public void finish() {
+        if (enabled) {
+            totalNanos += System.nanoTime() - started;
+        }
+    }
+
+    public void enter(Phase phase) {
+        if (!enabled) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (phaseDepth > 0) {
+            phaseNanos[phaseStack[phaseDepth - 1].ordinal()] += now - lastSwitch;
+        }
+        if (phaseDepth == phaseStack.length) {
+            phaseStack = Arrays.copyOf(phaseStack, phaseStack.length * 2);
+        }
+        phaseStack[phaseDepth++] = phase;
+        lastSwitch = now;
+    }
+
+    public void exit() {
+        if (!enabled) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        phaseNanos[phaseStack[--phaseDepth].ordinal()] += now - lastSwitch;
+        lastSwitch = now;
+    }
+
+    public void increment(Counter counter) {
+        add(counter, 1);
+    }
+    public void add(Counter counter, long amount) {
+        if (enabled) {
+            counts[counter.ordinal()] += amount;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+    public long getCount(Counter counter) {
+        return counts[counter.ordinal()];
+    }
+
+    public void mergeFrom(UnitMetrics other) {
+        totalNanos += other.totalNanos;
+        for (int i = 0; i < phaseNanos.length; ++i) {
+            phaseNanos[i] += other.phaseNanos[i];
+        }
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] += other.counts[i];
+        }
+    }
+
+    void writeJson(JsonWriter json) {
+        json.beginObject();
+        json.name("unit").value(unit);
+        json.name("totalNanos").value(totalNanos);
+
+        json.name("phaseNanos").beginObject();
+        long unattributed = totalNanos;
+        for (Phase phase : Phase.values()) {
+            json.name(jsonName(phase)).value(getPhaseNanos(phase));
+            unattributed -= getPhaseNanos(phase);
+        }
+        json.name("other").value(unattributed);
+        json.endObject();
+
+        json.name("counters").beginObject();
+        for (Counter counter : Counter.values()) {
+            json.name(jsonName(counter)).value(getCount(counter));
+        }
+        json.endObject();
+
+        json.endObject();
+    }
+
+    //MACRO_EXPANSION -> macroExpansion
+    private static String jsonName(Enum<?> constant) {
+        StringBuilder sb = new StringBuilder();
+        boolean upperNext = false;
+        for (char c : constant.name().toCharArray()) {
+            if (c == '_') {
+                upperNext = true;
+            } else {
+                sb.append(upperNext ? c : Character.toLowerCase(c));
+                upperNext = false;
+            }
+        }
+        return sb.toString();
+    }
+}
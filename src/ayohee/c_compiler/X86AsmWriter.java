@@ -0,0 +1,232 @@
+package ayohee.c_compiler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//writes a unit's machine code out as GNU assembler source, in AT&T syntax
+public final class X86AsmWriter {
+    private final X86Module module;
+    private final StringBuilder out = new StringBuilder();
+    private final Map<X86Block, String> labels = new HashMap<>();
+
+    private X86AsmWriter(X86Module module) {
+        this.module = module;
+    }
+
+    public static void write(X86Module module, Path asmFile) throws IOException {
+        X86AsmWriter writer = new X86AsmWriter(module);
+        writer.writeModule();
+        try (BufferedWriter file = Files.newBufferedWriter(asmFile, StandardCharsets.UTF_8)) {
+            file.append(writer.out);
+        }
+    }
+
+    private void writeModule() {
+        List<X86Function> functions = module.getFunctions();
+        for (int f = 0; f < functions.size(); ++f) {
+            for (X86Block block : functions.get(f).getBlocks()) {
+                labels.put(block, ".LBB" + f + "_" + block.getId());
+            }
+        }
+
+        if (!functions.isEmpty()) {
+            out.append("\t.text\n");
+        }
+        for (X86Function function : functions) {
+            writeFunction(function);
+        }
+        for (IrModule.Global global : module.getGlobals()) {
+            writeGlobal(global);
+        }
+        out.append("\t.section\t.note.GNU-stack,\"\",@progbits\n");
+    }
+
+    private void writeFunction(X86Function function) {
+        String name = function.getName();
+        if (!function.isStatic()) {
+            out.append("\t.globl\t").append(name).append('\n');
+        }
+        out.append("\t.type\t").append(name).append(", @function\n");
+        out.append(name).append(":\n");
+        for (X86Block block : function.getBlocks()) {
+            out.append(labels.get(block)).append(":\n");
+            for (X86Instruction instruction : block.getInstructions()) {
+                out.append('\t');
+                writeInstruction(instruction);
+                out.append('\n');
+            }
+        }
+        out.append("\t.size\t").append(name).append(", .-").append(name).append("\n\n");
+    }
+
+    private void writeGlobal(IrModule.Global global) {
+        String name = global.getName();
+        byte[] data = global.getData();
+        if (data == null) {
+            out.append("\t.bss\n");
+        } else if (global.isReadOnly() && !global.getRelocations().isEmpty()) {
+            out.append("\t.section\t.data.rel.ro,\"aw\"\n"); //addresses are written when the program is loaded
+        } else if (global.isReadOnly()) {
+            out.append("\t.section\t.rodata\n");
+        } else {
+            out.append("\t.data\n");
+        }
+        if (!global.isStatic()) {
+            out.append("\t.globl\t").append(name).append('\n');
+        }
+        out.append("\t.type\t").append(name).append(", @object\n");
+        out.append("\t.size\t").append(name).append(", ").append(global.getSize()).append('\n');
+        out.append("\t.balign\t").append(global.getAlign()).append('\n');
+        out.append(name).append(":\n");
+        if (data == null) {
+            out.append("\t.zero\t").append(Math.max(1, global.getSize())).append("\n\n");
+            return;
+        }
+
+        Map<Long, IrModule.Relocation> relocations = new HashMap<>();
+        for (IrModule.Relocation relocation : global.getRelocations()) {
+            relocations.put(relocation.offset(), relocation);
+        }
+        int bytesOnLine = 0;
+        for (long offset = 0; offset < data.length; ) {
+            IrModule.Relocation relocation = relocations.get(offset);
+            if (relocation != null) {
+                if (bytesOnLine > 0) {
+                    out.append('\n');
+                    bytesOnLine = 0;
+                }
+                out.append("\t.quad\t").append(relocation.symbol());
+                if (relocation.addend() != 0) {
+                    out.append(relocation.addend() > 0 ? "+" : "").append(relocation.addend());
+                }
+                out.append('\n');
+                offset += 8;
+                continue;
+            }
+            out.append(bytesOnLine == 0 ? "\t.byte\t" : ",").append(data[(int) offset] & 0xFF);
+            if (++bytesOnLine == 16) {
+                out.append('\n');
+                bytesOnLine = 0;
+            }
+            ++offset;
+        }
+        if (bytesOnLine > 0) {
+            out.append('\n');
+        }
+        out.append('\n');
+    }
+
+
+    //INSTRUCTIONS
+    private void writeInstruction(X86Instruction instruction) {
+        X86Operand[] operands = instruction.getOperands();
+        int size = instruction.getSize();
+        switch (instruction.getOp()) {
+            case MOVSX, MOVZX -> {
+                String name = instruction.getOp() == X86Instruction.Op.MOVSX ? "movs" : "movz";
+                if (instruction.getSourceSize() == 4) {
+                    name = "movslq"; //the only one without a zero extending twin, as writing 32 bits clears the rest
+                } else {
+                    name += suffix(instruction.getSourceSize()) + suffix(size);
+                }
+                out.append(name).append('\t');
+                operand(operands[1], instruction.getSourceSize());
+                out.append(", ");
+                operand(operands[0], size);
+            }
+            case SIGN_EXTEND_RAX -> out.append(size == 8 ? "cqto" : "cltd");
+            case SETCC -> {
+                out.append("set").append(instruction.getCondition().name().toLowerCase()).append('\t');
+                operand(operands[0], 1);
+            }
+            case JCC -> out.append('j').append(instruction.getCondition().name().toLowerCase()).append('\t').append(labels.get(((X86Operand.Label) operands[0]).block()));
+            case JMP -> out.append("jmp\t").append(labels.get(((X86Operand.Label) operands[0]).block()));
+            case RET -> out.append("ret");
+            case CALL -> {
+                out.append("call\t");
+                if (operands[0] instanceof X86Operand.Symbol symbol) {
+                    out.append(symbol.name()).append(module.isDefined(symbol.name()) ? "" : "@PLT");
+                } else {
+                    out.append('*');
+                    operand(operands[0], 8);
+                }
+            }
+            case SHL, SHR, SAR -> {
+                out.append(instruction.getOp().name().toLowerCase()).append(suffix(size)).append('\t');
+                operand(operands[1], 1); //the count is either an immediate or cl
+                out.append(", ");
+                operand(operands[0], size);
+            }
+            default -> {
+                String name = instruction.getOp().name().toLowerCase();
+                if (instruction.getOp() == X86Instruction.Op.MOV && operands[1] instanceof X86Operand.Immediate immediate
+                        && !immediate.fitsInt() && operands[0] instanceof X86Operand.Register) {
+                    name = "movabs";
+                }
+                out.append(name).append(suffix(size)).append('\t');
+                //AT&T order is the reverse of Intel's
+                for (int i = operands.length - 1; i >= 0; --i) {
+                    operand(operands[i], size);
+                    if (i > 0) {
+                        out.append(", ");
+                    }
+                }
+            }
+        }
+    }
+
+    private static String suffix(int size) {
+        return switch (size) {
+            case 1 -> "b";
+            case 2 -> "w";
+            case 4 -> "l";
+            default -> "q";
+        };
+    }
+
+    private void operand(X86Operand operand, int size) {
+        switch (operand) {
+            case X86Operand.Register register -> out.append(X86Register.of(register.number()).name(size));
+            case X86Operand.Immediate immediate -> out.append('$').append(immediate.value());
+            case X86Operand.Memory memory -> memory(memory);
+            case X86Operand.Label label -> out.append(labels.get(label.block()));
+            case X86Operand.Symbol symbol -> out.append(symbol.name());
+        }
+    }
+
+    private void memory(X86Operand.Memory memory) {
+        if (memory.symbol() != null) {
+            out.append(memory.symbol());
+            if (memory.throughGot()) {
+                out.append("@GOTPCREL");
+            } else if (memory.displacement() != 0) {
+                out.append(memory.displacement() > 0 ? "+" : "").append(memory.displacement());
+            }
+            out.append("(%rip)");
+            return;
+        }
+        long displacement = memory.displacement();
+        int base = memory.base();
+        if (memory.slot() != null) {
+            displacement += memory.slot().getOffset();
+            base = X86Register.RBP.number();
+        }
+        if (displacement != 0) {
+            out.append(displacement);
+        }
+        out.append('(');
+        if (base >= 0) {
+            out.append(X86Register.of(base).name(8));
+        }
+        if (memory.index() >= 0) {
+            out.append(", ").append(X86Register.of(memory.index()).name(8)).append(", ").append(memory.scale());
+        }
+        out.append(')');
+    }
+}
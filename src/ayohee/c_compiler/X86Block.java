@@ -0,0 +1,51 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//a basic block of machine code, ending in jumps to its successors or a return
+public final class X86Block {
+    private final int id;
+    private final List<X86Instruction> instructions = new ArrayList<>();
+    private final List<X86Block> successors = new ArrayList<>();
+    private final List<X86Block> predecessors = new ArrayList<>();
+
+    X86Block(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+    public List<X86Instruction> getInstructions() {
+        return instructions;
+    }
+    public List<X86Block> getSuccessors() {
+        return successors;
+    }
+    public List<X86Block> getPredecessors() {
+        return predecessors;
+    }
+
+    public void append(X86Instruction instruction) {
+        instructions.add(instruction);
+    }
+
+    public void addSuccessor(X86Block successor) {
+        successors.add(successor);
+        successor.predecessors.add(this);
+    }
+
+    //where the jumps at the end start, which is where moves that have to happen on the way out go
+    public int terminatorIndex() {
+        int index = instructions.size();
+        while (index > 0) {
+            X86Instruction.Op op = instructions.get(index - 1).getOp();
+            if (op != X86Instruction.Op.JMP && op != X86Instruction.Op.JCC && op != X86Instruction.Op.RET) {
+                break;
+            }
+            --index;
+        }
+        return index;
+    }
+}
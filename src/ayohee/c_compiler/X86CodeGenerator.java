@@ -0,0 +1,127 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//the x86-64 back end: instruction selection, register allocation, then the frame set up and torn down around each
+//function's code, and jumps to the block laid out next dropped
+public final class X86CodeGenerator {
+    public static X86Module generate(IrModule module) {
+        return generate(module, Set.of());
+    }
+
+    //programSymbols are defined by other modules linked into the same program, see X86Module
+    public static X86Module generate(IrModule module, Set<String> programSymbols) {
+        X86Module machine = new X86Module(module, programSymbols);
+        for (IrFunction source : module.getFunctions()) {
+            X86Function function = X86InstructionSelector.select(source, machine.getDefinedSymbols());
+            machine.addAllocationStatistics(LinearScanAllocator.allocate(function));
+            addPrologueAndEpilogues(function);
+            skipEmptyBlocks(function);
+            removeFallthroughJumps(function);
+            machine.getFunctions().add(function);
+        }
+        return machine;
+    }
+
+    private static void addPrologueAndEpilogues(X86Function function) {
+        X86Operand.Register rsp = X86Instruction.register(X86Register.RSP);
+        X86Operand.Register rbp = X86Instruction.register(X86Register.RBP);
+        List<X86Register> saved = function.getSavedRegisters();
+
+        List<X86Instruction> prologue = new ArrayList<>();
+        prologue.add(new X86Instruction(X86Instruction.Op.PUSH, 8, rbp));
+        prologue.add(new X86Instruction(X86Instruction.Op.MOV, 8, rbp, rsp));
+        for (X86Register register : saved) {
+            prologue.add(new X86Instruction(X86Instruction.Op.PUSH, 8, X86Instruction.register(register)));
+        }
+        if (function.getFrameSize() > 0) {
+            prologue.add(new X86Instruction(X86Instruction.Op.SUB, 8, rsp, new X86Operand.Immediate(function.getFrameSize())));
+        }
+        function.getBlocks().getFirst().getInstructions().addAll(0, prologue);
+
+        for (X86Block block : function.getBlocks()) {
+            List<X86Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); ++i) {
+                if (instructions.get(i).getOp() != X86Instruction.Op.RET) {
+                    continue;
+                }
+                List<X86Instruction> epilogue = new ArrayList<>();
+                if (saved.isEmpty()) {
+                    epilogue.add(new X86Instruction(X86Instruction.Op.MOV, 8, rsp, rbp));
+                } else {
+                    epilogue.add(new X86Instruction(X86Instruction.Op.LEA, 8, rsp, X86Operand.Memory.of(X86Register.RBP.number(), -8L * saved.size())));
+                    for (int r = saved.size() - 1; r >= 0; --r) {
+                        epilogue.add(new X86Instruction(X86Instruction.Op.POP, 8, X86Instruction.register(saved.get(r))));
+                    }
+                }
+                epilogue.add(new X86Instruction(X86Instruction.Op.POP, 8, rbp));
+                instructions.addAll(i, epilogue);
+                i += epilogue.size();
+            }
+        }
+    }
+
+    //edges given a block of their own that didn't end up needing any moves only jump on, so jumps there can go
+    //straight to wherever they lead instead
+    private static void skipEmptyBlocks(X86Function function) {
+        List<X86Block> blocks = function.getBlocks();
+        Map<X86Block, X86Block> forwarded = new HashMap<>();
+        for (X86Block block : blocks) {
+            List<X86Instruction> instructions = block.getInstructions();
+            if (block != blocks.getFirst() && instructions.size() == 1 && instructions.getFirst().getOp() == X86Instruction.Op.JMP) {
+                forwarded.put(block, ((X86Operand.Label) instructions.getFirst().getOperand(0)).block());
+            }
+        }
+        if (forwarded.isEmpty()) {
+            return;
+        }
+        Set<X86Block> targeted = new HashSet<>();
+        for (X86Block block : blocks) {
+            for (X86Instruction instruction : block.getInstructions()) {
+                if (instruction.getOp() == X86Instruction.Op.JMP || instruction.getOp() == X86Instruction.Op.JCC) {
+                    X86Block target = ((X86Operand.Label) instruction.getOperand(0)).block();
+                    Set<X86Block> seen = new HashSet<>();
+                    while (forwarded.containsKey(target) && seen.add(target)) { //an empty loop jumps around forever
+                        target = forwarded.get(target);
+                    }
+                    instruction.setOperand(0, new X86Operand.Label(target));
+                    targeted.add(target);
+                }
+            }
+        }
+        blocks.removeIf(block -> forwarded.containsKey(block) && !targeted.contains(block));
+    }
+
+    private static void removeFallthroughJumps(X86Function function) {
+        List<X86Block> blocks = function.getBlocks();
+        for (int b = 0; b + 1 < blocks.size(); ++b) {
+            List<X86Instruction> instructions = blocks.get(b).getInstructions();
+            X86Block next = blocks.get(b + 1);
+            X86Instruction last = instructions.getLast();
+            if (last.getOp() != X86Instruction.Op.JMP) {
+                continue;
+            }
+            if (jumpsTo(last, next)) {
+                instructions.removeLast();
+                continue;
+            }
+            //a conditional jump over an unconditional one becomes the opposite conditional jump
+            if (instructions.size() >= 2) {
+                X86Instruction conditional = instructions.get(instructions.size() - 2);
+                if (conditional.getOp() == X86Instruction.Op.JCC && jumpsTo(conditional, next)) {
+                    instructions.removeLast();
+                    instructions.set(instructions.size() - 1, X86Instruction.conditional(X86Instruction.Op.JCC, conditional.getCondition().inverse(), last.getOperand(0)));
+                }
+            }
+        }
+    }
+
+    private static boolean jumpsTo(X86Instruction jump, X86Block block) {
+        return jump.getOperand(0) instanceof X86Operand.Label label && label.block() == block;
+    }
+}
@@ -0,0 +1,504 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//turns a unit's allocated machine code into the bytes the processor runs, in a relocatable object. jumps between blocks
+//start out in their two byte form and only grow to the five or six byte one where the target turns out to be too far.
+//every function is encoded before any section is filled, so that each section is allocated once at its final size
+public final class X86Encoder {
+    private final ElfObject object = new ElfObject();
+    private final ElfObject.Section text;
+    private final ElfObject.Section data;
+    private final ElfObject.Section relocatedReadOnly;
+    private final ElfObject.Section readOnly;
+    private final ElfObject.Section bss;
+
+    //the function being encoded: the bytes of each block up to the jumps at its end, and everything in them that has
+    //to be relocated, at offsets into those bytes
+    private byte[] code = new byte[256];
+    private int length = 0;
+    private final List<PendingRelocation> relocations = new ArrayList<>();
+
+    //the instruction being encoded, which refers to at most one symbol
+    private int relocationOffset = -1;
+    private String relocationSymbol;
+    private int relocationType;
+    private long relocationDisplacement;
+
+    private X86Encoder() {
+        text = object.addSection(".text", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_EXECINSTR);
+        data = object.addSection(".data", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_WRITE);
+        //constants holding addresses are written when the program is loaded, so can't be in .rodata itself
+        relocatedReadOnly = object.addSection(".data.rel.ro", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_WRITE);
+        readOnly = object.addSection(".rodata", ElfObject.SHT_PROGBITS, ElfObject.SHF_ALLOC);
+        bss = object.addSection(".bss", ElfObject.SHT_NOBITS, ElfObject.SHF_ALLOC | ElfObject.SHF_WRITE);
+        object.addSection(".note.GNU-stack", ElfObject.SHT_PROGBITS, 0).alwaysEmit(); //the stack needn't be executable
+    }
+
+    public static ElfObject encode(X86Module module) {
+        X86Encoder encoder = new X86Encoder();
+        List<EncodedFunction> functions = new ArrayList<>();
+        for (X86Function function : module.getFunctions()) {
+            functions.add(encoder.encodeFunction(function));
+        }
+        encoder.presize(functions, module.getGlobals());
+        for (EncodedFunction function : functions) {
+            encoder.place(function);
+        }
+        for (IrModule.Global global : module.getGlobals()) {
+            encoder.encodeGlobal(global);
+        }
+        return encoder.object;
+    }
+
+    private void presize(List<EncodedFunction> functions, List<IrModule.Global> globals) {
+        long textSize = 0;
+        for (EncodedFunction function : functions) {
+            textSize += function.bytes().length;
+        }
+        text.presize(textSize);
+        Map<ElfObject.Section, Long> sizes = new HashMap<>();
+        for (IrModule.Global global : globals) {
+            ElfObject.Section section = sectionOf(global);
+            if (section != bss) {
+                sizes.merge(section, (long) global.getData().length, (size, added) -> ElfObject.align(size, global.getAlign()) + added);
+            }
+        }
+        sizes.forEach(ElfObject.Section::presize);
+    }
+
+    private ElfObject.Section sectionOf(IrModule.Global global) {
+        if (global.getData() == null) {
+            return bss;
+        } else if (!global.isReadOnly()) {
+            return data;
+        }
+        return global.getRelocations().isEmpty() ? readOnly : relocatedReadOnly;
+    }
+
+    private void encodeGlobal(IrModule.Global global) {
+        byte[] bytes = global.getData();
+        ElfObject.Section section = sectionOf(global);
+        long offset = section.alignTo(global.getAlign(), (byte) 0);
+        object.symbol(global.getName()).define(section, offset, global.getSize(), ElfObject.STT_OBJECT, global.isStatic());
+        if (bytes == null) {
+            section.reserve(Math.max(1, global.getSize()));
+            return;
+        }
+        section.put(bytes, 0, bytes.length);
+        for (IrModule.Relocation relocation : global.getRelocations()) {
+            section.addRelocation(offset + relocation.offset(), object.symbol(relocation.symbol()), ElfObject.R_X86_64_64, relocation.addend());
+        }
+    }
+
+
+    //FUNCTIONS
+    private EncodedFunction encodeFunction(X86Function function) {
+        List<X86Block> blocks = function.getBlocks();
+        Map<X86Block, Integer> blockIndices = new HashMap<>();
+        for (int b = 0; b < blocks.size(); ++b) {
+            blockIndices.put(blocks.get(b), b);
+        }
+
+        length = 0;
+        relocations.clear();
+        int[] bodyStarts = new int[blocks.size() + 1];
+        List<List<Jump>> jumps = new ArrayList<>();
+        for (int b = 0; b < blocks.size(); ++b) {
+            bodyStarts[b] = length;
+            List<X86Instruction> instructions = blocks.get(b).getInstructions();
+            List<Jump> blockJumps = new ArrayList<>();
+            for (X86Instruction instruction : instructions) {
+                if (instruction.getOp() == X86Instruction.Op.JMP || instruction.getOp() == X86Instruction.Op.JCC) {
+                    X86Block target = ((X86Operand.Label) instruction.getOperand(0)).block();
+                    blockJumps.add(new Jump(instruction.getCondition(), blockIndices.get(target)));
+                } else {
+                    encode(instruction);
+                }
+            }
+            jumps.add(blockJumps);
+        }
+        bodyStarts[blocks.size()] = length;
+
+        //growing one jump can only push others further from their targets, so this settles once nothing more grows
+        int[] blockAddresses = new int[blocks.size()];
+        int size = 0;
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            int address = 0;
+            for (int b = 0; b < blocks.size(); ++b) {
+                blockAddresses[b] = address;
+                address += bodyStarts[b + 1] - bodyStarts[b];
+                for (Jump jump : jumps.get(b)) {
+                    jump.address = address;
+                    address += jump.size();
+                }
+            }
+            size = address;
+            for (List<Jump> blockJumps : jumps) {
+                for (Jump jump : blockJumps) {
+                    if (!jump.isNear && !fitsByte(blockAddresses[jump.target] - (jump.address + 2L))) {
+                        jump.isNear = true;
+                        grew = true;
+                    }
+                }
+            }
+        }
+
+        byte[] bytes = new byte[size];
+        for (int b = 0; b < blocks.size(); ++b) {
+            System.arraycopy(code, bodyStarts[b], bytes, blockAddresses[b], bodyStarts[b + 1] - bodyStarts[b]);
+            for (Jump jump : jumps.get(b)) {
+                writeJump(bytes, jump, blockAddresses[jump.target]);
+            }
+        }
+        List<PendingRelocation> placed = new ArrayList<>(relocations.size());
+        int block = 0;
+        for (PendingRelocation relocation : relocations) {
+            while (relocation.offset() >= bodyStarts[block + 1]) {
+                ++block;
+            }
+            int offset = blockAddresses[block] + (relocation.offset() - bodyStarts[block]);
+            placed.add(new PendingRelocation(offset, relocation.symbol(), relocation.type(), relocation.addend()));
+        }
+        return new EncodedFunction(function.getName(), function.isStatic(), bytes, placed);
+    }
+
+    private void place(EncodedFunction function) {
+        long start = text.size();
+        text.put(function.bytes(), 0, function.bytes().length);
+        for (PendingRelocation relocation : function.relocations()) {
+            text.addRelocation(start + relocation.offset(), object.symbol(relocation.symbol()), relocation.type(), relocation.addend());
+        }
+        object.symbol(function.name()).define(text, start, function.bytes().length, ElfObject.STT_FUNC, function.isStatic());
+    }
+
+    private static void writeJump(byte[] bytes, Jump jump, int targetAddress) {
+        int at = jump.address;
+        int end = jump.address + jump.size();
+        if (!jump.isNear) {
+            bytes[at] = (byte) (jump.condition == null ? 0xEB : 0x70 | jump.condition.code());
+            bytes[at + 1] = (byte) (targetAddress - end);
+            return;
+        }
+        if (jump.condition == null) {
+            bytes[at++] = (byte) 0xE9;
+        } else {
+            bytes[at++] = 0x0F;
+            bytes[at++] = (byte) (0x80 | jump.condition.code());
+        }
+        for (int i = 0; i < 4; ++i) {
+            bytes[at + i] = (byte) ((targetAddress - end) >>> (8 * i));
+        }
+    }
+
+    private static boolean fitsByte(long value) {
+        return value == (byte) value;
+    }
+
+
+    //INSTRUCTIONS
+    private void encode(X86Instruction instruction) {
+        relocationOffset = -1;
+        X86Operand[] operands = instruction.getOperands();
+        int size = instruction.getSize();
+        switch (instruction.getOp()) {
+            case MOV -> mov(size, operands[0], operands[1]);
+            case MOVSX, MOVZX -> {
+                int opcode = switch (instruction.getSourceSize()) {
+                    case 1 -> instruction.getOp() == X86Instruction.Op.MOVSX ? 0x0FBE : 0x0FB6;
+                    case 2 -> instruction.getOp() == X86Instruction.Op.MOVSX ? 0x0FBF : 0x0FB7;
+                    default -> 0x63; //movslq
+                };
+                withModRM(size, opcode, number(operands[0]), operands[1], false, instruction.getSourceSize() == 1);
+            }
+            case LEA -> withModRM(8, 0x8D, number(operands[0]), operands[1], false, false);
+            case ADD -> arithmetic(0, size, operands[0], operands[1]);
+            case OR -> arithmetic(1, size, operands[0], operands[1]);
+            case AND -> arithmetic(4, size, operands[0], operands[1]);
+            case SUB -> arithmetic(5, size, operands[0], operands[1]);
+            case XOR -> arithmetic(6, size, operands[0], operands[1]);
+            case CMP -> arithmetic(7, size, operands[0], operands[1]);
+            case IMUL -> {
+                if (operands.length == 2) {
+                    withModRM(size, 0x0FAF, number(operands[0]), operands[1], false, false);
+                } else {
+                    long value = ((X86Operand.Immediate) operands[2]).value();
+                    boolean small = fitsByte(value);
+                    withModRM(size, small ? 0x6B : 0x69, number(operands[0]), operands[1], false, false);
+                    immediate(value, small ? 1 : Math.min(size, 4));
+                }
+            }
+            case SHL, SHR, SAR -> {
+                int digit = switch (instruction.getOp()) {
+                    case SHL -> 4;
+                    case SHR -> 5;
+                    default -> 7;
+                };
+                boolean isByte = size == 1;
+                if (operands[1] instanceof X86Operand.Immediate count) {
+                    if (count.value() == 1) {
+                        withModRM(size, isByte ? 0xD0 : 0xD1, digit, operands[0], false, isByte);
+                    } else {
+                        withModRM(size, isByte ? 0xC0 : 0xC1, digit, operands[0], false, isByte);
+                        immediate(count.value(), 1);
+                    }
+                } else { //by cl
+                    withModRM(size, isByte ? 0xD2 : 0xD3, digit, operands[0], false, isByte);
+                }
+            }
+            case NEG -> unary(3, size, operands[0]);
+            case NOT -> unary(2, size, operands[0]);
+            case DIV -> unary(6, size, operands[0]);
+            case IDIV -> unary(7, size, operands[0]);
+            case TEST -> withModRM(size, size == 1 ? 0x84 : 0x85, number(operands[1]), operands[0], size == 1, size == 1);
+            case SETCC -> withModRM(4, 0x0F90 | instruction.getCondition().code(), 0, operands[0], false, true);
+            case SIGN_EXTEND_RAX -> {
+                if (size == 8) {
+                    put(0x48);
+                }
+                put(0x99);
+            }
+            case CALL -> {
+                if (operands[0] instanceof X86Operand.Symbol symbol) {
+                    put(0xE8);
+                    relocate(symbol.name(), ElfObject.R_X86_64_PLT32, 0);
+                    putInt(0);
+                } else {
+                    withModRM(4, 0xFF, 2, operands[0], false, false);
+                }
+            }
+            case RET -> put(0xC3);
+            case PUSH -> shortRegister(0x50, number(operands[0]));
+            case POP -> shortRegister(0x58, number(operands[0]));
+            case XCHG -> {
+                if (operands[0] instanceof X86Operand.Register first && operands[1] instanceof X86Operand.Register second
+                        && (first.number() == X86Register.RAX.number() || second.number() == X86Register.RAX.number())) {
+                    int other = first.number() == X86Register.RAX.number() ? second.number() : first.number();
+                    prefixes(size, 0, -1, other, false); //swapping with the accumulator has the other register in the opcode
+                    put(0x90 | (other & 7));
+                } else if (operands[1] instanceof X86Operand.Register source) {
+                    withModRM(size, 0x87, source.number(), operands[0], false, false);
+                } else {
+                    withModRM(size, 0x87, number(operands[0]), operands[1], false, false);
+                }
+            }
+            case JMP, JCC -> throw new IllegalStateException("Jumps are laid out with their blocks");
+        }
+
+        if (relocationOffset >= 0) {
+            //the processor adds the displacement to where the next instruction starts, not to where it's stored
+            long addend = relocationDisplacement - (length - relocationOffset);
+            relocations.add(new PendingRelocation(relocationOffset, relocationSymbol, relocationType, addend));
+        }
+    }
+
+    private void mov(int size, X86Operand destination, X86Operand source) {
+        boolean isByte = size == 1;
+        if (source instanceof X86Operand.Immediate immediate) {
+            long value = immediate.value();
+            if (destination instanceof X86Operand.Register register) {
+                if (size == 8 && (value >>> 32) == 0) {
+                    size = 4; //writing the low half clears the high one, so this is the same and shorter
+                }
+                if (size == 8 && immediate.fitsInt()) {
+                    withModRM(8, 0xC7, 0, destination, false, false);
+                    immediate(value, 4);
+                } else {
+                    prefixes(size, 0, -1, register.number(), isByte && register.number() >= 4);
+                    put((isByte ? 0xB0 : 0xB8) | (register.number() & 7));
+                    immediate(value, size);
+                }
+            } else {
+                withModRM(size, isByte ? 0xC6 : 0xC7, 0, destination, false, false);
+                immediate(value, Math.min(size, 4));
+            }
+        } else if (source instanceof X86Operand.Register register) {
+            withModRM(size, isByte ? 0x88 : 0x89, register.number(), destination, isByte, isByte);
+        } else {
+            withModRM(size, isByte ? 0x8A : 0x8B, number(destination), source, isByte, isByte);
+        }
+    }
+
+    //add, or, and, sub, xor and cmp share their encodings, told apart by digit
+    private void arithmetic(int digit, int size, X86Operand destination, X86Operand source) {
+        boolean isByte = size == 1;
+        if (source instanceof X86Operand.Immediate immediate) {
+            if (isByte) {
+                withModRM(1, 0x80, digit, destination, false, true);
+                immediate(immediate.value(), 1);
+            } else if (fitsByte(immediate.value())) {
+                withModRM(size, 0x83, digit, destination, false, false);
+                immediate(immediate.value(), 1);
+            } else if (destination instanceof X86Operand.Register register && register.number() == X86Register.RAX.number()) {
+                prefixes(size, 0, -1, -1, false); //with the accumulator there's a form a byte shorter
+                put(digit * 8 + 5);
+                immediate(immediate.value(), Math.min(size, 4));
+            } else {
+                withModRM(size, 0x81, digit, destination, false, false);
+                immediate(immediate.value(), Math.min(size, 4));
+            }
+        } else if (source instanceof X86Operand.Register register) {
+            withModRM(size, digit * 8 + (isByte ? 0 : 1), register.number(), destination, isByte, isByte);
+        } else {
+            withModRM(size, digit * 8 + (isByte ? 2 : 3), number(destination), source, isByte, isByte);
+        }
+    }
+
+    private void unary(int digit, int size, X86Operand operand) {
+        withModRM(size, size == 1 ? 0xF6 : 0xF7, digit, operand, false, size == 1);
+    }
+
+    //push and pop, which have the register in the opcode
+    private void shortRegister(int opcode, int register) {
+        if (register >= 8) {
+            put(0x41);
+        }
+        put(opcode | (register & 7));
+    }
+
+    //the operand size prefix, then a REX prefix if the instruction needs one: for 64 bit operands, for registers from r8
+    //up, or to reach spl, bpl, sil and dil rather than ah, ch, dh and bh
+    private void prefixes(int size, int reg, int index, int rmOrBase, boolean needsRex) {
+        if (size == 2) {
+            put(0x66);
+        }
+        int rex = (size == 8 ? 8 : 0) | ((reg >> 3) & 1) << 2 | (index >= 0 ? ((index >> 3) & 1) << 1 : 0) | (rmOrBase >= 0 ? (rmOrBase >> 3) & 1 : 0);
+        if (rex != 0 || needsRex) {
+            put(0x40 | rex);
+        }
+    }
+
+    //an instruction whose other operand is in the ModRM byte's reg field: either a register or a digit extending the
+    //opcode. regIsByte and rmIsByte say which of them are byte registers
+    private void withModRM(int size, int opcode, int reg, X86Operand rm, boolean regIsByte, boolean rmIsByte) {
+        boolean needsRex = regIsByte && reg >= 4;
+        if (rm instanceof X86Operand.Register register) {
+            prefixes(size, reg, -1, register.number(), needsRex || (rmIsByte && register.number() >= 4));
+            opcode(opcode);
+            put(0xC0 | (reg & 7) << 3 | (register.number() & 7));
+            return;
+        }
+
+        X86Operand.Memory memory = (X86Operand.Memory) rm;
+        if (memory.symbol() != null) {
+            prefixes(size, reg, -1, -1, needsRex);
+            opcode(opcode);
+            put((reg & 7) << 3 | 0b101); //relative to the instruction pointer
+            if (memory.throughGot()) {
+                relocate(memory.symbol(), ElfObject.R_X86_64_GOTPCREL, 0);
+            } else {
+                relocate(memory.symbol(), ElfObject.R_X86_64_PC32, memory.displacement());
+            }
+            putInt(0);
+            return;
+        }
+
+        int base = memory.base();
+        long displacement = memory.displacement();
+        if (memory.slot() != null) {
+            base = X86Register.RBP.number();
+            displacement += memory.slot().getOffset();
+        }
+        int index = memory.index();
+        prefixes(size, reg, index, base, needsRex);
+        opcode(opcode);
+
+        if (base < 0) { //only an index, so a 32 bit displacement stands in for the base
+            put((reg & 7) << 3 | 0b100);
+            put(scaleBits(memory.scale()) << 6 | (index & 7) << 3 | 0b101);
+            putInt((int) displacement);
+            return;
+        }
+        int mod;
+        if (displacement == 0 && (base & 7) != 0b101) { //rbp and r13 with mod 0 mean something else, so take a 0 byte
+            mod = 0;
+        } else if (fitsByte(displacement)) {
+            mod = 1;
+        } else {
+            mod = 2;
+        }
+        if (index < 0 && (base & 7) != 0b100) {
+            put(mod << 6 | (reg & 7) << 3 | (base & 7));
+        } else { //rsp and r12 as a base can only be given in a SIB byte, where an index of rsp means none
+            put(mod << 6 | (reg & 7) << 3 | 0b100);
+            put(scaleBits(memory.scale()) << 6 | (index < 0 ? 0b100 : index & 7) << 3 | (base & 7));
+        }
+        if (mod == 1) {
+            put((int) displacement);
+        } else if (mod == 2) {
+            putInt((int) displacement);
+        }
+    }
+
+    private static int scaleBits(int scale) {
+        return Integer.numberOfTrailingZeros(scale);
+    }
+
+    private void opcode(int opcode) {
+        if (opcode > 0xFF) {
+            put(opcode >> 8);
+        }
+        put(opcode & 0xFF);
+    }
+
+    private void immediate(long value, int size) {
+        for (int i = 0; i < size; ++i) {
+            put((int) (value >>> (8 * i)));
+        }
+    }
+
+    //the next four bytes hold the distance to, or the address of, a symbol, which only the linker knows
+    private void relocate(String symbol, int type, long displacement) {
+        relocationOffset = length;
+        relocationSymbol = symbol;
+        relocationType = type;
+        relocationDisplacement = displacement;
+    }
+
+    private static int number(X86Operand operand) {
+        return ((X86Operand.Register) operand).number();
+    }
+
+    private void put(int b) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[length++] = (byte) b;
+    }
+
+    private void putInt(int value) {
+        immediate(value, 4);
+    }
+
+
+    private record PendingRelocation(int offset, String symbol, int type, long addend) {}
+
+    //a function's finished bytes, with its relocations at offsets from its start
+    private record EncodedFunction(String name, boolean isStatic, byte[] bytes, List<PendingRelocation> relocations) {}
+
+    //a jump at the end of a block, to the block numbered target. condition is null for an unconditional one
+    private static final class Jump {
+        private final X86Instruction.Condition condition;
+        private final int target;
+        private boolean isNear = false;
+        private int address;
+
+        private Jump(X86Instruction.Condition condition, int target) {
+            this.condition = condition;
+            this.target = target;
+        }
+
+        private int size() {
+            if (!isNear) {
+                return 2;
+            }
+            return condition == null ? 5 : 6;
+        }
+    }
+}
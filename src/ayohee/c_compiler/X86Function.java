@@ -0,0 +1,114 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//a function's machine code, its blocks in the order they're laid out. until allocation its instructions refer to virtual
+//registers, and until the frame is laid out its stack slots have no offsets
+public final class X86Function {
+    private final String name;
+    private final boolean isStatic;
+    private final List<X86Block> blocks = new ArrayList<>();
+    private final List<FrameSlot> slots = new ArrayList<>();
+    private int nextVirtualRegister = X86Register.FIRST_VIRTUAL;
+    private int nextBlockId = 0;
+    private long outgoingArgumentBytes = 0;
+
+    //filled in by layOutFrame
+    private final List<X86Register> savedRegisters = new ArrayList<>();
+    private long frameSize = 0;
+
+    public X86Function(String name, boolean isStatic) {
+        this.name = name;
+        this.isStatic = isStatic;
+    }
+
+    public String getName() {
+        return name;
+    }
+    public boolean isStatic() {
+        return isStatic;
+    }
+    public List<X86Block> getBlocks() {
+        return blocks;
+    }
+    public List<FrameSlot> getSlots() {
+        return slots;
+    }
+    public int getVirtualRegisterLimit() {
+        return nextVirtualRegister;
+    }
+    public List<X86Register> getSavedRegisters() {
+        return savedRegisters;
+    }
+    public long getFrameSize() {
+        return frameSize;
+    }
+
+    public X86Block newBlock() {
+        X86Block block = new X86Block(nextBlockId++);
+        blocks.add(block);
+        return block;
+    }
+
+    //a block that isn't in the layout yet, for the caller to put where it's wanted
+    public X86Block newDetachedBlock() {
+        return new X86Block(nextBlockId++);
+    }
+
+    public X86Operand.Register newRegister() {
+        return new X86Operand.Register(nextVirtualRegister++);
+    }
+
+    public FrameSlot newSlot(long size, int align) {
+        FrameSlot slot = new FrameSlot(size, align);
+        slots.add(slot);
+        return slot;
+    }
+
+    //calls with more than six arguments store the rest at the bottom of the frame
+    public void reserveOutgoingArguments(long bytes) {
+        outgoingArgumentBytes = Math.max(outgoingArgumentBytes, bytes);
+    }
+
+    //the frame pointer points at its saved value, with the saved registers under it, then the slots, then the outgoing
+    //arguments at the stack pointer, which is kept 16 byte aligned at calls
+    public void layOutFrame(List<X86Register> used) {
+        savedRegisters.clear();
+        for (X86Register register : used) {
+            if (register.isCalleeSaved()) {
+                savedRegisters.add(register);
+            }
+        }
+        long offset = -8L * savedRegisters.size();
+        for (FrameSlot slot : slots) {
+            offset -= slot.size;
+            offset &= -(long) Math.min(slot.align, 16);
+            slot.offset = offset;
+        }
+        long pushed = 8L * savedRegisters.size();
+        long below = -offset - pushed + outgoingArgumentBytes;
+        frameSize = below + Math.floorMod(-(pushed + below), 16);
+    }
+
+
+    //a piece of the frame, for a variable that lives in memory or a register that's been spilled
+    public static final class FrameSlot {
+        private final long size;
+        private final int align;
+        private long offset;
+
+        private FrameSlot(long size, int align) {
+            this.size = size;
+            this.align = align;
+        }
+
+        public long getSize() {
+            return size;
+        }
+        //from the frame pointer
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package ayohee.c_compiler;
+
+import java.util.function.IntConsumer;
+
+//one machine instruction. operands are in Intel order, destination first, and size is the operand size in bytes
+public final class X86Instruction {
+    public enum Op {
+        MOV, MOVSX, MOVZX, LEA,
+        ADD, SUB, IMUL, AND, OR, XOR, SHL, SHR, SAR, //destination, source. imul also takes destination, source, immediate
+        NEG, NOT,
+        CMP, TEST, SETCC,
+        SIGN_EXTEND_RAX, //cltd or cqto, filling rdx with the sign of rax ahead of a signed division
+        IDIV, DIV,
+        CALL, JMP, JCC, RET,
+        PUSH, POP,
+        XCHG; //only added by the register allocator, to swap registers that have to trade places
+
+        public boolean isShift() {
+            return this == SHL || this == SHR || this == SAR;
+        }
+    }
+
+    //condition codes, numbered as the encoding numbers them
+    public enum Condition {
+        O(0), NO(1), B(2), AE(3), E(4), NE(5), BE(6), A(7), S(8), NS(9), P(10), NP(11), L(12), GE(13), LE(14), G(15);
+
+        private final int code;
+
+        Condition(int code) {
+            this.code = code;
+        }
+
+        public int code() {
+            return code;
+        }
+
+        public Condition inverse() {
+            return values()[code ^ 1];
+        }
+
+        public static Condition of(IrInstruction.Op comparison) {
+            return switch (comparison) {
+                case EQ -> E;
+                case NE -> NE;
+                case SLT -> L;
+                case SLE -> LE;
+                case SGT -> G;
+                case SGE -> GE;
+                case ULT -> B;
+                case ULE -> BE;
+                case UGT -> A;
+                case UGE -> AE;
+                default -> throw new IllegalArgumentException(comparison.name());
+            };
+        }
+    }
+
+    private final Op op;
+    private final int size;
+    private int sourceSize;
+    private Condition condition;
+    private final X86Operand[] operands;
+    private int argumentRegisters; //for calls, how many argument registers they read
+    private boolean variadic; //for calls, which then also read al
+
+    public X86Instruction(Op op, int size, X86Operand... operands) {
+        this.op = op;
+        this.size = size;
+        this.operands = operands;
+    }
+
+    public static X86Instruction extend(Op op, int size, int sourceSize, X86Operand destination, X86Operand source) {
+        X86Instruction instruction = new X86Instruction(op, size, destination, source);
+        instruction.sourceSize = sourceSize;
+        return instruction;
+    }
+
+    public static X86Instruction conditional(Op op, Condition condition, X86Operand... operands) {
+        X86Instruction instruction = new X86Instruction(op, op == Op.SETCC ? 1 : 0, operands);
+        instruction.condition = condition;
+        return instruction;
+    }
+
+    public static X86Instruction call(X86Operand target, int argumentRegisters, boolean variadic) {
+        X86Instruction instruction = new X86Instruction(Op.CALL, 8, target);
+        instruction.argumentRegisters = argumentRegisters;
+        instruction.variadic = variadic;
+        return instruction;
+    }
+
+    public static X86Operand.Register register(int number) {
+        return new X86Operand.Register(number);
+    }
+    public static X86Operand.Register register(X86Register register) {
+        return new X86Operand.Register(register.number());
+    }
+
+    public Op getOp() {
+        return op;
+    }
+    public int getSize() {
+        return size;
+    }
+    public int getSourceSize() {
+        return sourceSize;
+    }
+    public Condition getCondition() {
+        return condition;
+    }
+    public X86Operand[] getOperands() {
+        return operands;
+    }
+    public X86Operand getOperand(int i) {
+        return operands[i];
+    }
+    public void setOperand(int i, X86Operand operand) {
+        operands[i] = operand;
+    }
+    public int getArgumentRegisters() {
+        return argumentRegisters;
+    }
+    public boolean isVariadic() {
+        return variadic;
+    }
+
+    //a plain copy from one register to another, which the allocator tries to give the same register on both sides
+    public boolean isRegisterMove() {
+        return op == Op.MOV && operands[0] instanceof X86Operand.Register && operands[1] instanceof X86Operand.Register;
+    }
+
+    //whether the destination is read as well as written, as it is for two address arithmetic
+    private boolean readsDestination() {
+        return switch (op) {
+            case ADD, SUB, AND, OR, XOR, SHL, SHR, SAR, NEG, NOT, XCHG -> true;
+            case IMUL -> operands.length == 2;
+            default -> false;
+        };
+    }
+
+    //whether operand i is written, as opposed to only read or only making up an address
+    public boolean writesOperand(int i) {
+        if (!(operands[i] instanceof X86Operand.Register)) {
+            return false;
+        }
+        return switch (op) {
+            case CMP, TEST, PUSH, IDIV, DIV, CALL -> false;
+            case XCHG -> true;
+            default -> i == 0;
+        };
+    }
+
+    //every register the instruction reads, physical or virtual, including those that make up memory addresses
+    public void forEachUse(IntConsumer consumer) {
+        switch (op) {
+            case CMP, TEST, PUSH -> {
+                for (X86Operand operand : operands) {
+                    used(operand, consumer);
+                }
+            }
+            case SIGN_EXTEND_RAX -> consumer.accept(X86Register.RAX.number());
+            case IDIV, DIV -> {
+                used(operands[0], consumer);
+                consumer.accept(X86Register.RAX.number());
+                consumer.accept(X86Register.RDX.number());
+            }
+            case CALL -> {
+                used(operands[0], consumer);
+                for (int i = 0; i < argumentRegisters; ++i) {
+                    consumer.accept(X86Register.ARGUMENTS[i].number());
+                }
+                if (variadic) {
+                    consumer.accept(X86Register.RAX.number());
+                }
+            }
+            case RET -> {
+                if (size != 0) {
+                    consumer.accept(X86Register.RAX.number());
+                }
+            }
+            case JMP, JCC, POP -> {}
+            default -> {
+                if (operands[0] instanceof X86Operand.Register register) {
+                    if (readsDestination()) {
+                        consumer.accept(register.number());
+                    }
+                } else {
+                    used(operands[0], consumer);
+                }
+                for (int i = 1; i < operands.length; ++i) {
+                    used(operands[i], consumer);
+                }
+            }
+        }
+    }
+
+    //every register the instruction writes
+    public void forEachDef(IntConsumer consumer) {
+        switch (op) {
+            case CMP, TEST, PUSH, JMP, JCC, RET -> {}
+            case SIGN_EXTEND_RAX -> consumer.accept(X86Register.RDX.number());
+            case IDIV, DIV -> {
+                consumer.accept(X86Register.RAX.number());
+                consumer.accept(X86Register.RDX.number());
+            }
+            case CALL -> {
+                for (X86Register register : X86Register.CALLER_SAVED) {
+                    consumer.accept(register.number());
+                }
+            }
+            default -> {
+                for (int i = 0; i < operands.length; ++i) {
+                    if (writesOperand(i)) {
+                        consumer.accept(((X86Operand.Register) operands[i]).number());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void used(X86Operand operand, IntConsumer consumer) {
+        if (operand instanceof X86Operand.Register register) {
+            consumer.accept(register.number());
+        } else if (operand instanceof X86Operand.Memory memory) {
+            if (memory.base() >= 0) {
+                consumer.accept(memory.base());
+            }
+            if (memory.index() >= 0) {
+                consumer.accept(memory.index());
+            }
+        }
+    }
+}
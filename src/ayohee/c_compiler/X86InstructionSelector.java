@@ -0,0 +1,476 @@
+package ayohee.c_compiler;
+
+import ayohee.c_compiler.IrInstruction.Op;
+import ayohee.c_compiler.X86Instruction.Condition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//turns a function's IR into x86-64 machine code over virtual registers, one IR instruction at a time. constant operands
+//become immediates where they fit, address arithmetic is folded into the memory operands of loads and stores, and a
+//branch on a comparison in the same block becomes a compare and conditional jump. phis become copies at the ends of
+//their predecessors, with edges from a block that branches two ways to a block with several predecessors given a block
+//of their own, so that the allocator always has somewhere to put moves for an edge
+public final class X86InstructionSelector {
+    private final IrFunction source;
+    private final X86Function function;
+    private final Set<String> definedSymbols;
+    private final Map<IrValue, X86Operand.Register> registers = new HashMap<>();
+    private final Map<IrValue.StackSlot, X86Function.FrameSlot> slots = new HashMap<>();
+    private final Map<IrBlock, X86Block> blocks = new HashMap<>();
+    private final Map<IrInstruction, Integer> registerUses = new HashMap<>();
+    private X86Block current;
+
+    //how an address is made up, worked out the same way when counting uses and when emitting the load or store
+    private record AddressShape(IrValue base, IrValue index, int scale, long displacement) {}
+
+    private X86InstructionSelector(IrFunction source, Set<String> definedSymbols) {
+        this.source = source;
+        this.function = new X86Function(source.getName(), source.isStatic());
+        this.definedSymbols = definedSymbols;
+    }
+
+    public static X86Function select(IrFunction source, Set<String> definedSymbols) {
+        X86InstructionSelector selector = new X86InstructionSelector(source, definedSymbols);
+        selector.run();
+        return selector.function;
+    }
+
+    private void run() {
+        for (IrBlock block : source.getBlocks()) {
+            blocks.put(block, function.newDetachedBlock());
+        }
+        for (IrValue.StackSlot slot : source.getSlots()) {
+            slots.put(slot, function.newSlot(slot.getSize(), slot.getAlign()));
+        }
+        countRegisterUses();
+
+        List<X86Block> layout = function.getBlocks();
+        for (IrBlock block : source.getBlocks()) {
+            current = blocks.get(block);
+            layout.add(current);
+            if (block == source.getEntry()) {
+                receiveParameters();
+            }
+            for (IrInstruction instruction : block.getInstructions()) {
+                if (instruction.getOp() == Op.PHI || (instruction.getOp().isPure() && registerUses.getOrDefault(instruction, 0) == 0)) {
+                    continue; //phis are copied into by their predecessors, and the rest were folded into where they're used
+                }
+                select(instruction, layout);
+            }
+        }
+    }
+
+    //how many uses of each instruction need its value in a register, leaving out the ones folded into addresses and
+    //branches, so that instructions only used that way aren't emitted at all
+    private void countRegisterUses() {
+        for (IrBlock block : source.getBlocks()) {
+            for (IrInstruction instruction : block.getInstructions()) {
+                IrValue[] operands = instruction.getOperands();
+                switch (instruction.getOp()) {
+                    case LOAD, STORE -> {
+                        AddressShape address = addressShape(operands[0]);
+                        countUse(address.base()); //the additions that make up the rest are folded in
+                        countUse(address.index());
+                        if (instruction.getOp() == Op.STORE) {
+                            countUse(operands[1]);
+                        }
+                    }
+                    case BRANCH -> {
+                        if (!isFusedComparison(instruction)) {
+                            countUse(operands[0]);
+                        }
+                    }
+                    default -> {
+                        for (IrValue operand : operands) {
+                            countUse(operand);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void countUse(IrValue value) {
+        if (value instanceof IrInstruction instruction) {
+            registerUses.merge(instruction, 1, Integer::sum);
+        }
+    }
+
+    private boolean isFusedComparison(IrInstruction branch) {
+        return branch.getOperand(0) instanceof IrInstruction condition && condition.getOp().isComparison() && condition.getBlock() == branch.getBlock();
+    }
+
+    private void receiveParameters() {
+        List<IrValue.Parameter> params = source.getParams();
+        for (int i = 0; i < params.size(); ++i) {
+            X86Operand.Register param = valueRegister(params.get(i));
+            if (i < X86Register.ARGUMENTS.length) {
+                emit(new X86Instruction(X86Instruction.Op.MOV, 8, param, X86Instruction.register(X86Register.ARGUMENTS[i])));
+            } else {
+                //above the return address and the saved frame pointer
+                emit(new X86Instruction(X86Instruction.Op.MOV, 8, param, X86Operand.Memory.of(X86Register.RBP.number(), 16 + 8L * (i - X86Register.ARGUMENTS.length))));
+            }
+        }
+    }
+
+
+    //SELECTION
+    private void select(IrInstruction instruction, List<X86Block> layout) {
+        IrValue[] operands = instruction.getOperands();
+        IrType type = instruction.getType();
+        switch (instruction.getOp()) {
+            case ADD, SUB, AND, OR, XOR -> {
+                X86Operand.Register result = valueRegister(instruction);
+                int size = operationSize(type);
+                emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(operands[0]), result, source(operands[0])));
+                emit(new X86Instruction(arithmetic(instruction.getOp()), size, result, source(operands[1])));
+            }
+            case MUL -> {
+                X86Operand.Register result = valueRegister(instruction);
+                int size = operationSize(type);
+                if (fitsImmediate(operands[1])) {
+                    emit(new X86Instruction(X86Instruction.Op.IMUL, size, result, register(operands[0]), new X86Operand.Immediate(operands[1].constantValue())));
+                } else {
+                    emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(operands[0]), result, source(operands[0])));
+                    emit(new X86Instruction(X86Instruction.Op.IMUL, size, result, register(operands[1])));
+                }
+            }
+            case SHL, SHR, SAR -> shift(instruction);
+            case SDIV, UDIV, SREM, UREM -> divide(instruction);
+            case NEG, NOT -> {
+                X86Operand.Register result = valueRegister(instruction);
+                int size = operationSize(type);
+                emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(operands[0]), result, source(operands[0])));
+                emit(new X86Instruction(instruction.getOp() == Op.NEG ? X86Instruction.Op.NEG : X86Instruction.Op.NOT, size, result));
+            }
+            case EQ, NE, SLT, SLE, SGT, SGE, ULT, ULE, UGT, UGE -> {
+                compare(instruction);
+                X86Operand.Register flag = function.newRegister();
+                emit(X86Instruction.conditional(X86Instruction.Op.SETCC, Condition.of(instruction.getOp()), flag));
+                emit(X86Instruction.extend(X86Instruction.Op.MOVZX, 4, 1, valueRegister(instruction), flag));
+            }
+            case SEXT, ZEXT, TRUNC -> convert(instruction);
+            case LOAD -> {
+                X86Operand.Register result = valueRegister(instruction);
+                X86Operand.Memory address = memory(operands[0]);
+                int size = type.size();
+                if (size < 4) {
+                    emit(X86Instruction.extend(X86Instruction.Op.MOVZX, 4, size, result, address));
+                } else {
+                    emit(new X86Instruction(X86Instruction.Op.MOV, size, result, address));
+                }
+            }
+            case STORE -> {
+                X86Operand value = source(operands[1]);
+                emit(new X86Instruction(X86Instruction.Op.MOV, operands[1].getType().size(), memory(operands[0]), value));
+            }
+            case CALL -> call(instruction);
+            case RETURN -> {
+                if (operands.length == 0) {
+                    emit(new X86Instruction(X86Instruction.Op.RET, 0));
+                } else {
+                    emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(operands[0]), X86Instruction.register(X86Register.RAX), source(operands[0])));
+                    emit(new X86Instruction(X86Instruction.Op.RET, 8));
+                }
+            }
+            case JUMP -> {
+                IrBlock target = instruction.getTargets()[0];
+                copyPhis(instruction.getBlock(), target);
+                jump(blocks.get(target));
+            }
+            case BRANCH -> branch(instruction, layout);
+            default -> throw new IllegalStateException("Can't select " + instruction);
+        }
+    }
+
+    private static X86Instruction.Op arithmetic(Op op) {
+        return switch (op) {
+            case ADD -> X86Instruction.Op.ADD;
+            case SUB -> X86Instruction.Op.SUB;
+            case AND -> X86Instruction.Op.AND;
+            case OR -> X86Instruction.Op.OR;
+            case XOR -> X86Instruction.Op.XOR;
+            case SHL -> X86Instruction.Op.SHL;
+            case SHR -> X86Instruction.Op.SHR;
+            case SAR -> X86Instruction.Op.SAR;
+            default -> throw new IllegalArgumentException(op.name());
+        };
+    }
+
+    //narrow right shifts need the bits above them to be the value's sign or zero first, as they're done at 32 bits
+    private void shift(IrInstruction instruction) {
+        IrValue[] operands = instruction.getOperands();
+        IrType type = instruction.getType();
+        X86Operand.Register result = valueRegister(instruction);
+        int size = operationSize(type);
+        if (type.size() < 4 && instruction.getOp() != Op.SHL) {
+            X86Instruction.Op extension = instruction.getOp() == Op.SAR ? X86Instruction.Op.MOVSX : X86Instruction.Op.MOVZX;
+            emit(X86Instruction.extend(extension, 4, type.size(), result, register(operands[0])));
+        } else {
+            emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(operands[0]), result, source(operands[0])));
+        }
+        if (operands[1].isConstant()) {
+            emit(new X86Instruction(arithmetic(instruction.getOp()), size, result, new X86Operand.Immediate(operands[1].constantValue() & (size * 8 - 1))));
+        } else {
+            emit(new X86Instruction(X86Instruction.Op.MOV, 4, X86Instruction.register(X86Register.RCX), register(operands[1])));
+            emit(new X86Instruction(arithmetic(instruction.getOp()), size, result, X86Instruction.register(X86Register.RCX)));
+        }
+    }
+
+    //the dividend goes in rax, extended into rdx, and the quotient comes back in rax and the remainder in rdx
+    private void divide(IrInstruction instruction) {
+        IrValue[] operands = instruction.getOperands();
+        IrType type = instruction.getType();
+        boolean signed = instruction.getOp() == Op.SDIV || instruction.getOp() == Op.SREM;
+        boolean remainder = instruction.getOp() == Op.SREM || instruction.getOp() == Op.UREM;
+        int size = operationSize(type);
+
+        X86Operand.Register divisor = widened(operands[1], signed);
+        X86Operand.Register rax = X86Instruction.register(X86Register.RAX);
+        X86Operand.Register rdx = X86Instruction.register(X86Register.RDX);
+        if (type.size() < 4) {
+            emit(X86Instruction.extend(signed ? X86Instruction.Op.MOVSX : X86Instruction.Op.MOVZX, 4, type.size(), rax, register(operands[0])));
+        } else {
+            emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(operands[0]), rax, source(operands[0])));
+        }
+        if (signed) {
+            emit(new X86Instruction(X86Instruction.Op.SIGN_EXTEND_RAX, size));
+        } else {
+            emit(new X86Instruction(X86Instruction.Op.MOV, 4, rdx, new X86Operand.Immediate(0)));
+        }
+        emit(new X86Instruction(signed ? X86Instruction.Op.IDIV : X86Instruction.Op.DIV, size, divisor));
+        emit(new X86Instruction(X86Instruction.Op.MOV, 8, valueRegister(instruction), remainder ? rdx : rax));
+    }
+
+    //a narrow value sign or zero extended to 32 bits, for operations that only exist at 32 bits and up
+    private X86Operand.Register widened(IrValue value, boolean signed) {
+        if (value.getType().size() >= 4) {
+            return register(value);
+        }
+        if (value.isConstant()) {
+            X86Operand.Register widened = function.newRegister();
+            long constant = signed ? value.constantValue() : value.getType().unsigned(value.constantValue());
+            emit(new X86Instruction(X86Instruction.Op.MOV, 4, widened, new X86Operand.Immediate(constant)));
+            return widened;
+        }
+        X86Operand.Register widened = function.newRegister();
+        emit(X86Instruction.extend(signed ? X86Instruction.Op.MOVSX : X86Instruction.Op.MOVZX, 4, value.getType().size(), widened, register(value)));
+        return widened;
+    }
+
+    private void compare(IrInstruction comparison) {
+        IrValue left = comparison.getOperand(0);
+        IrValue right = comparison.getOperand(1);
+        int size = left.getType().size();
+        emit(new X86Instruction(X86Instruction.Op.CMP, size, register(left), source(right)));
+    }
+
+    private void convert(IrInstruction instruction) {
+        IrValue operand = instruction.getOperand(0);
+        X86Operand.Register result = valueRegister(instruction);
+        int from = operand.getType().size();
+        int to = instruction.getType().size();
+        switch (instruction.getOp()) {
+            case SEXT -> emit(X86Instruction.extend(X86Instruction.Op.MOVSX, to == 8 ? 8 : 4, from, result, register(operand)));
+            case ZEXT -> {
+                if (from == 4) {
+                    emit(new X86Instruction(X86Instruction.Op.MOV, 4, result, register(operand))); //writing 32 bits clears the rest
+                } else {
+                    emit(X86Instruction.extend(X86Instruction.Op.MOVZX, 4, from, result, register(operand)));
+                }
+            }
+            default -> emit(new X86Instruction(X86Instruction.Op.MOV, 8, result, register(operand)));
+        }
+    }
+
+    //System V: the first six arguments in registers and the rest on the stack, with al holding the number of vector
+    //registers used for variadic calls, which is always none here
+    private void call(IrInstruction instruction) {
+        IrValue[] operands = instruction.getOperands();
+        int arguments = operands.length - 1;
+        int inRegisters = Math.min(arguments, X86Register.ARGUMENTS.length);
+        if (arguments > inRegisters) {
+            long stackBytes = 8L * (arguments - inRegisters);
+            function.reserveOutgoingArguments(stackBytes);
+            for (int i = inRegisters; i < arguments; ++i) {
+                X86Operand.Memory slot = X86Operand.Memory.of(X86Register.RSP.number(), 8L * (i - inRegisters));
+                emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(operands[i + 1]), slot, source(operands[i + 1])));
+            }
+        }
+
+        //into fresh registers first, so that whatever works out one argument can't overwrite another
+        X86Operand[] values = new X86Operand[inRegisters];
+        for (int i = 0; i < inRegisters; ++i) {
+            values[i] = source(operands[i + 1]);
+        }
+        X86Operand target = operands[0] instanceof IrValue.Symbol symbol ? new X86Operand.Symbol(symbol.getName()) : register(operands[0]);
+        for (int i = 0; i < inRegisters; ++i) {
+            emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(operands[i + 1]), X86Instruction.register(X86Register.ARGUMENTS[i]), values[i]));
+        }
+        if (instruction.isVariadicCall()) {
+            emit(new X86Instruction(X86Instruction.Op.MOV, 4, X86Instruction.register(X86Register.RAX), new X86Operand.Immediate(0)));
+        }
+        emit(X86Instruction.call(target, inRegisters, instruction.isVariadicCall()));
+        if (instruction.getType() != IrType.VOID && registerUses.getOrDefault(instruction, 0) > 0) {
+            emit(new X86Instruction(X86Instruction.Op.MOV, 8, valueRegister(instruction), X86Instruction.register(X86Register.RAX)));
+        }
+    }
+
+    private void branch(IrInstruction branch, List<X86Block> layout) {
+        IrBlock from = branch.getBlock();
+        IrBlock[] targets = branch.getTargets();
+        Condition condition;
+        if (isFusedComparison(branch)) {
+            IrInstruction comparison = (IrInstruction) branch.getOperand(0);
+            compare(comparison);
+            condition = Condition.of(comparison.getOp());
+        } else {
+            IrValue value = branch.getOperand(0);
+            X86Operand.Register tested = register(value);
+            emit(new X86Instruction(X86Instruction.Op.TEST, value.getType().size(), tested, tested));
+            condition = Condition.NE;
+        }
+
+        X86Block ifTrue = edgeTo(from, targets[0], layout);
+        X86Block ifFalse = edgeTo(from, targets[1], layout);
+        emit(X86Instruction.conditional(X86Instruction.Op.JCC, condition, new X86Operand.Label(ifTrue)));
+        current.addSuccessor(ifTrue);
+        jump(ifFalse);
+    }
+
+    //where a branch from a block with two ways out has to go to reach target. an edge to a block that can be reached
+    //from elsewhere too gets a block of its own, after the others
+    private X86Block edgeTo(IrBlock from, IrBlock target, List<X86Block> layout) {
+        if (target.getPredecessors().size() == 1) {
+            return blocks.get(target);
+        }
+        X86Block branchingBlock = current;
+        X86Block edge = function.newDetachedBlock();
+        layout.add(edge); //after the branching block, which is the last one laid out so far
+        current = edge;
+        copyPhis(from, target);
+        jump(blocks.get(target));
+        current = branchingBlock;
+        return edge;
+    }
+
+    private void jump(X86Block target) {
+        emit(new X86Instruction(X86Instruction.Op.JMP, 0, new X86Operand.Label(target)));
+        current.addSuccessor(target);
+    }
+
+    //the phis in target take the operands they have for from, all at once. with more than one phi each value goes into
+    //a temporary first, in case one phi's operand is another phi being written here
+    private void copyPhis(IrBlock from, IrBlock target) {
+        List<IrInstruction> phis = target.getPhis();
+        if (phis.isEmpty()) {
+            return;
+        }
+        int index = target.getPredecessors().indexOf(from);
+        if (phis.size() == 1) {
+            IrInstruction phi = phis.getFirst();
+            emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(phi.getOperand(index)), valueRegister(phi), source(phi.getOperand(index))));
+            return;
+        }
+        List<X86Operand.Register> temporaries = new ArrayList<>();
+        for (IrInstruction phi : phis) {
+            X86Operand.Register temporary = function.newRegister();
+            emit(new X86Instruction(X86Instruction.Op.MOV, moveSize(phi.getOperand(index)), temporary, source(phi.getOperand(index))));
+            temporaries.add(temporary);
+        }
+        for (int i = 0; i < phis.size(); ++i) {
+            emit(new X86Instruction(X86Instruction.Op.MOV, 8, valueRegister(phis.get(i)), temporaries.get(i)));
+        }
+    }
+
+
+    //OPERANDS
+    private X86Operand.Register valueRegister(IrValue value) {
+        return registers.computeIfAbsent(value, v -> function.newRegister());
+    }
+
+    //the value in a register, loading constants and addresses into new ones
+    private X86Operand.Register register(IrValue value) {
+        if (value instanceof IrInstruction || value instanceof IrValue.Parameter) {
+            return valueRegister(value);
+        }
+        X86Operand.Register register = function.newRegister();
+        if (value instanceof IrValue.Constant) {
+            emit(new X86Instruction(X86Instruction.Op.MOV, value.getType() == IrType.I64 ? 8 : 4, register, new X86Operand.Immediate(value.constantValue())));
+        } else if (value instanceof IrValue.Symbol symbol) {
+            if (definedSymbols.contains(symbol.getName())) {
+                emit(new X86Instruction(X86Instruction.Op.LEA, 8, register, X86Operand.Memory.of(symbol.getName(), 0)));
+            } else {
+                emit(new X86Instruction(X86Instruction.Op.MOV, 8, register, X86Operand.Memory.got(symbol.getName())));
+            }
+        } else if (value instanceof IrValue.StackSlot slot) {
+            emit(new X86Instruction(X86Instruction.Op.LEA, 8, register, X86Operand.Memory.of(slots.get(slot), 0)));
+        }
+        return register;
+    }
+
+    //an immediate for a constant that fits in one, otherwise a register
+    private X86Operand source(IrValue value) {
+        return fitsImmediate(value) ? new X86Operand.Immediate(value.constantValue()) : register(value);
+    }
+
+    private static boolean fitsImmediate(IrValue value) {
+        return value.isConstant() && value.constantValue() == (int) value.constantValue();
+    }
+
+    //the whole register when copying a value that's in one, so the copy can be dropped if both end up the same
+    private static int moveSize(IrValue value) {
+        return value.isConstant() ? operationSize(value.getType()) : 8;
+    }
+
+    //narrow arithmetic is done at 32 bits, which gives the same low bits without partial register writes
+    private static int operationSize(IrType type) {
+        return type == IrType.I64 ? 8 : 4;
+    }
+
+    private X86Operand.Memory memory(IrValue address) {
+        AddressShape shape = addressShape(address);
+        int index = shape.index() == null ? -1 : register(shape.index()).number();
+        if (shape.base() instanceof IrValue.StackSlot slot) {
+            return new X86Operand.Memory(-1, index, shape.scale(), shape.displacement(), null, false, slots.get(slot));
+        }
+        if (shape.base() instanceof IrValue.Symbol symbol && definedSymbols.contains(symbol.getName())) {
+            return X86Operand.Memory.of(symbol.getName(), shape.displacement());
+        }
+        return new X86Operand.Memory(register(shape.base()).number(), index, shape.scale(), shape.displacement(), null, false, null);
+    }
+
+    //peels constant offsets, then one register or scaled register index, off an address. symbols only make up an
+    //address themselves when they're defined in this unit, as anything else has to be found through the global offset
+    //table first
+    private AddressShape addressShape(IrValue address) {
+        long displacement = 0;
+        IrValue base = address;
+        while (base instanceof IrInstruction add && add.getOp() == Op.ADD && add.getOperand(1).isConstant()
+                && displacement + add.getOperand(1).constantValue() == (int) (displacement + add.getOperand(1).constantValue())) {
+            displacement += add.getOperand(1).constantValue();
+            base = add.getOperand(0);
+        }
+
+        IrValue index = null;
+        int scale = 1;
+        if (base instanceof IrInstruction add && add.getOp() == Op.ADD && !(add.getOperand(0) instanceof IrValue.Symbol) && !add.getOperand(0).isConstant()) {
+            index = add.getOperand(1);
+            base = add.getOperand(0);
+            if (index instanceof IrInstruction shift && shift.getOp() == Op.SHL && shift.getOperand(1).isConstant()
+                    && shift.getOperand(1).constantValue() >= 1 && shift.getOperand(1).constantValue() <= 3) {
+                scale = 1 << shift.getOperand(1).constantValue();
+                index = shift.getOperand(0);
+            }
+        }
+        return new AddressShape(base, index, scale, displacement);
+    }
+
+    private void emit(X86Instruction instruction) {
+        current.append(instruction);
+    }
+}
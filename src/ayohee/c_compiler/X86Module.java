@@ -0,0 +1,65 @@
+package ayohee.c_compiler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+//a unit's machine code: its functions, allocated and framed, and the variables it defines, which are the same as in
+//its IR
+public final class X86Module {
+    private final List<X86Function> functions = new ArrayList<>();
+    private final List<IrModule.Global> globals;
+    private final Set<String> definedSymbols = new HashSet<>();
+
+    private int virtualRegisters = 0;
+    private int splits = 0;
+    private int spilled = 0;
+
+    public X86Module(IrModule module) {
+        this(module, Set.of());
+    }
+
+    //elsewhere is what other modules linked into the same program define, which can be addressed directly just like
+    //this module's own definitions. with link time optimisation, that's everything the program defines
+    public X86Module(IrModule module, Set<String> elsewhere) {
+        this.globals = module.getGlobals();
+        definedSymbols.addAll(elsewhere);
+        for (IrFunction function : module.getFunctions()) {
+            definedSymbols.add(function.getName());
+        }
+        for (IrModule.Global global : globals) {
+            definedSymbols.add(global.getName());
+        }
+    }
+
+    public List<X86Function> getFunctions() {
+        return functions;
+    }
+    public List<IrModule.Global> getGlobals() {
+        return globals;
+    }
+
+    //anything else is in another unit or a library, so is reached through the procedure linkage and global offset tables
+    public boolean isDefined(String symbol) {
+        return definedSymbols.contains(symbol);
+    }
+    public Set<String> getDefinedSymbols() {
+        return definedSymbols;
+    }
+
+    public void addAllocationStatistics(LinearScanAllocator.Statistics statistics) {
+        virtualRegisters += statistics.virtualRegisters();
+        splits += statistics.splits();
+        spilled += statistics.spilled();
+    }
+    public int getVirtualRegisters() {
+        return virtualRegisters;
+    }
+    public int getSplits() {
+        return splits;
+    }
+    public int getSpilled() {
+        return spilled;
+    }
+}
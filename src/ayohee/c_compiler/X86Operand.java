@@ -0,0 +1,47 @@
+package ayohee.c_compiler;
+
+//an operand of a machine instruction
+public sealed interface X86Operand {
+    //a physical register, or a virtual one numbered from X86Register.FIRST_VIRTUAL
+    record Register(int number) implements X86Operand {
+        public boolean isVirtual() {
+            return number >= X86Register.FIRST_VIRTUAL;
+        }
+    }
+
+    record Immediate(long value) implements X86Operand {
+        public boolean fitsInt() {
+            return value == (int) value;
+        }
+    }
+
+    //[base + index * scale + displacement], with -1 for a register that isn't there. relative to the instruction
+    //pointer if there's a symbol, and to the frame pointer if it's in a slot of the frame. throughGot addresses the
+    //global offset table entry holding the symbol's address rather than the symbol itself
+    record Memory(int base, int index, int scale, long displacement, String symbol, boolean throughGot, X86Function.FrameSlot slot) implements X86Operand {
+        public static Memory of(int base, long displacement) {
+            return new Memory(base, -1, 1, displacement, null, false, null);
+        }
+        public static Memory of(String symbol, long displacement) {
+            return new Memory(-1, -1, 1, displacement, symbol, false, null);
+        }
+        public static Memory got(String symbol) {
+            return new Memory(-1, -1, 1, 0, symbol, true, null);
+        }
+        public static Memory of(X86Function.FrameSlot slot, long displacement) {
+            return new Memory(-1, -1, 1, displacement, null, false, slot);
+        }
+
+        public Memory withRegisters(int newBase, int newIndex) {
+            return new Memory(newBase, newIndex, scale, displacement, symbol, throughGot, slot);
+        }
+        public Memory plus(long offset) {
+            return new Memory(base, index, scale, displacement + offset, symbol, throughGot, slot);
+        }
+    }
+
+    record Label(X86Block block) implements X86Operand {}
+
+    //a function called directly
+    record Symbol(String name) implements X86Operand {}
+}
@@ -0,0 +1,62 @@
+package ayohee.c_compiler;
+
+//the sixteen general purpose registers, numbered as the instruction encoding numbers them. machine code refers to
+//registers by number, with numbers from FIRST_VIRTUAL up standing for virtual registers until they've been allocated
+public enum X86Register {
+    RAX("rax", "eax", "ax", "al"),
+    RCX("rcx", "ecx", "cx", "cl"),
+    RDX("rdx", "edx", "dx", "dl"),
+    RBX("rbx", "ebx", "bx", "bl"),
+    RSP("rsp", "esp", "sp", "spl"),
+    RBP("rbp", "ebp", "bp", "bpl"),
+    RSI("rsi", "esi", "si", "sil"),
+    RDI("rdi", "edi", "di", "dil"),
+    R8("r8", "r8d", "r8w", "r8b"),
+    R9("r9", "r9d", "r9w", "r9b"),
+    R10("r10", "r10d", "r10w", "r10b"),
+    R11("r11", "r11d", "r11w", "r11b"),
+    R12("r12", "r12d", "r12w", "r12b"),
+    R13("r13", "r13d", "r13w", "r13b"),
+    R14("r14", "r14d", "r14w", "r14b"),
+    R15("r15", "r15d", "r15w", "r15b");
+
+    public static final int FIRST_VIRTUAL = 16;
+
+    //integer arguments and results in the System V calling convention
+    public static final X86Register[] ARGUMENTS = {RDI, RSI, RDX, RCX, R8, R9};
+
+    //everything a call may change
+    public static final X86Register[] CALLER_SAVED = {RAX, RCX, RDX, RSI, RDI, R8, R9, R10, R11};
+
+    //the order registers are tried in, so that callee saved ones, which have to be saved and restored, come last.
+    //rsp and rbp hold the frame
+    public static final X86Register[] ALLOCATABLE = {RAX, RCX, RDX, RSI, RDI, R8, R9, R10, R11, RBX, R12, R13, R14, R15};
+
+    private final String[] names;
+
+    X86Register(String... names) {
+        this.names = names;
+    }
+
+    public int number() {
+        return ordinal();
+    }
+
+    public boolean isCalleeSaved() {
+        return this == RBX || ordinal() >= R12.ordinal();
+    }
+
+    public static X86Register of(int number) {
+        return values()[number];
+    }
+
+    //the name of the low size bytes of the register, as AT&T syntax writes it
+    public String name(int size) {
+        return "%" + switch (size) {
+            case 8 -> names[0];
+            case 4 -> names[1];
+            case 2 -> names[2];
+            default -> names[3];
+        };
+    }
+}
@@ -0,0 +1,19 @@
+macro names passed as arguments:
+#define g(a) a+1
+#define f(x) x(2)
+    f(g) == 2 + 1
+
+#define apply(m, v) m(v)
+#define twice(v) v*2
+    apply(twice, 3) == 3 * 2
+    apply(g, apply(g, 0)) == 0 + 1 + 1
+
+x-macros:
+#define COLOURS(X) X(red) X(green) X(blue)
+#define AS_ENUM(name) name,
+#define AS_STRING(name) #name,
+    enum colour { COLOURS(AS_ENUM) };
+    const char *colour_names[] = { COLOURS(AS_STRING) };
+
+a function-like macro name that is not invoked:
+    g and f stay as they are